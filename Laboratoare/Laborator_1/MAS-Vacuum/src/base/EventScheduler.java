@@ -0,0 +1,324 @@
+package base;
+
+import java.util.Arrays;
+
+/**
+ * The kernel of an event-driven simulation: a priority queue of the times at which agents are activated, as an
+ * alternative to activating all agents at each {@link Environment#step()}.
+ * <p>
+ * Agents are identified by non-negative integer ids, and each agent has at most one pending activation. Time is counted
+ * in ticks. {@link #advance()} moves to the earliest pending time and takes all the activations at that time, as a
+ * batch, in increasing order of their ids; ties are always broken the same way, so runs can be reproduced. The
+ * environment then schedules the next activation of each agent, e.g. after the duration of the action the agent
+ * started, or does not schedule it at all, if the agent sleeps until it is woken up.
+ * <p>
+ * The pending activations are kept in a binary heap indexed by agent id, so scheduling, moving and cancelling an
+ * activation take logarithmic time.
+ *
+ * @author agent
+ */
+public class EventScheduler
+{
+	/**
+	 * The time of agents with no pending activation.
+	 */
+	public static final long	NEVER		= Long.MAX_VALUE;
+	
+	/**
+	 * The heap of agent ids, ordered by activation time and then by id.
+	 */
+	protected int[]				heap;
+	/**
+	 * Number of pending activations.
+	 */
+	protected int				size		= 0;
+	/**
+	 * For each agent id, its position in the heap, or <code>-1</code>.
+	 */
+	protected int[]				positions;
+	/**
+	 * For each agent id, the time of its pending activation.
+	 */
+	protected long[]			times;
+	/**
+	 * The current time: the time of the last batch.
+	 */
+	protected long				now			= 0;
+	/**
+	 * The ids of the agents in the last batch.
+	 */
+	protected int[]				batch;
+	/**
+	 * Number of agents in the last batch.
+	 */
+	protected int				batchSize	= 0;
+	/**
+	 * Total number of activations taken from the queue.
+	 */
+	protected long				activations	= 0;
+	
+	/**
+	 * Creates an empty scheduler.
+	 */
+	public EventScheduler()
+	{
+		this(16);
+	}
+	
+	/**
+	 * Creates an empty scheduler, with room for the given number of agent ids.
+	 *
+	 * @param capacity
+	 *            - the expected number of agent ids.
+	 */
+	public EventScheduler(int capacity)
+	{
+		capacity = Math.max(1, capacity);
+		heap = new int[capacity];
+		batch = new int[capacity];
+		positions = new int[capacity];
+		Arrays.fill(positions, -1);
+		times = new long[capacity];
+		Arrays.fill(times, NEVER);
+	}
+	
+	/**
+	 * Schedules the activation of an agent. If the agent already has a pending activation, it is moved to the new
+	 * time.
+	 *
+	 * @param id
+	 *            - the id of the agent.
+	 * @param time
+	 *            - the time of the activation; it must not be before the current time.
+	 */
+	public void schedule(int id, long time)
+	{
+		if(time < now)
+			throw new IllegalArgumentException("Cannot schedule at " + time + ", before the current time " + now);
+		if(id >= positions.length)
+			ensureIds(id + 1);
+		long old = times[id];
+		times[id] = time;
+		if(positions[id] < 0)
+		{
+			if(size == heap.length)
+				heap = Arrays.copyOf(heap, heap.length * 2);
+			heap[size] = id;
+			positions[id] = size;
+			siftUp(size++);
+		}
+		else if(time < old)
+			siftUp(positions[id]);
+		else
+			siftDown(positions[id]);
+	}
+	
+	/**
+	 * Schedules the activation of an agent at the given time, unless it already has an earlier pending activation.
+	 *
+	 * @param id
+	 *            - the id of the agent.
+	 * @param time
+	 *            - the time of the activation.
+	 */
+	public void wake(int id, long time)
+	{
+		if(getTime(id) > time)
+			schedule(id, time);
+	}
+	
+	/**
+	 * Removes the pending activation of an agent, if any.
+	 *
+	 * @param id
+	 *            - the id of the agent.
+	 */
+	public void cancel(int id)
+	{
+		if(!isScheduled(id))
+			return;
+		int i = positions[id];
+		positions[id] = -1;
+		times[id] = NEVER;
+		if(i < --size)
+		{
+			// the last element takes the freed place, and moves up or down from there
+			int moved = heap[size];
+			heap[i] = moved;
+			positions[moved] = i;
+			siftDown(i);
+			siftUp(positions[moved]);
+		}
+	}
+	
+	/**
+	 * @param id
+	 *            - the id of an agent.
+	 * @return <code>true</code> if the agent has a pending activation.
+	 */
+	public boolean isScheduled(int id)
+	{
+		return id < positions.length && positions[id] >= 0;
+	}
+	
+	/**
+	 * @param id
+	 *            - the id of an agent.
+	 * @return the time of the pending activation of the agent, or {@link #NEVER}.
+	 */
+	public long getTime(int id)
+	{
+		return id < times.length ? times[id] : NEVER;
+	}
+	
+	/**
+	 * @return the time of the earliest pending activation, or {@link #NEVER} if there is none.
+	 */
+	public long peekTime()
+	{
+		return size > 0 ? times[heap[0]] : NEVER;
+	}
+	
+	/**
+	 * Moves to the time of the earliest pending activation, and takes all the activations at that time, which form the
+	 * new batch.
+	 *
+	 * @return the number of activations in the batch; <code>0</code> if there were no pending activations, in which
+	 *         case the time does not change.
+	 */
+	public int advance()
+	{
+		batchSize = 0;
+		if(size == 0)
+			return 0;
+		now = times[heap[0]];
+		while(size > 0 && times[heap[0]] == now)
+		{
+			int id = heap[0];
+			cancel(id);
+			if(batchSize == batch.length)
+				batch = Arrays.copyOf(batch, batch.length * 2);
+			batch[batchSize++] = id;
+		}
+		activations += batchSize;
+		return batchSize;
+	}
+	
+	/**
+	 * @param k
+	 *            - the index in the last batch.
+	 * @return the id of the agent.
+	 */
+	public int getBatchId(int k)
+	{
+		return batch[k];
+	}
+	
+	/**
+	 * @return the number of activations in the last batch.
+	 */
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+	
+	/**
+	 * @return the current time.
+	 */
+	public long getNow()
+	{
+		return now;
+	}
+	
+	/**
+	 * @return the number of pending activations.
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * @return the total number of activations taken from the queue.
+	 */
+	public long getActivationCount()
+	{
+		return activations;
+	}
+	
+	/**
+	 * @param a
+	 *            - an agent id.
+	 * @param b
+	 *            - another agent id.
+	 * @return <code>true</code> if the activation of the first agent comes before that of the second.
+	 */
+	protected boolean before(int a, int b)
+	{
+		return times[a] < times[b] || (times[a] == times[b] && a < b);
+	}
+	
+	/**
+	 * Moves the element at the given position of the heap towards the root, until the heap is ordered.
+	 *
+	 * @param i
+	 *            - the position.
+	 */
+	protected void siftUp(int i)
+	{
+		int id = heap[i];
+		while(i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if(!before(id, heap[parent]))
+				break;
+			heap[i] = heap[parent];
+			positions[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = id;
+		positions[id] = i;
+	}
+	
+	/**
+	 * Moves the element at the given position of the heap towards the leaves, until the heap is ordered.
+	 *
+	 * @param i
+	 *            - the position.
+	 */
+	protected void siftDown(int i)
+	{
+		int id = heap[i];
+		while(true)
+		{
+			int child = 2 * i + 1;
+			if(child >= size)
+				break;
+			if(child + 1 < size && before(heap[child + 1], heap[child]))
+				child++;
+			if(!before(heap[child], id))
+				break;
+			heap[i] = heap[child];
+			positions[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = id;
+		positions[id] = i;
+	}
+	
+	/**
+	 * Makes room for the given number of agent ids.
+	 *
+	 * @param count
+	 *            - the number of ids.
+	 */
+	protected void ensureIds(int count)
+	{
+		int capacity = Math.max(count, positions.length * 2);
+		int old = positions.length;
+		positions = Arrays.copyOf(positions, capacity);
+		Arrays.fill(positions, old, capacity, -1);
+		times = Arrays.copyOf(times, capacity);
+		Arrays.fill(times, old, capacity, NEVER);
+	}
+}
@@ -0,0 +1,257 @@
+package base;
+
+import java.util.Random;
+
+/**
+ * A stream of pseudo-random numbers that can be split into independent streams, using the SplitMix64 algorithm (the
+ * same as {@link java.util.SplittableRandom}). For the same seed, {@link #nextInt()}, {@link #nextInt(int)},
+ * {@link #nextInt(int, int)}, {@link #nextLong()}, {@link #nextDouble()}, {@link #nextFloat()}, {@link #nextBoolean()}
+ * and {@link #split()} return the same values as the same methods of a {@link java.util.SplittableRandom}; the other
+ * methods are those of {@link Random}, based on these.
+ * <p>
+ * A simulation creates one root stream from its seed, and each environment and agent receives its own stream, split
+ * from its parent in a fixed order. Runs with the same seed therefore produce the same numbers, regardless of how many
+ * threads run them. Unlike {@link java.util.SplittableRandom}, the stream is a {@link Random}, so it can be used with
+ * code that expects one, and its state can be saved and restored.
+ * <p>
+ * Instances are not thread-safe; each thread should use its own stream.
+ *
+ * @author agent
+ */
+public class RandomStream extends Random
+{
+	/**
+	 * The serial UID.
+	 */
+	private static final long	serialVersionUID	= 1L;
+	/**
+	 * The default gamma, 2^64 divided by the golden ratio.
+	 */
+	private static final long	GOLDEN_GAMMA		= 0x9e3779b97f4a7c15L;
+	
+	/**
+	 * The current state, advanced by {@link #gamma} for each generated number.
+	 */
+	private long				state;
+	/**
+	 * The increment of the state; always odd.
+	 */
+	private long				gamma;
+	
+	/**
+	 * Creates a stream with a seed that differs from one call to another.
+	 */
+	public RandomStream()
+	{
+		this(mix64(System.nanoTime()) ^ mix64(Thread.currentThread().getId() + System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Creates a stream from a seed. Streams created with the same seed produce the same numbers.
+	 *
+	 * @param seed
+	 *            - the seed.
+	 */
+	public RandomStream(long seed)
+	{
+		this(seed, GOLDEN_GAMMA);
+	}
+	
+	/**
+	 * Creates a stream with the given state, e.g. as returned by {@link #getState()} and {@link #getGamma()}.
+	 *
+	 * @param streamState
+	 *            - the state.
+	 * @param streamGamma
+	 *            - the gamma; it is made odd if it is not.
+	 */
+	public RandomStream(long streamState, long streamGamma)
+	{
+		super(0);
+		state = streamState;
+		gamma = streamGamma | 1L;
+	}
+	
+	/**
+	 * Creates a new stream, independent of this one. The state of this stream advances, so successive calls return
+	 * different streams.
+	 *
+	 * @return the new stream.
+	 */
+	public RandomStream split()
+	{
+		long newState = nextLong();
+		return new RandomStream(newState, mixGamma(nextSeed()));
+	}
+	
+	/**
+	 * @return the current state of the stream.
+	 */
+	public long getState()
+	{
+		return state;
+	}
+	
+	/**
+	 * @return the gamma of the stream.
+	 */
+	public long getGamma()
+	{
+		return gamma;
+	}
+	
+	/**
+	 * Restores a state previously returned by {@link #getState()} and {@link #getGamma()}.
+	 *
+	 * @param streamState
+	 *            - the state.
+	 * @param streamGamma
+	 *            - the gamma; it is made odd if it is not.
+	 */
+	public void setState(long streamState, long streamGamma)
+	{
+		state = streamState;
+		gamma = streamGamma | 1L;
+	}
+	
+	/**
+	 * Restarts the stream from the given seed, as if it were created with {@link #RandomStream(long)}.
+	 */
+	@Override
+	public synchronized void setSeed(long seed)
+	{
+		super.setSeed(seed);
+		state = seed;
+		gamma = GOLDEN_GAMMA;
+	}
+	
+	/**
+	 * @return the next state.
+	 */
+	private long nextSeed()
+	{
+		return state += gamma;
+	}
+	
+	@Override
+	protected int next(int bits)
+	{
+		return (int) (mix64(nextSeed()) >>> (64 - bits));
+	}
+	
+	@Override
+	public int nextInt()
+	{
+		return mix32(nextSeed());
+	}
+	
+	/**
+	 * Returns a number between 0 (inclusive) and <code>bound</code> (exclusive), rejecting the values that would make
+	 * some numbers more likely, as {@link java.util.SplittableRandom#nextInt(int)}.
+	 */
+	@Override
+	public int nextInt(int bound)
+	{
+		if(bound <= 0)
+			throw new IllegalArgumentException("bound must be positive");
+		int r = nextInt();
+		int m = bound - 1;
+		if((bound & m) == 0)
+			return r & m;
+		for(int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1)
+			;
+		return r;
+	}
+	
+	/**
+	 * Returns a number between <code>origin</code> (inclusive) and <code>bound</code> (exclusive), as
+	 * {@link java.util.SplittableRandom#nextInt(int, int)}.
+	 */
+	@Override
+	public int nextInt(int origin, int bound)
+	{
+		if(origin >= bound)
+			throw new IllegalArgumentException("bound must be greater than origin");
+		int r = nextInt();
+		int n = bound - origin, m = n - 1;
+		if((n & m) == 0)
+			return (r & m) + origin;
+		if(n > 0)
+		{
+			for(int u = r >>> 1; u + m - (r = u % n) < 0; u = nextInt() >>> 1)
+				;
+			return r + origin;
+		}
+		// the range does not fit in an int
+		while(r < origin || r >= bound)
+			r = nextInt();
+		return r;
+	}
+	
+	@Override
+	public long nextLong()
+	{
+		return mix64(nextSeed());
+	}
+	
+	@Override
+	public double nextDouble()
+	{
+		return (mix64(nextSeed()) >>> 11) * 0x1.0p-53;
+	}
+	
+	@Override
+	public float nextFloat()
+	{
+		return (nextInt() >>> 8) * 0x1.0p-24f;
+	}
+	
+	@Override
+	public boolean nextBoolean()
+	{
+		return mix32(nextSeed()) < 0;
+	}
+	
+	/**
+	 * The SplitMix64 finalizer.
+	 *
+	 * @param z
+	 *            - the value to mix.
+	 * @return the mixed value.
+	 */
+	private static long mix64(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * The finalizer used for 32-bit numbers by {@link java.util.SplittableRandom}.
+	 *
+	 * @param z
+	 *            - the value to mix.
+	 * @return the mixed value.
+	 */
+	private static int mix32(long z)
+	{
+		z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+		return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+	}
+	
+	/**
+	 * Computes the gamma of a new stream, as in {@link java.util.SplittableRandom}.
+	 *
+	 * @param z
+	 *            - the value to mix.
+	 * @return an odd value, with enough bit transitions.
+	 */
+	private static long mixGamma(long z)
+	{
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+}
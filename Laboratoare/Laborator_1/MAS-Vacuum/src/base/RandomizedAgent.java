@@ -0,0 +1,18 @@
+package base;
+
+/**
+ * Interface to be implemented by agents that make random choices. The environment gives each such agent its own
+ * {@link RandomStream} when the agent is added, so that the choices of the agent can be reproduced.
+ *
+ * @author agent
+ */
+public interface RandomizedAgent extends Agent
+{
+	/**
+	 * Called by the environment when the agent is added, before the first call to {@link #response}.
+	 *
+	 * @param random
+	 *            - the stream to use for all random choices of the agent.
+	 */
+	void setRandom(RandomStream random);
+}
@@ -0,0 +1,20 @@
+package base;
+
+/**
+ * Interface to be implemented by agents that can stop acting when they have nothing to do. When an environment runs on
+ * an {@link EventScheduler}, an agent that is waiting is not activated again until the environment wakes it up, instead
+ * of receiving perceptions and choosing an action at each tick.
+ *
+ * @author agent
+ */
+public interface ScheduledAgent extends Agent
+{
+	/**
+	 * Called by the environment after each call to {@link #response}, and when it checks whether the agent should be
+	 * woken up.
+	 *
+	 * @return <code>true</code> if, after its last action, the agent has nothing to do until something changes in the
+	 *         environment.
+	 */
+	boolean isWaiting();
+}
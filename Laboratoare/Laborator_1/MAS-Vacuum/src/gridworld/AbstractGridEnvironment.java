@@ -1,40 +1,72 @@
 package gridworld;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 import base.Agent;
 import base.Environment;
+import base.RandomStream;
+import base.RandomizedAgent;
 
 /**
  * Abstract implementation of an environment.
+ * <p>
+ * Environments may obtain the actions of their agents in parallel (stage 1 of a step), and apply them afterwards, on a
+ * single thread (stage 2). During stage 1, agents may call the methods that only read the environment:
+ * {@link #getPositionAt(int, int)}, {@link #getBottomLeft()} and the other corners, {@link #isJtile(int, int)},
+ * {@link #isXtile(int, int)}, {@link #isDirty(int, int)}, the getters of {@link GridAgentData} and the getters of the
+ * {@link GridAgentStore} that take an index (which read arrays filled when agents are added or moved, including
+ * {@link GridAgentStore#getPosition(int)}), and the queries of a {@link DistanceField} that already exists, such as
+ * {@link DistanceField#getNearestSource(int, int)}. The methods that create or update a structure on their first call,
+ * such as {@link #getDirtDistanceField()}, {@link #getDirtStatistics()}, {@link #getPositions()},
+ * {@link #printToString()} and {@link GridAgentStore#asList()}, must not be called during stage 1, nor any method that
+ * changes tiles or agents.
  *
  * @author Andrei Olaru
  */
 public abstract class AbstractGridEnvironment implements Environment
 {
 	/**
+	 * The data of an agent in a grid environment.
+	 * <p>
+	 * Before the agent is added to an environment, the data is kept in this instance. Once the agent is added, the
+	 * instance becomes a view of the agent's entry in the {@link GridAgentStore} of the environment.
 	 *
 	 * @author Andrei Olaru
 	 */
 	public static class GridAgentData extends AgentData
 	{
 		/**
-		 * he agent's position.
+		 * he agent's position, while the agent is not in a store.
 		 */
 		protected GridPosition		position;
 		/**
-		 * The agent's orientation.
+		 * The agent's orientation, while the agent is not in a store.
 		 */
 		protected GridOrientation	orientation;
 		
 		/**
-		 * The number of points held by the agent, according to the point system.
+		 * The number of points held by the agent, according to the point system, while the agent is not in a store.
 		 */
 		private float				points	= 0;
+		/**
+		 * The store holding the data of the agent; <code>null</code> if the agent was not added to an environment.
+		 */
+		GridAgentStore				store	= null;
+		/**
+		 * The handle of the agent in {@link #store}.
+		 */
+		int							handle	= -1;
+		/**
+		 * The random stream given to the agent by the environment, if the agent is a {@link RandomizedAgent}; its state
+		 * is saved in checkpoints.
+		 */
+		RandomStream				random	= null;
 		
 		/**
 		 * Constructor.
@@ -53,6 +85,50 @@ public abstract class AbstractGridEnvironment implements Environment
 			orientation = currentOrientation;
 		}
 		
+		/**
+		 * Makes this instance a view of an entry in a store.
+		 *
+		 * @param agentStore
+		 *            - the store.
+		 * @param agentHandle
+		 *            - the handle of the agent in the store.
+		 */
+		void attach(GridAgentStore agentStore, int agentHandle)
+		{
+			store = agentStore;
+			handle = agentHandle;
+			position = null;
+			orientation = null;
+		}
+		
+		/**
+		 * Stops this instance being a view of a store, keeping the given state.
+		 *
+		 * @param lastPosition
+		 *            - the position.
+		 * @param lastOrientation
+		 *            - the orientation.
+		 * @param lastPoints
+		 *            - the points.
+		 */
+		void detach(GridPosition lastPosition, GridOrientation lastOrientation, float lastPoints)
+		{
+			store = null;
+			handle = -1;
+			position = lastPosition;
+			orientation = lastOrientation;
+			points = lastPoints;
+		}
+		
+		/**
+		 * @return the handle of the agent in the {@link GridAgentStore} of its environment, or <code>-1</code> if the
+		 *         agent was not added to an environment.
+		 */
+		public int getHandle()
+		{
+			return handle;
+		}
+		
 		/**
 		 * @return the agent
 		 */
@@ -66,7 +142,7 @@ public abstract class AbstractGridEnvironment implements Environment
 		 */
 		public GridPosition getPosition()
 		{
-			return position;
+			return store != null ? store.getPosition(store.indexOf(handle)) : position;
 		}
 		
 		/**
@@ -74,7 +150,7 @@ public abstract class AbstractGridEnvironment implements Environment
 		 */
 		public GridOrientation getOrientation()
 		{
-			return orientation;
+			return store != null ? store.getOrientation(store.indexOf(handle)) : orientation;
 		}
 		
 		/**
@@ -83,7 +159,10 @@ public abstract class AbstractGridEnvironment implements Environment
 		 */
 		public void setPosition(GridPosition position)
 		{
-			this.position = position;
+			if(store != null)
+				store.setPosition(store.indexOf(handle), position);
+			else
+				this.position = position;
 		}
 		
 		/**
@@ -92,7 +171,10 @@ public abstract class AbstractGridEnvironment implements Environment
 		 */
 		public void setOrientation(GridOrientation orientation)
 		{
-			this.orientation = orientation;
+			if(store != null)
+				store.setOrientation(store.indexOf(handle), orientation);
+			else
+				this.orientation = orientation;
 		}
 		
 		/**
@@ -100,7 +182,7 @@ public abstract class AbstractGridEnvironment implements Environment
 		 */
 		public float getPoints()
 		{
-			return points;
+			return store != null ? store.getPoints(store.indexOf(handle)) : points;
 		}
 		
 		/**
@@ -109,7 +191,10 @@ public abstract class AbstractGridEnvironment implements Environment
 		 */
 		public void addPoints(float delta)
 		{
-			points += delta;
+			if(store != null)
+				store.addPoints(store.indexOf(handle), delta);
+			else
+				points += delta;
 		}
 	}
 	
@@ -153,7 +238,7 @@ public abstract class AbstractGridEnvironment implements Environment
 	}
 	
 	/**
-	 * List of all the positions in the environment.
+	 * List of all the positions in the environment. It is an unmodifiable view of {@link #positionLayer}.
 	 */
 	protected Set<GridPosition>		positions;
 	/**
@@ -165,9 +250,64 @@ public abstract class AbstractGridEnvironment implements Environment
 	 */
 	protected Set<GridPosition>		Xtiles;
 	/**
-	 * List of all the agents in the environment.
+	 * The state of all the agents in the environment.
+	 */
+	protected GridAgentStore		agentStore		= new GridAgentStore();
+	/**
+	 * List of all the agents in the environment. It is a view of {@link #agentStore}.
+	 */
+	protected List<GridAgentData>	agents			= agentStore.asList();
+	/**
+	 * Layer marking all the positions in the environment. {@link #positions} is a view of this layer.
+	 */
+	protected TileLayer				positionLayer;
+	/**
+	 * Layer marking the J-tiles in the environment. {@link #Jtiles} is a view of this layer.
+	 */
+	protected TileLayer				JtileLayer;
+	/**
+	 * Layer marking the X-tiles in the environment. {@link #Xtiles} is a view of this layer.
 	 */
-	protected List<GridAgentData>	agents	= new ArrayList<>();
+	protected TileLayer				XtileLayer;
+	/**
+	 * Pool of interned positions for this environment.
+	 */
+	protected GridPositionPool		positionPool	= new GridPositionPool();
+	/**
+	 * Renderer for {@link #printToString()}, created at the first rendering.
+	 */
+	protected GridRenderer			renderer		= null;
+	/**
+	 * Distance to the nearest J-tile, created at the first call of {@link #getDirtDistanceField()}.
+	 */
+	protected DistanceField			dirtField		= null;
+	/**
+	 * Statistics about the dirt, created at the first call of {@link #getDirtStatistics()}.
+	 */
+	protected DirtStatistics		dirtStatistics	= null;
+	/**
+	 * Recorder of the trajectory, if the environment is being recorded.
+	 */
+	protected TrajectoryRecorder	recorder		= null;
+	/**
+	 * The listener of the agent store which passes the changes of the agents to {@link #recorder}.
+	 */
+	protected IntConsumer			agentListener		= null;
+	/**
+	 * The current time of the simulation, in steps (or ticks), set by the implementation of the environment.
+	 */
+	protected long					time			= 0;
+	/**
+	 * <code>true</code> if the grid has no fixed boundaries, in which case the boundaries are derived from the tiles
+	 * and agents in the environment, by {@link #updateBounds()}.
+	 */
+	protected boolean				unbounded		= false;
+	/**
+	 * The random stream of the environment. Agents implementing {@link RandomizedAgent} receive streams split from it,
+	 * in the order in which they are added. Subclasses should replace it with a seeded stream, to make runs
+	 * reproducible.
+	 */
+	protected RandomStream			random			= new RandomStream();
 	
 	/**
 	 * @return <code>true</code> if there are no more JTiles.
@@ -175,13 +315,30 @@ public abstract class AbstractGridEnvironment implements Environment
 	@Override
 	public boolean goalsCompleted()
 	{
-		return Jtiles.isEmpty();
+		return getRemainingDirt() == 0;
 	}
 	
 	@Override
 	public void addAgent(AgentData agentData)
 	{
 		agents.add((GridAgentData) agentData);
+		assignRandomStream((GridAgentData) agentData);
+	}
+	
+	/**
+	 * Gives the agent its own random stream, split from the stream of the environment, if the agent implements
+	 * {@link RandomizedAgent}. Must be called once for each agent added to the environment.
+	 *
+	 * @param agentData
+	 *            - the data of the agent.
+	 */
+	protected void assignRandomStream(GridAgentData agentData)
+	{
+		if(agentData.getAgent() instanceof RandomizedAgent)
+		{
+			agentData.random = random.split();
+			((RandomizedAgent) agentData.getAgent()).setRandom(agentData.random);
+		}
 	}
 	
 	/**
@@ -192,6 +349,14 @@ public abstract class AbstractGridEnvironment implements Environment
 		return agents;
 	}
 	
+	/**
+	 * @return the store holding the state of the agents, for loops that read it directly.
+	 */
+	protected GridAgentStore getAgentStore()
+	{
+		return agentStore;
+	}
+	
 	/**
 	 * Minimum x coordinate.
 	 */
@@ -232,10 +397,6 @@ public abstract class AbstractGridEnvironment implements Environment
 	protected void initialize(Set<GridPosition> allPositions, Set<GridPosition> environmentJtiles,
 			Set<GridPosition> environmentXtiles)
 	{
-		positions = allPositions;
-		Jtiles = environmentJtiles;
-		Xtiles = environmentXtiles;
-		
 		GridPosition pos = allPositions.iterator().next();
 		x0 = x1 = pos.positionX;
 		y0 = y1 = pos.positionY;
@@ -251,10 +412,70 @@ public abstract class AbstractGridEnvironment implements Environment
 			if(gp.positionY > y1)
 				y1 = gp.positionY;
 		}
+		
+		BitsetTileLayer all = new BitsetTileLayer(x0, x1, y0, y1);
+		all.setAll(allPositions);
+		initializeLayers(all, environmentJtiles, environmentXtiles);
 	}
 	
 	/**
-	 * Initializes the environment with the provided width, height and number of J- and X-tiles.
+	 * Initializes the environment as a full rectangle of positions, with the specified J-tiles and X-tiles.
+	 * <p>
+	 * Unlike {@link #initialize(Set, Set, Set)}, the positions of the rectangle are not enumerated.
+	 *
+	 * @param minX
+	 *            - minimum x coordinate.
+	 * @param maxX
+	 *            - maximum x coordinate.
+	 * @param minY
+	 *            - minimum y coordinate.
+	 * @param maxY
+	 *            - maximum y coordinate.
+	 * @param environmentJtiles
+	 *            - the set of positions (inside the rectangle) that contain junk.
+	 * @param environmentXtiles
+	 *            - the set of positions (inside the rectangle) that contain objects.
+	 */
+	protected void initialize(int minX, int maxX, int minY, int maxY, Set<GridPosition> environmentJtiles,
+			Set<GridPosition> environmentXtiles)
+	{
+		x0 = minX;
+		x1 = maxX;
+		y0 = minY;
+		y1 = maxY;
+		BitsetTileLayer all = new BitsetTileLayer(x0, x1, y0, y1);
+		all.fill();
+		initializeLayers(all, environmentJtiles, environmentXtiles);
+	}
+	
+	/**
+	 * Initializes the environment as an unbounded grid, which has no fixed boundaries. J-tiles and X-tiles are stored
+	 * in {@link ChunkedTileLayer} instances, so that memory depends on the number of tiles rather than on the area of
+	 * the grid.
+	 * <p>
+	 * The boundaries of the environment are the smallest rectangle containing all tiles and agents; they are updated
+	 * when needed by {@link #updateBounds()}. As for a bounded grid, the corners returned by {@link #getBottomLeft()}
+	 * and the other corner getters are one position inside the boundaries, so a grid surrounded by walls has the same
+	 * positions and corners in both cases.
+	 *
+	 * @param environmentJtiles
+	 *            - the set of positions that contain junk.
+	 * @param environmentXtiles
+	 *            - the set of positions that contain objects.
+	 */
+	protected void initializeUnbounded(Set<GridPosition> environmentJtiles, Set<GridPosition> environmentXtiles)
+	{
+		TileLayer js = new ChunkedTileLayer();
+		js.setAll(environmentJtiles);
+		TileLayer xs = new ChunkedTileLayer();
+		xs.setAll(environmentXtiles);
+		initializeUnbounded(js, xs);
+	}
+	
+	/**
+	 * Initializes the environment as an unbounded grid, as {@link #initializeUnbounded(Set, Set)}, with the map that
+	 * {@link #initialize(int, int, int, int, Random)} generates for the same arguments: the walls, the J-tiles and the
+	 * X-tiles are the same, but they are stored in {@link ChunkedTileLayer} instances.
 	 *
 	 * @param w
 	 *            - width
@@ -267,180 +488,275 @@ public abstract class AbstractGridEnvironment implements Environment
 	 * @param rand
 	 *            - random number generator to use.
 	 */
-	protected void initialize(int w, int h, int nJtiles, int nXtiles, Random rand)
+	protected void initializeUnbounded(int w, int h, int nJtiles, int nXtiles, Random rand)
 	{
-		Set<GridPosition> all = new HashSet<>();
-		for(int i = 0; i <= w + 1; i++)
-			for(int j = 0; j <= h + 1; j++)
-				all.add(new GridPosition(i, j));
-		Set<GridPosition> xs = new HashSet<>();
-		for(int i = 0; i <= w + 1; i++)
-		{
-			xs.add(new GridPosition(i, 0));
-			xs.add(new GridPosition(i, h + 1));
-		}
-		for(int j = 0; j <= h + 1; j++)
+		TileLayer js = new ChunkedTileLayer();
+		TileLayer xs = new ChunkedTileLayer();
+		generateMap(w, h, nJtiles, nXtiles, rand, js, xs);
+		initializeUnbounded(js, xs);
+	}
+	
+	/**
+	 * Sets the layers of an unbounded grid, and computes its boundaries.
+	 *
+	 * @param environmentJtiles
+	 *            - the layer of positions that contain junk.
+	 * @param environmentXtiles
+	 *            - the layer of positions that contain objects.
+	 */
+	private void initializeUnbounded(TileLayer environmentJtiles, TileLayer environmentXtiles)
+	{
+		unbounded = true;
+		initializeLayers(new RectangleTileLayer(0, 0, 0, 0), environmentJtiles, environmentXtiles);
+		updateBounds();
+	}
+	
+	/**
+	 * For an unbounded grid, recomputes the boundaries of the environment from the current tiles and agents. Nothing is
+	 * done for a bounded grid.
+	 */
+	protected void updateBounds()
+	{
+		if(!unbounded)
+			return;
+		int[] bounds = computeBounds();
+		boolean changed = bounds[0] != x0 || bounds[1] != x1 || bounds[2] != y0 || bounds[3] != y1;
+		x0 = bounds[0];
+		x1 = bounds[1];
+		y0 = bounds[2];
+		y1 = bounds[3];
+		((RectangleTileLayer) positionLayer).setBounds(x0, x1, y0, y1);
+		// positions that are no longer in the environment are not kept
+		if(changed)
+			positionPool.retain(x0, x1, y0, y1);
+	}
+	
+	/**
+	 * Computes the boundaries of the environment, without modifying it: for an unbounded grid, from the current tiles
+	 * and agents, as {@link #updateBounds()}; for a bounded grid, the fixed boundaries.
+	 *
+	 * @return the minimum x, maximum x, minimum y and maximum y.
+	 */
+	protected int[] computeBounds()
+	{
+		if(!unbounded)
+			return new int[] { x0, x1, y0, y1 };
+		int[] bounds = { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		includeBounds(bounds, ((ChunkedTileLayer) JtileLayer).getBounds());
+		includeBounds(bounds, ((ChunkedTileLayer) XtileLayer).getBounds());
+		for(int i = 0; i < agentStore.size(); i++)
 		{
-			xs.add(new GridPosition(0, j));
-			xs.add(new GridPosition(w + 1, j));
+			bounds[0] = Math.min(bounds[0], agentStore.getX(i));
+			bounds[1] = Math.max(bounds[1], agentStore.getX(i));
+			bounds[2] = Math.min(bounds[2], agentStore.getY(i));
+			bounds[3] = Math.max(bounds[3], agentStore.getY(i));
 		}
+		if(bounds[0] > bounds[1])
+			bounds = new int[] { 0, 0, 0, 0 };
+		return bounds;
+	}
+	
+	/**
+	 * Extends the given boundaries so that they include other boundaries.
+	 *
+	 * @param bounds
+	 *            - minimum x, maximum x, minimum y and maximum y; modified.
+	 * @param other
+	 *            - the boundaries to include, in the same format; may be <code>null</code>.
+	 */
+	private static void includeBounds(int[] bounds, int[] other)
+	{
+		if(other == null)
+			return;
+		bounds[0] = Math.min(bounds[0], other[0]);
+		bounds[1] = Math.max(bounds[1], other[1]);
+		bounds[2] = Math.min(bounds[2], other[2]);
+		bounds[3] = Math.max(bounds[3], other[3]);
+	}
+	
+	/**
+	 * Creates the J-tile and X-tile layers from the given sets, and the {@link Set} views of all layers. Boundaries
+	 * must already be computed.
+	 *
+	 * @param allPositions
+	 *            - the layer of all existing positions.
+	 * @param environmentJtiles
+	 *            - the set of positions that contain junk.
+	 * @param environmentXtiles
+	 *            - the set of positions that contain objects.
+	 */
+	private void initializeLayers(TileLayer allPositions, Set<GridPosition> environmentJtiles,
+			Set<GridPosition> environmentXtiles)
+	{
+		TileLayer js = new BitsetTileLayer(x0, x1, y0, y1);
+		js.setAll(environmentJtiles);
+		TileLayer xs = new BitsetTileLayer(x0, x1, y0, y1);
+		xs.setAll(environmentXtiles);
+		initializeLayers(allPositions, js, xs);
+	}
+	
+	/**
+	 * Sets the layers of the environment, and creates the {@link Set} views of all layers. Boundaries must already be
+	 * computed.
+	 *
+	 * @param allPositions
+	 *            - the layer of all existing positions.
+	 * @param environmentJtiles
+	 *            - the layer of positions that contain junk.
+	 * @param environmentXtiles
+	 *            - the layer of positions that contain objects.
+	 */
+	private void initializeLayers(TileLayer allPositions, TileLayer environmentJtiles, TileLayer environmentXtiles)
+	{
+		positionLayer = allPositions;
+		JtileLayer = environmentJtiles;
+		XtileLayer = environmentXtiles;
 		
-		int attempts = nXtiles * nXtiles;
-		int generated = 0;
-		while(attempts > 0 && generated < nXtiles)
-		{
-			int x = rand.nextInt(w) + 1;
-			int y = rand.nextInt(h) + 1;
-			GridPosition pos = new GridPosition(x, y);
-			
-			boolean ok = true;
-			for(GridPosition xtile : xs)
-				if(pos.getDistanceTo(xtile) <= 2)
-					ok = false;
-			if(ok)
-			{
-				generated++;
-				xs.add(pos);
-			}
-			
-			attempts--;
-		}
-		if(generated < nXtiles)
-			System.out.println("Failed to generate all required X-tiles");
+		JtileLayer.setChangeListener(this::tileChanged);
+		XtileLayer.setChangeListener(this::tileChanged);
+		if(renderer != null)
+			renderer.invalidateAll();
 		
-		Set<GridPosition> js = new HashSet<>();
-		attempts = nJtiles * nJtiles;
-		generated = 0;
-		while((attempts > 0) && (generated < nJtiles))
-		{
-			int x = rand.nextInt(w) + 1;
-			int y = rand.nextInt(h) + 1;
-			GridPosition pos = new GridPosition(x, y);
-			
-			if(!js.contains(pos) && !xs.contains(pos))
-			{
-				js.add(pos);
-				generated++;
-			}
-			
-			attempts--;
-		}
-		if(generated < nJtiles)
-			System.out.println("Failed to generate all required J-tiles");
+		positionPool.retain(x0, x1, y0, y1);
+		agentStore.setPositionPool(positionPool);
+		positionLayer.setPositionPool(positionPool);
+		JtileLayer.setPositionPool(positionPool);
+		XtileLayer.setPositionPool(positionPool);
 		
-		initialize(all, js, xs);
+		positions = positionLayer.view();
+		Jtiles = JtileLayer.asSet();
+		Xtiles = XtileLayer.asSet();
+	}
+	
+	/**
+	 * Initializes the environment with the provided width, height and number of J- and X-tiles.
+	 *
+	 * @param w
+	 *            - width
+	 * @param h
+	 *            - height
+	 * @param nJtiles
+	 *            - number of generated J-tiles.
+	 * @param nXtiles
+	 *            - number of generated X-tiles.
+	 * @param rand
+	 *            - random number generator to use.
+	 */
+	protected void initialize(int w, int h, int nJtiles, int nXtiles, Random rand)
+	{
+		x0 = 0;
+		x1 = w + 1;
+		y0 = 0;
+		y1 = h + 1;
+		BitsetTileLayer all = new BitsetTileLayer(x0, x1, y0, y1);
+		all.fill();
+		BitsetTileLayer js = new BitsetTileLayer(x0, x1, y0, y1);
+		BitsetTileLayer xs = new BitsetTileLayer(x0, x1, y0, y1);
+		generateMap(w, h, nJtiles, nXtiles, rand, js, xs);
+		initializeLayers(all, js, xs);
+	}
+	
+	/**
+	 * Generates the walls, X-tiles and J-tiles of a map, with a {@link GridMapGenerator}.
+	 *
+	 * @param w
+	 *            - width
+	 * @param h
+	 *            - height
+	 * @param nJtiles
+	 *            - number of generated J-tiles.
+	 * @param nXtiles
+	 *            - number of generated X-tiles.
+	 * @param rand
+	 *            - random number generator to use.
+	 * @param js
+	 *            - the layer in which to mark the J-tiles.
+	 * @param xs
+	 *            - the layer in which to mark the walls and the X-tiles.
+	 */
+	private static void generateMap(int w, int h, int nJtiles, int nXtiles, Random rand, TileLayer js, TileLayer xs)
+	{
+		GridMapGenerator generator = new GridMapGenerator(w, h, rand);
+		generator.generateWalls(xs);
+		if(generator.generateXtiles(xs, nXtiles) < nXtiles)
+			System.out.println("Failed to generate all required X-tiles");
+		if(generator.generateJtiles(js, xs, nJtiles) < nJtiles)
+			System.out.println("Failed to generate all required J-tiles");
 	}
 	
 	@Override
 	public String printToString()
 	{
-		// border top
-		String res = "";
-		res += "  |";
-		for(int i = x0; i <= x1; i++)
-		{
-			for(int k = 0; k < cellW - (i >= 10 ? 2 : 1); k++)
-				res += " ";
-			res += i + "|";
-		}
-		res += "\n";
-		res += "--+";
-		for(int i = x0; i <= x1; i++)
-		{
-			for(int k = 0; k < cellW; k++)
-				res += "-";
-			res += "+";
-		}
-		res += "\n";
-		// for each line
-		for(int j = y1; j >= y0; j--)
-		{
-			// first cell row
-			res += (j < 10 ? " " : "") + j + "|";
-			for(int i = x0; i <= x1; i++)
-			{
-				GridPosition pos = new GridPosition(i, j);
-				String agentString = "";
-				for(GridAgentData agent : agents)
-					if(agent.getPosition().equals(pos))
-						agentString += agent.getOrientation().toString() + agent.getAgent().toString();
-				int k = 0;
-				if(Xtiles.contains(pos))
-					for(; k < cellW; k++)
-						res += "X";
-				if((cellH < 2) && Jtiles.contains(pos))
-				{
-					res += "~";
-					k++;
-				}
-				if(agentString.length() > 0)
-				{
-					if(cellW == 1)
-					{
-						if(agentString.length() > 1)
-							res += ".";
-						else
-							res += agentString;
-						k++;
-					}
-					else
-					{
-						res += agentString.substring(0, Math.min(agentString.length(), cellW - k));
-						k += Math.min(agentString.length(), cellW - k);
-					}
-				}
-				for(; k < cellW; k++)
-					res += " ";
-				
-				res += "|";
-			}
-			res += "\n";
-			// second cellrow
-			res += "  |";
-			for(int i = x0; i <= x1; i++)
-			{
-				GridPosition pos = new GridPosition(i, j);
-				for(int k = 0; k < cellW; k++)
-					if(Xtiles.contains(pos))
-						res += "X";
-					else if((k == 0) && Jtiles.contains(pos))
-						res += "~";
-					else
-						res += " ";
-				res += "|";
-			}
-			res += "\n";
-			// other cell rows
-			for(int ky = 0; ky < cellH - 2; ky++)
-			{
-				res += "|";
-				for(int i = x0; i <= x1; i++)
-				{
-					for(int k = 0; k < cellW; k++)
-						res += Xtiles.contains(new GridPosition(i, j)) ? "X" : " ";
-					res += "|";
-				}
-				res += "\n";
-			}
-			res += "--+";
-			for(int i = x0; i <= x1; i++)
-			{
-				for(int k = 0; k < cellW; k++)
-					res += "-";
-				res += "+";
-			}
-			res += "\n";
-			
-		}
-		return res;
+		updateBounds();
+		if(renderer == null)
+			renderer = new GridRenderer(this);
+		return renderer.render();
 	}
 	
 	/**
-	 * @return a {@link Set} of {@link GridPosition} instances indicating all positions in the environment.
+	 * Produces the text identifying an agent in the rendering of the environment.
+	 *
+	 * @param agentData
+	 *            - the agent.
+	 * @return the orientation and the representation of the agent.
+	 */
+	protected String getAgentLabel(GridAgentData agentData)
+	{
+		return agentData.getOrientation().toString() + agentData.getAgent().toString();
+	}
+	
+	/**
+	 * Called when a J-tile or an X-tile is added or removed.
+	 *
+	 * @param x
+	 *            - the x coordinate of the tile.
+	 * @param y
+	 *            - the y coordinate of the tile.
+	 */
+	protected void tileChanged(int x, int y)
+	{
+		if(renderer != null)
+			renderer.invalidate(x, y);
+		if(recorder != null)
+			recorder.tileChanged(x, y);
+	}
+	
+	/**
+	 * @return an immutable {@link Set} of {@link GridPosition} instances indicating all positions in the environment.
+	 *         The set is shared between callers and is only copied again after positions change.
 	 */
 	protected Set<GridPosition> getPositions()
 	{
-		return convertPositions(positions);
+		updateBounds();
+		return positionLayer.snapshot();
+	}
+	
+	/**
+	 * @return an unmodifiable live view of all positions in the environment. It is not copied.
+	 */
+	protected Set<GridPosition> getPositionsView()
+	{
+		updateBounds();
+		return positionLayer.view();
+	}
+	
+	/**
+	 * Returns the position at the given coordinates. For the positions of the environment, the same instance is
+	 * returned for the same coordinates, so it must not be modified; positions outside the environment are not interned,
+	 * and a new instance is returned for them. The pool of positions is thread-safe, so this may be called by agents
+	 * deciding in parallel.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return the {@link GridPosition}, interned if it is a position of the environment.
+	 */
+	public GridPosition getPositionAt(int x, int y)
+	{
+		if(!positionLayer.get(x, y))
+			return new GridPosition(x, y);
+		return positionPool.get(x, y);
 	}
 	
 	/**
@@ -448,7 +764,8 @@ public abstract class AbstractGridEnvironment implements Environment
 	 */
 	public GridPosition getBottomLeft()
 	{
-		return new GridPosition(x0 + 1, y0 + 1);
+		int[] bounds = computeBounds();
+		return positionPool.get(bounds[0] + 1, bounds[2] + 1);
 	}
 	
 	/**
@@ -456,7 +773,8 @@ public abstract class AbstractGridEnvironment implements Environment
 	 */
 	public GridPosition getTopLeft()
 	{
-		return new GridPosition(x0 + 1, y1 - 1);
+		int[] bounds = computeBounds();
+		return positionPool.get(bounds[0] + 1, bounds[3] - 1);
 	}
 	
 	/**
@@ -464,7 +782,8 @@ public abstract class AbstractGridEnvironment implements Environment
 	 */
 	public GridPosition getBottomRight()
 	{
-		return new GridPosition(x1 - 1, y0 + 1);
+		int[] bounds = computeBounds();
+		return positionPool.get(bounds[1] - 1, bounds[2] + 1);
 	}
 	
 	/**
@@ -472,23 +791,109 @@ public abstract class AbstractGridEnvironment implements Environment
 	 */
 	public GridPosition getTopRight()
 	{
-		return new GridPosition(x1 - 1, y1 - 1);
+		int[] bounds = computeBounds();
+		return positionPool.get(bounds[1] - 1, bounds[3] - 1);
 	}
 	
 	/**
-	 * @return a {@link Set} of {@link GridPosition} instances indicating all positions of J-tiles in the environment.
+	 * Checks for a J-tile at the given coordinates, without creating a {@link GridPosition}.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if there is a J-tile at the position.
+	 */
+	public boolean isJtile(int x, int y)
+	{
+		return JtileLayer.get(x, y);
+	}
+	
+	/**
+	 * Checks whether the tile at the given coordinates is dirty, in constant time. A tile is dirty if it is a J-tile, so
+	 * this is the same as {@link #isJtile(int, int)}.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the tile at the position is dirty.
+	 */
+	public boolean isDirty(int x, int y)
+	{
+		return isJtile(x, y);
+	}
+	
+	/**
+	 * @return the number of dirty tiles (J-tiles) remaining in the environment. The number is kept by the J-tile layer,
+	 *         so it is not computed again at each call.
+	 */
+	public int getRemainingDirt()
+	{
+		return JtileLayer.cardinality();
+	}
+	
+	/**
+	 * Checks for an X-tile at the given coordinates, without creating a {@link GridPosition}.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if there is an X-tile at the position.
+	 */
+	public boolean isXtile(int x, int y)
+	{
+		return XtileLayer.get(x, y);
+	}
+	
+	/**
+	 * Checks whether an agent can stand at the given coordinates: the position exists and there is no X-tile on it.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position is free.
+	 */
+	public boolean isFree(int x, int y)
+	{
+		return positionLayer.get(x, y) && !XtileLayer.get(x, y);
+	}
+	
+	/**
+	 * @return an immutable {@link Set} of {@link GridPosition} instances indicating all positions of J-tiles in the
+	 *         environment. The set is shared between callers and is only copied again after J-tiles change.
 	 */
 	protected Set<GridPosition> getJtiles()
 	{
-		return convertPositions(Jtiles);
+		return JtileLayer.snapshot();
+	}
+	
+	/**
+	 * @return an unmodifiable live view of the positions of J-tiles in the environment. It is not copied, and it
+	 *         reflects J-tiles being cleaned.
+	 */
+	protected Set<GridPosition> getJtilesView()
+	{
+		return JtileLayer.view();
 	}
 	
 	/**
-	 * @return a {@link Set} of {@link GridPosition} instances indicating all positions of X-tiles in the environment.
+	 * @return an immutable {@link Set} of {@link GridPosition} instances indicating all positions of X-tiles in the
+	 *         environment. The set is shared between callers and is only copied again after X-tiles change.
 	 */
 	protected Set<GridPosition> getXtiles()
 	{
-		return convertPositions(Xtiles);
+		return XtileLayer.snapshot();
+	}
+	
+	/**
+	 * @return an unmodifiable live view of the positions of X-tiles in the environment. It is not copied.
+	 */
+	protected Set<GridPosition> getXtilesView()
+	{
+		return XtileLayer.view();
 	}
 	
 	/**
@@ -514,8 +919,308 @@ public abstract class AbstractGridEnvironment implements Environment
 	 */
 	protected void cleanTile(GridPosition position)
 	{
-		if(!Jtiles.contains(position))
+		cleanTile(position.getX(), position.getY());
+	}
+	
+	/**
+	 * Removes a position from the list of dirty tiles, and updates the number of remaining J-tiles.
+	 * 
+	 * @param x
+	 *            - the x coordinate of the J-tile to remove.
+	 * @param y
+	 *            - the y coordinate of the J-tile to remove.
+	 */
+	protected void cleanTile(int x, int y)
+	{
+		if(!JtileLayer.clear(x, y))
 			throw new IllegalArgumentException("GridPosition was not dirty");
-		Jtiles.remove(position);
+		if(dirtField != null)
+			dirtField.removeSource(x, y);
+		if(dirtStatistics != null)
+			dirtStatistics.cleaned(x, y, time);
+	}
+	
+	/**
+	 * Adds a J-tile, in constant time. The number of remaining J-tiles, the distance field of the dirt and the dirt
+	 * statistics are updated.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the tile was added; <code>false</code> if the position is not free, or if it was
+	 *         already dirty.
+	 */
+	protected boolean addDirt(int x, int y)
+	{
+		if(!isFree(x, y) || !JtileLayer.set(x, y))
+			return false;
+		if(dirtField != null)
+			dirtField.addSource(x, y);
+		if(dirtStatistics != null)
+			dirtStatistics.added(x, y, time);
+		return true;
+	}
+	
+	/**
+	 * Returns the statistics about the dirt in the environment. They are created at the first call, with the J-tiles
+	 * existing at that time considered as added at that time.
+	 *
+	 * @return the statistics.
+	 */
+	public DirtStatistics getDirtStatistics()
+	{
+		if(dirtStatistics == null)
+		{
+			dirtStatistics = new DirtStatistics(this);
+			for(GridPosition jtile : JtileLayer.view())
+				dirtStatistics.added(jtile.getX(), jtile.getY(), time);
+			dirtStatistics.reset();
+		}
+		return dirtStatistics;
+	}
+	
+	/**
+	 * @return the current time of the simulation, in steps (or ticks).
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+	
+	/**
+	 * Creates a new {@link DistanceField} for this environment, with no sources. The field covers the current
+	 * boundaries of the environment, and takes into account the current X-tiles.
+	 *
+	 * @return the field.
+	 */
+	public DistanceField createDistanceField()
+	{
+		return new DistanceField(this);
+	}
+	
+	/**
+	 * Returns the distance from each position to the nearest J-tile. The field is computed at the first call, and is
+	 * then updated each time a tile is cleaned.
+	 *
+	 * @return the field; it must not be modified.
+	 */
+	public DistanceField getDirtDistanceField()
+	{
+		if(dirtField == null)
+		{
+			dirtField = createDistanceField();
+			dirtField.compute(JtileLayer.view());
+		}
+		return dirtField;
+	}
+	
+	/**
+	 * Starts recording the trajectory of the environment in a file, replacing any previous recording. The current state
+	 * is written at once; implementations must call {@link #recordAction(int, int)} for each action they apply and
+	 * {@link #recordStep()} at the end of each step.
+	 *
+	 * @param file
+	 *            - the file; it is replaced if it exists.
+	 * @param keyframeInterval
+	 *            - the minimum number of steps between keyframes, which bounds the number of steps read to go to any
+	 *            step when the trajectory is replayed.
+	 * @return the recorder.
+	 * @throws IOException
+	 *             if the file cannot be created, or the previous recording failed.
+	 */
+	public TrajectoryRecorder startRecording(Path file, int keyframeInterval) throws IOException
+	{
+		stopRecording();
+		recorder = new TrajectoryRecorder(this, file, keyframeInterval);
+		agentListener = recorder::agentChanged;
+		agentStore.addChangeListener(agentListener);
+		return recorder;
+	}
+	
+	/**
+	 * Stops recording the trajectory, and closes the file. Does nothing if the environment is not being recorded.
+	 *
+	 * @throws IOException
+	 *             if an error occurred while writing the file.
+	 */
+	public void stopRecording() throws IOException
+	{
+		if(recorder == null)
+			return;
+		TrajectoryRecorder stopped = recorder;
+		recorder = null;
+		agentStore.removeChangeListener(agentListener);
+		agentListener = null;
+		stopped.close();
+	}
+	
+	/**
+	 * Saves the state of the environment in a checkpoint file, which can be restored by
+	 * {@link #restoreCheckpoint(Path)}: the time, the boundaries, the layers of positions, J-tiles and X-tiles (as their
+	 * words, not position by position), the state of each agent in the store, and the states of the random streams of
+	 * the environment and of the agents. Subclasses add their own state by overriding
+	 * {@link #writeCheckpoint(CheckpointWriter)}.
+	 *
+	 * @param file
+	 *            - the file; it is replaced if it exists.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public void saveCheckpoint(Path file) throws IOException
+	{
+		try (CheckpointWriter out = new CheckpointWriter(file, getClass()))
+		{
+			writeCheckpoint(out);
+		}
+	}
+	
+	/**
+	 * Restores the state saved by {@link #saveCheckpoint(Path)} in an environment of the same class. The layers are
+	 * created from the file, which is mapped in memory, so the map of the environment does not need to be generated
+	 * again: the environment only needs the same agents, added in the same order, as the environment that was saved.
+	 * Their positions, orientations, points and random streams are restored; the internal state of the agents is not.
+	 * <p>
+	 * The distance field and the statistics of the dirt are discarded, and are created again when they are next
+	 * requested. The environment must not be being recorded. If the checkpoint cannot be read, the environment may be
+	 * left partially restored.
+	 *
+	 * @param file
+	 *            - the file written by {@link #saveCheckpoint(Path)}.
+	 * @throws IOException
+	 *             if the file cannot be read, or it is not a checkpoint of an environment of this class with the same
+	 *             agents.
+	 */
+	public void restoreCheckpoint(Path file) throws IOException
+	{
+		if(recorder != null)
+			throw new IllegalStateException("Cannot restore a checkpoint while recording");
+		CheckpointReader in = new CheckpointReader(file, getClass());
+		readCheckpoint(in);
+		in.finish();
+	}
+	
+	/**
+	 * Writes the state of the environment to a checkpoint. Subclasses that override it must call it first, and must
+	 * read what they write in {@link #readCheckpoint(CheckpointReader)}.
+	 *
+	 * @param out
+	 *            - the checkpoint.
+	 * @throws IOException
+	 *             if the checkpoint cannot be written.
+	 */
+	protected void writeCheckpoint(CheckpointWriter out) throws IOException
+	{
+		out.writeLong(time);
+		out.writeBoolean(unbounded);
+		out.writeInt(x0);
+		out.writeInt(x1);
+		out.writeInt(y0);
+		out.writeInt(y1);
+		out.writeRandom(random);
+		out.writeLayer(positionLayer);
+		out.writeLayer(JtileLayer);
+		out.writeLayer(XtileLayer);
+		out.writeInt(agentStore.size());
+		for(int i = 0; i < agentStore.size(); i++)
+		{
+			out.writeInt(agentStore.x[i]);
+			out.writeInt(agentStore.y[i]);
+			out.writeByte(agentStore.orientation[i]);
+			out.writeFloat(agentStore.points[i]);
+			RandomStream agentRandom = agentStore.get(i).random;
+			out.writeBoolean(agentRandom != null);
+			if(agentRandom != null)
+				out.writeRandom(agentRandom);
+		}
+	}
+	
+	/**
+	 * Reads the state written by {@link #writeCheckpoint(CheckpointWriter)}, and sets it as the state of the
+	 * environment. Subclasses that override it must call it first.
+	 *
+	 * @param in
+	 *            - the checkpoint.
+	 * @throws IOException
+	 *             if the checkpoint cannot be read, or it has different agents.
+	 */
+	protected void readCheckpoint(CheckpointReader in) throws IOException
+	{
+		long savedTime = in.readLong();
+		boolean savedUnbounded = in.readBoolean();
+		int[] bounds = { in.readInt(), in.readInt(), in.readInt(), in.readInt() };
+		RandomStream savedRandom = new RandomStream(0, 1);
+		in.readRandom(savedRandom);
+		TileLayer all = in.readLayer();
+		TileLayer js = in.readLayer();
+		TileLayer xs = in.readLayer();
+		
+		// the agents are checked before anything is changed
+		int count = in.readInt();
+		if(count != agentStore.size())
+			throw new IOException("The checkpoint has " + count + " agents, the environment has " + agentStore.size());
+		int[] agentX = new int[count];
+		int[] agentY = new int[count];
+		byte[] orientations = new byte[count];
+		float[] points = new float[count];
+		long[] randomStates = new long[2 * count];
+		for(int i = 0; i < count; i++)
+		{
+			agentX[i] = in.readInt();
+			agentY[i] = in.readInt();
+			orientations[i] = in.readByte();
+			points[i] = in.readFloat();
+			boolean hasRandom = in.readBoolean();
+			if(hasRandom != (agentStore.get(i).random != null))
+				throw new IOException("The random stream of agent " + i + " in the checkpoint does not match");
+			if(hasRandom)
+			{
+				randomStates[2 * i] = in.readLong();
+				randomStates[2 * i + 1] = in.readLong();
+			}
+		}
+		
+		time = savedTime;
+		unbounded = savedUnbounded;
+		x0 = bounds[0];
+		x1 = bounds[1];
+		y0 = bounds[2];
+		y1 = bounds[3];
+		random.setState(savedRandom.getState(), savedRandom.getGamma());
+		initializeLayers(all, js, xs);
+		for(int i = 0; i < count; i++)
+		{
+			agentStore.setPosition(i, agentX[i], agentY[i]);
+			agentStore.orientation[i] = orientations[i];
+			agentStore.points[i] = points[i];
+			if(agentStore.get(i).random != null)
+				agentStore.get(i).random.setState(randomStates[2 * i], randomStates[2 * i + 1]);
+		}
+		dirtField = null;
+		dirtStatistics = null;
+	}
+	
+	/**
+	 * Records the action applied by an agent in the current step, if the environment is being recorded.
+	 *
+	 * @param handle
+	 *            - the handle of the agent in the agent store.
+	 * @param action
+	 *            - a non-negative number identifying the action, e.g. its ordinal.
+	 */
+	protected void recordAction(int handle, int action)
+	{
+		if(recorder != null)
+			recorder.actionPerformed(handle, action);
+	}
+	
+	/**
+	 * Records the changes of the step that just ended, at the current {@link #time}, if the environment is being
+	 * recorded.
+	 */
+	protected void recordStep()
+	{
+		if(recorder != null)
+			recorder.endStep(time);
 	}
 }
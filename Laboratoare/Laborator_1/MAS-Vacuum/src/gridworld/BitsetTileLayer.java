@@ -0,0 +1,161 @@
+package gridworld;
+
+/**
+ * A {@link TileLayer} for a rectangular area, stored as a packed bitset. The position (x, y) is stored at the bit index
+ * <code>(x - x0) * height + (y - y0)</code>.
+ *
+ * @author agent
+ */
+public class BitsetTileLayer extends TileLayer
+{
+	/**
+	 * Minimum x coordinate.
+	 */
+	protected final int		x0;
+	/**
+	 * Minimum y coordinate.
+	 */
+	protected final int		y0;
+	/**
+	 * Number of columns.
+	 */
+	protected final int		width;
+	/**
+	 * Number of rows.
+	 */
+	protected final int		height;
+	/**
+	 * The bits, 64 positions per word.
+	 */
+	protected final long[]	bits;
+	
+	/**
+	 * Creates an empty layer covering the rectangle between the given coordinates (inclusive).
+	 *
+	 * @param minX
+	 *            - minimum x coordinate.
+	 * @param maxX
+	 *            - maximum x coordinate.
+	 * @param minY
+	 *            - minimum y coordinate.
+	 * @param maxY
+	 *            - maximum y coordinate.
+	 */
+	public BitsetTileLayer(int minX, int maxX, int minY, int maxY)
+	{
+		x0 = minX;
+		y0 = minY;
+		width = maxX - minX + 1;
+		height = maxY - minY + 1;
+		bits = new long[(int) (((long) width * height + 63) >>> 6)];
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position is inside the rectangle covered by this layer.
+	 */
+	public boolean covers(int x, int y)
+	{
+		return (x - x0) >= 0 && (x - x0) < width && (y - y0) >= 0 && (y - y0) < height;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return the index of the bit for the position. The position must be covered by the layer.
+	 */
+	public int index(int x, int y)
+	{
+		return (x - x0) * height + (y - y0);
+	}
+	
+	@Override
+	public boolean get(int x, int y)
+	{
+		if(!covers(x, y))
+			return false;
+		int i = index(x, y);
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+	
+	@Override
+	public boolean set(int x, int y)
+	{
+		if(!covers(x, y))
+			throw new IllegalArgumentException("Position (" + x + ", " + y + ") is outside the layer");
+		int i = index(x, y);
+		long mask = 1L << i;
+		if((bits[i >>> 6] & mask) != 0)
+			return false;
+		bits[i >>> 6] |= mask;
+		count++;
+		changed(x, y);
+		return true;
+	}
+	
+	@Override
+	public boolean clear(int x, int y)
+	{
+		if(!covers(x, y))
+			return false;
+		int i = index(x, y);
+		long mask = 1L << i;
+		if((bits[i >>> 6] & mask) == 0)
+			return false;
+		bits[i >>> 6] &= ~mask;
+		count--;
+		changed(x, y);
+		return true;
+	}
+	
+	/**
+	 * Marks all positions in the rectangle.
+	 */
+	public void fill()
+	{
+		long total = (long) width * height;
+		for(int w = 0; w < bits.length; w++)
+			bits[w] = -1L;
+		int rest = (int) (total & 63);
+		if(rest != 0)
+			bits[bits.length - 1] = (1L << rest) - 1;
+		count = (int) total;
+		version++;
+	}
+	
+	@Override
+	protected long nextMarked(long from)
+	{
+		long i = from + 1;
+		long total = (long) width * height;
+		if(i >= total)
+			return -1;
+		int w = (int) (i >>> 6);
+		long word = bits[w] & (-1L << i);
+		while(true)
+		{
+			if(word != 0)
+				return ((long) w << 6) + Long.numberOfTrailingZeros(word);
+			if(++w >= bits.length)
+				return -1;
+			word = bits[w];
+		}
+	}
+	
+	@Override
+	protected int cursorX(long cursor)
+	{
+		return x0 + (int) (cursor / height);
+	}
+	
+	@Override
+	protected int cursorY(long cursor)
+	{
+		return y0 + (int) (cursor % height);
+	}
+}
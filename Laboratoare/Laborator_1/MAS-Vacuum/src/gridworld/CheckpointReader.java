@@ -0,0 +1,265 @@
+package gridworld;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import base.RandomStream;
+
+/**
+ * Reads a checkpoint written by a {@link CheckpointWriter}.
+ * <p>
+ * The file is mapped in memory, so opening it takes constant time, and the words of the layers are copied in bulk from
+ * the mapping to the arrays of the new layers; large environments are restored without enumerating their positions.
+ * Values must be read in the order in which they were written.
+ * <p>
+ * Instances are used by {@link AbstractGridEnvironment#restoreCheckpoint(Path)}; subclasses of the environment read
+ * their own state by overriding {@link AbstractGridEnvironment#readCheckpoint(CheckpointReader)}.
+ *
+ * @author agent
+ */
+public class CheckpointReader
+{
+	/**
+	 * The file, for error messages.
+	 */
+	protected final Path				file;
+	/**
+	 * The content of the file.
+	 */
+	protected final MappedByteBuffer	data;
+	
+	/**
+	 * Opens a checkpoint and reads its header.
+	 *
+	 * @param checkpointFile
+	 *            - the file written by a {@link CheckpointWriter}.
+	 * @param environmentClass
+	 *            - the class of the environment; it must be the class of the environment that was saved.
+	 * @throws IOException
+	 *             if the file cannot be read, or is not a complete checkpoint of an environment of the given class.
+	 */
+	public CheckpointReader(Path checkpointFile, Class<?> environmentClass) throws IOException
+	{
+		file = checkpointFile;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Checkpoint " + file + " is too large");
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if(data.limit() < 12 || data.getInt(data.limit() - 4) != CheckpointWriter.MAGIC
+				|| readInt() != CheckpointWriter.MAGIC)
+			throw new IOException(file + " is not a complete checkpoint");
+		int version = readInt();
+		if(version != CheckpointWriter.VERSION)
+			throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+		String className = readString();
+		if(!className.equals(environmentClass.getName()))
+			throw new IOException("Checkpoint " + file + " is of a " + className + ", not of a "
+					+ environmentClass.getName());
+	}
+	
+	/**
+	 * Checks that all the content written by the environment was read.
+	 *
+	 * @throws IOException
+	 *             if the content that was read does not end where the checkpoint ends.
+	 */
+	public void finish() throws IOException
+	{
+		if(data.remaining() != 4)
+			throw new IOException("Checkpoint " + file + " was not read to its end");
+	}
+	
+	/**
+	 * @return the value read.
+	 * @throws IOException
+	 *             if the checkpoint ends before the value.
+	 */
+	public byte readByte() throws IOException
+	{
+		try
+		{
+			return data.get();
+		} catch(BufferUnderflowException e)
+		{
+			throw truncated();
+		}
+	}
+	
+	/**
+	 * @return the value read.
+	 * @throws IOException
+	 *             if the checkpoint ends before the value.
+	 */
+	public boolean readBoolean() throws IOException
+	{
+		return readByte() != 0;
+	}
+	
+	/**
+	 * @return the value read.
+	 * @throws IOException
+	 *             if the checkpoint ends before the value.
+	 */
+	public int readInt() throws IOException
+	{
+		try
+		{
+			return data.getInt();
+		} catch(BufferUnderflowException e)
+		{
+			throw truncated();
+		}
+	}
+	
+	/**
+	 * @return the value read.
+	 * @throws IOException
+	 *             if the checkpoint ends before the value.
+	 */
+	public long readLong() throws IOException
+	{
+		try
+		{
+			return data.getLong();
+		} catch(BufferUnderflowException e)
+		{
+			throw truncated();
+		}
+	}
+	
+	/**
+	 * @return the value read.
+	 * @throws IOException
+	 *             if the checkpoint ends before the value.
+	 */
+	public float readFloat() throws IOException
+	{
+		try
+		{
+			return data.getFloat();
+		} catch(BufferUnderflowException e)
+		{
+			throw truncated();
+		}
+	}
+	
+	/**
+	 * @return the value read.
+	 * @throws IOException
+	 *             if the checkpoint ends before the value.
+	 */
+	public double readDouble() throws IOException
+	{
+		try
+		{
+			return data.getDouble();
+		} catch(BufferUnderflowException e)
+		{
+			throw truncated();
+		}
+	}
+	
+	/**
+	 * @return the string read.
+	 * @throws IOException
+	 *             if the checkpoint ends before the string.
+	 */
+	public String readString() throws IOException
+	{
+		int length = readInt();
+		if(length < 0 || length > data.remaining())
+			throw truncated();
+		byte[] bytes = new byte[length];
+		data.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Reads a block of words written by {@link CheckpointWriter#writeLongs(long[])}, in bulk.
+	 *
+	 * @param words
+	 *            - the array to fill; its length must be the length of the block.
+	 * @throws IOException
+	 *             if the checkpoint ends before the block.
+	 */
+	public void readLongs(long[] words) throws IOException
+	{
+		if((long) words.length << 3 > data.remaining())
+			throw truncated();
+		data.asLongBuffer().get(words);
+		data.position(data.position() + (words.length << 3));
+	}
+	
+	/**
+	 * Restores the state of a random stream written by {@link CheckpointWriter#writeRandom(RandomStream)}.
+	 *
+	 * @param random
+	 *            - the stream whose state to set.
+	 * @throws IOException
+	 *             if the checkpoint ends before the state.
+	 */
+	public void readRandom(RandomStream random) throws IOException
+	{
+		long state = readLong();
+		random.setState(state, readLong());
+	}
+	
+	/**
+	 * Creates a layer of tiles written by {@link CheckpointWriter#writeLayer(TileLayer)}.
+	 *
+	 * @return the layer, of the same class and with the same marked positions as the layer that was written.
+	 * @throws IOException
+	 *             if the checkpoint ends before the layer, or the layer is not valid.
+	 */
+	public TileLayer readLayer() throws IOException
+	{
+		byte kind = readByte();
+		switch(kind)
+		{
+		case CheckpointWriter.BITSET:
+		{
+			BitsetTileLayer layer = new BitsetTileLayer(readInt(), readInt(), readInt(), readInt());
+			layer.count = readInt();
+			readLongs(layer.bits);
+			return layer;
+		}
+		case CheckpointWriter.RECTANGLE:
+			return new RectangleTileLayer(readInt(), readInt(), readInt(), readInt());
+		case CheckpointWriter.CHUNKED:
+		{
+			ChunkedTileLayer layer = new ChunkedTileLayer();
+			int chunks = readInt();
+			for(int c = 0; c < chunks; c++)
+			{
+				ChunkedTileLayer.Chunk chunk = new ChunkedTileLayer.Chunk(readInt(), readInt(), layer.nextSequence++);
+				readLongs(chunk.bits);
+				for(long word : chunk.bits)
+					chunk.count += Long.bitCount(word);
+				if(chunk.count == 0)
+					throw new IOException("Empty chunk in checkpoint " + file);
+				layer.count += chunk.count;
+				layer.chunks.put(chunk.cx, chunk.cy, chunk);
+				layer.chunksInOrder.put(Long.valueOf(chunk.sequence), chunk);
+			}
+			return layer;
+		}
+		default:
+			throw new IOException("Unknown layer kind " + kind + " in checkpoint " + file);
+		}
+	}
+	
+	/**
+	 * @return the exception for a checkpoint which ends too early.
+	 */
+	protected IOException truncated()
+	{
+		return new IOException("Checkpoint " + file + " is truncated");
+	}
+}
@@ -0,0 +1,314 @@
+package gridworld;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import base.RandomStream;
+
+/**
+ * Writes a checkpoint of a grid environment: a compact binary file with the full state of the environment, which can be
+ * restored by a {@link CheckpointReader}.
+ * <p>
+ * Numbers are written with a fixed size, big-endian, so that the reader can map the file and read the large arrays
+ * (the words of bitset layers and of chunks) in bulk. Values are encoded in a buffer, which is written to a
+ * {@link FileChannel} each time it is full.
+ * <p>
+ * Instances are used by {@link AbstractGridEnvironment#saveCheckpoint(Path)}; subclasses of the environment add their
+ * own state by overriding {@link AbstractGridEnvironment#writeCheckpoint(CheckpointWriter)}.
+ * <p>
+ * File format: the magic number, the version, the name of the class of the environment, the sections written by the
+ * environment, and the magic number again.
+ *
+ * @author agent
+ */
+public class CheckpointWriter implements Closeable
+{
+	/**
+	 * The first 4 bytes of the file ("GRDC"), also found in the last 4 bytes.
+	 */
+	public static final int		MAGIC		= 0x47524443;
+	/**
+	 * The version of the format.
+	 */
+	public static final int		VERSION		= 1;
+	/**
+	 * Kind of layer: {@link BitsetTileLayer}; followed by the boundaries, the number of marked positions and the words.
+	 */
+	static final byte			BITSET		= 1;
+	/**
+	 * Kind of layer: {@link RectangleTileLayer}; followed by the boundaries.
+	 */
+	static final byte			RECTANGLE	= 2;
+	/**
+	 * Kind of layer: {@link ChunkedTileLayer}; followed by the number of chunks, and by the coordinates and the words of
+	 * each chunk, in iteration order.
+	 */
+	static final byte			CHUNKED		= 3;
+	/**
+	 * Size of the buffer, in bytes.
+	 */
+	static final int			BUFFER_SIZE	= 1 << 16;
+	
+	/**
+	 * The file.
+	 */
+	protected final FileChannel	channel;
+	/**
+	 * The buffer holding the bytes not yet written to the file.
+	 */
+	protected final ByteBuffer	buffer		= ByteBuffer.allocate(BUFFER_SIZE);
+	
+	/**
+	 * Creates the file and writes the header.
+	 *
+	 * @param file
+	 *            - the file; it is replaced if it exists.
+	 * @param environmentClass
+	 *            - the class of the environment, checked when the checkpoint is restored.
+	 * @throws IOException
+	 *             if the file cannot be created.
+	 */
+	public CheckpointWriter(Path file, Class<?> environmentClass) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		writeInt(MAGIC);
+		writeInt(VERSION);
+		writeString(environmentClass.getName());
+	}
+	
+	/**
+	 * Makes room in the buffer for the given number of bytes, writing the buffer to the file if needed.
+	 *
+	 * @param bytes
+	 *            - the number of bytes; at most {@link #BUFFER_SIZE}.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	protected void reserve(int bytes) throws IOException
+	{
+		if(buffer.remaining() < bytes)
+			flush();
+	}
+	
+	/**
+	 * Writes the content of the buffer to the file, and empties the buffer.
+	 *
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	protected void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+	
+	/**
+	 * @param value
+	 *            - the value to write.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeByte(int value) throws IOException
+	{
+		reserve(1);
+		buffer.put((byte) value);
+	}
+	
+	/**
+	 * @param value
+	 *            - the value to write.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeBoolean(boolean value) throws IOException
+	{
+		writeByte(value ? 1 : 0);
+	}
+	
+	/**
+	 * @param value
+	 *            - the value to write.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeInt(int value) throws IOException
+	{
+		reserve(4);
+		buffer.putInt(value);
+	}
+	
+	/**
+	 * @param value
+	 *            - the value to write.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeLong(long value) throws IOException
+	{
+		reserve(8);
+		buffer.putLong(value);
+	}
+	
+	/**
+	 * @param value
+	 *            - the value to write.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeFloat(float value) throws IOException
+	{
+		reserve(4);
+		buffer.putFloat(value);
+	}
+	
+	/**
+	 * @param value
+	 *            - the value to write.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeDouble(double value) throws IOException
+	{
+		reserve(8);
+		buffer.putDouble(value);
+	}
+	
+	/**
+	 * Writes a string, as its length followed by its UTF-8 bytes.
+	 *
+	 * @param value
+	 *            - the string.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeString(String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(bytes.length);
+		for(byte b : bytes)
+			writeByte(b);
+	}
+	
+	/**
+	 * Writes an array of words, without its length, as a block which is read back in bulk by
+	 * {@link CheckpointReader#readLongs(long[])}.
+	 *
+	 * @param words
+	 *            - the words.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeLongs(long[] words) throws IOException
+	{
+		int i = 0;
+		while(i < words.length)
+		{
+			reserve(8);
+			int n = Math.min(words.length - i, buffer.remaining() >>> 3);
+			buffer.asLongBuffer().put(words, i, n);
+			buffer.position(buffer.position() + (n << 3));
+			i += n;
+		}
+	}
+	
+	/**
+	 * Writes the state of a random stream, which is restored by {@link CheckpointReader#readRandom(RandomStream)}.
+	 *
+	 * @param random
+	 *            - the stream.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeRandom(RandomStream random) throws IOException
+	{
+		writeLong(random.getState());
+		writeLong(random.getGamma());
+	}
+	
+	/**
+	 * Writes a layer of tiles, which is created again by {@link CheckpointReader#readLayer()}.
+	 *
+	 * @param layer
+	 *            - the layer; it must be a {@link BitsetTileLayer}, a {@link RectangleTileLayer} or a
+	 *            {@link ChunkedTileLayer}.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	public void writeLayer(TileLayer layer) throws IOException
+	{
+		if(layer instanceof BitsetTileLayer)
+		{
+			BitsetTileLayer bitset = (BitsetTileLayer) layer;
+			writeByte(BITSET);
+			writeBounds(bitset.x0, bitset.y0, bitset.width, bitset.height);
+			writeInt(bitset.count);
+			writeLongs(bitset.bits);
+		}
+		else if(layer instanceof RectangleTileLayer)
+		{
+			RectangleTileLayer rectangle = (RectangleTileLayer) layer;
+			writeByte(RECTANGLE);
+			writeBounds(rectangle.x0, rectangle.y0, rectangle.width, rectangle.height);
+		}
+		else if(layer instanceof ChunkedTileLayer)
+		{
+			ChunkedTileLayer chunked = (ChunkedTileLayer) layer;
+			writeByte(CHUNKED);
+			writeInt(chunked.chunksInOrder.size());
+			for(ChunkedTileLayer.Chunk chunk : chunked.chunksInOrder.values())
+			{
+				writeInt(chunk.cx);
+				writeInt(chunk.cy);
+				writeLongs(chunk.bits);
+			}
+		}
+		else
+			throw new IllegalArgumentException("Unsupported layer " + layer.getClass().getName());
+	}
+	
+	/**
+	 * Writes the boundaries of a rectangle, as minimum x, maximum x, minimum y, maximum y.
+	 *
+	 * @param minX
+	 *            - minimum x coordinate.
+	 * @param minY
+	 *            - minimum y coordinate.
+	 * @param width
+	 *            - number of columns.
+	 * @param height
+	 *            - number of rows.
+	 * @throws IOException
+	 *             if the buffer cannot be written.
+	 */
+	protected void writeBounds(int minX, int minY, int width, int height) throws IOException
+	{
+		writeInt(minX);
+		writeInt(minX + width - 1);
+		writeInt(minY);
+		writeInt(minY + height - 1);
+	}
+	
+	/**
+	 * Writes the final magic number and the rest of the buffer, and closes the file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			writeInt(MAGIC);
+			flush();
+		} finally
+		{
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,580 @@
+package gridworld;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import base.Agent;
+import gridworld.AbstractGridEnvironment.GridAgentData;
+
+/**
+ * Stores the state of the agents in a grid environment as parallel arrays (coordinates, orientation, points), indexed
+ * by the position of the agent in the store. Loops over all agents read the arrays directly, through the accessors
+ * taking an index.
+ * <p>
+ * Each agent also has a handle, which does not change while the agent is in the store, even if agents before it are
+ * removed. {@link GridAgentData} instances added to the store become views of the agent's entry, using the handle.
+ * <p>
+ * The order of the agents is the order in which they were added; removing an agent keeps the order of the others.
+ *
+ * @author agent
+ */
+public class GridAgentStore
+{
+	/**
+	 * The orientations, indexed by their ordinal.
+	 */
+	private static final GridOrientation[]	ORIENTATIONS	= GridOrientation.values();
+	
+	/**
+	 * Number of agents.
+	 */
+	protected int							size			= 0;
+	/**
+	 * The x coordinates of the agents.
+	 */
+	protected int[]							x;
+	/**
+	 * The y coordinates of the agents.
+	 */
+	protected int[]							y;
+	/**
+	 * The ordinals of the orientations of the agents.
+	 */
+	protected byte[]						orientation;
+	/**
+	 * The points of the agents.
+	 */
+	protected float[]						points;
+	/**
+	 * The agent data (views of the entries) of the agents.
+	 */
+	protected GridAgentData[]				data;
+	/**
+	 * The positions of the agents, always matching {@link #x} and {@link #y}; taken from {@link #pool}, if there is
+	 * one.
+	 */
+	protected GridPosition[]				positions;
+	/**
+	 * If not <code>null</code>, the positions of the agents are taken from this pool.
+	 */
+	protected GridPositionPool				pool			= null;
+	/**
+	 * The handle of the agent at each index.
+	 */
+	protected int[]							handles;
+	/**
+	 * The index of the agent with each handle, or <code>-1</code> for unused handles.
+	 */
+	protected int[]							indexes;
+	/**
+	 * Handles released by removed agents, to be reused.
+	 */
+	protected int[]							freeHandles;
+	/**
+	 * Number of handles in {@link #freeHandles}.
+	 */
+	protected int							freeCount		= 0;
+	/**
+	 * Number of handles ever assigned.
+	 */
+	protected int							handleCount		= 0;
+	/**
+	 * {@link List} view of the store.
+	 */
+	protected List<GridAgentData>			list			= null;
+	/**
+	 * Incremented each time an agent is added, removed or moved.
+	 */
+	protected int							version			= 0;
+	/**
+	 * Called with the handle of each agent that is added, moved, turned or given points, and with the complement of the
+	 * handle of each removed agent. Setters that leave the entry of an agent unchanged do not call them.
+	 */
+	protected IntConsumer[]					changeListeners	= new IntConsumer[0];
+	
+	/**
+	 * Creates an empty store.
+	 */
+	public GridAgentStore()
+	{
+		this(16);
+	}
+	
+	/**
+	 * Creates an empty store, with room for the given number of agents.
+	 *
+	 * @param capacity
+	 *            - the expected number of agents.
+	 */
+	public GridAgentStore(int capacity)
+	{
+		capacity = Math.max(1, capacity);
+		x = new int[capacity];
+		y = new int[capacity];
+		orientation = new byte[capacity];
+		points = new float[capacity];
+		data = new GridAgentData[capacity];
+		positions = new GridPosition[capacity];
+		handles = new int[capacity];
+		indexes = new int[capacity];
+		freeHandles = new int[capacity];
+	}
+	
+	/**
+	 * Adds an agent at the end of the store. Its current position, orientation and points are copied into the store,
+	 * and the agent data becomes a view of its entry.
+	 *
+	 * @param agentData
+	 *            - the agent to add; it must not be in a store.
+	 * @return the handle of the agent.
+	 * @throws IllegalStateException
+	 *             if the agent is already in a store.
+	 */
+	public int add(GridAgentData agentData)
+	{
+		if(agentData.store != null)
+			throw new IllegalStateException("Agent " + agentData.getAgent() + " is already in an environment");
+		if(size == x.length)
+			grow();
+		int handle = freeCount > 0 ? freeHandles[--freeCount] : handleCount++;
+		if(handle >= indexes.length)
+			indexes = Arrays.copyOf(indexes, Math.max(handle + 1, indexes.length * 2));
+		int index = size++;
+		GridPosition position = intern(agentData.getPosition());
+		x[index] = position.positionX;
+		y[index] = position.positionY;
+		positions[index] = position;
+		orientation[index] = agentData.getOrientation() != null ? (byte) agentData.getOrientation().ordinal() : -1;
+		points[index] = agentData.getPoints();
+		data[index] = agentData;
+		handles[index] = handle;
+		indexes[handle] = index;
+		agentData.attach(this, handle);
+		version++;
+		changed(handle);
+		return handle;
+	}
+	
+	/**
+	 * Removes an agent. Its agent data keeps its last position, orientation and points, and is no longer a view of the
+	 * store. The order of the remaining agents is unchanged.
+	 *
+	 * @param handle
+	 *            - the handle of the agent.
+	 */
+	public void remove(int handle)
+	{
+		int index = indexOf(handle);
+		data[index].detach(getPosition(index), getOrientation(index), points[index]);
+		int moved = size - index - 1;
+		System.arraycopy(x, index + 1, x, index, moved);
+		System.arraycopy(y, index + 1, y, index, moved);
+		System.arraycopy(orientation, index + 1, orientation, index, moved);
+		System.arraycopy(points, index + 1, points, index, moved);
+		System.arraycopy(data, index + 1, data, index, moved);
+		System.arraycopy(positions, index + 1, positions, index, moved);
+		System.arraycopy(handles, index + 1, handles, index, moved);
+		size--;
+		data[size] = null;
+		positions[size] = null;
+		for(int i = index; i < size; i++)
+			indexes[handles[i]] = i;
+		indexes[handle] = -1;
+		if(freeCount == freeHandles.length)
+			freeHandles = Arrays.copyOf(freeHandles, freeHandles.length * 2);
+		freeHandles[freeCount++] = handle;
+		version++;
+		changed(~handle);
+	}
+	
+	/**
+	 * Removes several agents in one pass over the store, instead of one pass for each agent. The agents are first
+	 * marked as removed, and then the remaining agents are moved over the removed ones, keeping their order. Their agent
+	 * data keep their last position, orientation and points, as for {@link #remove(int)}.
+	 *
+	 * @param removed
+	 *            - the handles of the agents to remove, with no duplicates.
+	 * @param count
+	 *            - the number of handles in <code>removed</code>.
+	 */
+	public void removeAll(int[] removed, int count)
+	{
+		if(count == 0)
+			return;
+		for(int k = 0; k < count; k++)
+		{
+			int index = indexOf(removed[k]);
+			data[index].detach(getPosition(index), getOrientation(index), points[index]);
+			indexes[removed[k]] = -1;
+		}
+		int kept = 0;
+		for(int i = 0; i < size; i++)
+		{
+			if(indexes[handles[i]] < 0)
+				continue;
+			if(kept != i)
+			{
+				x[kept] = x[i];
+				y[kept] = y[i];
+				orientation[kept] = orientation[i];
+				points[kept] = points[i];
+				data[kept] = data[i];
+				positions[kept] = positions[i];
+				handles[kept] = handles[i];
+			}
+			indexes[handles[kept]] = kept;
+			kept++;
+		}
+		for(int i = kept; i < size; i++)
+		{
+			data[i] = null;
+			positions[i] = null;
+		}
+		size = kept;
+		if(freeCount + count > freeHandles.length)
+			freeHandles = Arrays.copyOf(freeHandles, Math.max(freeCount + count, freeHandles.length * 2));
+		for(int k = 0; k < count; k++)
+		{
+			freeHandles[freeCount++] = removed[k];
+			changed(~removed[k]);
+		}
+		version++;
+	}
+	
+	/**
+	 * Adds a listener for the changes of the entries of the agents. Listeners are called in the order in which they
+	 * were added, on the thread that changes the store.
+	 *
+	 * @param listener
+	 *            - called with the handle of each agent that is added, moved, turned or given points, and with the
+	 *            complement (<code>~handle</code>) of the handle of each removed agent.
+	 */
+	public void addChangeListener(IntConsumer listener)
+	{
+		changeListeners = Arrays.copyOf(changeListeners, changeListeners.length + 1);
+		changeListeners[changeListeners.length - 1] = listener;
+	}
+	
+	/**
+	 * @param listener
+	 *            - a listener added by {@link #addChangeListener(IntConsumer)}.
+	 * @return <code>true</code> if the listener was removed.
+	 */
+	public boolean removeChangeListener(IntConsumer listener)
+	{
+		for(int i = 0; i < changeListeners.length; i++)
+			if(changeListeners[i] == listener)
+			{
+				IntConsumer[] remaining = new IntConsumer[changeListeners.length - 1];
+				System.arraycopy(changeListeners, 0, remaining, 0, i);
+				System.arraycopy(changeListeners, i + 1, remaining, i, remaining.length - i);
+				changeListeners = remaining;
+				return true;
+			}
+		return false;
+	}
+	
+	/**
+	 * Called after the entry of an agent changes.
+	 *
+	 * @param handle
+	 *            - the handle of the agent, or its complement if the agent was removed.
+	 */
+	protected void changed(int handle)
+	{
+		for(IntConsumer listener : changeListeners)
+			listener.accept(handle);
+	}
+	
+	/**
+	 * @return a number that changes each time an agent is added, removed or moved.
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * @param handle
+	 *            - the handle of an agent in the store.
+	 * @return the current index of the agent.
+	 * @throws IllegalArgumentException
+	 *             if no agent in the store has the handle.
+	 */
+	public int indexOf(int handle)
+	{
+		int index = handle >= 0 && handle < indexes.length ? indexes[handle] : -1;
+		if(index < 0)
+			throw new IllegalArgumentException("No agent with handle " + handle);
+		return index;
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @return the handle of the agent.
+	 */
+	public int getHandle(int index)
+	{
+		return handles[index];
+	}
+	
+	/**
+	 * @return the number of agents.
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @return the x coordinate of the agent.
+	 */
+	public int getX(int index)
+	{
+		return x[index];
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @return the y coordinate of the agent.
+	 */
+	public int getY(int index)
+	{
+		return y[index];
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @return the position of the agent, which is the instance in the pool of the store, if it has one. The position is
+	 *         set when the agent is added or moved, so this only reads the store, and may be called from several
+	 *         threads while the store is not modified.
+	 */
+	public GridPosition getPosition(int index)
+	{
+		return positions[index];
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @return the orientation of the agent; may be <code>null</code>.
+	 */
+	public GridOrientation getOrientation(int index)
+	{
+		return orientation[index] >= 0 ? ORIENTATIONS[orientation[index]] : null;
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @return the points of the agent.
+	 */
+	public float getPoints(int index)
+	{
+		return points[index];
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @return the agent.
+	 */
+	public Agent getAgent(int index)
+	{
+		return data[index].getAgent();
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @return the agent data, which is a view of the entry of the agent.
+	 */
+	public GridAgentData get(int index)
+	{
+		return data[index];
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @param newX
+	 *            - the new x coordinate.
+	 * @param newY
+	 *            - the new y coordinate.
+	 */
+	public void setPosition(int index, int newX, int newY)
+	{
+		if(x[index] == newX && y[index] == newY)
+			return;
+		x[index] = newX;
+		y[index] = newY;
+		positions[index] = pool != null ? pool.get(newX, newY) : new GridPosition(newX, newY);
+		version++;
+		changed(handles[index]);
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @param position
+	 *            - the new position; {@link #getPosition(int)} returns the instance with the same coordinates from the
+	 *            pool of the store, if it has one, or otherwise this instance.
+	 */
+	public void setPosition(int index, GridPosition position)
+	{
+		if(x[index] == position.positionX && y[index] == position.positionY)
+			return;
+		x[index] = position.positionX;
+		y[index] = position.positionY;
+		positions[index] = intern(position);
+		version++;
+		changed(handles[index]);
+	}
+	
+	/**
+	 * Sets the pool from which the positions of the agents are taken, and takes from it the positions of the agents
+	 * already in the store.
+	 *
+	 * @param positionPool
+	 *            - the pool; <code>null</code> to keep the positions as they are given.
+	 */
+	public void setPositionPool(GridPositionPool positionPool)
+	{
+		pool = positionPool;
+		for(int i = 0; i < size; i++)
+			positions[i] = intern(positions[i]);
+	}
+	
+	/**
+	 * @param position
+	 *            - a position.
+	 * @return the instance with the same coordinates from the pool, if there is one, or otherwise the position.
+	 */
+	protected GridPosition intern(GridPosition position)
+	{
+		return pool != null ? pool.intern(position) : position;
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @param newOrientation
+	 *            - the new orientation; may be <code>null</code>.
+	 */
+	public void setOrientation(int index, GridOrientation newOrientation)
+	{
+		byte ordinal = newOrientation != null ? (byte) newOrientation.ordinal() : -1;
+		if(orientation[index] == ordinal)
+			return;
+		orientation[index] = ordinal;
+		changed(handles[index]);
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of an agent.
+	 * @param delta
+	 *            - number of points to add; may be negative.
+	 */
+	public void addPoints(int index, float delta)
+	{
+		if(delta == 0)
+			return;
+		points[index] += delta;
+		changed(handles[index]);
+	}
+	
+	/**
+	 * @return a {@link List} view of the agents in the store, in their order. Adding and removing agents through the
+	 *         list changes the store; agents cannot be replaced.
+	 */
+	public List<GridAgentData> asList()
+	{
+		if(list == null)
+			list = new AbstractList<GridAgentData>() {
+				@Override
+				public GridAgentData get(int index)
+				{
+					if(index >= size)
+						throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+					return data[index];
+				}
+				
+				@Override
+				public int size()
+				{
+					return size;
+				}
+				
+				@Override
+				public boolean add(GridAgentData agentData)
+				{
+					GridAgentStore.this.add(agentData);
+					modCount++;
+					return true;
+				}
+				
+				@Override
+				public GridAgentData remove(int index)
+				{
+					GridAgentData removed = get(index);
+					GridAgentStore.this.remove(handles[index]);
+					modCount++;
+					return removed;
+				}
+				
+				@Override
+				public int indexOf(Object o)
+				{
+					if(!(o instanceof GridAgentData) || ((GridAgentData) o).store != GridAgentStore.this)
+						return -1;
+					return GridAgentStore.this.indexOf(((GridAgentData) o).handle);
+				}
+				
+				@Override
+				public int lastIndexOf(Object o)
+				{
+					return indexOf(o);
+				}
+				
+				@Override
+				public boolean contains(Object o)
+				{
+					return indexOf(o) >= 0;
+				}
+				
+				@Override
+				public boolean remove(Object o)
+				{
+					int index = indexOf(o);
+					if(index < 0)
+						return false;
+					remove(index);
+					return true;
+				}
+			};
+		return list;
+	}
+	
+	/**
+	 * Doubles the capacity of the arrays.
+	 */
+	protected void grow()
+	{
+		int capacity = x.length * 2;
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		orientation = Arrays.copyOf(orientation, capacity);
+		points = Arrays.copyOf(points, capacity);
+		data = Arrays.copyOf(data, capacity);
+		positions = Arrays.copyOf(positions, capacity);
+		handles = Arrays.copyOf(handles, capacity);
+	}
+}
@@ -0,0 +1,272 @@
+package gridworld;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates the X-tiles and J-tiles of a rectangular map, with the interior between (1, 1) and (w, h), surrounded by
+ * walls.
+ * <p>
+ * X-tiles are placed by dart throwing (Poisson-disk sampling): candidate cells are drawn in random order, without
+ * repetition, and a candidate is accepted if no other X-tile is at a Manhattan distance of at most
+ * {@link #XTILE_MIN_DISTANCE}. The X-tile layer itself serves as background grid, so each candidate is checked in
+ * constant time. J-tiles are taken in random order from the cells that are not X-tiles.
+ * <p>
+ * Both run in time linear in the number of tiles (and of rejected candidates), and the random permutation of
+ * candidates only takes memory for the cells that were drawn. The result depends only on the given random generator.
+ *
+ * @author agent
+ */
+public class GridMapGenerator
+{
+	/**
+	 * An X-tile is never placed at this Manhattan distance, or closer, from another X-tile (including walls).
+	 */
+	public static final int	XTILE_MIN_DISTANCE	= 2;
+	
+	/**
+	 * The random number generator.
+	 */
+	protected final Random	rand;
+	/**
+	 * Width of the interior.
+	 */
+	protected final int		width;
+	/**
+	 * Height of the interior.
+	 */
+	protected final int		height;
+	
+	/**
+	 * @param w
+	 *            - width of the interior of the map.
+	 * @param h
+	 *            - height of the interior of the map.
+	 * @param random
+	 *            - random number generator to use.
+	 */
+	public GridMapGenerator(int w, int h, Random random)
+	{
+		width = w;
+		height = h;
+		rand = random;
+	}
+	
+	/**
+	 * Marks the walls surrounding the interior, between (0, 0) and (w + 1, h + 1).
+	 *
+	 * @param xtiles
+	 *            - the X-tile layer.
+	 */
+	public void generateWalls(TileLayer xtiles)
+	{
+		for(int i = 0; i <= width + 1; i++)
+		{
+			xtiles.set(i, 0);
+			xtiles.set(i, height + 1);
+		}
+		for(int j = 0; j <= height + 1; j++)
+		{
+			xtiles.set(0, j);
+			xtiles.set(width + 1, j);
+		}
+	}
+	
+	/**
+	 * Places X-tiles in the interior, keeping them farther than {@link #XTILE_MIN_DISTANCE} from existing X-tiles.
+	 *
+	 * @param xtiles
+	 *            - the X-tile layer, which may already contain X-tiles (e.g. walls).
+	 * @param count
+	 *            - the number of X-tiles to place.
+	 * @return the number of X-tiles that were placed. It is less than <code>count</code> only if there is no more room
+	 *         for X-tiles.
+	 */
+	public int generateXtiles(TileLayer xtiles, int count)
+	{
+		RandomPermutation candidates = new RandomPermutation(width * height);
+		int generated = 0;
+		while(generated < count && candidates.hasNext())
+		{
+			int cell = candidates.next();
+			int x = 1 + cell / height;
+			int y = 1 + cell % height;
+			if(isFarFromXtiles(xtiles, x, y))
+			{
+				xtiles.set(x, y);
+				generated++;
+			}
+		}
+		return generated;
+	}
+	
+	/**
+	 * Places J-tiles in interior cells that are not X-tiles.
+	 *
+	 * @param jtiles
+	 *            - the J-tile layer.
+	 * @param xtiles
+	 *            - the X-tile layer.
+	 * @param count
+	 *            - the number of J-tiles to place.
+	 * @return the number of J-tiles that were placed. It is less than <code>count</code> only if there are no more
+	 *         free cells.
+	 */
+	public int generateJtiles(TileLayer jtiles, TileLayer xtiles, int count)
+	{
+		RandomPermutation candidates = new RandomPermutation(width * height);
+		int generated = 0;
+		while(generated < count && candidates.hasNext())
+		{
+			int cell = candidates.next();
+			int x = 1 + cell / height;
+			int y = 1 + cell % height;
+			if(!xtiles.get(x, y) && jtiles.set(x, y))
+				generated++;
+		}
+		return generated;
+	}
+	
+	/**
+	 * @param xtiles
+	 *            - the X-tile layer.
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return <code>true</code> if there is no X-tile at a distance of at most {@link #XTILE_MIN_DISTANCE}.
+	 */
+	protected static boolean isFarFromXtiles(TileLayer xtiles, int x, int y)
+	{
+		for(int dx = -XTILE_MIN_DISTANCE; dx <= XTILE_MIN_DISTANCE; dx++)
+		{
+			int range = XTILE_MIN_DISTANCE - Math.abs(dx);
+			for(int dy = -range; dy <= range; dy++)
+				if(xtiles.get(x + dx, y + dy))
+					return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Draws the integers between 0 and n - 1 in random order, without repetition. It is a Fisher-Yates shuffle in
+	 * which only the elements that were moved are stored.
+	 */
+	protected class RandomPermutation
+	{
+		/**
+		 * Number of elements not yet drawn.
+		 */
+		int		remaining;
+		/**
+		 * Positions in the shuffled array whose element was moved (open-addressing hash table, -1 for empty).
+		 */
+		int[]	keys;
+		/**
+		 * The elements at the positions in {@link #keys}.
+		 */
+		int[]	values;
+		/**
+		 * Number of stored positions.
+		 */
+		int		size	= 0;
+		
+		/**
+		 * @param n
+		 *            - number of elements.
+		 */
+		RandomPermutation(int n)
+		{
+			remaining = n;
+			keys = new int[16];
+			Arrays.fill(keys, -1);
+			values = new int[16];
+		}
+		
+		/**
+		 * @return <code>true</code> if there are elements not yet drawn.
+		 */
+		boolean hasNext()
+		{
+			return remaining > 0;
+		}
+		
+		/**
+		 * @return the next element.
+		 */
+		int next()
+		{
+			int i = rand.nextInt(remaining);
+			remaining--;
+			int result = get(i);
+			put(i, get(remaining));
+			return result;
+		}
+		
+		/**
+		 * @param position
+		 *            - a position in the shuffled array.
+		 * @return the element at the position.
+		 */
+		int get(int position)
+		{
+			int slot = slot(position);
+			return keys[slot] == position ? values[slot] : position;
+		}
+		
+		/**
+		 * @param position
+		 *            - a position in the shuffled array.
+		 * @param element
+		 *            - the element to put at the position.
+		 */
+		void put(int position, int element)
+		{
+			int slot = slot(position);
+			if(keys[slot] != position)
+			{
+				keys[slot] = position;
+				if(++size * 2 > keys.length)
+				{
+					values[slot] = element;
+					grow();
+					return;
+				}
+			}
+			values[slot] = element;
+		}
+		
+		/**
+		 * @param position
+		 *            - a position in the shuffled array.
+		 * @return the slot of the position in the table, or the empty slot where it should be placed.
+		 */
+		int slot(int position)
+		{
+			int mask = keys.length - 1;
+			int slot = (position * 0x9E3779B9) >>> 1 & mask;
+			while(keys[slot] != -1 && keys[slot] != position)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+		
+		/**
+		 * Doubles the size of the table.
+		 */
+		void grow()
+		{
+			int[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new int[oldKeys.length * 2];
+			Arrays.fill(keys, -1);
+			values = new int[oldKeys.length * 2];
+			for(int k = 0; k < oldKeys.length; k++)
+				if(oldKeys[k] != -1)
+				{
+					int slot = slot(oldKeys[k]);
+					keys[slot] = oldKeys[k];
+					values[slot] = oldValues[k];
+				}
+		}
+	}
+}
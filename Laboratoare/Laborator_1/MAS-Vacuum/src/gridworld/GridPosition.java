@@ -8,13 +8,13 @@ package gridworld;
 public class GridPosition
 {
 	/**
-	 * x coordinate
+	 * x coordinate; final, as instances are interned and shared between agents and threads.
 	 */
-	int	positionX;
+	final int	positionX;
 	/**
 	 * y coordinate
 	 */
-	int	positionY;
+	final int	positionY;
 	
 	/**
 	 * Default constructor.
@@ -192,12 +192,47 @@ public class GridPosition
 	public GridRelativeOrientation getRelativeOrientation(GridOrientation referenceOrientation,
 			GridPosition neighborPosition)
 	{
-		if(!isNeighbor(neighborPosition))
+		if(!isNeighbor(neighborPosition) || equals(neighborPosition))
 			throw new IllegalArgumentException("Given position is not a neighbor");
-		for(GridRelativeOrientation orient : GridRelativeOrientation.values())
-			if(getNeighborPosition(referenceOrientation, orient).equals(neighborPosition))
-				return orient;
-		throw new IllegalStateException("Should not be here");
+		return referenceOrientation.getRelativeOrientation(neighborPosition.positionX - positionX,
+				neighborPosition.positionY - positionY);
+	}
+	
+	/**
+	 * Calls the action for the coordinates of each of the 8 (orthogonal and diagonal) neighbors of this position, in
+	 * the order of {@link GridRelativeOrientation#values()} relative to the given orientation. No
+	 * {@link GridPosition} instances are created.
+	 * 
+	 * @param referenceOrientation
+	 *            - the absolute orientation which is considered as 'front'.
+	 * @param action
+	 *            - the action to call for the coordinates of each neighbor.
+	 */
+	public void forEachNeighbor(GridOrientation referenceOrientation, IntIntConsumer action)
+	{
+		forEachNeighbor(positionX, positionY, referenceOrientation, action);
+	}
+	
+	/**
+	 * Calls the action for the coordinates of each of the 8 (orthogonal and diagonal) neighbors of the given
+	 * coordinates, in the order of {@link GridRelativeOrientation#values()} relative to the given orientation. No
+	 * {@link GridPosition} instances are created.
+	 * 
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @param referenceOrientation
+	 *            - the absolute orientation which is considered as 'front'.
+	 * @param action
+	 *            - the action to call for the coordinates of each neighbor.
+	 */
+	public static void forEachNeighbor(int x, int y, GridOrientation referenceOrientation, IntIntConsumer action)
+	{
+		int[] dxs = GridOrientation.RELATIVE_DX[referenceOrientation.ordinal()];
+		int[] dys = GridOrientation.RELATIVE_DY[referenceOrientation.ordinal()];
+		for(int i = 0; i < dxs.length; i++)
+			action.accept(x + dxs[i], y + dys[i]);
 	}
 	
 	@Override
@@ -211,7 +246,67 @@ public class GridPosition
 	@Override
 	public int hashCode()
 	{
-		return positionX + positionY;
+		return hash(pack(positionX, positionY));
+	}
+	
+	/**
+	 * @return the coordinates of this position, packed in a single <code>long</code> by {@link #pack(int, int)}.
+	 */
+	public long getKey()
+	{
+		return pack(positionX, positionY);
+	}
+	
+	/**
+	 * Packs a pair of coordinates in a single <code>long</code>, with x in the upper 32 bits and y in the lower 32 bits.
+	 * Different positions always have different keys.
+	 * 
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return the packed key.
+	 */
+	public static long pack(int x, int y)
+	{
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * @param key
+	 *            - a key created by {@link #pack(int, int)}.
+	 * @return the x coordinate.
+	 */
+	public static int unpackX(long key)
+	{
+		return (int) (key >> 32);
+	}
+	
+	/**
+	 * @param key
+	 *            - a key created by {@link #pack(int, int)}.
+	 * @return the y coordinate.
+	 */
+	public static int unpackY(long key)
+	{
+		return (int) key;
+	}
+	
+	/**
+	 * Computes a well-mixed hash of a packed key, so that nearby positions (including positions on the same row,
+	 * column or diagonal) fall in different hash buckets.
+	 * 
+	 * @param key
+	 *            - a key created by {@link #pack(int, int)}.
+	 * @return the hash.
+	 */
+	public static int hash(long key)
+	{
+		long h = key;
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		h = h ^ (h >>> 33);
+		return (int) (h ^ (h >>> 32));
 	}
 	
 	/**
@@ -0,0 +1,187 @@
+package gridworld;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns {@link GridPosition} instances, so that a single instance exists for each pair of coordinates. Each
+ * environment holds its own pool.
+ * <p>
+ * The pool is thread-safe, so that agents may obtain positions while they decide in parallel. Positions already in the
+ * pool are found without locking, in an open-addressing hash table whose slots are read and written atomically; new
+ * positions are added while holding the lock of the pool, and a larger table replaces the table when it becomes too
+ * full. A thread that does not find a position in the table it read looks again in the current table, under the lock,
+ * before adding the position.
+ * <p>
+ * Positions stay in the pool until they are dropped by {@link #retain(int, int, int, int)}, which the environment calls
+ * when its boundaries change; the environment only interns its own positions, so the pool does not grow beyond the
+ * area of the environment.
+ * <p>
+ * Positions obtained from the pool must not be modified.
+ *
+ * @author agent
+ */
+public class GridPositionPool
+{
+	/**
+	 * The interned positions, at the slot given by the hash of their packed coordinates; empty slots are
+	 * <code>null</code>. Replaced, never modified in place except to fill empty slots.
+	 */
+	protected volatile AtomicReferenceArray<GridPosition>	table	= new AtomicReferenceArray<>(64);
+	/**
+	 * Number of interned positions. Only accessed while holding the lock of the pool.
+	 */
+	protected int											size	= 0;
+	
+	/**
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return the unique instance for the given coordinates.
+	 */
+	public GridPosition get(int x, int y)
+	{
+		GridPosition pos = find(table, x, y);
+		return pos != null ? pos : add(x, y);
+	}
+	
+	/**
+	 * @param position
+	 *            - a position.
+	 * @return the unique instance with the same coordinates as the given position.
+	 */
+	public GridPosition intern(GridPosition position)
+	{
+		return get(position.positionX, position.positionY);
+	}
+	
+	/**
+	 * @return the number of interned positions.
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Looks for a position in a table.
+	 *
+	 * @param positions
+	 *            - the table.
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return the position in the table, or <code>null</code> if there is none.
+	 */
+	protected static GridPosition find(AtomicReferenceArray<GridPosition> positions, int x, int y)
+	{
+		int mask = positions.length() - 1;
+		for(int i = GridPosition.hash(GridPosition.pack(x, y)) & mask;; i = (i + 1) & mask)
+		{
+			GridPosition pos = positions.get(i);
+			if(pos == null || (pos.positionX == x && pos.positionY == y))
+				return pos;
+		}
+	}
+	
+	/**
+	 * Adds a position to the pool, unless another thread added it meanwhile.
+	 *
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return the unique instance for the given coordinates.
+	 */
+	protected synchronized GridPosition add(int x, int y)
+	{
+		GridPosition pos = find(table, x, y);
+		if(pos != null)
+			return pos;
+		if((size + 1) * 2 > table.length())
+			table = rehash(table, table.length() * 2);
+		pos = new GridPosition(x, y);
+		insert(table, pos);
+		size++;
+		return pos;
+	}
+	
+	/**
+	 * Drops the positions outside the given rectangle, and makes the table smaller if few positions remain. Threads
+	 * that look for a dropped position afterwards get a new instance.
+	 *
+	 * @param minX
+	 *            - minimum x coordinate.
+	 * @param maxX
+	 *            - maximum x coordinate.
+	 * @param minY
+	 *            - minimum y coordinate.
+	 * @param maxY
+	 *            - maximum y coordinate.
+	 */
+	public synchronized void retain(int minX, int maxX, int minY, int maxY)
+	{
+		AtomicReferenceArray<GridPosition> positions = table;
+		int kept = 0;
+		for(int k = 0; k < positions.length(); k++)
+		{
+			GridPosition pos = positions.get(k);
+			if(pos != null && pos.positionX >= minX && pos.positionX <= maxX && pos.positionY >= minY
+					&& pos.positionY <= maxY)
+				kept++;
+		}
+		if(kept == size)
+			return;
+		int capacity = 64;
+		while(kept * 2 > capacity)
+			capacity *= 2;
+		AtomicReferenceArray<GridPosition> smaller = new AtomicReferenceArray<>(capacity);
+		for(int k = 0; k < positions.length(); k++)
+		{
+			GridPosition pos = positions.get(k);
+			if(pos != null && pos.positionX >= minX && pos.positionX <= maxX && pos.positionY >= minY
+					&& pos.positionY <= maxY)
+				insert(smaller, pos);
+		}
+		table = smaller;
+		size = kept;
+	}
+	
+	/**
+	 * Copies the positions of a table in a new table.
+	 *
+	 * @param positions
+	 *            - the table.
+	 * @param capacity
+	 *            - the length of the new table, a power of 2.
+	 * @return the new table.
+	 */
+	protected static AtomicReferenceArray<GridPosition> rehash(AtomicReferenceArray<GridPosition> positions,
+			int capacity)
+	{
+		AtomicReferenceArray<GridPosition> larger = new AtomicReferenceArray<>(capacity);
+		for(int k = 0; k < positions.length(); k++)
+			if(positions.get(k) != null)
+				insert(larger, positions.get(k));
+		return larger;
+	}
+	
+	/**
+	 * Puts a position in the first empty slot from the slot given by its hash. The table must have an empty slot, and
+	 * must not contain the position.
+	 *
+	 * @param positions
+	 *            - the table.
+	 * @param pos
+	 *            - the position.
+	 */
+	protected static void insert(AtomicReferenceArray<GridPosition> positions, GridPosition pos)
+	{
+		int mask = positions.length() - 1;
+		int i = GridPosition.hash(GridPosition.pack(pos.positionX, pos.positionY)) & mask;
+		while(positions.get(i) != null)
+			i = (i + 1) & mask;
+		positions.set(i, pos);
+	}
+}
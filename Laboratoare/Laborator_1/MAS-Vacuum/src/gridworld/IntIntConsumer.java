@@ -0,0 +1,21 @@
+package gridworld;
+
+/**
+ * An operation that accepts a pair of <code>int</code> coordinates, used for iterating over positions without creating
+ * {@link GridPosition} instances.
+ *
+ * @author agent
+ */
+@FunctionalInterface
+public interface IntIntConsumer
+{
+	/**
+	 * Performs the operation.
+	 * 
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 */
+	void accept(int x, int y);
+}
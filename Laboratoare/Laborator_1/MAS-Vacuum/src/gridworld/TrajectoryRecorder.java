@@ -0,0 +1,1234 @@
+package gridworld;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Records the trajectory of a grid environment in a compact binary file, which can be read back by a
+ * {@link TrajectoryReplayer}.
+ * <p>
+ * After each step, the recorder writes a frame with what changed during the step: for each agent that changed, the
+ * changed fields among position, orientation, action and points, and the new state of each tile that changed. Agents
+ * are identified by their handle in the {@link GridAgentStore}. Numbers are written as variable-length integers, and
+ * coordinates as differences from the previous coordinates of the agent (or from the previous changed tile), so most
+ * of them take one byte. Every given number of steps, the recorder also writes a keyframe with the full state, and when
+ * the recording is closed it writes an index of the keyframes at the end of the file, so that the replayer can go to any
+ * step without reading the steps before the nearest keyframe.
+ * <p>
+ * The work done in the thread of the simulation is proportional to what changed: the agent store and the layers report
+ * the agents and the tiles that change, and at the end of a step only their new state is copied, as plain numbers, in
+ * a block of memory; when most agents changed, the columns of the store are copied whole instead. Full blocks are
+ * passed to a writer thread, which compares the agents with their state at the previous frame, encodes the frames in a
+ * byte array, and writes it to a {@link FileChannel}. If the writer falls behind by several blocks, the simulation
+ * waits for it. Errors while writing stop the recording, and are reported by {@link #close()}, so that they do not
+ * interrupt the simulation.
+ * <p>
+ * Recording is not free: for agents as simple as reflex cleaners, which take about 200 ns per step each, it adds about
+ * a tenth to the time of the step, and the writer thread uses about half as much processor time as the simulation. It
+ * stays within a few percent of the step only for agents that do more work per step. Environments are therefore only
+ * recorded on request, for the runs that need it.
+ * <p>
+ * Instances are created by {@link AbstractGridEnvironment#startRecording(Path, int)}.
+ * <p>
+ * File format: the header (magic number, version, keyframe interval, bounds of the environment), followed by frames, and
+ * ended by the footer. Each frame starts with a type byte; keyframes and the footer are followed by the length of their
+ * body, so that they can be skipped. Fixed-size numbers are big-endian.
+ *
+ * @author agent
+ */
+public class TrajectoryRecorder
+{
+	/**
+	 * The first 4 bytes of the file ("GRDT"), also found in the last 4 bytes.
+	 */
+	public static final int					MAGIC			= 0x47524454;
+	/**
+	 * The version of the format.
+	 */
+	public static final int					VERSION			= 1;
+	/**
+	 * Frame with the full state: time, agents (handle, x, y, orientation, action + 1, points), J-tiles, X-tiles.
+	 */
+	static final byte						KEYFRAME		= 1;
+	/**
+	 * Frame with the changes of a step, with no length: time difference, changed agents (by handle + 1, ended by 0),
+	 * changed tiles.
+	 */
+	static final byte						STEP			= 2;
+	/**
+	 * The footer: last time, and the time and file offset of each keyframe. Followed by the offset of the footer and the
+	 * magic number.
+	 */
+	static final byte						FOOTER			= 3;
+	/**
+	 * Flag of a changed agent: the position changed; followed by the differences of the coordinates.
+	 */
+	static final int						MOVED			= 1;
+	/**
+	 * Flag of a changed agent: the orientation changed; followed by the orientation + 1.
+	 */
+	static final int						TURNED			= 2;
+	/**
+	 * Flag of a changed agent: the action performed by the agent changed; followed by the action + 1, or 0 if the agent
+	 * performed no action.
+	 */
+	static final int						ACTED			= 4;
+	/**
+	 * Flag of a changed agent: the points changed; followed by the points.
+	 */
+	static final int						SCORED			= 8;
+	/**
+	 * Flag of a changed agent: the agent was added; the coordinates are not differences.
+	 */
+	static final int						ADDED			= 16;
+	/**
+	 * Flag of a changed agent: the agent was removed; nothing follows.
+	 */
+	static final int						REMOVED			= 32;
+	/**
+	 * Bit of the state of a tile: J-tile.
+	 */
+	static final int						JTILE			= 1;
+	/**
+	 * Bit of the state of a tile: X-tile.
+	 */
+	static final int						XTILE			= 2;
+	/**
+	 * The buffer is written to the file after a frame, if it holds at least this number of bytes.
+	 */
+	protected static final int				FLUSH_SIZE		= 1 << 16;
+	/**
+	 * A block is passed to the writer thread after a step, if it holds at least this number of values.
+	 */
+	protected static final int				BLOCK_SIZE		= 1 << 14;
+	/**
+	 * Maximum number of blocks waiting for the writer thread.
+	 */
+	protected static final int				PENDING_BLOCKS	= 4;
+	/**
+	 * Kind of entry of a block: the agents present when the recording starts, which are not written to the file; followed
+	 * by the time, no actions, and the agents, as for {@link #STEP}.
+	 */
+	static final int						START			= 0;
+	/**
+	 * Marks the end of the recording, in the queue of the writer thread.
+	 */
+	protected static final Block			END				= new Block(0);
+	
+	/**
+	 * Values copied from the environment in the thread of the simulation, to be encoded by the writer thread. Each
+	 * entry starts with its kind ({@link #START}, {@link #STEP} or {@link #KEYFRAME}) and the time, as two values:
+	 * <ul>
+	 * <li>actions (for {@link #START} and {@link #STEP}): the number of values, followed, in the order in which they
+	 * happened, by the handle and action of each action performed, and by the complement of the handle and
+	 * <code>-1</code> for each agent removed;
+	 * <li>agents (for {@link #START} and {@link #STEP}): either the number of agents that changed, followed by the
+	 * handle, x, y, orientation and bits of the points of each, or the complement of the number of agents in the store,
+	 * followed by the handles, the x coordinates, the y coordinates, the orientations and the bits of the points of all
+	 * agents, as columns copied from the store, when most of the agents changed;
+	 * <li>tiles (for {@link #STEP}): the number of changed tiles, followed by x, y and the new state of each;
+	 * <li>layers (for {@link #KEYFRAME}): for the J-tiles and for the X-tiles, the number of tiles followed by their
+	 * coordinates. The state of the agents is known by the writer thread from the previous entries.
+	 * </ul>
+	 */
+	protected static class Block
+	{
+		/**
+		 * The values.
+		 */
+		int[]	values;
+		/**
+		 * Number of values.
+		 */
+		int		size	= 0;
+		
+		/**
+		 * @param capacity
+		 *            - the initial number of values.
+		 */
+		Block(int capacity)
+		{
+			values = new int[capacity];
+		}
+		
+		/**
+		 * Makes room for the given number of values.
+		 *
+		 * @param count
+		 *            - the number of values.
+		 */
+		void ensure(int count)
+		{
+			if(size + count > values.length)
+				values = Arrays.copyOf(values, Math.max(values.length * 2, size + count));
+		}
+	}
+	
+	/**
+	 * The environment.
+	 */
+	protected final AbstractGridEnvironment	environment;
+	/**
+	 * The file.
+	 */
+	protected final FileChannel				channel;
+	/**
+	 * A keyframe is written when at least this number of steps passed since the previous one.
+	 */
+	protected final int						keyframeInterval;
+	/**
+	 * The thread encoding and writing the frames.
+	 */
+	protected final Thread					writer;
+	/**
+	 * Blocks waiting for the writer thread.
+	 */
+	protected final BlockingQueue<Block>	pending			= new ArrayBlockingQueue<>(PENDING_BLOCKS);
+	/**
+	 * Blocks returned by the writer thread, to be reused.
+	 */
+	protected final BlockingQueue<Block>	free			= new ArrayBlockingQueue<>(PENDING_BLOCKS + 2);
+	/**
+	 * The first error when writing, after which nothing is written.
+	 */
+	protected volatile IOException			error			= null;
+	/**
+	 * Number of bytes written to the channel.
+	 */
+	protected volatile long					written			= 0;
+	
+	// state used by the thread of the simulation
+	
+	/**
+	 * The block being filled.
+	 */
+	protected Block							block			= new Block(BLOCK_SIZE);
+	/**
+	 * The time of the last frame.
+	 */
+	protected long							lastTime;
+	/**
+	 * The time of the last keyframe.
+	 */
+	protected long							lastKeyframe;
+	/**
+	 * Number of keyframes.
+	 */
+	protected int							keyframes		= 0;
+	/**
+	 * Number of step frames.
+	 */
+	protected int							steps			= 0;
+	/**
+	 * The handles of the agents that changed since the last frame, as a bitset.
+	 */
+	protected long[]						changedAgents	= new long[0];
+	/**
+	 * The indexes of the words of {@link #changedAgents} that are not 0, so that only the words of the agents that
+	 * changed are read.
+	 */
+	protected int[]							changedWords	= new int[0];
+	/**
+	 * Number of indexes in {@link #changedWords}.
+	 */
+	protected int							changedWordCount	= 0;
+	/**
+	 * The actions performed and the agents removed since the last frame, in order, as pairs of values: the handle and
+	 * the action, or the complement of the handle and <code>-1</code>. A handle may be given to another agent in the same
+	 * step.
+	 */
+	protected int[]							actions			= new int[64];
+	/**
+	 * Number of values in {@link #actions}.
+	 */
+	protected int							actionCount		= 0;
+	/**
+	 * The tiles changed since the last frame, as packed coordinates. A tile may appear several times.
+	 */
+	protected long[]						changedTiles	= new long[64];
+	/**
+	 * Number of entries in {@link #changedTiles}.
+	 */
+	protected int							changedCount	= 0;
+	/**
+	 * <code>true</code> after the recording was closed.
+	 */
+	protected boolean						closed			= false;
+	
+	// state used by the writer thread
+	
+	/**
+	 * Buffer of the file. It grows if a frame does not fit.
+	 */
+	protected byte[]						buffer			= new byte[FLUSH_SIZE * 2];
+	/**
+	 * Number of bytes in {@link #buffer}.
+	 */
+	protected int							position		= 0;
+	/**
+	 * The time of the last encoded frame.
+	 */
+	protected long							frameTime;
+	/**
+	 * The times of the encoded keyframes.
+	 */
+	protected long[]						keyframeTimes	= new long[16];
+	/**
+	 * The file offsets of the encoded keyframes.
+	 */
+	protected long[]						keyframeOffsets	= new long[16];
+	/**
+	 * Number of encoded keyframes.
+	 */
+	protected int							encodedKeyframes	= 0;
+	/**
+	 * <code>true</code> for the handles of the agents at the last frame.
+	 */
+	protected boolean[]						present			= new boolean[0];
+	/**
+	 * Number of agents at the last frame.
+	 */
+	protected int							presentCount	= 0;
+	/**
+	 * The x coordinates of the agents at the last frame, by handle.
+	 */
+	protected int[]							lastX			= new int[0];
+	/**
+	 * The y coordinates of the agents at the last frame, by handle.
+	 */
+	protected int[]							lastY			= new int[0];
+	/**
+	 * The orientation ordinals (or <code>-1</code>) of the agents at the last frame, by handle.
+	 */
+	protected byte[]						lastOrientation	= new byte[0];
+	/**
+	 * The bits of the points of the agents at the last frame, by handle.
+	 */
+	protected int[]							lastPoints		= new int[0];
+	/**
+	 * The actions performed by the agents at the last frame, by handle, or <code>-1</code>.
+	 */
+	protected int[]							lastAction		= new int[0];
+	/**
+	 * The actions performed by the agents in the step being encoded, by handle, or <code>-1</code>.
+	 */
+	protected int[]							stepAction		= new int[0];
+	/**
+	 * The number of the last encoded step frame in which each handle appeared.
+	 */
+	protected int[]							lastFrame		= new int[0];
+	/**
+	 * Number of encoded step frames.
+	 */
+	protected int							encodedSteps	= 0;
+	/**
+	 * The handles of the agents that performed an action at the last frame; their action becomes <code>-1</code> if
+	 * they do not appear in the next step frame.
+	 */
+	protected int[]							acted			= new int[0];
+	/**
+	 * Number of handles in {@link #acted}.
+	 */
+	protected int							actedCount		= 0;
+	/**
+	 * The handles of the agents that performed an action in the step being encoded.
+	 */
+	protected int[]							acting			= new int[0];
+	/**
+	 * Number of handles in {@link #acting}.
+	 */
+	protected int							actingCount		= 0;
+	
+	/**
+	 * Creates the file, writes the header and a keyframe with the current state of the environment, and starts the
+	 * writer thread.
+	 *
+	 * @param gridEnvironment
+	 *            - the environment.
+	 * @param file
+	 *            - the file; it is replaced if it exists.
+	 * @param interval
+	 *            - the minimum number of steps between keyframes.
+	 * @throws IOException
+	 *             if the file cannot be created.
+	 */
+	protected TrajectoryRecorder(AbstractGridEnvironment gridEnvironment, Path file, int interval) throws IOException
+	{
+		if(interval < 1)
+			throw new IllegalArgumentException("The keyframe interval must be positive");
+		environment = gridEnvironment;
+		keyframeInterval = interval;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		environment.updateBounds();
+		putInt(MAGIC);
+		buffer[position++] = VERSION;
+		putVarLong(keyframeInterval);
+		putVarLong(zigzag(environment.x0));
+		putVarLong(zigzag(environment.x1));
+		putVarLong(zigzag(environment.y0));
+		putVarLong(zigzag(environment.y1));
+		lastTime = environment.time;
+		
+		GridAgentStore store = environment.agentStore;
+		block.ensure(5 + store.size * 5);
+		int[] values = block.values;
+		int at = putTime(values, 0, START, lastTime);
+		values[at++] = 0;
+		values[at++] = store.size;
+		for(int i = 0; i < store.size; i++)
+			at = putAgent(values, at, store, i);
+		block.size = at;
+		addKeyframe();
+		
+		writer = new Thread(this::writeFrames, "trajectory-writer-" + file.getFileName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Called by the environment each time a tile changes.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 */
+	protected void tileChanged(int x, int y)
+	{
+		if(changedCount == changedTiles.length)
+			changedTiles = Arrays.copyOf(changedTiles, changedCount * 2);
+		changedTiles[changedCount++] = GridPosition.pack(x, y);
+	}
+	
+	/**
+	 * Called by the agent store each time an agent is added, removed, or its entry changes.
+	 *
+	 * @param handle
+	 *            - the handle of the agent, or its complement if the agent was removed.
+	 */
+	protected void agentChanged(int handle)
+	{
+		if(handle < 0)
+		{
+			addAction(handle, -1);
+			return;
+		}
+		if(handle >>> 6 >= changedAgents.length)
+			ensureHandles(handle + 1);
+		long bits = changedAgents[handle >>> 6];
+		if(bits == 0)
+			changedWords[changedWordCount++] = handle >>> 6;
+		changedAgents[handle >>> 6] = bits | (1L << handle);
+	}
+	
+	/**
+	 * Called by the environment when an agent performs an action. The action is written in the next frame.
+	 *
+	 * @param handle
+	 *            - the handle of the agent.
+	 * @param action
+	 *            - a non-negative number identifying the action, e.g. its ordinal.
+	 */
+	protected void actionPerformed(int handle, int action)
+	{
+		addAction(handle, action);
+	}
+	
+	/**
+	 * Adds a pair of values to {@link #actions}.
+	 *
+	 * @param handle
+	 *            - the handle, or its complement.
+	 * @param action
+	 *            - the action, or <code>-1</code>.
+	 */
+	protected void addAction(int handle, int action)
+	{
+		if(actionCount == actions.length)
+			actions = Arrays.copyOf(actions, actionCount * 2);
+		actions[actionCount++] = handle;
+		actions[actionCount++] = action;
+	}
+	
+	/**
+	 * Ends the frame of a step: copies the state of the agents and tiles that changed since the previous frame, and
+	 * adds a keyframe if enough steps passed since the last keyframe. The frames are encoded and written by the writer
+	 * thread.
+	 *
+	 * @param time
+	 *            - the time at the end of the step; it must not be before the time of the previous frame.
+	 */
+	public void endStep(long time)
+	{
+		if(error != null || closed)
+			return;
+		if(time < lastTime)
+			throw new IllegalArgumentException("Time " + time + " is before the last recorded time " + lastTime);
+		GridAgentStore store = environment.agentStore;
+		long[] changed = changedAgents;
+		int[] words = changedWords;
+		int changedAgentCount = 0;
+		for(int k = 0; k < changedWordCount; k++)
+			changedAgentCount += Long.bitCount(changed[words[k]]);
+		int size = store.size;
+		// when most agents changed, copying the columns of the store is faster than finding each agent
+		boolean columns = changedAgentCount * 2 >= size;
+		block.ensure(6 + actionCount + (columns ? size : changedAgentCount) * 5 + changedCount * 3);
+		int[] values = block.values;
+		int at = putTime(values, block.size, STEP, time);
+		values[at++] = actionCount;
+		System.arraycopy(actions, 0, values, at, actionCount);
+		at += actionCount;
+		actionCount = 0;
+		if(columns)
+		{
+			values[at++] = ~size;
+			System.arraycopy(store.handles, 0, values, at, size);
+			System.arraycopy(store.x, 0, values, at + size, size);
+			System.arraycopy(store.y, 0, values, at + size * 2, size);
+			at += size * 3;
+			byte[] storeOrientation = store.orientation;
+			for(int i = 0; i < size; i++)
+				values[at + i] = storeOrientation[i];
+			at += size;
+			float[] storePoints = store.points;
+			for(int i = 0; i < size; i++)
+				values[at + i] = Float.floatToRawIntBits(storePoints[i]);
+			at += size;
+			for(int k = 0; k < changedWordCount; k++)
+				changed[words[k]] = 0;
+		}
+		else
+		{
+			// the arrays are read into local variables, as this loop runs for every agent that changed
+			int count = at++;
+			int records = 0;
+			int[] indexes = store.indexes, storeX = store.x, storeY = store.y;
+			byte[] storeOrientation = store.orientation;
+			float[] storePoints = store.points;
+			for(int k = 0; k < changedWordCount; k++)
+			{
+				int word = words[k];
+				for(long bits = changed[word]; bits != 0; bits &= bits - 1)
+				{
+					int handle = (word << 6) + Long.numberOfTrailingZeros(bits);
+					int index = handle < indexes.length ? indexes[handle] : -1;
+					if(index >= 0)
+					{
+						values[at++] = handle;
+						values[at++] = storeX[index];
+						values[at++] = storeY[index];
+						values[at++] = storeOrientation[index];
+						values[at++] = Float.floatToRawIntBits(storePoints[index]);
+						records++;
+					}
+				}
+				changed[word] = 0;
+			}
+			values[count] = records;
+		}
+		changedWordCount = 0;
+		values[at++] = changedCount;
+		for(int k = 0; k < changedCount; k++)
+		{
+			int x = GridPosition.unpackX(changedTiles[k]), y = GridPosition.unpackY(changedTiles[k]);
+			values[at++] = x;
+			values[at++] = y;
+			values[at++] = tileState(x, y);
+		}
+		block.size = at;
+		changedCount = 0;
+		steps++;
+		lastTime = time;
+		
+		if(time - lastKeyframe >= keyframeInterval)
+			addKeyframe();
+		if(block.size >= BLOCK_SIZE)
+			handOff();
+	}
+	
+	/**
+	 * Passes the remaining frames to the writer thread, waits for it to write them and the footer, and closes the file.
+	 * The recorder does nothing afterwards.
+	 *
+	 * @throws IOException
+	 *             if an error occurred while writing the file, at any time during the recording.
+	 */
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		if(block.size > 0)
+			handOff();
+		boolean interrupted = false;
+		while(true)
+			try
+			{
+				pending.put(END);
+				break;
+			} catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		while(writer.isAlive())
+			try
+			{
+				writer.join();
+			} catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		if(error != null)
+			throw error;
+	}
+	
+	/**
+	 * Adds a keyframe after the last frame: the marked positions of the J-tiles and X-tiles layers.
+	 */
+	protected void addKeyframe()
+	{
+		TileLayer jtiles = environment.JtileLayer, xtiles = environment.XtileLayer;
+		block.ensure(5 + (jtiles.cardinality() + xtiles.cardinality()) * 2);
+		int at = putTime(block.values, block.size, KEYFRAME, lastTime);
+		at = putLayer(block.values, at, jtiles);
+		block.size = putLayer(block.values, at, xtiles);
+		keyframes++;
+		lastKeyframe = lastTime;
+	}
+	
+	/**
+	 * Passes the current block to the writer thread, and takes an empty one. Waits if the writer thread fell behind.
+	 */
+	protected void handOff()
+	{
+		Block full = block;
+		Block next = free.poll();
+		block = next != null ? next : new Block(BLOCK_SIZE);
+		try
+		{
+			pending.put(full);
+		} catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			if(error == null)
+				error = new InterruptedIOException("Interrupted while waiting for the trajectory writer");
+		}
+	}
+	
+	/**
+	 * Copies the kind of an entry and a time in a block.
+	 *
+	 * @param values
+	 *            - the values of the block.
+	 * @param at
+	 *            - the place of the entry.
+	 * @param kind
+	 *            - the kind of the entry.
+	 * @param time
+	 *            - the time.
+	 * @return the place after the time.
+	 */
+	protected static int putTime(int[] values, int at, int kind, long time)
+	{
+		values[at++] = kind;
+		values[at++] = (int) (time >>> 32);
+		values[at++] = (int) time;
+		return at;
+	}
+	
+	/**
+	 * Copies the state of an agent in a block, as a present agent.
+	 *
+	 * @param values
+	 *            - the values of the block.
+	 * @param at
+	 *            - the place of the agent.
+	 * @param store
+	 *            - the store.
+	 * @param index
+	 *            - the index of the agent in the store.
+	 * @return the place after the agent.
+	 */
+	protected static int putAgent(int[] values, int at, GridAgentStore store, int index)
+	{
+		values[at++] = store.handles[index];
+		values[at++] = store.x[index];
+		values[at++] = store.y[index];
+		values[at++] = store.orientation[index];
+		values[at++] = Float.floatToRawIntBits(store.points[index]);
+		return at;
+	}
+	
+	/**
+	 * Copies the marked positions of a layer in a block: their number, followed by their coordinates.
+	 *
+	 * @param values
+	 *            - the values of the block; there must be room for the positions.
+	 * @param at
+	 *            - the place of the layer.
+	 * @param layer
+	 *            - the layer.
+	 * @return the place after the layer.
+	 */
+	protected static int putLayer(int[] values, int at, TileLayer layer)
+	{
+		values[at++] = layer.cardinality();
+		for(long cursor = layer.nextMarked(-1); cursor >= 0; cursor = layer.nextMarked(cursor))
+		{
+			values[at++] = layer.cursorX(cursor);
+			values[at++] = layer.cursorY(cursor);
+		}
+		return at;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return the state of the tile, as a combination of {@link #JTILE} and {@link #XTILE}.
+	 */
+	protected int tileState(int x, int y)
+	{
+		return (environment.JtileLayer.get(x, y) ? JTILE : 0) | (environment.XtileLayer.get(x, y) ? XTILE : 0);
+	}
+	
+	/**
+	 * Makes room in the arrays indexed by handle used by the thread of the simulation.
+	 *
+	 * @param count
+	 *            - the number of handles.
+	 */
+	protected void ensureHandles(int count)
+	{
+		int words = (count + 63) >>> 6;
+		if(words <= changedAgents.length)
+			return;
+		words = Math.max(words, changedAgents.length * 2);
+		changedAgents = Arrays.copyOf(changedAgents, words);
+		changedWords = Arrays.copyOf(changedWords, words);
+	}
+	
+	/**
+	 * Body of the writer thread: encodes the blocks, in order, until the end of the recording, then writes the footer and
+	 * closes the file. After an error, the blocks are discarded.
+	 */
+	protected void writeFrames()
+	{
+		try
+		{
+			for(Block next = pending.take(); next != END; next = pending.take())
+			{
+				if(error == null)
+					encode(next);
+				next.size = 0;
+				free.offer(next);
+			}
+			if(error == null)
+				writeFooter();
+		} catch(InterruptedException e)
+		{
+			if(error == null)
+				error = new InterruptedIOException("The trajectory writer was interrupted");
+		}
+		try
+		{
+			channel.close();
+		} catch(IOException e)
+		{
+			if(error == null)
+				error = e;
+		}
+	}
+	
+	/**
+	 * Encodes the entries of a block, writing the buffer to the file between frames, once it holds enough bytes.
+	 *
+	 * @param entries
+	 *            - the block.
+	 */
+	protected void encode(Block entries)
+	{
+		int[] values = entries.values;
+		int at = 0;
+		while(at < entries.size)
+		{
+			int kind = values[at];
+			long time = ((long) values[at + 1] << 32) | (values[at + 2] & 0xFFFFFFFFL);
+			at += 3;
+			switch(kind)
+			{
+			case START:
+				frameTime = time;
+				at = encodeAgents(values, at, false);
+				break;
+			case STEP:
+				ensure(11);
+				buffer[position++] = STEP;
+				putVarLong(time - frameTime);
+				frameTime = time;
+				at = encodeAgents(values, at, true);
+				at = encodeTiles(values, at);
+				break;
+			case KEYFRAME:
+				at = encodeKeyframe(values, at);
+				break;
+			default:
+				throw new IllegalStateException("Unknown entry " + kind);
+			}
+			if(position >= FLUSH_SIZE)
+				flush();
+		}
+	}
+	
+	/**
+	 * Applies the actions and agents of an entry to the state at the last frame, and writes the changed agents of a step
+	 * frame, ended by 0: first the removed agents, then the agents in the entry, then the agents that only performed an
+	 * action. The agents that performed an action at the last frame and not at this one are written as having performed
+	 * no action.
+	 *
+	 * @param values
+	 *            - the values of the block.
+	 * @param at
+	 *            - the place of the number of values of the actions.
+	 * @param write
+	 *            - <code>false</code> if the agents are only applied to the state.
+	 * @return the place after the agents.
+	 */
+	protected int encodeAgents(int[] values, int at, boolean write)
+	{
+		encodedSteps++;
+		for(int end = at + 1 + values[at++]; at < end; at += 2)
+		{
+			int handle = values[at];
+			if(handle >= 0)
+			{
+				ensureWriterHandles(handle + 1);
+				stepAction[handle] = values[at + 1];
+				if(actingCount == acting.length)
+					acting = Arrays.copyOf(acting, actingCount * 2);
+				acting[actingCount++] = handle;
+				continue;
+			}
+			handle = ~handle;
+			if(handle < present.length)
+			{
+				stepAction[handle] = -1;
+				if(present[handle])
+				{
+					ensure(6);
+					putVarLong(handle + 1);
+					buffer[position++] = REMOVED;
+					present[handle] = false;
+					presentCount--;
+					lastAction[handle] = -1;
+				}
+			}
+		}
+		int count = values[at++];
+		if(count >= 0)
+			for(int r = 0; r < count; r++, at += 5)
+				encodeAgent(values[at], values[at + 1], values[at + 2], (byte) values[at + 3], values[at + 4], write);
+		else
+		{
+			count = ~count;
+			for(int i = 0; i < count; i++)
+				encodeAgent(values[at + i], values[at + count + i], values[at + count * 2 + i],
+						(byte) values[at + count * 3 + i], values[at + count * 4 + i], write);
+			at += count * 5;
+		}
+		for(int k = 0; k < actingCount; k++)
+		{
+			int handle = acting[k];
+			if(present[handle] && lastFrame[handle] != encodedSteps)
+			{
+				lastFrame[handle] = encodedSteps;
+				if(stepAction[handle] != lastAction[handle])
+				{
+					ensure(12);
+					putVarLong(handle + 1);
+					buffer[position++] = ACTED;
+					putVarLong(stepAction[handle] + 1);
+					lastAction[handle] = stepAction[handle];
+				}
+			}
+		}
+		for(int k = 0; k < actedCount; k++)
+		{
+			int handle = acted[k];
+			if(present[handle] && lastFrame[handle] != encodedSteps && lastAction[handle] >= 0)
+			{
+				ensure(7);
+				putVarLong(handle + 1);
+				buffer[position++] = ACTED;
+				putVarLong(0);
+				lastAction[handle] = -1;
+			}
+		}
+		for(int k = 0; k < actingCount; k++)
+			stepAction[acting[k]] = -1;
+		int[] swapped = acted;
+		acted = acting;
+		acting = swapped;
+		actedCount = actingCount;
+		actingCount = 0;
+		if(write)
+		{
+			ensure(1);
+			buffer[position++] = 0;
+		}
+		return at;
+	}
+	
+	/**
+	 * Applies the state of an agent at the end of a step to the state at the last frame, and writes what changed.
+	 *
+	 * @param handle
+	 *            - the handle of the agent.
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @param orientation
+	 *            - the orientation ordinal, or <code>-1</code>.
+	 * @param points
+	 *            - the bits of the points.
+	 * @param write
+	 *            - <code>false</code> if the agent is only applied to the state.
+	 */
+	protected void encodeAgent(int handle, int x, int y, byte orientation, int points, boolean write)
+	{
+		ensureWriterHandles(handle + 1);
+		lastFrame[handle] = encodedSteps;
+		int action = stepAction[handle];
+		int flags;
+		if(!present[handle])
+			flags = ADDED | MOVED | TURNED | SCORED | ACTED;
+		else
+			flags = (x != lastX[handle] || y != lastY[handle] ? MOVED : 0)
+					| (orientation != lastOrientation[handle] ? TURNED : 0)
+					| (points != lastPoints[handle] ? SCORED : 0) | (action != lastAction[handle] ? ACTED : 0);
+		if(write && flags != 0)
+		{
+			ensure(32);
+			putVarLong(handle + 1);
+			buffer[position++] = (byte) flags;
+			if((flags & MOVED) != 0)
+			{
+				boolean added = (flags & ADDED) != 0;
+				putVarLong(zigzag(added ? x : x - lastX[handle]));
+				putVarLong(zigzag(added ? y : y - lastY[handle]));
+			}
+			if((flags & TURNED) != 0)
+				buffer[position++] = (byte) (orientation + 1);
+			if((flags & ACTED) != 0)
+				putVarLong(action + 1);
+			if((flags & SCORED) != 0)
+				putInt(points);
+		}
+		if(!present[handle])
+			presentCount++;
+		present[handle] = true;
+		lastX[handle] = x;
+		lastY[handle] = y;
+		lastOrientation[handle] = orientation;
+		lastPoints[handle] = points;
+		lastAction[handle] = action;
+	}
+	
+	/**
+	 * Writes the changed tiles of a step frame, with their new state.
+	 *
+	 * @param values
+	 *            - the values of the block.
+	 * @param at
+	 *            - the place of the number of tiles.
+	 * @return the place after the tiles.
+	 */
+	protected int encodeTiles(int[] values, int at)
+	{
+		int count = values[at++];
+		ensure(5);
+		putVarLong(count);
+		int previousX = 0, previousY = 0;
+		for(int k = 0; k < count; k++)
+		{
+			int x = values[at++], y = values[at++];
+			ensure(11);
+			putVarLong(zigzag(x - previousX));
+			putVarLong(zigzag(y - previousY));
+			buffer[position++] = (byte) values[at++];
+			previousX = x;
+			previousY = y;
+		}
+		return at;
+	}
+	
+	/**
+	 * Writes a keyframe with the state at the last frame, including the actions performed at the last frame, and the
+	 * layers of the entry.
+	 *
+	 * @param values
+	 *            - the values of the block.
+	 * @param at
+	 *            - the place of the layers.
+	 * @return the place after the layers.
+	 */
+	protected int encodeKeyframe(int[] values, int at)
+	{
+		if(encodedKeyframes == keyframeTimes.length)
+		{
+			keyframeTimes = Arrays.copyOf(keyframeTimes, encodedKeyframes * 2);
+			keyframeOffsets = Arrays.copyOf(keyframeOffsets, encodedKeyframes * 2);
+		}
+		keyframeTimes[encodedKeyframes] = frameTime;
+		keyframeOffsets[encodedKeyframes] = written + position;
+		encodedKeyframes++;
+		
+		int start = beginFrame(KEYFRAME);
+		ensure(15);
+		putVarLong(frameTime);
+		putVarLong(presentCount);
+		for(int handle = 0; handle < present.length; handle++)
+			if(present[handle])
+			{
+				ensure(32);
+				putVarLong(handle);
+				putVarLong(zigzag(lastX[handle]));
+				putVarLong(zigzag(lastY[handle]));
+				buffer[position++] = (byte) (lastOrientation[handle] + 1);
+				putVarLong(lastAction[handle] + 1);
+				putInt(lastPoints[handle]);
+			}
+		at = encodeLayer(values, at);
+		at = encodeLayer(values, at);
+		putPaddedLength(start);
+		return at;
+	}
+	
+	/**
+	 * Writes the marked positions of a layer: their number, followed by their coordinates, as differences from the
+	 * previous position.
+	 *
+	 * @param values
+	 *            - the values of the block.
+	 * @param at
+	 *            - the place of the layer.
+	 * @return the place after the layer.
+	 */
+	protected int encodeLayer(int[] values, int at)
+	{
+		int count = values[at++];
+		ensure(5);
+		putVarLong(count);
+		int previousX = 0, previousY = 0;
+		for(int k = 0; k < count; k++)
+		{
+			int x = values[at++], y = values[at++];
+			ensure(10);
+			putVarLong(zigzag(x - previousX));
+			putVarLong(zigzag(y - previousY));
+			previousX = x;
+			previousY = y;
+		}
+		return at;
+	}
+	
+	/**
+	 * Writes the footer, and the rest of the buffer.
+	 */
+	protected void writeFooter()
+	{
+		long footerOffset = written + position;
+		int start = beginFrame(FOOTER);
+		ensure(20);
+		putVarLong(frameTime);
+		putVarLong(encodedKeyframes);
+		long previousTime = 0, previousOffset = 0;
+		for(int k = 0; k < encodedKeyframes; k++)
+		{
+			ensure(20);
+			putVarLong(keyframeTimes[k] - previousTime);
+			putVarLong(keyframeOffsets[k] - previousOffset);
+			previousTime = keyframeTimes[k];
+			previousOffset = keyframeOffsets[k];
+		}
+		ensure(12);
+		putPaddedLength(start);
+		putInt((int) (footerOffset >>> 32));
+		putInt((int) footerOffset);
+		putInt(MAGIC);
+		flush();
+	}
+	
+	/**
+	 * Starts a frame with a length: writes its type, and leaves room for the length.
+	 *
+	 * @param type
+	 *            - the type of the frame.
+	 * @return the place of the length in the buffer.
+	 */
+	protected int beginFrame(byte type)
+	{
+		ensure(6);
+		buffer[position++] = type;
+		position += 5;
+		return position - 5;
+	}
+	
+	/**
+	 * Fills in the length of a frame started by {@link #beginFrame(byte)}, as a variable-length integer padded to 5
+	 * bytes.
+	 *
+	 * @param at
+	 *            - the place of the length.
+	 */
+	protected void putPaddedLength(int at)
+	{
+		int length = position - at - 5;
+		for(int k = 0; k < 4; k++)
+			buffer[at + k] = (byte) (((length >>> (7 * k)) & 0x7F) | 0x80);
+		buffer[at + 4] = (byte) (length >>> 28);
+	}
+	
+	/**
+	 * Makes room in the buffer, growing it if necessary; the buffer is only written to the file between frames.
+	 *
+	 * @param bytes
+	 *            - the number of bytes needed.
+	 */
+	protected void ensure(int bytes)
+	{
+		if(position + bytes > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+	}
+	
+	/**
+	 * Writes the content of the buffer to the file, and empties the buffer. After an error, nothing is written.
+	 */
+	protected void flush()
+	{
+		ByteBuffer content = ByteBuffer.wrap(buffer, 0, position);
+		try
+		{
+			while(error == null && content.hasRemaining())
+				written += channel.write(content);
+		} catch(IOException e)
+		{
+			error = e;
+		}
+		position = 0;
+	}
+	
+	/**
+	 * Makes room in the arrays indexed by handle used by the writer thread.
+	 *
+	 * @param count
+	 *            - the number of handles.
+	 */
+	protected void ensureWriterHandles(int count)
+	{
+		if(count <= present.length)
+			return;
+		int old = present.length;
+		int capacity = Math.max(count, old * 2);
+		present = Arrays.copyOf(present, capacity);
+		lastX = Arrays.copyOf(lastX, capacity);
+		lastY = Arrays.copyOf(lastY, capacity);
+		lastOrientation = Arrays.copyOf(lastOrientation, capacity);
+		lastPoints = Arrays.copyOf(lastPoints, capacity);
+		lastAction = Arrays.copyOf(lastAction, capacity);
+		Arrays.fill(lastAction, old, capacity, -1);
+		stepAction = Arrays.copyOf(stepAction, capacity);
+		Arrays.fill(stepAction, old, capacity, -1);
+		lastFrame = Arrays.copyOf(lastFrame, capacity);
+		acted = Arrays.copyOf(acted, Math.max(acted.length, capacity));
+		acting = Arrays.copyOf(acting, Math.max(acting.length, capacity));
+	}
+	
+	/**
+	 * Writes a non-negative number in 7-bit groups, least significant first; the high bit of each byte marks that more
+	 * bytes follow. There must be room in the buffer.
+	 *
+	 * @param value
+	 *            - the number.
+	 */
+	protected void putVarLong(long value)
+	{
+		while((value & ~0x7FL) != 0)
+		{
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+	
+	/**
+	 * Writes a number in 4 bytes. There must be room in the buffer.
+	 *
+	 * @param value
+	 *            - the number.
+	 */
+	protected void putInt(int value)
+	{
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+	
+	/**
+	 * @return the number of bytes written to the file so far; frames still waiting for the writer thread are not
+	 *         counted.
+	 */
+	public long getSize()
+	{
+		return written;
+	}
+	
+	/**
+	 * @return the number of keyframes recorded so far.
+	 */
+	public int getKeyframeCount()
+	{
+		return keyframes;
+	}
+	
+	/**
+	 * @return the number of step frames recorded so far.
+	 */
+	public int getStepCount()
+	{
+		return steps;
+	}
+	
+	/**
+	 * @return the time of the last frame.
+	 */
+	public long getLastTime()
+	{
+		return lastTime;
+	}
+	
+	/**
+	 * @param value
+	 *            - a number.
+	 * @return the number mapped to a non-negative number, so that numbers close to 0 remain small.
+	 */
+	static long zigzag(int value)
+	{
+		return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+	}
+}
@@ -0,0 +1,35 @@
+package logging;
+
+/**
+ * A sink that prints events to {@link System#out}, as soon as they are emitted.
+ *
+ * @author agent
+ */
+public class ConsoleEventSink implements EventSink
+{
+	/**
+	 * The minimum level of printed events.
+	 */
+	protected final EventLevel threshold;
+	
+	/**
+	 * @param minimumLevel
+	 *            - the minimum level of printed events.
+	 */
+	public ConsoleEventSink(EventLevel minimumLevel)
+	{
+		threshold = minimumLevel;
+	}
+	
+	@Override
+	public boolean isEnabled(EventLevel level)
+	{
+		return level.compareTo(threshold) >= 0 && level != EventLevel.OFF;
+	}
+	
+	@Override
+	public void emit(SimulationEvent event)
+	{
+		System.out.println(event);
+	}
+}
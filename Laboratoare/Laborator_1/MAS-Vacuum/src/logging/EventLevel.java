@@ -0,0 +1,35 @@
+package logging;
+
+/**
+ * Levels of simulation events, from the most detailed to the most important. A sink enabled for a level is also enabled
+ * for all following levels.
+ *
+ * @author agent
+ */
+public enum EventLevel {
+	/**
+	 * Detailed information about perceptions and decisions, produced several times per agent per step.
+	 */
+	TRACE,
+	
+	/**
+	 * Changes of agent position or orientation.
+	 */
+	DEBUG,
+	
+	/**
+	 * Changes of the environment, such as tiles being cleaned or agents being removed.
+	 */
+	INFO,
+	
+	/**
+	 * Unexpected situations, such as agents not returning an action.
+	 */
+	WARN,
+	
+	/**
+	 * Used as threshold to disable all events.
+	 */
+	OFF,
+
+}
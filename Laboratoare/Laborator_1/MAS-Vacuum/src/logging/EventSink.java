@@ -0,0 +1,27 @@
+package logging;
+
+/**
+ * Receives the events of the simulation.
+ * <p>
+ * Callers must check {@link #isEnabled(EventLevel)} before creating an event, so that no work is done for disabled
+ * levels. {@link Events} offers methods that do this.
+ *
+ * @author agent
+ */
+public interface EventSink
+{
+	/**
+	 * @param level
+	 *            - a level.
+	 * @return <code>true</code> if events of the given level are recorded.
+	 */
+	boolean isEnabled(EventLevel level);
+	
+	/**
+	 * Records an event. It is only called for events of enabled levels.
+	 *
+	 * @param event
+	 *            - the event.
+	 */
+	void emit(SimulationEvent event);
+}
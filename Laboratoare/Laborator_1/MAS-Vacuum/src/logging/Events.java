@@ -0,0 +1,94 @@
+package logging;
+
+import java.util.function.Supplier;
+
+import logging.SimulationEvent.EventType;
+
+/**
+ * Holds the sink receiving the events of the simulation, and offers methods to emit events. Events are only created if
+ * their level is enabled in the sink, so that emitting events costs almost nothing when they are not recorded.
+ * <p>
+ * By default, no events are recorded.
+ *
+ * @author agent
+ */
+public class Events
+{
+	/**
+	 * The current sink.
+	 */
+	private static volatile EventSink sink = NullEventSink.INSTANCE;
+	
+	/**
+	 * No instances.
+	 */
+	private Events()
+	{
+		// static methods only
+	}
+	
+	/**
+	 * @return the current sink.
+	 */
+	public static EventSink getSink()
+	{
+		return sink;
+	}
+	
+	/**
+	 * @param eventSink
+	 *            - the sink to receive events from now on; <code>null</code> to record no events.
+	 */
+	public static void setSink(EventSink eventSink)
+	{
+		sink = eventSink != null ? eventSink : NullEventSink.INSTANCE;
+	}
+	
+	/**
+	 * @param level
+	 *            - a level.
+	 * @return <code>true</code> if events of the given level are recorded.
+	 */
+	public static boolean isEnabled(EventLevel level)
+	{
+		return sink.isEnabled(level);
+	}
+	
+	/**
+	 * Emits an event, at the level of its type.
+	 *
+	 * @param type
+	 *            - the type of the event.
+	 * @param subject
+	 *            - the agent (or other entity) that the event is about.
+	 * @param x
+	 *            - the x coordinate of the event.
+	 * @param y
+	 *            - the y coordinate of the event.
+	 * @param detail
+	 *            - additional information; may be <code>null</code>.
+	 */
+	public static void emit(EventType type, Object subject, int x, int y, Object detail)
+	{
+		EventSink current = sink;
+		if(current.isEnabled(type.getLevel()))
+			current.emit(new SimulationEvent(type, type.getLevel(), subject, x, y, detail));
+	}
+	
+	/**
+	 * Emits a free-form message. The text is only produced if the level is enabled.
+	 *
+	 * @param level
+	 *            - the level of the message.
+	 * @param subject
+	 *            - the agent (or other entity) that the message is about; may be <code>null</code>.
+	 * @param text
+	 *            - produces the text of the message.
+	 */
+	public static void message(EventLevel level, Object subject, Supplier<String> text)
+	{
+		EventSink current = sink;
+		if(current.isEnabled(level))
+			current.emit(new SimulationEvent(EventType.MESSAGE, level, subject, 0, 0, text.get()));
+	}
+}
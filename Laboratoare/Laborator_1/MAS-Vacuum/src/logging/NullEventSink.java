@@ -0,0 +1,26 @@
+package logging;
+
+/**
+ * A sink that records nothing.
+ *
+ * @author agent
+ */
+public class NullEventSink implements EventSink
+{
+	/**
+	 * The instance.
+	 */
+	public static final NullEventSink INSTANCE = new NullEventSink();
+	
+	@Override
+	public boolean isEnabled(EventLevel level)
+	{
+		return false;
+	}
+	
+	@Override
+	public void emit(SimulationEvent event)
+	{
+		// nothing to do
+	}
+}
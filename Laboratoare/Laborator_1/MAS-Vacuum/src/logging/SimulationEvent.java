@@ -0,0 +1,222 @@
+package logging;
+
+/**
+ * An event that occurred in the simulation. Events are structured records; they are only formatted as text by the sinks
+ * that need it.
+ *
+ * @author agent
+ */
+public class SimulationEvent
+{
+	/**
+	 * Types of events.
+	 *
+	 * @author agent
+	 */
+	public static enum EventType {
+		/**
+		 * An agent moved to the position of the event.
+		 */
+		MOVED(EventLevel.DEBUG),
+		
+		/**
+		 * An agent turned. The detail is the new orientation.
+		 */
+		TURNED(EventLevel.DEBUG),
+		
+		/**
+		 * An agent cleaned the J-tile at the position of the event.
+		 */
+		CLEANED(EventLevel.INFO),
+		
+		/**
+		 * An agent was killed at the position of the event. The detail describes the killers.
+		 */
+		KILLED(EventLevel.INFO),
+		
+		/**
+		 * An agent tried to move onto the X-tile at the position of the event.
+		 */
+		WALL_BUMP(EventLevel.INFO),
+		
+		/**
+		 * An agent did not return an action.
+		 */
+		NO_ACTION(EventLevel.WARN),
+		
+		/**
+		 * A free-form message. The detail is the text.
+		 */
+		MESSAGE(EventLevel.TRACE),
+		
+		;
+		
+		/**
+		 * The level of events of this type.
+		 */
+		private final EventLevel level;
+		
+		/**
+		 * @param eventLevel
+		 *            - the level of events of this type.
+		 */
+		private EventType(EventLevel eventLevel)
+		{
+			level = eventLevel;
+		}
+		
+		/**
+		 * @return the level of events of this type.
+		 */
+		public EventLevel getLevel()
+		{
+			return level;
+		}
+	}
+	
+	/**
+	 * The type of the event.
+	 */
+	protected final EventType	type;
+	/**
+	 * The level of the event.
+	 */
+	protected final EventLevel	level;
+	/**
+	 * The agent (or other entity) that the event is about.
+	 */
+	protected final Object		subject;
+	/**
+	 * The x coordinate of the event.
+	 */
+	protected final int			x;
+	/**
+	 * The y coordinate of the event.
+	 */
+	protected final int			y;
+	/**
+	 * Additional information, depending on the type of the event; may be <code>null</code>.
+	 */
+	protected final Object		detail;
+	
+	/**
+	 * @param eventType
+	 *            - the type of the event.
+	 * @param eventLevel
+	 *            - the level of the event.
+	 * @param eventSubject
+	 *            - the agent (or other entity) that the event is about.
+	 * @param eventX
+	 *            - the x coordinate of the event.
+	 * @param eventY
+	 *            - the y coordinate of the event.
+	 * @param eventDetail
+	 *            - additional information; may be <code>null</code>.
+	 */
+	public SimulationEvent(EventType eventType, EventLevel eventLevel, Object eventSubject, int eventX, int eventY,
+			Object eventDetail)
+	{
+		type = eventType;
+		level = eventLevel;
+		subject = eventSubject;
+		x = eventX;
+		y = eventY;
+		detail = eventDetail;
+	}
+	
+	/**
+	 * @return the type of the event.
+	 */
+	public EventType getType()
+	{
+		return type;
+	}
+	
+	/**
+	 * @return the level of the event.
+	 */
+	public EventLevel getLevel()
+	{
+		return level;
+	}
+	
+	/**
+	 * @return the agent (or other entity) that the event is about.
+	 */
+	public Object getSubject()
+	{
+		return subject;
+	}
+	
+	/**
+	 * @return the x coordinate of the event.
+	 */
+	public int getX()
+	{
+		return x;
+	}
+	
+	/**
+	 * @return the y coordinate of the event.
+	 */
+	public int getY()
+	{
+		return y;
+	}
+	
+	/**
+	 * @return additional information, depending on the type of the event; may be <code>null</code>.
+	 */
+	public Object getDetail()
+	{
+		return detail;
+	}
+	
+	/**
+	 * Returns an event with the same content, in which the subject and the detail are replaced by their text, so that
+	 * it can be formatted later, by another thread, without reading objects that the simulation changes meanwhile.
+	 *
+	 * @return the event with text in place of its subject and detail, or the event itself if it holds no other
+	 *         objects.
+	 */
+	public SimulationEvent detach()
+	{
+		if(isDetached(subject) && isDetached(detail))
+			return this;
+		return new SimulationEvent(type, level, subject != null ? subject.toString() : null, x, y,
+				detail != null ? detail.toString() : null);
+	}
+	
+	/**
+	 * @param value
+	 *            - the subject or the detail of an event.
+	 * @return <code>true</code> if the value is <code>null</code>, a {@link String} or an enumeration constant, which
+	 *         cannot change.
+	 */
+	protected static boolean isDetached(Object value)
+	{
+		return value == null || value instanceof String || value instanceof Enum;
+	}
+	
+	@Override
+	public String toString()
+	{
+		switch(type)
+		{
+		case MOVED:
+			return "Agent " + subject + " moved to (" + x + ", " + y + ")";
+		case TURNED:
+			return "Agent " + subject + " turned to " + detail;
+		case CLEANED:
+			return "Agent " + subject + " cleaned (" + x + ", " + y + ")";
+		case KILLED:
+			return "Prey " + subject + " is dead, killed by " + detail;
+		case WALL_BUMP:
+			return "Agent " + subject + " tried to go through a wall.";
+		case NO_ACTION:
+			return "Agent " + subject + " did not opt for any action.";
+		default:
+			return String.valueOf(detail);
+		}
+	}
+}
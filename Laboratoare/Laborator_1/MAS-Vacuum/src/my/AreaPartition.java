@@ -0,0 +1,398 @@
+package my;
+
+import gridworld.AbstractGridEnvironment;
+import gridworld.GridOrientation;
+import gridworld.GridPosition;
+
+import java.util.Arrays;
+
+/**
+ * Divides the free cells of an environment into regions, one for each cleaner.
+ * <p>
+ * The seeds of the regions are chosen by farthest-point sampling: the first seed is given, and each next seed is the
+ * free cell that is farthest (in steps) from all previous seeds. Each free cell then belongs to the region of the
+ * nearest seed (a Voronoi partition over path distances), computed by a single multi-source breadth-first search.
+ * <p>
+ * Cells are identified by an index in the rectangle covering the environment. The same breadth-first search is also
+ * used to find shortest paths between cells; it stops as soon as it reaches the destination, and marks the visited
+ * cells with the number of the search, so that a path between close cells costs only as much as the cells around them.
+ *
+ * @author agent
+ */
+public class AreaPartition
+{
+	/**
+	 * Minimum x coordinate of the covered rectangle.
+	 */
+	protected final int			minX;
+	/**
+	 * Minimum y coordinate of the covered rectangle.
+	 */
+	protected final int			minY;
+	/**
+	 * Number of columns of the covered rectangle.
+	 */
+	protected final int			width;
+	/**
+	 * Number of rows of the covered rectangle.
+	 */
+	protected final int			height;
+	/**
+	 * <code>true</code> for free cells.
+	 */
+	protected final boolean[]	free;
+	/**
+	 * The region of each cell, or <code>-1</code> for cells that are not free or not reachable from any seed.
+	 */
+	protected final int[]		owner;
+	/**
+	 * The seed of each region, as a cell index.
+	 */
+	protected final int[]		seeds;
+	/**
+	 * The number of cells in each region.
+	 */
+	protected final int[]		sizes;
+	
+	/**
+	 * For each cell, the index of the source from which it was reached by the last search, or <code>-1</code>.
+	 */
+	protected final int[]		label;
+	/**
+	 * Distances computed by the last search.
+	 */
+	protected final int[]		distance;
+	/**
+	 * For each cell reached by the last search, the cell from which it was reached, or <code>-1</code> for sources.
+	 */
+	protected final int[]		parent;
+	/**
+	 * Queue of the search.
+	 */
+	protected final int[]		queue;
+	/**
+	 * For each cell, the number of the last search of a path that reached it.
+	 */
+	protected final int[]		visited;
+	/**
+	 * The number of the last search of a path.
+	 */
+	protected int				pathSearches	= 0;
+	
+	/**
+	 * Partitions the free cells of the environment.
+	 *
+	 * @param environment
+	 *            - the environment.
+	 * @param regions
+	 *            - the number of regions.
+	 * @param start
+	 *            - the position of the first seed; it must be free.
+	 */
+	public AreaPartition(AbstractGridEnvironment environment, int regions, GridPosition start)
+	{
+		GridPosition bottomLeft = environment.getBottomLeft();
+		GridPosition topRight = environment.getTopRight();
+		minX = bottomLeft.getX() - 1;
+		minY = bottomLeft.getY() - 1;
+		width = topRight.getX() + 1 - minX + 1;
+		height = topRight.getY() + 1 - minY + 1;
+		free = new boolean[width * height];
+		for(int i = 0; i < free.length; i++)
+			free[i] = environment.isFree(indexX(i), indexY(i));
+		if(!contains(start.getX(), start.getY()) || !free[index(start.getX(), start.getY())])
+			throw new IllegalArgumentException("Start position " + start + " is not free");
+		
+		label = new int[free.length];
+		distance = new int[free.length];
+		parent = new int[free.length];
+		queue = new int[free.length];
+		visited = new int[free.length];
+		
+		seeds = new int[Math.max(1, regions)];
+		seeds[0] = index(start.getX(), start.getY());
+		for(int k = 1; k < seeds.length; k++)
+			// the last cell reached by the search is the farthest from all seeds so far
+			seeds[k] = search(seeds, k);
+		search(seeds, seeds.length);
+		owner = label.clone();
+		sizes = new int[seeds.length];
+		for(int i = 0; i < owner.length; i++)
+			if(owner[i] >= 0)
+				sizes[owner[i]]++;
+	}
+	
+	/**
+	 * Multi-source breadth-first search over free cells. Fills {@link #label}, {@link #distance} and {@link #parent}.
+	 *
+	 * @param sources
+	 *            - the source cells.
+	 * @param count
+	 *            - the number of sources to use, from the beginning of the array.
+	 * @return the last cell reached by the search.
+	 */
+	protected int search(int[] sources, int count)
+	{
+		Arrays.fill(label, -1);
+		int head = 0, tail = 0;
+		for(int k = 0; k < count; k++)
+			if(label[sources[k]] < 0)
+			{
+				label[sources[k]] = k;
+				distance[sources[k]] = 0;
+				parent[sources[k]] = -1;
+				queue[tail++] = sources[k];
+			}
+		int last = sources[0];
+		while(head < tail)
+		{
+			int cell = queue[head++];
+			last = cell;
+			int cx = indexX(cell);
+			int cy = indexY(cell);
+			for(GridOrientation direction : GridOrientation.values())
+			{
+				int nx = cx + direction.getDx();
+				int ny = cy + direction.getDy();
+				if(!contains(nx, ny))
+					continue;
+				int next = index(nx, ny);
+				if(free[next] && label[next] < 0)
+				{
+					label[next] = label[cell];
+					distance[next] = distance[cell] + 1;
+					parent[next] = cell;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return last;
+	}
+	
+	/**
+	 * Computes the shortest path between two free cells. The partition itself is not changed.
+	 *
+	 * @param from
+	 *            - the index of the start cell.
+	 * @param to
+	 *            - the index of the destination cell.
+	 * @return the moves on the path, or <code>null</code> if the destination cannot be reached.
+	 */
+	public GridOrientation[] path(int from, int to)
+	{
+		int mark = ++pathSearches;
+		visited[from] = mark;
+		parent[from] = -1;
+		distance[from] = 0;
+		queue[0] = from;
+		int head = 0, tail = 1;
+		while(head < tail && visited[to] != mark)
+		{
+			int cell = queue[head++];
+			int cx = indexX(cell);
+			int cy = indexY(cell);
+			for(GridOrientation direction : GridOrientation.values())
+			{
+				int nx = cx + direction.getDx();
+				int ny = cy + direction.getDy();
+				if(!contains(nx, ny))
+					continue;
+				int next = index(nx, ny);
+				if(free[next] && visited[next] != mark)
+				{
+					visited[next] = mark;
+					distance[next] = distance[cell] + 1;
+					parent[next] = cell;
+					queue[tail++] = next;
+				}
+			}
+		}
+		if(visited[to] != mark)
+			return null;
+		return pathFromSearch(to);
+	}
+	
+	/**
+	 * Computes the distances from a cell to all free cells. The partition itself is not changed.
+	 *
+	 * @param from
+	 *            - the index of the start cell.
+	 * @return the distance to each cell, or <code>-1</code> for cells that cannot be reached.
+	 */
+	public int[] distancesFrom(int from)
+	{
+		return distancesFrom(from, new int[distance.length]);
+	}
+	
+	/**
+	 * Computes the distances from a cell to all free cells, in an existing array. The partition itself is not changed.
+	 *
+	 * @param from
+	 *            - the index of the start cell.
+	 * @param result
+	 *            - the array to fill, of length {@link #area()}.
+	 * @return the array, with the distance to each cell, or <code>-1</code> for cells that cannot be reached.
+	 */
+	public int[] distancesFrom(int from, int[] result)
+	{
+		search(new int[] { from }, 1);
+		for(int i = 0; i < result.length; i++)
+			result[i] = label[i] >= 0 ? distance[i] : -1;
+		return result;
+	}
+	
+	/**
+	 * @param to
+	 *            - a cell reached by the last search.
+	 * @return the moves from the source of the last search, or of the last search of a path, to the cell.
+	 */
+	protected GridOrientation[] pathFromSearch(int to)
+	{
+		GridOrientation[] moves = new GridOrientation[distance[to]];
+		int i = moves.length;
+		for(int cell = to; parent[cell] >= 0; cell = parent[cell])
+			moves[--i] = direction(parent[cell], cell);
+		return moves;
+	}
+	
+	/**
+	 * @param from
+	 *            - the index of a cell.
+	 * @param to
+	 *            - the index of a neighbor of the cell.
+	 * @return the direction of the move from the cell to its neighbor.
+	 */
+	public GridOrientation direction(int from, int to)
+	{
+		int dx = indexX(to) - indexX(from);
+		int dy = indexY(to) - indexY(from);
+		return dx > 0 ? GridOrientation.EAST
+				: (dx < 0 ? GridOrientation.WEST : (dy > 0 ? GridOrientation.NORTH : GridOrientation.SOUTH));
+	}
+	
+	/**
+	 * @param a
+	 *            - the index of a cell.
+	 * @param b
+	 *            - the index of another cell.
+	 * @return <code>true</code> if the cells are neighbors on one of the 4 directions.
+	 */
+	public boolean adjacent(int a, int b)
+	{
+		return Math.abs(indexX(a) - indexX(b)) + Math.abs(indexY(a) - indexY(b)) == 1;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position is inside the covered rectangle.
+	 */
+	public boolean contains(int x, int y)
+	{
+		return x >= minX && x < minX + width && y >= minY && y < minY + height;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate, inside the covered rectangle.
+	 * @param y
+	 *            - the y coordinate, inside the covered rectangle.
+	 * @return the index of the cell.
+	 */
+	public int index(int x, int y)
+	{
+		return (x - minX) * height + (y - minY);
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of a cell.
+	 * @return the x coordinate of the cell.
+	 */
+	public int indexX(int index)
+	{
+		return minX + index / height;
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of a cell.
+	 * @return the y coordinate of the cell.
+	 */
+	public int indexY(int index)
+	{
+		return minY + index % height;
+	}
+	
+	/**
+	 * @return the number of cells in the covered rectangle.
+	 */
+	public int area()
+	{
+		return free.length;
+	}
+	
+	/**
+	 * @return the minimum x coordinate of the covered rectangle.
+	 */
+	public int getMinX()
+	{
+		return minX;
+	}
+	
+	/**
+	 * @return the number of columns of the covered rectangle.
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+	
+	/**
+	 * @return the number of rows of the covered rectangle.
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	/**
+	 * @return the number of regions.
+	 */
+	public int getRegionCount()
+	{
+		return seeds.length;
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of a cell.
+	 * @return the region of the cell, or <code>-1</code> if the cell does not belong to any region.
+	 */
+	public int getRegion(int index)
+	{
+		return owner[index];
+	}
+	
+	/**
+	 * @param region
+	 *            - the region.
+	 * @return the index of the seed cell of the region.
+	 */
+	public int getSeed(int region)
+	{
+		return seeds[region];
+	}
+	
+	/**
+	 * @param region
+	 *            - the region.
+	 * @return the number of cells in the region.
+	 */
+	public int getSize(int region)
+	{
+		return sizes[region];
+	}
+}
@@ -0,0 +1,290 @@
+package my;
+
+import gridworld.AbstractGridEnvironment;
+import gridworld.GridOrientation;
+import gridworld.GridPosition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Divides the cleaning of an environment between several {@link SweepCleanerAgent} instances, so that they do not
+ * cover the same cells.
+ * <p>
+ * Before the first step, the free cells are divided into one region for each cleaner by an {@link AreaPartition}, and
+ * each cleaner receives a route that sweeps its region column by column, going up and down alternately
+ * (boustrophedon). Before each following step, each cleaner that finished its route takes over the end of the longest
+ * remaining route, if this makes the work finish earlier. Cleaners are always processed in the order in which they were
+ * created, so the result does not depend on anything else than the map and the start positions.
+ * <p>
+ * While the routes only get shorter by the moves of the cleaners, a takeover that was not worth it stays so. Therefore
+ * an idle cleaner that found nothing to take over from a cleaner only looks again after the routes are changed by a
+ * takeover, or if another cleaner has the longest route.
+ * <p>
+ * The coordinator must be set on the environment with {@link MyEnvironment#setCoordinator(CleaningCoordinator)}.
+ *
+ * @author agent
+ */
+public class CleaningCoordinator
+{
+	/**
+	 * The environment.
+	 */
+	protected final AbstractGridEnvironment	environment;
+	/**
+	 * The cleaners, in the order of their creation.
+	 */
+	protected final List<SweepCleanerAgent>	cleaners	= new ArrayList<>();
+	/**
+	 * The partition of the environment, computed before the first step.
+	 */
+	protected AreaPartition					partition	= null;
+	/**
+	 * Number of times a cleaner took over the end of the route of another cleaner.
+	 */
+	protected int							rebalances	= 0;
+	/**
+	 * For each cleaner, the index of the cleaner from which it last found nothing to take over, or <code>-1</code>.
+	 */
+	protected int[]							checkedDonor;
+	/**
+	 * For each cleaner, the number of takeovers at the time it last found nothing to take over.
+	 */
+	protected int[]							checkedAt;
+	/**
+	 * Distances from an idle cleaner, reused between searches.
+	 */
+	protected int[]							distances;
+	
+	/**
+	 * @param cleanedEnvironment
+	 *            - the environment to clean.
+	 */
+	public CleaningCoordinator(AbstractGridEnvironment cleanedEnvironment)
+	{
+		environment = cleanedEnvironment;
+	}
+	
+	/**
+	 * Creates a new cleaner. The cleaner must be added to the environment at the given position. All cleaners must be
+	 * created before the first step.
+	 *
+	 * @param start
+	 *            - the position at which the cleaner will be added.
+	 * @return the cleaner.
+	 */
+	public SweepCleanerAgent createCleaner(GridPosition start)
+	{
+		if(partition != null)
+			throw new IllegalStateException("Cleaners must be created before the first step");
+		SweepCleanerAgent cleaner = new SweepCleanerAgent(start);
+		cleaners.add(cleaner);
+		return cleaner;
+	}
+	
+	/**
+	 * Called by the environment before each step: plans the routes before the first step, and rebalances them before
+	 * the following steps.
+	 */
+	public void beforeStep()
+	{
+		if(cleaners.isEmpty())
+			return;
+		if(partition == null)
+			plan();
+		else
+			rebalance();
+	}
+	
+	/**
+	 * Partitions the environment and gives each cleaner the route sweeping its region. Each cleaner, in order, takes the
+	 * region with the nearest seed among those not yet taken.
+	 */
+	protected void plan()
+	{
+		SweepCleanerAgent first = cleaners.get(0);
+		partition = new AreaPartition(environment, cleaners.size(),
+				environment.getPositionAt(first.getX(), first.getY()));
+		checkedDonor = new int[cleaners.size()];
+		Arrays.fill(checkedDonor, -1);
+		checkedAt = new int[cleaners.size()];
+		distances = new int[partition.area()];
+		boolean[] taken = new boolean[partition.getRegionCount()];
+		for(SweepCleanerAgent cleaner : cleaners)
+		{
+			int[] distance = partition.distancesFrom(cellOf(cleaner), distances);
+			int best = -1;
+			for(int region = 0; region < taken.length; region++)
+			{
+				int d = distance[partition.getSeed(region)];
+				if(!taken[region] && d >= 0 && (best < 0 || d < distance[partition.getSeed(best)]))
+					best = region;
+			}
+			if(best < 0)
+				continue;
+			taken[best] = true;
+			int[] cells = sweepOrder(best);
+			if(cells.length == 0)
+				continue;
+			// start from the end of the sweep that is closer to the cleaner
+			if(distance[cells[cells.length - 1]] < distance[cells[0]])
+				reverse(cells);
+			assignRoute(cleaner, cells);
+		}
+	}
+	
+	/**
+	 * Gives idle cleaners parts of the routes of other cleaners. An idle cleaner takes over the route of the cleaner
+	 * with the most remaining moves, from the point that makes both finish the earliest; the other cleaner stops at that
+	 * point. Nothing is done if the idle cleaner would not finish before the other cleaner would finish alone.
+	 */
+	protected void rebalance()
+	{
+		for(int i = 0; i < cleaners.size(); i++)
+		{
+			SweepCleanerAgent idle = cleaners.get(i);
+			if(idle.getRemaining() > 0)
+				continue;
+			int donorIndex = -1;
+			for(int j = 0; j < cleaners.size(); j++)
+				if(cleaners.get(j).getRemaining() > 1
+						&& (donorIndex < 0 || cleaners.get(j).getRemaining() > cleaners.get(donorIndex).getRemaining()))
+					donorIndex = j;
+			if(donorIndex < 0)
+				return;
+			if(checkedDonor[i] == donorIndex && checkedAt[i] == rebalances)
+				continue;
+			SweepCleanerAgent donor = cleaners.get(donorIndex);
+			
+			// after k moves of the donor, it stops, and the idle cleaner goes to its position and does the rest
+			int[] distance = partition.distancesFrom(cellOf(idle), distances);
+			int remaining = donor.getRemaining();
+			int bestK = -1, bestTime = remaining;
+			int x = donor.getX(), y = donor.getY();
+			int takeoverX = x, takeoverY = y;
+			for(int k = 1; k < remaining; k++)
+			{
+				x += donor.getMove(k - 1).getDx();
+				y += donor.getMove(k - 1).getDy();
+				int d = distance[partition.index(x, y)];
+				int time = Math.max(k, d + remaining - k);
+				if(d >= 0 && time < bestTime)
+				{
+					bestTime = time;
+					bestK = k;
+					takeoverX = x;
+					takeoverY = y;
+				}
+			}
+			if(bestK < 0)
+			{
+				checkedDonor[i] = donorIndex;
+				checkedAt[i] = rebalances;
+				continue;
+			}
+			
+			GridOrientation[] approach = partition.path(cellOf(idle), partition.index(takeoverX, takeoverY));
+			GridOrientation[] route = Arrays.copyOf(approach, approach.length + remaining - bestK);
+			for(int k = bestK; k < remaining; k++)
+				route[approach.length + k - bestK] = donor.getMove(k);
+			donor.truncateRoute(bestK);
+			idle.setRoute(route, route.length);
+			rebalances++;
+		}
+	}
+	
+	/**
+	 * @param region
+	 *            - a region of the partition.
+	 * @return the cells of the region, column by column, going up in even columns and down in odd columns.
+	 */
+	protected int[] sweepOrder(int region)
+	{
+		int[] cells = new int[partition.getSize(region)];
+		int n = 0;
+		int height = partition.getHeight();
+		for(int column = 0; column < partition.getWidth(); column++)
+			for(int row = 0; row < height; row++)
+			{
+				int cell = column * height + ((column & 1) == 0 ? row : height - 1 - row);
+				if(partition.getRegion(cell) == region)
+					cells[n++] = cell;
+			}
+		return cells;
+	}
+	
+	/**
+	 * Gives a cleaner the route that visits the given cells in order, going between cells that are not neighbors on
+	 * the shortest path.
+	 *
+	 * @param cleaner
+	 *            - the cleaner.
+	 * @param cells
+	 *            - the cells to visit.
+	 */
+	protected void assignRoute(SweepCleanerAgent cleaner, int[] cells)
+	{
+		GridOrientation[] route = new GridOrientation[cells.length * 2];
+		int length = 0;
+		int at = cellOf(cleaner);
+		for(int cell : cells)
+		{
+			if(cell == at)
+				continue;
+			GridOrientation[] moves = partition.adjacent(at, cell)
+					? new GridOrientation[] { partition.direction(at, cell) }
+					: partition.path(at, cell);
+			if(moves == null)
+				continue;
+			if(length + moves.length > route.length)
+				route = Arrays.copyOf(route, Math.max(route.length * 2, length + moves.length));
+			System.arraycopy(moves, 0, route, length, moves.length);
+			length += moves.length;
+			at = cell;
+		}
+		cleaner.setRoute(route, length);
+	}
+	
+	/**
+	 * @param cleaner
+	 *            - a cleaner.
+	 * @return the index, in the partition, of the cell of the cleaner.
+	 */
+	protected int cellOf(SweepCleanerAgent cleaner)
+	{
+		return partition.index(cleaner.getX(), cleaner.getY());
+	}
+	
+	/**
+	 * Reverses an array in place.
+	 *
+	 * @param cells
+	 *            - the array.
+	 */
+	protected static void reverse(int[] cells)
+	{
+		for(int i = 0, j = cells.length - 1; i < j; i++, j--)
+		{
+			int t = cells[i];
+			cells[i] = cells[j];
+			cells[j] = t;
+		}
+	}
+	
+	/**
+	 * @return the partition of the environment, or <code>null</code> before the first step.
+	 */
+	public AreaPartition getPartition()
+	{
+		return partition;
+	}
+	
+	/**
+	 * @return the number of times a cleaner took over the end of the route of another cleaner.
+	 */
+	public int getRebalanceCount()
+	{
+		return rebalances;
+	}
+}
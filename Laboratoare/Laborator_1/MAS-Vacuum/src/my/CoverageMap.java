@@ -0,0 +1,334 @@
+package my;
+
+import java.util.Arrays;
+
+/**
+ * The map built by an agent of the cells it has seen, in coordinates relative to its starting position. Each cell may
+ * be known to be free, known to be blocked, and visited. Cells outside the stored area are unknown.
+ * <p>
+ * The map is stored as three bitsets over a rectangle that grows (doubling its size) when the agent sees cells outside
+ * it. The index of the cell (x, y) is <code>(x - minX) * height + (y - minY)</code>; indexes change when the map grows,
+ * which is signalled by {@link #getVersion()}.
+ *
+ * @author agent
+ */
+public class CoverageMap
+{
+	/**
+	 * Initial size of the side of the map.
+	 */
+	protected static final int	INITIAL_SIZE	= 16;
+	
+	/**
+	 * Minimum x coordinate of the stored area.
+	 */
+	protected int				minX;
+	/**
+	 * Minimum y coordinate of the stored area.
+	 */
+	protected int				minY;
+	/**
+	 * Number of columns of the stored area.
+	 */
+	protected int				width;
+	/**
+	 * Number of rows of the stored area.
+	 */
+	protected int				height;
+	/**
+	 * Cells known to be free.
+	 */
+	protected long[]			free;
+	/**
+	 * Cells known to be blocked.
+	 */
+	protected long[]			blocked;
+	/**
+	 * Cells visited by the agent.
+	 */
+	protected long[]			visited;
+	/**
+	 * Number of visited cells.
+	 */
+	protected int				visitedCount	= 0;
+	/**
+	 * Incremented each time a cell becomes known, or the stored area grows.
+	 */
+	protected int				version			= 0;
+	
+	/**
+	 * Creates an empty map, centered on (0, 0).
+	 */
+	public CoverageMap()
+	{
+		minX = -INITIAL_SIZE / 2;
+		minY = -INITIAL_SIZE / 2;
+		width = INITIAL_SIZE;
+		height = INITIAL_SIZE;
+		free = new long[words()];
+		blocked = new long[words()];
+		visited = new long[words()];
+	}
+	
+	/**
+	 * @return the number of words needed for the current area.
+	 */
+	private int words()
+	{
+		return (int) (((long) width * height + 63) >>> 6);
+	}
+	
+	/**
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return <code>true</code> if the cell is inside the stored area.
+	 */
+	public boolean contains(int x, int y)
+	{
+		return x >= minX && x < minX + width && y >= minY && y < minY + height;
+	}
+	
+	/**
+	 * @param x
+	 *            - x coordinate, inside the stored area.
+	 * @param y
+	 *            - y coordinate, inside the stored area.
+	 * @return the index of the cell.
+	 */
+	public int index(int x, int y)
+	{
+		return (x - minX) * height + (y - minY);
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of a cell.
+	 * @return the x coordinate of the cell.
+	 */
+	public int indexX(int index)
+	{
+		return minX + index / height;
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of a cell.
+	 * @return the y coordinate of the cell.
+	 */
+	public int indexY(int index)
+	{
+		return minY + index % height;
+	}
+	
+	/**
+	 * @return the number of cells in the stored area.
+	 */
+	public int area()
+	{
+		return width * height;
+	}
+	
+	/**
+	 * @param bits
+	 *            - a bitset.
+	 * @param index
+	 *            - an index.
+	 * @return the bit at the index.
+	 */
+	private static boolean bit(long[] bits, int index)
+	{
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of a cell.
+	 * @return <code>true</code> if the cell is known to be free.
+	 */
+	public boolean isFreeAt(int index)
+	{
+		return bit(free, index);
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of a cell.
+	 * @return <code>true</code> if the cell was visited.
+	 */
+	public boolean isVisitedAt(int index)
+	{
+		return bit(visited, index);
+	}
+	
+	/**
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return <code>true</code> if the cell is known to be free.
+	 */
+	public boolean isFree(int x, int y)
+	{
+		return contains(x, y) && bit(free, index(x, y));
+	}
+	
+	/**
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return <code>true</code> if the cell is known to be blocked.
+	 */
+	public boolean isBlocked(int x, int y)
+	{
+		return contains(x, y) && bit(blocked, index(x, y));
+	}
+	
+	/**
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return <code>true</code> if the cell was visited.
+	 */
+	public boolean isVisited(int x, int y)
+	{
+		return contains(x, y) && bit(visited, index(x, y));
+	}
+	
+	/**
+	 * Marks a cell as free, unless it is already known.
+	 *
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 */
+	public void markFree(int x, int y)
+	{
+		ensure(x, y);
+		int i = index(x, y);
+		if(!bit(free, i) && !bit(blocked, i))
+		{
+			free[i >>> 6] |= 1L << i;
+			version++;
+		}
+	}
+	
+	/**
+	 * Marks a cell as blocked, unless it is already known.
+	 *
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 */
+	public void markBlocked(int x, int y)
+	{
+		ensure(x, y);
+		int i = index(x, y);
+		if(!bit(free, i) && !bit(blocked, i))
+		{
+			blocked[i >>> 6] |= 1L << i;
+			version++;
+		}
+	}
+	
+	/**
+	 * Marks a cell as visited (and free).
+	 *
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 */
+	public void markVisited(int x, int y)
+	{
+		markFree(x, y);
+		int i = index(x, y);
+		if(!bit(visited, i))
+		{
+			visited[i >>> 6] |= 1L << i;
+			visitedCount++;
+			version++;
+		}
+	}
+	
+	/**
+	 * @return the number of visited cells.
+	 */
+	public int getVisitedCount()
+	{
+		return visitedCount;
+	}
+	
+	/**
+	 * @return a number that changes each time a cell becomes known or visited, or the indexes of cells change.
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * Grows the stored area, if needed, so that it contains the given cell.
+	 *
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 */
+	protected void ensure(int x, int y)
+	{
+		if(contains(x, y))
+			return;
+		int newMinX = minX, newMinY = minY, newWidth = width, newHeight = height;
+		while(x < newMinX)
+		{
+			newMinX -= newWidth;
+			newWidth *= 2;
+		}
+		while(x >= newMinX + newWidth)
+			newWidth *= 2;
+		while(y < newMinY)
+		{
+			newMinY -= newHeight;
+			newHeight *= 2;
+		}
+		while(y >= newMinY + newHeight)
+			newHeight *= 2;
+		
+		long[][] old = { free, blocked, visited };
+		int oldMinX = minX, oldMinY = minY, oldHeight = height, oldArea = width * height;
+		minX = newMinX;
+		minY = newMinY;
+		width = newWidth;
+		height = newHeight;
+		long[][] grown = new long[3][words()];
+		for(int i = 0; i < oldArea; i++)
+		{
+			int j = index(oldMinX + i / oldHeight, oldMinY + i % oldHeight);
+			for(int k = 0; k < 3; k++)
+				if(bit(old[k], i))
+					grown[k][j >>> 6] |= 1L << j;
+		}
+		free = grown[0];
+		blocked = grown[1];
+		visited = grown[2];
+		version++;
+	}
+	
+	/**
+	 * Forgets all cells.
+	 */
+	public void clear()
+	{
+		Arrays.fill(free, 0);
+		Arrays.fill(blocked, 0);
+		Arrays.fill(visited, 0);
+		visitedCount = 0;
+		version++;
+	}
+}
@@ -0,0 +1,315 @@
+package my;
+
+import base.Action;
+import base.Agent;
+import base.Perceptions;
+import gridworld.GridOrientation;
+import gridworld.GridRelativeOrientation;
+import my.MyEnvironment.MyAction;
+import my.MyEnvironment.MyAgentPerceptions;
+
+/**
+ * A cleaner agent that covers the whole room, by always going to the nearest free cell it has not visited yet.
+ * <p>
+ * The agent does not know its position; it keeps track of its moves relative to its starting position (dead
+ * reckoning), using the compass from its perceptions to know the direction of each move. From the obstacles around
+ * each visited cell it builds a {@link CoverageMap} of free and blocked cells. The nearest unvisited free cell (a
+ * frontier) is found by a breadth-first search over known free cells, and the agent follows the path to it.
+ * <p>
+ * The search is limited to a number of expanded cells per step. If it does not finish in one step, the agent turns in
+ * place (which does not change what it knows) and continues the search at the next step. The limit is a number of
+ * cells rather than a duration, so that runs can be reproduced exactly.
+ *
+ * @author agent
+ */
+public class CoveragePlannerAgent implements Agent
+{
+	/**
+	 * Default number of cells expanded by the search in one step.
+	 */
+	public static final int				DEFAULT_EXPANSIONS_PER_STEP	= 4096;
+	/**
+	 * The orientations, in clockwise order.
+	 */
+	protected static final GridOrientation[]	ORIENTATIONS				= GridOrientation.values();
+	
+	/**
+	 * Maximum number of cells expanded by the search in one step.
+	 */
+	protected final int					expansionsPerStep;
+	/**
+	 * What the agent knows about the room.
+	 */
+	protected final CoverageMap			map							= new CoverageMap();
+	/**
+	 * The x coordinate of the agent, relative to its starting position.
+	 */
+	protected int						x							= 0;
+	/**
+	 * The y coordinate of the agent, relative to its starting position.
+	 */
+	protected int						y							= 0;
+	/**
+	 * The last action returned by the agent.
+	 */
+	protected MyAction					lastAction					= null;
+	/**
+	 * The orientation of the agent when it returned its last action.
+	 */
+	protected GridOrientation			lastOrientation				= null;
+	
+	/**
+	 * The directions of the moves on the current path.
+	 */
+	protected GridOrientation[]			path						= new GridOrientation[16];
+	/**
+	 * Number of moves on the current path.
+	 */
+	protected int						pathLength					= 0;
+	/**
+	 * Index of the next move on the current path.
+	 */
+	protected int						pathNext					= 0;
+	/**
+	 * The version of the map for which the current path was computed.
+	 */
+	protected int						pathVersion					= -1;
+	
+	/**
+	 * Queue of the search, as cell indexes.
+	 */
+	protected int[]						queue						= new int[0];
+	/**
+	 * For each cell reached by the search, the index of the cell from which it was reached.
+	 */
+	protected int[]						parent						= new int[0];
+	/**
+	 * For each cell, the number of the search that reached it; cells reached by older searches are not reached.
+	 */
+	protected int[]						reached						= new int[0];
+	/**
+	 * Number of the current search.
+	 */
+	protected int						search						= 0;
+	/**
+	 * Next cell to take from the queue.
+	 */
+	protected int						queueHead					= 0;
+	/**
+	 * End of the queue.
+	 */
+	protected int						queueTail					= 0;
+	/**
+	 * The version of the map for which the current search was started, or <code>-1</code> if there is no search in
+	 * progress.
+	 */
+	protected int						searchVersion				= -1;
+	
+	/**
+	 * Creates an agent with the default search limit.
+	 */
+	public CoveragePlannerAgent()
+	{
+		this(DEFAULT_EXPANSIONS_PER_STEP);
+	}
+	
+	/**
+	 * @param maxExpansionsPerStep
+	 *            - maximum number of cells expanded by the search in one step.
+	 */
+	public CoveragePlannerAgent(int maxExpansionsPerStep)
+	{
+		expansionsPerStep = Math.max(1, maxExpansionsPerStep);
+	}
+	
+	@Override
+	public Action response(Perceptions perceptions)
+	{
+		MyAgentPerceptions percept = (MyAgentPerceptions) perceptions;
+		GridOrientation orientation = percept.getAbsoluteOrientation();
+		
+		// dead reckoning: moving forward always succeeds, as the agent only does it when there is no obstacle in front
+		if(lastAction == MyAction.FORWARD)
+		{
+			x += lastOrientation.getDx();
+			y += lastOrientation.getDy();
+		}
+		
+		// update the map
+		map.markVisited(x, y);
+		for(GridRelativeOrientation relative : GridRelativeOrientation.values())
+		{
+			int nx = x + orientation.getRelativeDx(relative);
+			int ny = y + orientation.getRelativeDy(relative);
+			if(percept.getObstacles().contains(relative))
+				map.markBlocked(nx, ny);
+			else
+				map.markFree(nx, ny);
+		}
+		
+		return act(decide(percept, orientation), orientation);
+	}
+	
+	/**
+	 * Chooses the action for the current step.
+	 *
+	 * @param percept
+	 *            - the perceptions.
+	 * @param orientation
+	 *            - the current orientation.
+	 * @return the action.
+	 */
+	protected MyAction decide(MyAgentPerceptions percept, GridOrientation orientation)
+	{
+		if(percept.isOverJtile())
+			return MyAction.PICK;
+		
+		if(pathNext >= pathLength || pathVersion != map.getVersion())
+		{
+			pathLength = pathNext = 0;
+			if(!searchFrontier())
+				// the search needs more steps, or there is nothing left to explore
+				return MyAction.TURN_RIGHT;
+		}
+		return turnTowards(orientation, path[pathNext]);
+	}
+	
+	/**
+	 * Records the action before returning it, for dead reckoning.
+	 *
+	 * @param action
+	 *            - the action.
+	 * @param orientation
+	 *            - the current orientation.
+	 * @return the action.
+	 */
+	protected MyAction act(MyAction action, GridOrientation orientation)
+	{
+		lastAction = action;
+		lastOrientation = orientation;
+		if(action == MyAction.FORWARD)
+			pathNext++;
+		return action;
+	}
+	
+	/**
+	 * @param orientation
+	 *            - the current orientation.
+	 * @param direction
+	 *            - the direction in which to move.
+	 * @return the action that moves in the direction, or that turns towards it.
+	 */
+	protected static MyAction turnTowards(GridOrientation orientation, GridOrientation direction)
+	{
+		int turns = (direction.ordinal() - orientation.ordinal() + ORIENTATIONS.length) % ORIENTATIONS.length;
+		switch(turns)
+		{
+		case 0:
+			return MyAction.FORWARD;
+		case 3:
+			return MyAction.TURN_LEFT;
+		default:
+			return MyAction.TURN_RIGHT;
+		}
+	}
+	
+	/**
+	 * Starts or continues the search for the nearest free cell that was not visited. The search starts again if the map
+	 * changed since it was started.
+	 *
+	 * @return <code>true</code> if a path was found; <code>false</code> if the search needs more steps, or if there are
+	 *         no more free cells to visit.
+	 */
+	protected boolean searchFrontier()
+	{
+		if(searchVersion != map.getVersion())
+			startSearch();
+		int area = map.area();
+		int expanded = 0;
+		while(queueHead < queueTail)
+		{
+			if(expanded++ >= expansionsPerStep)
+				return false;
+			int cell = queue[queueHead++];
+			if(!map.isVisitedAt(cell))
+			{
+				buildPath(cell);
+				searchVersion = -1;
+				return true;
+			}
+			int cx = map.indexX(cell);
+			int cy = map.indexY(cell);
+			for(GridOrientation direction : ORIENTATIONS)
+			{
+				int nx = cx + direction.getDx();
+				int ny = cy + direction.getDy();
+				if(!map.contains(nx, ny))
+					continue;
+				int next = map.index(nx, ny);
+				if(next < area && reached[next] != search && map.isFreeAt(next))
+				{
+					reached[next] = search;
+					parent[next] = cell;
+					queue[queueTail++] = next;
+				}
+			}
+		}
+		// everything reachable was visited; the search is not started again until the map changes
+		return false;
+	}
+	
+	/**
+	 * Starts a new search from the current position.
+	 */
+	protected void startSearch()
+	{
+		int area = map.area();
+		if(reached.length < area)
+		{
+			queue = new int[area];
+			parent = new int[area];
+			reached = new int[area];
+			search = 0;
+		}
+		search++;
+		queueHead = queueTail = 0;
+		int start = map.index(x, y);
+		reached[start] = search;
+		parent[start] = -1;
+		queue[queueTail++] = start;
+		searchVersion = map.getVersion();
+	}
+	
+	/**
+	 * Builds the path from the current position to the given cell, from the parents recorded by the search.
+	 *
+	 * @param target
+	 *            - the index of the target cell.
+	 */
+	protected void buildPath(int target)
+	{
+		int length = 0;
+		for(int cell = target; parent[cell] >= 0; cell = parent[cell])
+			length++;
+		if(path.length < length)
+			path = new GridOrientation[Math.max(length, path.length * 2)];
+		int i = length;
+		for(int cell = target; parent[cell] >= 0; cell = parent[cell])
+		{
+			int from = parent[cell];
+			int dx = map.indexX(cell) - map.indexX(from);
+			int dy = map.indexY(cell) - map.indexY(from);
+			path[--i] = dx > 0 ? GridOrientation.EAST
+					: (dx < 0 ? GridOrientation.WEST : (dy > 0 ? GridOrientation.NORTH : GridOrientation.SOUTH));
+		}
+		pathLength = length;
+		pathNext = 0;
+		pathVersion = map.getVersion();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "C";
+	}
+}
@@ -1,9 +1,12 @@
 package my;
 
 import base.Action;
-import base.Agent;
 import base.Perceptions;
+import base.RandomStream;
+import base.RandomizedAgent;
 import gridworld.GridRelativeOrientation;
+import logging.EventLevel;
+import logging.Events;
 
 import java.util.*;
 
@@ -12,17 +15,43 @@ import java.util.*;
  * 
  * @author Andrei Olaru
  */
-public class MyAgent implements Agent
+public class MyAgent implements RandomizedAgent
 {
+	/**
+	 * Weights of the movements chosen at random, out of 100.
+	 */
+	private static final Map<MyEnvironment.MyAction, Integer> MOVEMENT_WEIGHTS = new EnumMap<>(
+			MyEnvironment.MyAction.class);
+	static
+	{
+		MOVEMENT_WEIGHTS.put(MyEnvironment.MyAction.FORWARD, 70);
+		MOVEMENT_WEIGHTS.put(MyEnvironment.MyAction.TURN_RIGHT, 20);
+		MOVEMENT_WEIGHTS.put(MyEnvironment.MyAction.TURN_LEFT, 10);
+	}
+	
+	/**
+	 * The source of the random movements of the agent.
+	 */
+	private RandomStream random = new RandomStream();
+	
+	@Override
+	public void setRandom(RandomStream agentRandom)
+	{
+		random = agentRandom;
+	}
+	
 	@Override
 	public Action response(Perceptions perceptions)
 	{
 		MyEnvironment.MyAgentPerceptions percept = (MyEnvironment.MyAgentPerceptions) perceptions;
-		System.out.println("Agent sees current tile is " + (percept.isOverJtile() ? "dirty" : "clean")
-				+ "; current orientation is " + percept.getAbsoluteOrientation() + "; obstacles at: "
-				+ percept.getObstacles());
-		System.out.println("<<<<<================================================================>>>>>");
-		System.out.println("\n");
+		if(Events.isEnabled(EventLevel.TRACE))
+		{
+			Events.message(EventLevel.TRACE, this, () -> "Agent sees current tile is "
+					+ (percept.isOverJtile() ? "dirty" : "clean") + "; current orientation is "
+					+ percept.getAbsoluteOrientation() + "; obstacles at: " + percept.getObstacles());
+			Events.message(EventLevel.TRACE, this,
+					() -> "<<<<<================================================================>>>>>\n\n");
+		}
 
 		// // clean
 		if(percept.isOverJtile())
@@ -33,15 +62,10 @@ public class MyAgent implements Agent
 			return MyEnvironment.MyAction.TURN_RIGHT;
 
 		// Generate random movement factor
-		Map<MyEnvironment.MyAction, Integer> movementWeightsMap = new HashMap<>();
-		movementWeightsMap.put(MyEnvironment.MyAction.FORWARD, 70);
-		movementWeightsMap.put(MyEnvironment.MyAction.TURN_RIGHT, 20);
-		movementWeightsMap.put(MyEnvironment.MyAction.TURN_LEFT, 10);
-
-		int randomNumber = new Random().nextInt(100);
+		int randomNumber = random.nextInt(100);
 
 		int total = 0;
-		for (Map.Entry<MyEnvironment.MyAction, Integer>  entry : movementWeightsMap.entrySet()) {
+		for (Map.Entry<MyEnvironment.MyAction, Integer>  entry : MOVEMENT_WEIGHTS.entrySet()) {
 			total = total + entry.getValue();
 			if (total > randomNumber) return entry.getKey();
 		}
@@ -0,0 +1,248 @@
+package my;
+
+import base.Agent;
+import gridworld.AbstractGridEnvironment.GridAgentData;
+import gridworld.DirtStatistics;
+import gridworld.GridOrientation;
+import tester.BatchTester;
+import tester.BatchTester.EpisodeResult;
+import tester.DummyAgent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Runs many seeded episodes of the cleaning simulation, without rendering, and reports statistics.
+ * <p>
+ * Arguments (all optional): number of episodes, seed of the first episode, maximum steps per episode, agent (
+ * <code>my</code>, <code>planner</code>, <code>sweep</code> or <code>dummy</code>), number of threads, number of
+ * agents, rate of new dirt, storage of the map (<code>bounded</code> or <code>unbounded</code>, see
+ * {@link MyEnvironment#MyEnvironment(long, boolean)}), directory of trajectories.
+ * <p>
+ * If a rate of new dirt is given, the environments are dynamic: in each of 4 regions, new dirt appears at each step with
+ * the given expected number of tiles. Each episode runs for the maximum number of steps, and the cleaning performance
+ * is measured after the first tenth of the steps. The <code>planner</code> and <code>sweep</code> agents plan their
+ * route only once, so they are not accepted for dynamic environments.
+ * <p>
+ * Trajectories are only recorded if a directory is given, as recording slows down the steps of simple agents (see
+ * {@link gridworld.TrajectoryRecorder}); the trajectory of each episode is then written in that directory, to a file
+ * named after the seed of the episode.
+ *
+ * @author agent
+ */
+public class MyBatchTester
+{
+	/**
+	 * Default number of episodes.
+	 */
+	protected static final int	EPISODES				= 1000;
+	/**
+	 * Default maximum number of steps in an episode.
+	 */
+	protected static final int	MAX_STEPS				= 100000;
+	/**
+	 * Minimum number of steps between the keyframes of recorded trajectories.
+	 */
+	protected static final int	TRAJECTORY_KEYFRAMES	= 1000;
+	
+	/**
+	 * Creates the environment of an episode, with the agents in the bottom-left corner.
+	 *
+	 * @param seed
+	 *            - the seed of the episode.
+	 * @param agent
+	 *            - the agents to use: <code>dummy</code> for {@link DummyAgent} instances, <code>planner</code> for
+	 *            {@link CoveragePlannerAgent} instances, <code>sweep</code> for {@link SweepCleanerAgent} instances
+	 *            coordinated by a {@link CleaningCoordinator}, anything else for {@link MyAgent} instances.
+	 * @param count
+	 *            - the number of agents.
+	 * @return the environment.
+	 */
+	public static MyEnvironment createEpisode(long seed, String agent, int count)
+	{
+		return createEpisode(seed, agent, count, false);
+	}
+	
+	/**
+	 * Creates the environment of an episode, with the agents in the bottom-left corner.
+	 *
+	 * @param seed
+	 *            - the seed of the episode.
+	 * @param agent
+	 *            - the agents to use, as for {@link #createEpisode(long, String, int)}.
+	 * @param count
+	 *            - the number of agents.
+	 * @param unbounded
+	 *            - <code>true</code> to store the map as an unbounded grid.
+	 * @return the environment.
+	 */
+	public static MyEnvironment createEpisode(long seed, String agent, int count, boolean unbounded)
+	{
+		MyEnvironment env = new MyEnvironment(seed, unbounded);
+		CleaningCoordinator coordinator = null;
+		if(agent.equals("sweep"))
+		{
+			coordinator = new CleaningCoordinator(env);
+			env.setCoordinator(coordinator);
+		}
+		for(int i = 0; i < count; i++)
+			env.addAgent(new GridAgentData(
+					coordinator != null ? coordinator.createCleaner(env.getBottomLeft()) : createAgent(agent),
+					env.getBottomLeft(), GridOrientation.NORTH));
+		return env;
+	}
+	
+	/**
+	 * @param agent
+	 *            - <code>dummy</code>, <code>planner</code> or <code>my</code>.
+	 * @return a new agent of the given kind.
+	 */
+	protected static Agent createAgent(String agent)
+	{
+		switch(agent)
+		{
+		case "dummy":
+			return new DummyAgent();
+		case "planner":
+			return new CoveragePlannerAgent();
+		default:
+			return new MyAgent();
+		}
+	}
+	
+	/**
+	 * Runs episodes in dynamic environments and reports the cleaning performance.
+	 *
+	 * @param episodes
+	 *            - number of episodes.
+	 * @param firstSeed
+	 *            - the seed of the first episode.
+	 * @param steps
+	 *            - number of steps of each episode.
+	 * @param agent
+	 *            - the kind of agents, as for {@link #createEpisode(long, String, int)}.
+	 * @param count
+	 *            - number of agents.
+	 * @param rate
+	 *            - expected number of new tiles in each region, at each step.
+	 * @param unbounded
+	 *            - <code>true</code> to store the maps as unbounded grids.
+	 * @param threads
+	 *            - number of threads running episodes.
+	 * @param trajectories
+	 *            - the directory in which the trajectories of the episodes are recorded, or <code>null</code> to
+	 *            record nothing.
+	 * @throws IllegalArgumentException
+	 *             if the agents are <code>planner</code> or <code>sweep</code> agents, which plan their route only once
+	 *             and do not return for new dirt.
+	 */
+	public static void runDynamic(int episodes, long firstSeed, int steps, String agent, int count, double rate,
+			boolean unbounded, int threads, Path trajectories)
+	{
+		if(agent.equals("planner") || agent.equals("sweep"))
+			throw new IllegalArgumentException("Agents of kind " + agent + " do not clean new dirt");
+		BatchTester batch = new BatchTester(threads);
+		List<DirtStatistics> results = batch.run(firstSeed, episodes, seed -> {
+			MyEnvironment env = createEpisode(seed, agent, count, unbounded);
+			env.startSpawning(2, 2, rate);
+			DirtStatistics statistics = env.getDirtStatistics();
+			return record(env, seed, trajectories, () -> {
+				for(int step = 0; step < steps; step++)
+				{
+					if(step == steps / 10)
+						statistics.reset();
+					env.step();
+				}
+				return statistics;
+			});
+		});
+		long cleaned = 0, measured = 0;
+		double lifetimes = 0;
+		for(DirtStatistics statistics : results)
+		{
+			cleaned += statistics.getCleanedCount();
+			measured += statistics.getElapsedTime();
+			lifetimes += statistics.getMeanLifetime() * statistics.getCleanedCount();
+		}
+		System.out.println(
+				String.format("episodes: %d, steps: %d, agents: %d x %s, rate: %.4f per region per step, threads: %d",
+						episodes, steps, count, agent, rate, threads));
+		System.out.println(String.format("cleaned per 1000 steps: %.1f, mean dirt lifetime: %.1f steps",
+				measured > 0 ? cleaned * 1000.0 / measured : 0, cleaned > 0 ? lifetimes / cleaned : 0));
+	}
+	
+	/**
+	 * Runs an episode, recording its trajectory if a directory is given.
+	 *
+	 * @param <T>
+	 *            - the type of the result of the episode.
+	 * @param env
+	 *            - the environment of the episode.
+	 * @param seed
+	 *            - the seed of the episode, which names the file of the trajectory.
+	 * @param trajectories
+	 *            - the directory of the trajectories, or <code>null</code> to record nothing.
+	 * @param episode
+	 *            - runs the episode and returns its result.
+	 * @return the result of the episode.
+	 * @throws UncheckedIOException
+	 *             if the trajectory could not be recorded.
+	 */
+	protected static <T> T record(MyEnvironment env, long seed, Path trajectories, Supplier<T> episode)
+	{
+		if(trajectories == null)
+			return episode.get();
+		try
+		{
+			env.startRecording(trajectories.resolve("episode-" + seed + ".trj"), TRAJECTORY_KEYFRAMES);
+			T result = episode.get();
+			env.stopRecording();
+			return result;
+		} catch(IOException e)
+		{
+			throw new UncheckedIOException("Recording of episode " + seed + " failed", e);
+		}
+	}
+	
+	/**
+	 * Main.
+	 *
+	 * @param args
+	 *            - episodes, first seed, maximum steps, agent, threads, agents, rate of new dirt, storage of the map,
+	 *            directory of trajectories.
+	 */
+	public static void main(String[] args)
+	{
+		int episodes = args.length > 0 ? Integer.parseInt(args[0]) : EPISODES;
+		long firstSeed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		int maxSteps = args.length > 2 ? Integer.parseInt(args[2]) : MAX_STEPS;
+		String agent = args.length > 3 ? args[3] : "my";
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		int count = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+		double rate = args.length > 6 ? Double.parseDouble(args[6]) : 0;
+		boolean unbounded = args.length > 7 && args[7].equals("unbounded");
+		Path trajectories = args.length > 8 ? Paths.get(args[8]) : null;
+		
+		if(rate > 0)
+		{
+			runDynamic(episodes, firstSeed, maxSteps, agent, count, rate, unbounded, threads, trajectories);
+			return;
+		}
+		BatchTester batch = new BatchTester(seed -> createEpisode(seed, agent, count, unbounded), maxSteps, threads);
+		if(trajectories == null)
+		{
+			batch.runAndReport(firstSeed, episodes);
+			return;
+		}
+		long start = System.nanoTime();
+		List<EpisodeResult> results = batch.run(firstSeed, episodes, seed -> {
+			MyEnvironment env = createEpisode(seed, agent, count, unbounded);
+			return record(env, seed, trajectories, () -> batch.runEpisode(seed, env));
+		});
+		System.out.println(batch.report(results, System.nanoTime() - start));
+	}
+}
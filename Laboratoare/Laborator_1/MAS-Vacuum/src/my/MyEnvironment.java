@@ -1,16 +1,35 @@
 package my;
 
 import base.Action;
+import base.Agent;
+import base.EventScheduler;
 import base.Perceptions;
+import base.RandomStream;
+import base.ScheduledAgent;
 import gridworld.AbstractGridEnvironment;
+import gridworld.CheckpointReader;
+import gridworld.CheckpointWriter;
+import gridworld.DirtSpawner;
+import gridworld.GridAgentStore;
 import gridworld.GridOrientation;
 import gridworld.GridPosition;
 import gridworld.GridRelativeOrientation;
+import logging.EventLevel;
+import logging.Events;
+import logging.SimulationEvent.EventType;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Your implementation of the environment in which cleaner agents work.
@@ -114,118 +133,515 @@ public class MyEnvironment extends AbstractGridEnvironment
 		
 	}
 	
+	/**
+	 * The seed from which the environment was created.
+	 */
+	protected final long seed;
+	
 	/**
 	 * Default constructor. This should call one of the {@link #initialize} methods offered by the super class.
 	 */
 	public MyEnvironment()
 	{
-		long seed = System.currentTimeMillis(); // new random experiment
-		// long seed = 42L; // existing random experiment
+		this(System.currentTimeMillis()); // new random experiment
+		// this(42L); // existing random experiment
 		System.out.println("seed: [" + seed + "]");
-		Random rand = new Random(seed);
+	}
+	
+	/**
+	 * Creates the environment for the given seed. The same seed always produces the same map, and the same random
+	 * streams for the agents, as long as agents are added in the same order.
+	 *
+	 * @param randomSeed
+	 *            - the seed.
+	 */
+	public MyEnvironment(long randomSeed)
+	{
+		this(randomSeed, false);
+	}
+	
+	/**
+	 * Creates the environment for the given seed, optionally as an unbounded grid. The map is the same in both cases;
+	 * an unbounded grid stores the tiles in chunks, so that memory depends on the number of tiles rather than on the
+	 * area of the grid.
+	 *
+	 * @param randomSeed
+	 *            - the seed.
+	 * @param unbounded
+	 *            - <code>true</code> to create an unbounded grid.
+	 */
+	public MyEnvironment(long randomSeed, boolean unbounded)
+	{
+		seed = randomSeed;
+		random = new RandomStream(seed);
 		
-		super.initialize(10, 10, 10, 5, rand);
+		if(unbounded)
+			super.initializeUnbounded(10, 10, 10, 5, random.split());
+		else
+			super.initialize(10, 10, 10, 5, random.split());
+	}
+	
+	/**
+	 * @return the seed from which the environment was created.
+	 */
+	public long getSeed()
+	{
+		return seed;
+	}
+	
+	/**
+	 * Executor running the perception and decision phase of {@link #step()} in parallel; <code>null</code> to run it on
+	 * the calling thread.
+	 */
+	protected ExecutorService	executor		= null;
+	/**
+	 * Number of tasks into which the agents are divided for the parallel phase.
+	 */
+	protected int				parallelTasks	= 1;
+	
+	/**
+	 * Sets the executor used to compute the perceptions and decisions of the agents in parallel. The actions are
+	 * always applied on the calling thread, in the order of the agents, so the results of a step do not depend on the
+	 * executor.
+	 * <p>
+	 * Agents must not share mutable state, as their {@link base.Agent#response} methods may be called concurrently.
+	 *
+	 * @param stepExecutor
+	 *            - the executor; <code>null</code> to compute perceptions and decisions on the calling thread.
+	 * @param tasks
+	 *            - number of tasks into which the agents are divided; usually a small multiple of the number of
+	 *            threads of the executor.
+	 */
+	public void setExecutor(ExecutorService stepExecutor, int tasks)
+	{
+		executor = stepExecutor;
+		parallelTasks = Math.max(1, tasks);
+	}
+	
+	/**
+	 * Adds dirt after each step; <code>null</code> if the environment is static.
+	 */
+	protected DirtSpawner spawner = null;
+	
+	/**
+	 * Makes the environment dynamic: dirt is added after each step by the given spawner, and the goals are never
+	 * completed, so the simulation runs until it is stopped. The dirt statistics (see {@link #getDirtStatistics()})
+	 * measure the cleaning performance.
+	 *
+	 * @param dirtSpawner
+	 *            - the spawner; <code>null</code> to make the environment static again.
+	 */
+	public void setDirtSpawner(DirtSpawner dirtSpawner)
+	{
+		spawner = dirtSpawner;
+	}
+	
+	/**
+	 * Makes the environment dynamic, with a spawner that divides the environment into a grid of regions with the same
+	 * rate. The random stream of the spawner is split from that of the environment, so agents added before keep their
+	 * streams.
+	 *
+	 * @param columns
+	 *            - number of columns of the grid of regions.
+	 * @param rows
+	 *            - number of rows of the grid of regions.
+	 * @param rate
+	 *            - expected number of new J-tiles in each region, at each step.
+	 * @return the spawner.
+	 */
+	public DirtSpawner startSpawning(int columns, int rows, double rate)
+	{
+		setDirtSpawner(new DirtSpawner(this, columns, rows, rate, random.split()));
+		return spawner;
+	}
+	
+	/**
+	 * @return the dirt spawner, or <code>null</code> if the environment is static.
+	 */
+	public DirtSpawner getDirtSpawner()
+	{
+		return spawner;
+	}
+	
+	/**
+	 * Adds the state of the dirt spawner, if any, to the checkpoint. The scheduler of {@link #runEvents(long)} is not
+	 * saved, so checkpoints should be taken between calls of {@link #step()} or of {@link #runEvents(long)}.
+	 */
+	@Override
+	protected void writeCheckpoint(CheckpointWriter out) throws IOException
+	{
+		super.writeCheckpoint(out);
+		out.writeBoolean(spawner != null);
+		if(spawner != null)
+			spawner.writeCheckpoint(out);
+	}
+	
+	/**
+	 * Restores the state of the dirt spawner. The environment must have a spawner with the same regions if, and only if,
+	 * the saved environment had one.
+	 */
+	@Override
+	protected void readCheckpoint(CheckpointReader in) throws IOException
+	{
+		super.readCheckpoint(in);
+		if(in.readBoolean() != (spawner != null))
+			throw new IOException("The dirt spawner of the checkpoint does not match that of the environment");
+		if(spawner != null)
+			spawner.readCheckpoint(in);
+	}
+	
+	@Override
+	public boolean goalsCompleted()
+	{
+		// a dynamic environment may always get dirty again
+		return spawner == null && super.goalsCompleted();
+	}
+	
+	/**
+	 * Coordinator of the cleaners, called before each step; <code>null</code> if the agents are not coordinated.
+	 */
+	protected CleaningCoordinator coordinator = null;
+	
+	/**
+	 * @param cleaningCoordinator
+	 *            - coordinator of the cleaners, called before each step; <code>null</code> if the agents are not
+	 *            coordinated.
+	 */
+	public void setCoordinator(CleaningCoordinator cleaningCoordinator)
+	{
+		coordinator = cleaningCoordinator;
 	}
 	
 	@Override
 	public void step() {
 
-		// TODO Auto-generated method stub
-		// this should iterate through all agents, provide them with perceptions, and apply the
-		// action they return.
+		// this iterates through all agents, provides them with perceptions, and applies the action they return.
 
-		List<GridAgentData> agentDataList = getAgentsData();
-		if (agentDataList == null || agentDataList.isEmpty()) throw new RuntimeException("Invalid Agents data. Please run again.");
+		GridAgentStore agentStore = getAgentStore();
+		if (agentStore.size() == 0) throw new RuntimeException("Invalid Agents data. Please run again.");
 
-		Set<GridPosition> Jtiles;
-		Set<GridPosition> Xtiles;
+		// Xtiles information is checked directly on the X-tile layer
+		if (XtileLayer.isEmpty()) throw new RuntimeException("Invalid Xtiles data. Please run again.");
 
-		for (GridAgentData gridAgentData : agentDataList) {
-			boolean isOverJtile = false;
-			Set<GridRelativeOrientation> obstacles = new HashSet<>();
+		if (goalsCompleted()) return;
+		time++;
 
-			// get agent position
-			GridPosition agentPosition = gridAgentData.getPosition();
-			System.out.println("Agent position: [X, Y] = " + agentPosition.toString());
+		// routes of coordinated agents are planned or rebalanced before the agents decide
+		if (coordinator != null) coordinator.beforeStep();
 
-			// get agent orientation
-			GridOrientation agentOrientation = gridAgentData.getOrientation();
-			System.out.println("Agent orientation: " + agentOrientation.toString());
+		// STAGE 1: perceptions and decisions of all agents, based on the state of the environment at the beginning of
+		// this step. The environment is not modified during this stage, so agents can be processed in parallel.
+		MyAction[] actions = new MyAction[agentStore.size()];
+		if (executor == null) {
+			for (int i = 0; i < actions.length; i++)
+				actions[i] = decide(i);
+		}
+		else
+			decideInParallel(actions);
 
-			// initialize Jtiles information
-			Jtiles = getJtiles();
-			if (Jtiles == null || Jtiles.isEmpty()) return;
+		// STAGE 2: apply the actions, in the order of the agents
+		for (int i = 0; i < actions.length; i++)
+			apply(i, actions[i]);
 
-			// check if agent is over Jtile
-			for (GridPosition Jtile : Jtiles) {
-				if (agentPosition.getDistanceTo(Jtile) == 0) {
-					System.out.println("Agent is on top of Jtile");
-					isOverJtile = true;
-				}
-			}
+		// new dirt appears after the actions of the step, and is perceived in the next step
+		if (spawner != null) spawner.spawn();
 
-			// initialize Xtiles information
-			Xtiles = getXtiles();
-			if (Xtiles == null || Xtiles.isEmpty()) throw new RuntimeException("Invalid Xtiles data. Please run again.");
+		recordStep();
+	}
 
-			// compute neighbor positions
-			Set<GridPosition> neighbours = new HashSet<>();
-			for (GridRelativeOrientation gridRelativeOrientation : GridRelativeOrientation.values()) {
-				neighbours.add(agentPosition.getNeighborPosition(agentOrientation, gridRelativeOrientation));
-			}
+	/**
+	 * Computes the decisions of all agents using {@link #executor}.
+	 *
+	 * @param actions
+	 *            - the array in which to place the action of each agent, at the index of the agent.
+	 */
+	protected void decideInParallel(MyAction[] actions)
+	{
+		int chunk = (actions.length + parallelTasks - 1) / parallelTasks;
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for(int from = 0; from < actions.length; from += chunk)
+		{
+			int start = from;
+			int end = Math.min(actions.length, from + chunk);
+			tasks.add(() -> {
+				for(int i = start; i < end; i++)
+					actions[i] = decide(i);
+				return null;
+			});
+		}
+		try
+		{
+			for(Future<Void> result : executor.invokeAll(tasks))
+				result.get();
+		} catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while agents were deciding", e);
+		} catch(ExecutionException e)
+		{
+			throw new RuntimeException("Agent failed to decide", e.getCause());
+		}
+	}
 
-			// check if neighbours are among Xtiles
-			// if yes -> add to obstacle array
-			for (GridPosition neighbour : neighbours) {
-				if (Xtiles.contains(neighbour)) {
-					obstacles.add(agentPosition.getRelativeOrientation(agentOrientation, neighbour));
-				}
+	/**
+	 * Produces the perceptions of an agent and obtains its action. Does not modify the environment.
+	 *
+	 * @param index
+	 *            - the index of the agent in the agent store.
+	 * @return the action chosen by the agent.
+	 */
+	protected MyAction decide(int index) {
+		GridAgentStore agentStore = getAgentStore();
+		Agent agent = agentStore.getAgent(index);
+		boolean isOverJtile = false;
+		Set<GridRelativeOrientation> obstacles = EnumSet.noneOf(GridRelativeOrientation.class);
+
+		// get agent position
+		int agentX = agentStore.getX(index);
+		int agentY = agentStore.getY(index);
+
+		// get agent orientation
+		GridOrientation agentOrientation = agentStore.getOrientation(index);
+
+		// check if agent is over Jtile
+		if (isDirty(agentX, agentY))
+			isOverJtile = true;
+
+		// the messages are only built when traced, as this runs for every agent at every step
+		if (Events.isEnabled(EventLevel.TRACE)) {
+			Events.message(EventLevel.TRACE, agent, () -> "Agent position: [X, Y] = (" + agentX + ", " + agentY + ")");
+			Events.message(EventLevel.TRACE, agent, () -> "Agent orientation: " + agentOrientation.toString());
+			if (isOverJtile)
+				Events.message(EventLevel.TRACE, agent, () -> "Agent is on top of Jtile");
+		}
+
+		// check if neighbours are among Xtiles
+		// if yes -> add to obstacle array
+		GridPosition.forEachNeighbor(agentX, agentY, agentOrientation, (x, y) -> {
+			if (isXtile(x, y)) {
+				obstacles.add(agentOrientation.getRelativeOrientation(x - agentX, y - agentY));
 			}
+		});
 
-			MyAgentPerceptions myAgentPerceptions = new MyAgentPerceptions(obstacles, isOverJtile, agentOrientation);
+		MyAgentPerceptions myAgentPerceptions = new MyAgentPerceptions(obstacles, isOverJtile, agentOrientation);
 
-			MyAction action = (MyAction) gridAgentData.getAgent().response(myAgentPerceptions);
-			switch (action) {
-				case PICK: cleanTile(agentPosition);
-				break;
+		return (MyAction) agent.response(myAgentPerceptions);
+	}
 
-				case FORWARD: {
-					switch (agentOrientation) {
-						case NORTH: gridAgentData.setPosition(new GridPosition(agentPosition.getX(), agentPosition.getY() + 1)); break;
-						case EAST: gridAgentData.setPosition(new GridPosition(agentPosition.getX() + 1, agentPosition.getY())); break;
-						case SOUTH: gridAgentData.setPosition(new GridPosition(agentPosition.getX(), agentPosition.getY() - 1)); break;
-						case WEST: gridAgentData.setPosition(new GridPosition(agentPosition.getX() - 1, agentPosition.getY())); break;
-						default: break;
-					}
+	/**
+	 * Applies the action of an agent.
+	 *
+	 * @param index
+	 *            - the index of the agent in the agent store.
+	 * @param action
+	 *            - the action.
+	 */
+	protected void apply(int index, MyAction action) {
+		GridAgentStore agentStore = getAgentStore();
+		Agent agent = agentStore.getAgent(index);
+		int agentX = agentStore.getX(index);
+		int agentY = agentStore.getY(index);
+		GridOrientation agentOrientation = agentStore.getOrientation(index);
+		recordAction(agentStore.getHandle(index), action.ordinal());
+		switch (action) {
+			case PICK:
+				// another agent on the same tile may have cleaned it earlier in this step
+				if (isDirty(agentX, agentY)) {
+					cleanTile(agentX, agentY);
+					Events.emit(EventType.CLEANED, agent, agentX, agentY, null);
 				}
-				break;
+			break;
 
-				case TURN_RIGHT: {
-					switch (agentOrientation) {
-						case NORTH: gridAgentData.setOrientation(GridOrientation.EAST); break;
-						case EAST: gridAgentData.setOrientation(GridOrientation.SOUTH); break;
-						case SOUTH: gridAgentData.setOrientation(GridOrientation.WEST); break;
-						case WEST: gridAgentData.setOrientation(GridOrientation.NORTH); break;
-						default: break;
-					}
+			case FORWARD: {
+				switch (agentOrientation) {
+					case NORTH: agentStore.setPosition(index, getPositionAt(agentX, agentY + 1)); break;
+					case EAST: agentStore.setPosition(index, getPositionAt(agentX + 1, agentY)); break;
+					case SOUTH: agentStore.setPosition(index, getPositionAt(agentX, agentY - 1)); break;
+					case WEST: agentStore.setPosition(index, getPositionAt(agentX - 1, agentY)); break;
+					default: break;
 				}
-				break;
+				Events.emit(EventType.MOVED, agent, agentStore.getX(index), agentStore.getY(index), null);
+			}
+			break;
 
-				case TURN_LEFT: {
-					switch (agentOrientation) {
-						case NORTH: gridAgentData.setOrientation(GridOrientation.WEST); break;
-						case EAST: gridAgentData.setOrientation(GridOrientation.NORTH); break;
-						case SOUTH: gridAgentData.setOrientation(GridOrientation.EAST); break;
-						case WEST: gridAgentData.setOrientation(GridOrientation.SOUTH); break;
-						default: break;
-					}
+			case TURN_RIGHT: {
+				switch (agentOrientation) {
+					case NORTH: agentStore.setOrientation(index, GridOrientation.EAST); break;
+					case EAST: agentStore.setOrientation(index, GridOrientation.SOUTH); break;
+					case SOUTH: agentStore.setOrientation(index, GridOrientation.WEST); break;
+					case WEST: agentStore.setOrientation(index, GridOrientation.NORTH); break;
+					default: break;
 				}
-				break;
-
-				default: break;
+				Events.emit(EventType.TURNED, agent, agentX, agentY, agentStore.getOrientation(index));
 			}
+			break;
 
+			case TURN_LEFT: {
+				switch (agentOrientation) {
+					case NORTH: agentStore.setOrientation(index, GridOrientation.WEST); break;
+					case EAST: agentStore.setOrientation(index, GridOrientation.NORTH); break;
+					case SOUTH: agentStore.setOrientation(index, GridOrientation.EAST); break;
+					case WEST: agentStore.setOrientation(index, GridOrientation.SOUTH); break;
+					default: break;
+				}
+				Events.emit(EventType.TURNED, agent, agentX, agentY, agentStore.getOrientation(index));
+			}
+			break;
 
+			default: break;
 		}
 	}
+	
+	/**
+	 * Duration of each action, in ticks, when the environment runs on an {@link EventScheduler}.
+	 */
+	protected final EnumMap<MyAction, Integer>	actionDurations	= new EnumMap<>(MyAction.class);
+	/**
+	 * The scheduler of the last call of {@link #runEvents(long)}.
+	 */
+	protected EventScheduler					scheduler		= null;
+	
+	/**
+	 * @param action
+	 *            - an action.
+	 * @param ticks
+	 *            - the number of ticks the action takes when the environment runs on an {@link EventScheduler}; at
+	 *            least 1. By default, all actions take 1 tick.
+	 */
+	public void setActionDuration(MyAction action, int ticks)
+	{
+		if(ticks < 1)
+			throw new IllegalArgumentException("Actions must take at least one tick");
+		actionDurations.put(action, Integer.valueOf(ticks));
+	}
+	
+	/**
+	 * @param action
+	 *            - an action.
+	 * @return the number of ticks the action takes.
+	 */
+	public int getActionDuration(MyAction action)
+	{
+		Integer ticks = actionDurations.get(action);
+		return ticks != null ? ticks.intValue() : 1;
+	}
+	
+	/**
+	 * Runs the simulation on an {@link EventScheduler}, as an alternative to calling {@link #step()} repeatedly.
+	 * <p>
+	 * An agent is activated when its previous action ends, after the number of ticks given by
+	 * {@link #getActionDuration(MyAction)}; actions take effect at their end. At each tick when agents are activated, the
+	 * actions that end are applied first, in the order of the agents, and then the activated agents decide their next
+	 * actions; with actions of 1 tick, the result is the same as that of calling {@link #step()} at each tick.
+	 * <p>
+	 * A {@link ScheduledAgent} that is waiting after its action is not activated again until it stops waiting; this is
+	 * checked, only for the sleeping agents, which are kept in a list, at each tick when other agents are activated,
+	 * after the coordinator (if any) has updated the routes. Agents woken at the same tick are activated in the order of
+	 * their handles. Whether the goals are completed is only checked after a tile is cleaned.
+	 * <p>
+	 * If there is a {@link DirtSpawner}, ticks at which dirt appears are simulated as well, even if no agent is
+	 * activated; the dirt appears after the actions that end at the tick. If the environment is being recorded, a frame
+	 * is recorded for each simulated tick.
+	 *
+	 * @param maxTicks
+	 *            - the time after which the simulation stops.
+	 * @return the last tick that was simulated: the tick when the goals were completed, or when the last agent became
+	 *         inactive, or the last tick not after <code>maxTicks</code>.
+	 */
+	public long runEvents(long maxTicks)
+	{
+		GridAgentStore agentStore = getAgentStore();
+		int ids = 0;
+		for(int i = 0; i < agentStore.size(); i++)
+			ids = Math.max(ids, agentStore.getHandle(i) + 1);
+		scheduler = new EventScheduler(ids);
+		MyAction[] pending = new MyAction[ids];
+		boolean[] sleepAfter = new boolean[ids];
+		int[] sleeping = new int[ids];
+		int sleepingCount = 0;
+		int[] woken = new int[ids];
+		for(int i = 0; i < agentStore.size(); i++)
+			scheduler.schedule(agentStore.getHandle(i), time);
+		
+		boolean completed = goalsCompleted();
+		while(!completed)
+		{
+			long next = scheduler.peekTime();
+			if(spawner != null)
+				next = Math.min(next, spawner.peekTime());
+			if(next == EventScheduler.NEVER || next > maxTicks)
+				break;
+			time = next;
+			int count = scheduler.peekTime() == time ? scheduler.advance() : 0;
+			
+			// actions that end now take effect
+			for(int k = 0; k < count; k++)
+			{
+				int handle = scheduler.getBatchId(k);
+				if(pending[handle] == null)
+					continue;
+				apply(agentStore.indexOf(handle), pending[handle]);
+				if(pending[handle] == MyAction.PICK)
+					completed = goalsCompleted();
+				pending[handle] = null;
+			}
+			if(completed)
+			{
+				recordStep();
+				break;
+			}
+			
+			// new dirt appears after the actions of the tick
+			if(spawner != null)
+				spawner.spawn();
+			
+			// sleeping agents that have something to do again are activated as well
+			if(coordinator != null)
+				coordinator.beforeStep();
+			int wokenCount = 0, stillSleeping = 0;
+			for(int k = 0; k < sleepingCount; k++)
+			{
+				int handle = sleeping[k];
+				int index = agentStore.indexOf(handle);
+				if(index < 0)
+					continue;
+				if(((ScheduledAgent) agentStore.getAgent(index)).isWaiting())
+					sleeping[stillSleeping++] = handle;
+				else
+					woken[wokenCount++] = handle;
+			}
+			sleepingCount = stillSleeping;
+			Arrays.sort(woken, 0, wokenCount);
+			
+			// activated agents decide their next actions
+			for(int k = 0; k < count + wokenCount; k++)
+			{
+				int handle = k < count ? scheduler.getBatchId(k) : woken[k - count];
+				int index = agentStore.indexOf(handle);
+				if(index < 0)
+					continue;
+				if(sleepAfter[handle])
+				{
+					sleepAfter[handle] = false;
+					sleeping[sleepingCount++] = handle;
+					continue;
+				}
+				MyAction action = decide(index);
+				pending[handle] = action;
+				Agent agent = agentStore.getAgent(index);
+				sleepAfter[handle] = agent instanceof ScheduledAgent && ((ScheduledAgent) agent).isWaiting();
+				scheduler.schedule(handle, time + getActionDuration(action));
+			}
+			recordStep();
+		}
+		return time;
+	}
+	
+	/**
+	 * @return the scheduler of the last call of {@link #runEvents(long)}, or <code>null</code>.
+	 */
+	public EventScheduler getScheduler()
+	{
+		return scheduler;
+	}
 }
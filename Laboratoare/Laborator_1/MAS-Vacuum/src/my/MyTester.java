@@ -1,13 +1,17 @@
 package my;
 
-import gridworld.AbstractGridEnvironment;
 import gridworld.AbstractGridEnvironment.GridAgentData;
 import gridworld.GridOrientation;
-import tester.DummyAgent;
+import logging.ConsoleEventSink;
+import logging.EventLevel;
+import logging.Events;
 import tester.Tester;
 
 /**
  * Main class for testing.
+ * <p>
+ * Arguments (all optional): agent (<code>my</code>, <code>planner</code>, <code>sweep</code> or <code>dummy</code>, as
+ * for {@link MyBatchTester#createEpisode(long, String, int)}), number of agents.
  * 
  * @author Andrei Olaru
  */
@@ -19,16 +23,37 @@ public class MyTester extends Tester
 	protected static final int STEP_DELAY = 500;
 	
 	/**
-	 * Creates a new tester instance and begins testing.
+	 * Creates a new tester instance and begins testing, with one {@link MyAgent}.
 	 */
 	public MyTester()
 	{
-		env = new MyEnvironment();
-//		env.addAgent(new GridAgentData(new DummyAgent(), ((AbstractGridEnvironment) env).getBottomLeft(),
-//				GridOrientation.NORTH));
-		env.addAgent(new GridAgentData(new MyAgent(), ((AbstractGridEnvironment) env).getBottomLeft(),
-				GridOrientation.NORTH));
-		
+		this("my", 1);
+	}
+	
+	/**
+	 * Creates a new tester instance and begins testing.
+	 * 
+	 * @param agent
+	 *            - the kind of agents, as for {@link MyBatchTester#createEpisode(long, String, int)}.
+	 * @param count
+	 *            - the number of agents, all placed in the bottom-left corner.
+	 */
+	public MyTester(String agent, int count)
+	{
+		Events.setSink(new ConsoleEventSink(EventLevel.TRACE));
+		MyEnvironment myEnv = new MyEnvironment();
+		env = myEnv;
+		CleaningCoordinator coordinator = null;
+		if(agent.equals("sweep"))
+		{
+			coordinator = new CleaningCoordinator(myEnv);
+			myEnv.setCoordinator(coordinator);
+		}
+		for(int i = 0; i < count; i++)
+			env.addAgent(new GridAgentData(
+					coordinator != null ? coordinator.createCleaner(myEnv.getBottomLeft())
+							: MyBatchTester.createAgent(agent),
+					myEnv.getBottomLeft(), GridOrientation.NORTH));
 		
 		System.out.println(env.printToString());
 		
@@ -45,11 +70,11 @@ public class MyTester extends Tester
 	 * Main.
 	 * 
 	 * @param args
-	 *            - not used
+	 *            - agent, number of agents.
 	 */
 	@SuppressWarnings("unused")
 	public static void main(String[] args)
 	{
-		new MyTester();
+		new MyTester(args.length > 0 ? args[0] : "my", args.length > 1 ? Integer.parseInt(args[1]) : 1);
 	}
 }
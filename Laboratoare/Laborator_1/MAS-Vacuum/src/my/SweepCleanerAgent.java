@@ -0,0 +1,155 @@
+package my;
+
+import base.Action;
+import base.Perceptions;
+import base.ScheduledAgent;
+import gridworld.GridOrientation;
+import gridworld.GridPosition;
+import my.MyEnvironment.MyAction;
+import my.MyEnvironment.MyAgentPerceptions;
+
+/**
+ * A cleaner agent that follows a route given by a {@link CleaningCoordinator}, and cleans the dirty tiles it passes
+ * over.
+ * <p>
+ * The route is a sequence of moves over free cells, so moving forward always succeeds; the agent keeps its position by
+ * adding up its moves, starting from the position given at creation. The position is updated when the agent decides to
+ * move, so between steps it is the position the agent will have after the step.
+ * <p>
+ * When its route is finished, and there is nothing to clean on its last position, the agent waits until the coordinator
+ * gives it a new route.
+ *
+ * @author agent
+ */
+public class SweepCleanerAgent implements ScheduledAgent
+{
+	/**
+	 * The x coordinate of the agent.
+	 */
+	protected int				x;
+	/**
+	 * The y coordinate of the agent.
+	 */
+	protected int				y;
+	/**
+	 * The moves of the route.
+	 */
+	protected GridOrientation[]	moves	= new GridOrientation[0];
+	/**
+	 * The number of moves of the route.
+	 */
+	protected int				length	= 0;
+	/**
+	 * The index of the next move on the route.
+	 */
+	protected int				next	= 0;
+	/**
+	 * <code>true</code> if the agent found nothing to do at its last activation.
+	 */
+	protected boolean			idle	= false;
+	
+	/**
+	 * @param start
+	 *            - the position at which the agent is added to the environment.
+	 */
+	public SweepCleanerAgent(GridPosition start)
+	{
+		x = start.getX();
+		y = start.getY();
+	}
+	
+	@Override
+	public Action response(Perceptions perceptions)
+	{
+		MyAgentPerceptions percept = (MyAgentPerceptions) perceptions;
+		if(percept.isOverJtile())
+			return MyAction.PICK;
+		if(next >= length)
+		{
+			// nothing to do until the coordinator gives a new route
+			idle = true;
+			return MyAction.TURN_RIGHT;
+		}
+		MyAction action = CoveragePlannerAgent.turnTowards(percept.getAbsoluteOrientation(), moves[next]);
+		if(action == MyAction.FORWARD)
+		{
+			x += moves[next].getDx();
+			y += moves[next].getDy();
+			next++;
+		}
+		return action;
+	}
+	
+	@Override
+	public boolean isWaiting()
+	{
+		return idle && next >= length;
+	}
+	
+	/**
+	 * Replaces the route of the agent.
+	 *
+	 * @param route
+	 *            - the moves of the new route, starting from the current position of the agent.
+	 * @param count
+	 *            - the number of moves to use, from the beginning of the array.
+	 */
+	public void setRoute(GridOrientation[] route, int count)
+	{
+		moves = route;
+		length = count;
+		next = 0;
+		idle = false;
+	}
+	
+	/**
+	 * Drops the end of the route.
+	 *
+	 * @param remaining
+	 *            - the number of moves to keep, from the next move.
+	 */
+	public void truncateRoute(int remaining)
+	{
+		length = Math.min(length, next + remaining);
+	}
+	
+	/**
+	 * @return the number of moves left on the route.
+	 */
+	public int getRemaining()
+	{
+		return length - next;
+	}
+	
+	/**
+	 * @param k
+	 *            - the index of a move, counted from the next move.
+	 * @return the move.
+	 */
+	public GridOrientation getMove(int k)
+	{
+		return moves[next + k];
+	}
+	
+	/**
+	 * @return the x coordinate of the agent, after the current step.
+	 */
+	public int getX()
+	{
+		return x;
+	}
+	
+	/**
+	 * @return the y coordinate of the agent, after the current step.
+	 */
+	public int getY()
+	{
+		return y;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "S";
+	}
+}
@@ -0,0 +1,300 @@
+package tester;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+
+import base.Environment;
+import logging.Events;
+
+/**
+ * Runs many episodes of a simulation, without rendering and without delays between steps, and reports statistics on
+ * the number of steps needed to complete the goals and on the speed of the simulation.
+ * <p>
+ * Each episode is created from a seed, so that an episode can be run again in {@link Tester} to be observed. Episodes
+ * are run in parallel, on all available processors.
+ *
+ * @author agent
+ */
+public class BatchTester
+{
+	/**
+	 * The result of an episode.
+	 */
+	public static class EpisodeResult
+	{
+		/**
+		 * The seed of the episode.
+		 */
+		public final long		seed;
+		/**
+		 * Number of steps made.
+		 */
+		public final int		steps;
+		/**
+		 * <code>true</code> if the goals were completed before reaching the maximum number of steps.
+		 */
+		public final boolean	completed;
+		/**
+		 * Duration of the episode, including the creation of the environment, in nanoseconds.
+		 */
+		public final long		nanos;
+		
+		/**
+		 * @param episodeSeed
+		 *            - the seed of the episode.
+		 * @param episodeSteps
+		 *            - number of steps made.
+		 * @param goalsCompleted
+		 *            - <code>true</code> if the goals were completed.
+		 * @param duration
+		 *            - duration of the episode, in nanoseconds.
+		 */
+		public EpisodeResult(long episodeSeed, int episodeSteps, boolean goalsCompleted, long duration)
+		{
+			seed = episodeSeed;
+			steps = episodeSteps;
+			completed = goalsCompleted;
+			nanos = duration;
+		}
+	}
+	
+	/**
+	 * Creates the environment (including its agents) for the seed of an episode.
+	 */
+	protected final LongFunction<Environment>	factory;
+	/**
+	 * Maximum number of steps in an episode.
+	 */
+	protected final int							maxSteps;
+	/**
+	 * Number of threads running episodes.
+	 */
+	protected final int							threads;
+	
+	/**
+	 * Creates a batch tester using all available processors.
+	 *
+	 * @param environmentFactory
+	 *            - creates the environment (including its agents) for the seed of an episode.
+	 * @param maxEpisodeSteps
+	 *            - maximum number of steps in an episode; episodes that do not complete their goals are stopped after
+	 *            this number of steps.
+	 */
+	public BatchTester(LongFunction<Environment> environmentFactory, int maxEpisodeSteps)
+	{
+		this(environmentFactory, maxEpisodeSteps, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param environmentFactory
+	 *            - creates the environment (including its agents) for the seed of an episode.
+	 * @param maxEpisodeSteps
+	 *            - maximum number of steps in an episode; episodes that do not complete their goals are stopped after
+	 *            this number of steps.
+	 * @param nThreads
+	 *            - number of threads running episodes.
+	 */
+	public BatchTester(LongFunction<Environment> environmentFactory, int maxEpisodeSteps, int nThreads)
+	{
+		factory = environmentFactory;
+		maxSteps = maxEpisodeSteps;
+		threads = nThreads;
+	}
+	
+	/**
+	 * Creates a batch tester without a factory of environments, which only runs episodes given to
+	 * {@link #run(long, int, LongFunction)}.
+	 *
+	 * @param nThreads
+	 *            - number of threads running episodes.
+	 */
+	public BatchTester(int nThreads)
+	{
+		this(null, 0, nThreads);
+	}
+	
+	/**
+	 * Runs one episode.
+	 *
+	 * @param seed
+	 *            - the seed of the episode.
+	 * @return the result.
+	 */
+	public EpisodeResult runEpisode(long seed)
+	{
+		if(factory == null)
+			throw new IllegalStateException("No factory of environments was given to this tester");
+		long start = System.nanoTime();
+		return runEpisode(seed, factory.apply(seed), start);
+	}
+	
+	/**
+	 * Runs one episode in an environment created by the caller, e.g. to observe it while it runs. The duration does
+	 * not include the creation of the environment.
+	 *
+	 * @param seed
+	 *            - the seed of the episode.
+	 * @param env
+	 *            - the environment, including its agents.
+	 * @return the result.
+	 */
+	public EpisodeResult runEpisode(long seed, Environment env)
+	{
+		return runEpisode(seed, env, System.nanoTime());
+	}
+	
+	/**
+	 * Runs one episode until its goals are completed or it reaches the maximum number of steps.
+	 *
+	 * @param seed
+	 *            - the seed of the episode.
+	 * @param env
+	 *            - the environment.
+	 * @param start
+	 *            - the start of the episode, as given by {@link System#nanoTime()}.
+	 * @return the result.
+	 */
+	protected EpisodeResult runEpisode(long seed, Environment env, long start)
+	{
+		int steps = 0;
+		while(!env.goalsCompleted() && steps < maxSteps)
+		{
+			env.step();
+			steps++;
+		}
+		return new EpisodeResult(seed, steps, env.goalsCompleted(), System.nanoTime() - start);
+	}
+	
+	/**
+	 * Runs episodes for consecutive seeds, in parallel. Events are recorded by the sink set in {@link Events}, which
+	 * records nothing by default.
+	 *
+	 * @param firstSeed
+	 *            - the seed of the first episode.
+	 * @param episodes
+	 *            - number of episodes.
+	 * @return the results, in the order of the seeds.
+	 */
+	public List<EpisodeResult> run(long firstSeed, int episodes)
+	{
+		return run(firstSeed, episodes, this::runEpisode);
+	}
+	
+	/**
+	 * Runs episodes for consecutive seeds, in parallel, on the threads of this tester, with a given way of running an
+	 * episode. This allows episodes that are not run until their goals are completed, or that produce other results.
+	 *
+	 * @param <T>
+	 *            - the type of the result of an episode.
+	 * @param firstSeed
+	 *            - the seed of the first episode.
+	 * @param episodes
+	 *            - number of episodes.
+	 * @param episode
+	 *            - runs the episode for a seed and returns its result.
+	 * @return the results, in the order of the seeds.
+	 */
+	public <T> List<T> run(long firstSeed, int episodes, LongFunction<T> episode)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<Future<T>> futures = new ArrayList<>(episodes);
+			for(int i = 0; i < episodes; i++)
+			{
+				long seed = firstSeed + i;
+				futures.add(executor.submit(() -> episode.apply(seed)));
+			}
+			List<T> results = new ArrayList<>(episodes);
+			for(Future<T> future : futures)
+				results.add(future.get());
+			return results;
+		} catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Batch interrupted", e);
+		} catch(ExecutionException e)
+		{
+			throw new RuntimeException("Episode failed", e.getCause());
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Runs episodes for consecutive seeds and prints statistics about them.
+	 *
+	 * @param firstSeed
+	 *            - the seed of the first episode.
+	 * @param episodes
+	 *            - number of episodes.
+	 */
+	public void runAndReport(long firstSeed, int episodes)
+	{
+		long start = System.nanoTime();
+		List<EpisodeResult> results = run(firstSeed, episodes);
+		long wallNanos = System.nanoTime() - start;
+		System.out.println(report(results, wallNanos));
+	}
+	
+	/**
+	 * Produces statistics about the results of a batch.
+	 *
+	 * @param results
+	 *            - the results of the episodes.
+	 * @param wallNanos
+	 *            - the duration of the whole batch, in nanoseconds.
+	 * @return the report.
+	 */
+	public String report(List<EpisodeResult> results, long wallNanos)
+	{
+		int n = results.size();
+		if(n == 0)
+			return "no episodes";
+		int[] steps = new int[n];
+		long totalSteps = 0;
+		long episodeNanos = 0;
+		int completed = 0;
+		for(int i = 0; i < n; i++)
+		{
+			EpisodeResult result = results.get(i);
+			steps[i] = result.steps;
+			totalSteps += result.steps;
+			episodeNanos += result.nanos;
+			if(result.completed)
+				completed++;
+		}
+		Arrays.sort(steps);
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("episodes: %d (completed %d, stopped at %d steps: %d), threads: %d%n", n,
+				completed, maxSteps, n - completed, threads));
+		builder.append(String.format("steps: min %d, p10 %d, median %d, mean %.1f, p90 %d, p99 %d, max %d%n", steps[0],
+				percentile(steps, 10), percentile(steps, 50), (double) totalSteps / n, percentile(steps, 90),
+				percentile(steps, 99), steps[n - 1]));
+		builder.append(String.format("wall time per episode: %.3f ms (batch: %.1f ms)%n", episodeNanos / 1e6 / n,
+				wallNanos / 1e6));
+		builder.append(String.format("steps/second: %.0f per thread, %.0f overall", totalSteps * 1e9 / episodeNanos,
+				totalSteps * 1e9 / wallNanos));
+		return builder.toString();
+	}
+	
+	/**
+	 * @param sorted
+	 *            - sorted values.
+	 * @param percent
+	 *            - the percentile.
+	 * @return the value at the given percentile (nearest rank).
+	 */
+	protected static int percentile(int[] sorted, int percent)
+	{
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+}
@@ -4,6 +4,8 @@ import base.Action;
 import base.Agent;
 import base.Perceptions;
 import gridworld.GridRelativeOrientation;
+import logging.EventLevel;
+import logging.Events;
 import my.MyEnvironment.MyAction;
 import my.MyEnvironment.MyAgentPerceptions;
 
@@ -18,9 +20,10 @@ public class DummyAgent implements Agent
 	public Action response(Perceptions perceptions)
 	{
 		MyAgentPerceptions percept = (MyAgentPerceptions) perceptions;
-		System.out.println("Dummy sees current tile is " + (percept.isOverJtile() ? "dirty" : "clean")
-				+ "; current orientation is " + percept.getAbsoluteOrientation() + "; obstacles at: "
-				+ percept.getObstacles());
+		if(Events.isEnabled(EventLevel.TRACE))
+			Events.message(EventLevel.TRACE, this, () -> "Dummy sees current tile is "
+					+ (percept.isOverJtile() ? "dirty" : "clean") + "; current orientation is "
+					+ percept.getAbsoluteOrientation() + "; obstacles at: " + percept.getObstacles());
 		// // clean
 		if(percept.isOverJtile())
 			return MyAction.PICK;
@@ -5,30 +5,65 @@ import base.Agent;
 /**
  * Simulates an opaque agent ID generation process.
  * <p>
- * In practice it is implemented using the hash code of the {@link Agent} instance.
+ * IDs given by an {@link AgentIDRegistry} are dense integers, unique among the agents of the registry, which can be
+ * used as indexes in arrays. Other IDs are derived from the hash code of the {@link Agent} instance, and may be the same
+ * for different agents.
  * 
  * @author andreiolaru
  */
 public class AgentID
 {
 	/**
-	 * The hash code.
+	 * The hash code, or the index given by a registry.
 	 */
-	int id;
+	int				id;
+	/**
+	 * <code>true</code> if the ID was given by an {@link AgentIDRegistry}.
+	 */
+	final boolean	registered;
 	
 	/**
 	 * @param internalID
 	 *            - the hash code.
 	 */
 	protected AgentID(int internalID)
+	{
+		this(internalID, false);
+	}
+	
+	/**
+	 * @param internalID
+	 *            - the hash code, or the index given by a registry.
+	 * @param isRegistered
+	 *            - <code>true</code> if the ID is given by an {@link AgentIDRegistry}.
+	 */
+	AgentID(int internalID, boolean isRegistered)
 	{
 		id = internalID;
+		registered = isRegistered;
+	}
+	
+	/**
+	 * @return <code>true</code> if the ID was given by an {@link AgentIDRegistry}, in which case it has an index.
+	 */
+	public boolean isRegistered()
+	{
+		return registered;
+	}
+	
+	/**
+	 * @return the index given by the {@link AgentIDRegistry}, from <code>0</code> to the number of registered agents,
+	 *         or <code>-1</code> if the ID is not registered.
+	 */
+	public int getIndex()
+	{
+		return registered ? id : -1;
 	}
 	
 	@Override
 	public boolean equals(Object obj)
 	{
-		return ((AgentID) obj).id == this.id;
+		return ((AgentID) obj).id == this.id && ((AgentID) obj).registered == this.registered;
 	}
 	
 	@Override
@@ -38,7 +73,8 @@ public class AgentID
 	}
 	
 	/**
-	 * Gets the agent ID for a given agent.
+	 * Gets the agent ID for a given agent: the ID given to it by a registry, if it is an {@link IdentifiedAgent} that
+	 * was registered, or otherwise a new ID derived from its hash code.
 	 * 
 	 * @param agent
 	 *            - the agent.
@@ -46,12 +82,14 @@ public class AgentID
 	 */
 	public static AgentID getAgentID(Agent agent)
 	{
+		if(agent instanceof IdentifiedAgent && ((IdentifiedAgent) agent).getAgentID() != null)
+			return ((IdentifiedAgent) agent).getAgentID();
 		return new AgentID(agent.hashCode());
 	}
 	
 	@Override
 	public String toString()
 	{
-		return "#" + id;
+		return (registered ? "@" : "#") + id;
 	}
 }
@@ -0,0 +1,100 @@
+package communication;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import base.Agent;
+
+/**
+ * Gives the agents of an environment dense integer IDs: the first agent registered gets the index <code>0</code>, the
+ * next one <code>1</code>, and so on. Unlike IDs derived from hash codes, the IDs of different agents are always
+ * different, and they can be used as indexes in arrays with one element per agent.
+ * <p>
+ * Agents are told apart by identity, and each agent has a single {@link AgentID} instance, so IDs are not allocated
+ * again when they are looked up. Indexes are not reused when agents leave the environment.
+ *
+ * @author agent
+ */
+public class AgentIDRegistry
+{
+	/**
+	 * The ID of each registered agent.
+	 */
+	protected Map<Agent, AgentID>	ids		= new IdentityHashMap<>();
+	/**
+	 * The registered agents, by index.
+	 */
+	protected Agent[]				agents	= new Agent[16];
+	/**
+	 * The IDs, by index.
+	 */
+	protected AgentID[]				byIndex	= new AgentID[16];
+	/**
+	 * Number of registered agents.
+	 */
+	protected int					size	= 0;
+	
+	/**
+	 * Gives an agent the next index, if it does not have an ID yet.
+	 *
+	 * @param agent
+	 *            - the agent.
+	 * @return the ID of the agent.
+	 */
+	public AgentID register(Agent agent)
+	{
+		AgentID id = ids.get(agent);
+		if(id != null)
+			return id;
+		if(size == agents.length)
+		{
+			agents = Arrays.copyOf(agents, size * 2);
+			byIndex = Arrays.copyOf(byIndex, size * 2);
+		}
+		id = new AgentID(size, true);
+		agents[size] = agent;
+		byIndex[size] = id;
+		size++;
+		ids.put(agent, id);
+		return id;
+	}
+	
+	/**
+	 * @param agent
+	 *            - an agent.
+	 * @return the ID of the agent, or <code>null</code> if it is not registered.
+	 */
+	public AgentID get(Agent agent)
+	{
+		return ids.get(agent);
+	}
+	
+	/**
+	 * @param index
+	 *            - an index, less than {@link #size()}.
+	 * @return the ID with the index.
+	 */
+	public AgentID get(int index)
+	{
+		return byIndex[index];
+	}
+	
+	/**
+	 * @param index
+	 *            - an index, less than {@link #size()}.
+	 * @return the agent with the index.
+	 */
+	public Agent getAgent(int index)
+	{
+		return agents[index];
+	}
+	
+	/**
+	 * @return the number of registered agents, which is also the length of arrays indexed by ID.
+	 */
+	public int size()
+	{
+		return size;
+	}
+}
@@ -49,7 +49,7 @@ public class AgentMessage
 	}
 	
 	/**
-	 * @return the destination.
+	 * @return the destination; <code>null</code> for a {@link ChannelMessage}.
 	 */
 	public AgentID getDestination()
 	{
@@ -71,7 +71,8 @@ public class AgentMessage
 	}
 	
 	/**
-	 * helper method to filter from a set of messages only those for a specified agent.
+	 * helper method to filter from a set of messages only those for a specified agent. {@link ChannelMessage}s, which
+	 * have no destination, are not included.
 	 * 
 	 * @param allMessages
 	 *            - the messages to filter.
@@ -83,7 +84,7 @@ public class AgentMessage
 	{
 		Set<AgentMessage> result = new HashSet<>();
 		for(AgentMessage m : allMessages)
-			if(m.destination.equals(destinationID))
+			if(m.destination != null && m.destination.equals(destinationID))
 				result.add(m);
 		return result;
 	}
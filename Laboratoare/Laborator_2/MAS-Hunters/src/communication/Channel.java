@@ -0,0 +1,130 @@
+package communication;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A topic to which agents subscribe, e.g. the team of the predators, for messages sent once and received by all its
+ * members (see {@link ChannelMessage}). Channels are created by {@link MessageBus#getChannel(String)}.
+ * <p>
+ * Members are identified by the indexes of their {@link AgentID}s, given by an {@link AgentIDRegistry}, and kept in a
+ * bitset, so joining, leaving and checking membership take constant time.
+ *
+ * @author agent
+ */
+public class Channel
+{
+	/**
+	 * The name of the topic.
+	 */
+	protected final String	topic;
+	/**
+	 * The members, one bit for each index.
+	 */
+	protected long[]		members	= new long[1];
+	/**
+	 * Number of members.
+	 */
+	protected int			size	= 0;
+	
+	/**
+	 * @param topicName
+	 *            - the name of the topic.
+	 */
+	Channel(String topicName)
+	{
+		topic = topicName;
+	}
+	
+	/**
+	 * @return the name of the topic.
+	 */
+	public String getTopic()
+	{
+		return topic;
+	}
+	
+	/**
+	 * Subscribes an agent to the channel.
+	 *
+	 * @param agent
+	 *            - the ID of the agent, given by an {@link AgentIDRegistry}.
+	 * @return <code>true</code> if the agent was not a member.
+	 */
+	public boolean join(AgentID agent)
+	{
+		if(!agent.isRegistered())
+			throw new IllegalArgumentException("Agent " + agent + " has no ID from an AgentIDRegistry");
+		int index = agent.getIndex();
+		if((index >>> 6) >= members.length)
+			members = Arrays.copyOf(members, Math.max((index >>> 6) + 1, members.length * 2));
+		if((members[index >>> 6] & (1L << index)) != 0)
+			return false;
+		members[index >>> 6] |= 1L << index;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * Unsubscribes an agent from the channel.
+	 *
+	 * @param agent
+	 *            - the ID of the agent.
+	 * @return <code>true</code> if the agent was a member.
+	 */
+	public boolean leave(AgentID agent)
+	{
+		if(!contains(agent.getIndex()))
+			return false;
+		members[agent.getIndex() >>> 6] &= ~(1L << agent.getIndex());
+		size--;
+		return true;
+	}
+	
+	/**
+	 * @param agent
+	 *            - the ID of an agent.
+	 * @return <code>true</code> if the agent is a member.
+	 */
+	public boolean contains(AgentID agent)
+	{
+		return contains(agent.getIndex());
+	}
+	
+	/**
+	 * @param index
+	 *            - the index of the ID of an agent.
+	 * @return <code>true</code> if the agent is a member.
+	 */
+	public boolean contains(int index)
+	{
+		return index >= 0 && (index >>> 6) < members.length && (members[index >>> 6] & (1L << index)) != 0;
+	}
+	
+	/**
+	 * Calls the visitor for the index of the ID of each member, in increasing order.
+	 *
+	 * @param visitor
+	 *            - receives each index.
+	 */
+	public void forEachMember(IntConsumer visitor)
+	{
+		for(int w = 0; w < members.length; w++)
+			for(long word = members[w]; word != 0; word &= word - 1)
+				visitor.accept((w << 6) + Long.numberOfTrailingZeros(word));
+	}
+	
+	/**
+	 * @return the number of members.
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return topic;
+	}
+}
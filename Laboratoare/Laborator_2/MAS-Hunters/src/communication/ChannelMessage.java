@@ -0,0 +1,78 @@
+package communication;
+
+/**
+ * A message sent once to many agents: to all the agents (a broadcast), or to the members of a {@link Channel} (a
+ * multicast), optionally only to those within a given distance from the sender. The {@link MessageBus} stores the
+ * message once, and delivers the same instance to each recipient; the sender does not receive its own message.
+ * <p>
+ * The destination of a channel message is <code>null</code>.
+ *
+ * @author agent
+ */
+public class ChannelMessage extends AgentMessage
+{
+	/**
+	 * The range of messages that are delivered regardless of distance.
+	 */
+	public static final int	UNLIMITED	= -1;
+	
+	/**
+	 * The channel; <code>null</code> for a broadcast.
+	 */
+	protected Channel		channel;
+	/**
+	 * The maximum (Manhattan) distance between the sender and the recipients, when the message is delivered, or
+	 * {@link #UNLIMITED}.
+	 */
+	protected int			range;
+	
+	/**
+	 * @param sender
+	 *            - the ID of the sender.
+	 * @param channel
+	 *            - the channel; <code>null</code> for a broadcast.
+	 * @param range
+	 *            - the maximum distance between the sender and the recipients, or {@link #UNLIMITED}.
+	 * @param content
+	 *            - the content.
+	 */
+	public ChannelMessage(AgentID sender, Channel channel, int range, Object content)
+	{
+		super(sender, null, content);
+		if(range < 0 && range != UNLIMITED)
+			throw new IllegalArgumentException("Invalid range " + range);
+		this.channel = channel;
+		this.range = range;
+	}
+	
+	/**
+	 * @return the channel, or <code>null</code> for a broadcast.
+	 */
+	public Channel getChannel()
+	{
+		return channel;
+	}
+	
+	/**
+	 * @return <code>true</code> if the message is sent to all the agents.
+	 */
+	public boolean isBroadcast()
+	{
+		return channel == null;
+	}
+	
+	/**
+	 * @return the maximum distance between the sender and the recipients, or {@link #UNLIMITED}.
+	 */
+	public int getRange()
+	{
+		return range;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "[" + sender + "@" + (channel != null ? channel : "*") + (range != UNLIMITED ? "<=" + range : "") + ":"
+				+ content + "]";
+	}
+}
@@ -0,0 +1,17 @@
+package communication;
+
+import base.Agent;
+
+/**
+ * Interface to be implemented by agents that keep the {@link AgentID} given to them by an {@link AgentIDRegistry}, so
+ * that {@link AgentID#getAgentID(Agent)} returns that ID instead of deriving one from the hash code of the agent.
+ *
+ * @author agent
+ */
+public interface IdentifiedAgent extends Agent
+{
+	/**
+	 * @return the ID given to the agent by a registry, or <code>null</code> if the agent was not registered yet.
+	 */
+	AgentID getAgentID();
+}
@@ -0,0 +1,471 @@
+package communication;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Delivers messages between agents, as an alternative to keeping all messages in a single set that is filtered for each
+ * recipient with {@link AgentMessage#filterMessagesFor(java.util.Set, AgentID)}.
+ * <p>
+ * Each registered agent has a mailbox, found by the index of its {@link AgentID}, given by an {@link AgentIDRegistry};
+ * each mailbox is a pair of arrays: one with the messages sent to the agent in the current step, and one with the messages
+ * delivered to it, sent in the previous step. {@link #deliver()}, called between steps, swaps them, so that reading
+ * the messages of a step costs only the number of messages of the recipient, and sending costs constant time.
+ * <p>
+ * Each mailbox holds at most a given number of messages in a step; further messages to the same recipient are
+ * dropped and counted, so that an agent that sends too many messages cannot make memory grow without bounds. Messages
+ * to agents that are not registered are dropped and counted as well.
+ * <p>
+ * {@link ChannelMessage}s are sent to all the agents, or to the members of a {@link Channel}, optionally only within a
+ * given distance from the sender. Such a message is sent once and stored once; {@link #deliver()} places references to
+ * it in the mailboxes of the recipients, which are resolved at that time. The agents within the distance are found by
+ * a {@link ProximityQuery}, given by the environment.
+ *
+ * @author agent
+ */
+public class MessageBus
+{
+	/**
+	 * The default maximum number of messages in a mailbox in a step.
+	 */
+	public static final int				DEFAULT_CAPACITY	= 64;
+	
+	/**
+	 * Number of mailboxes: one more than the highest index of a registered agent.
+	 */
+	protected int						mailboxCount		= 0;
+	/**
+	 * The maximum number of messages in a mailbox in a step.
+	 */
+	protected final int					capacity;
+	/**
+	 * The messages sent in the current step, by mailbox; each array grows up to {@link #capacity}.
+	 */
+	protected AgentMessage[][]			sent				= new AgentMessage[16][];
+	/**
+	 * Number of messages in each array of {@link #sent}.
+	 */
+	protected int[]						sentCount			= new int[16];
+	/**
+	 * The messages delivered in the current step (sent in the previous step), by mailbox.
+	 */
+	protected AgentMessage[][]			delivered			= new AgentMessage[16][];
+	/**
+	 * Number of messages in each array of {@link #delivered}.
+	 */
+	protected int[]						deliveredCount		= new int[16];
+	/**
+	 * Number of messages dropped because the mailbox was full, by mailbox.
+	 */
+	protected long[]					dropped				= new long[16];
+	/**
+	 * Total number of messages dropped because the mailbox of the recipient was full.
+	 */
+	protected long						droppedCount		= 0;
+	/**
+	 * Total number of messages dropped because the recipient was not registered.
+	 */
+	protected long						undeliverableCount	= 0;
+	/**
+	 * Total number of messages accepted.
+	 */
+	protected long						sentTotal			= 0;
+	/**
+	 * The channel messages sent in the current step, fanned out by {@link #deliver()}.
+	 */
+	protected ChannelMessage[]			published			= new ChannelMessage[16];
+	/**
+	 * Number of messages in {@link #published}.
+	 */
+	protected int						publishedCount		= 0;
+	/**
+	 * Total number of copies of channel messages placed in mailboxes.
+	 */
+	protected long						fanOutTotal			= 0;
+	/**
+	 * The channels, by topic.
+	 */
+	protected Map<String, Channel>		channels			= new LinkedHashMap<>();
+	/**
+	 * Finds the recipients of channel messages with a limited range; <code>null</code> if there is none.
+	 */
+	protected ProximityQuery			proximity			= null;
+	/**
+	 * The channel message being fanned out.
+	 */
+	protected ChannelMessage			fanningOut			= null;
+	/**
+	 * Places a reference to {@link #fanningOut} in a mailbox, if the agent of the mailbox is a recipient; reused for
+	 * all messages, so that fanning out does not allocate.
+	 */
+	protected final IntConsumer			fanOutVisitor		= this::fanOutTo;
+	
+	/**
+	 * Creates a bus with mailboxes of {@link #DEFAULT_CAPACITY} messages.
+	 */
+	public MessageBus()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Creates a bus with mailboxes of the given capacity.
+	 *
+	 * @param mailboxCapacity
+	 *            - the maximum number of messages in a mailbox in a step; at least 1.
+	 */
+	public MessageBus(int mailboxCapacity)
+	{
+		if(mailboxCapacity < 1)
+			throw new IllegalArgumentException("Mailboxes must hold at least one message");
+		capacity = mailboxCapacity;
+	}
+	
+	/**
+	 * Creates a mailbox for an agent, if it does not have one. The mailboxes of all lower indexes are created as well.
+	 *
+	 * @param agent
+	 *            - the ID of the agent, given by an {@link AgentIDRegistry}.
+	 * @return the index of the mailbox of the agent, which is the index of its ID.
+	 */
+	public int register(AgentID agent)
+	{
+		if(!agent.isRegistered())
+			throw new IllegalArgumentException("Agent " + agent + " has no ID from an AgentIDRegistry");
+		int mailbox = agent.getIndex();
+		if(mailbox >= sentCount.length)
+		{
+			int length = Math.max(mailbox + 1, sentCount.length * 2);
+			sent = Arrays.copyOf(sent, length);
+			sentCount = Arrays.copyOf(sentCount, length);
+			delivered = Arrays.copyOf(delivered, length);
+			deliveredCount = Arrays.copyOf(deliveredCount, length);
+			dropped = Arrays.copyOf(dropped, length);
+		}
+		mailboxCount = Math.max(mailboxCount, mailbox + 1);
+		return mailbox;
+	}
+	
+	/**
+	 * @param agent
+	 *            - the ID of an agent.
+	 * @return the index of the mailbox of the agent, or <code>-1</code> if the agent has no mailbox.
+	 */
+	public int getMailbox(AgentID agent)
+	{
+		int mailbox = agent.getIndex();
+		return mailbox < mailboxCount ? mailbox : -1;
+	}
+	
+	/**
+	 * Returns the channel of a topic, creating it if there is none.
+	 *
+	 * @param topic
+	 *            - the name of the topic.
+	 * @return the channel.
+	 */
+	public Channel getChannel(String topic)
+	{
+		return channels.computeIfAbsent(topic, Channel::new);
+	}
+	
+	/**
+	 * @return the channels, in the order in which they were created.
+	 */
+	public Collection<Channel> getChannels()
+	{
+		return Collections.unmodifiableCollection(channels.values());
+	}
+	
+	/**
+	 * Sets the query used to find the recipients of channel messages with a limited range.
+	 *
+	 * @param query
+	 *            - the query, normally implemented by the environment.
+	 */
+	public void setProximityQuery(ProximityQuery query)
+	{
+		proximity = query;
+	}
+	
+	/**
+	 * Sends a message, which is delivered to its destination after the next call of {@link #deliver()}. A
+	 * {@link ChannelMessage} is delivered to all of its recipients.
+	 *
+	 * @param message
+	 *            - the message.
+	 * @return <code>true</code> if the message was accepted; <code>false</code> if it was dropped, because the
+	 *         destination is not registered or its mailbox is full.
+	 */
+	public boolean send(AgentMessage message)
+	{
+		if(message instanceof ChannelMessage)
+			return publish((ChannelMessage) message);
+		int mailbox = getMailbox(message.getDestination());
+		if(mailbox < 0)
+		{
+			undeliverableCount++;
+			return false;
+		}
+		return send(mailbox, message);
+	}
+	
+	/**
+	 * Sends a message to the given mailbox, which is delivered after the next call of {@link #deliver()}.
+	 *
+	 * @param mailbox
+	 *            - the index of the mailbox of the destination.
+	 * @param message
+	 *            - the message.
+	 * @return <code>true</code> if the message was accepted; <code>false</code> if it was dropped because the mailbox
+	 *         is full.
+	 */
+	public boolean send(int mailbox, AgentMessage message)
+	{
+		if(!append(sent, sentCount, mailbox, message))
+			return false;
+		sentTotal++;
+		return true;
+	}
+	
+	/**
+	 * Sends a message to all the agents, or to the members of a channel, which is delivered after the next call of
+	 * {@link #deliver()}. The message is stored once, whatever the number of recipients.
+	 *
+	 * @param message
+	 *            - the message.
+	 * @return <code>true</code> (the message is dropped for the recipients whose mailboxes are full, when it is
+	 *         delivered).
+	 */
+	public boolean publish(ChannelMessage message)
+	{
+		if(message.getRange() != ChannelMessage.UNLIMITED && proximity == null)
+			throw new IllegalStateException("Messages with a limited range need a proximity query");
+		if(publishedCount == published.length)
+			published = Arrays.copyOf(published, publishedCount * 2);
+		published[publishedCount++] = message;
+		sentTotal++;
+		return true;
+	}
+	
+	/**
+	 * Adds a message to a mailbox, unless the mailbox is full.
+	 *
+	 * @param boxes
+	 *            - the arrays of messages, by mailbox ({@link #sent} or {@link #delivered}).
+	 * @param counts
+	 *            - the numbers of messages in the arrays.
+	 * @param mailbox
+	 *            - the index of the mailbox.
+	 * @param message
+	 *            - the message.
+	 * @return <code>true</code> if the message was added; <code>false</code> if it was dropped because the mailbox is
+	 *         full.
+	 */
+	protected boolean append(AgentMessage[][] boxes, int[] counts, int mailbox, AgentMessage message)
+	{
+		int count = counts[mailbox];
+		if(count == capacity)
+		{
+			dropped[mailbox]++;
+			droppedCount++;
+			return false;
+		}
+		AgentMessage[] messages = boxes[mailbox];
+		if(messages == null)
+			messages = boxes[mailbox] = new AgentMessage[Math.min(4, capacity)];
+		else if(count == messages.length)
+			messages = boxes[mailbox] = Arrays.copyOf(messages, Math.min(capacity, count * 2));
+		messages[count] = message;
+		counts[mailbox] = count + 1;
+		return true;
+	}
+	
+	/**
+	 * Ends a step: the messages sent in the step become the delivered messages, and the messages delivered in the step
+	 * are discarded. The arrays are reused, so no memory is allocated once the mailboxes have grown.
+	 * <p>
+	 * The channel messages of the step are then fanned out, in the order in which they were sent, after the other
+	 * messages: their recipients are resolved now, from the current members of the channels and, for messages with a
+	 * limited range, from the current positions of the agents.
+	 */
+	public void deliver()
+	{
+		for(int mailbox = 0; mailbox < mailboxCount; mailbox++)
+			if(deliveredCount[mailbox] > 0)
+			{
+				Arrays.fill(delivered[mailbox], 0, deliveredCount[mailbox], null);
+				deliveredCount[mailbox] = 0;
+			}
+		AgentMessage[][] swapped = delivered;
+		delivered = sent;
+		sent = swapped;
+		int[] swappedCount = deliveredCount;
+		deliveredCount = sentCount;
+		sentCount = swappedCount;
+		
+		for(int k = 0; k < publishedCount; k++)
+		{
+			fanOut(published[k]);
+			published[k] = null;
+		}
+		publishedCount = 0;
+	}
+	
+	/**
+	 * Places references to a channel message in the mailboxes of its recipients.
+	 *
+	 * @param message
+	 *            - the message.
+	 */
+	protected void fanOut(ChannelMessage message)
+	{
+		fanningOut = message;
+		if(message.getRange() != ChannelMessage.UNLIMITED)
+			proximity.forEachWithin(message.getSender(), message.getRange(), fanOutVisitor);
+		else if(message.isBroadcast())
+			for(int mailbox = 0; mailbox < mailboxCount; mailbox++)
+				fanOutTo(mailbox);
+		else
+			message.getChannel().forEachMember(fanOutVisitor);
+		fanningOut = null;
+	}
+	
+	/**
+	 * Places a reference to {@link #fanningOut} in a mailbox, if the agent of the mailbox is one of its recipients: it
+	 * is not the sender and, for a multicast, it is a member of the channel.
+	 *
+	 * @param mailbox
+	 *            - the index of the mailbox.
+	 */
+	protected void fanOutTo(int mailbox)
+	{
+		AgentID sender = fanningOut.getSender();
+		if(mailbox >= mailboxCount || sender.isRegistered() && mailbox == sender.getIndex())
+			return;
+		if(!fanningOut.isBroadcast() && !fanningOut.getChannel().contains(mailbox))
+			return;
+		if(append(delivered, deliveredCount, mailbox, fanningOut))
+			fanOutTotal++;
+	}
+	
+	/**
+	 * @param agent
+	 *            - the ID of an agent.
+	 * @return the messages delivered to the agent in the current step, in the order in which they were sent, as an
+	 *         unmodifiable view, valid until the next call of {@link #deliver()}.
+	 */
+	public List<AgentMessage> getMessages(AgentID agent)
+	{
+		int mailbox = getMailbox(agent);
+		return mailbox >= 0 ? getMessages(mailbox) : Collections.emptyList();
+	}
+	
+	/**
+	 * @param mailbox
+	 *            - the index of the mailbox of an agent.
+	 * @return the messages delivered to the agent in the current step, in the order in which they were sent, as an
+	 *         unmodifiable view, valid until the next call of {@link #deliver()}.
+	 */
+	public List<AgentMessage> getMessages(int mailbox)
+	{
+		AgentMessage[] messages = delivered[mailbox];
+		int count = deliveredCount[mailbox];
+		return new AbstractList<AgentMessage>() {
+			@Override
+			public AgentMessage get(int index)
+			{
+				if(index >= count)
+					throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+				return messages[index];
+			}
+			
+			@Override
+			public int size()
+			{
+				return count;
+			}
+		};
+	}
+	
+	/**
+	 * Calls the visitor for each message delivered to an agent in the current step, in the order in which they were
+	 * sent.
+	 *
+	 * @param mailbox
+	 *            - the index of the mailbox of the agent.
+	 * @param visitor
+	 *            - receives each message.
+	 */
+	public void forEachMessage(int mailbox, Consumer<AgentMessage> visitor)
+	{
+		AgentMessage[] messages = delivered[mailbox];
+		for(int k = 0; k < deliveredCount[mailbox]; k++)
+			visitor.accept(messages[k]);
+	}
+	
+	/**
+	 * @param agent
+	 *            - the ID of an agent.
+	 * @return the number of messages to the agent dropped because its mailbox was full.
+	 */
+	public long getDroppedCount(AgentID agent)
+	{
+		int mailbox = getMailbox(agent);
+		return mailbox >= 0 ? dropped[mailbox] : 0;
+	}
+	
+	/**
+	 * @return the total number of messages dropped because the mailbox of the recipient was full.
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount;
+	}
+	
+	/**
+	 * @return the total number of messages dropped because the recipient was not registered.
+	 */
+	public long getUndeliverableCount()
+	{
+		return undeliverableCount;
+	}
+	
+	/**
+	 * @return the total number of messages accepted.
+	 */
+	public long getSentCount()
+	{
+		return sentTotal;
+	}
+	
+	/**
+	 * @return the total number of copies of channel messages placed in mailboxes; the messages themselves are counted
+	 *         once by {@link #getSentCount()}.
+	 */
+	public long getFanOutCount()
+	{
+		return fanOutTotal;
+	}
+	
+	/**
+	 * @return the maximum number of messages in a mailbox in a step.
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "sent " + sentTotal + ", fanned out " + fanOutTotal + ", dropped " + droppedCount + ", undeliverable " + undeliverableCount;
+	}
+}
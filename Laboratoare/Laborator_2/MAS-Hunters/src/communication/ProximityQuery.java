@@ -0,0 +1,26 @@
+package communication;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Finds the agents near another agent, for the delivery of {@link ChannelMessage}s with a limited range. It is
+ * implemented by the environment, which knows the positions of the agents.
+ *
+ * @author agent
+ */
+@FunctionalInterface
+public interface ProximityQuery
+{
+	/**
+	 * Calls the visitor for each agent at a (Manhattan) distance of at most <code>range</code> from the given agent,
+	 * possibly including the agent itself. Nothing is visited if the agent is no longer in the environment.
+	 *
+	 * @param center
+	 *            - the ID of the agent.
+	 * @param range
+	 *            - the maximum distance.
+	 * @param visitor
+	 *            - receives the index of the ID of each agent.
+	 */
+	void forEachWithin(AgentID center, int range, IntConsumer visitor);
+}
@@ -64,6 +64,40 @@ public class SocialAction implements Action
 		addOutgoingMessage(new AgentMessage(AgentID.getAgentID(sender), destination, content));
 	}
 	
+	/**
+	 * Adds a message to all the other agents, stored once and delivered to each of them by the
+	 * {@link MessageBus}.
+	 * 
+	 * @param sender
+	 *            - the sending {@link Agent} (normally <code>this</code>).
+	 * @param range
+	 *            - the maximum distance from the sender to the recipients, or {@link ChannelMessage#UNLIMITED}.
+	 * @param content
+	 *            - the content of the message.
+	 */
+	public void addBroadcastMessage(Agent sender, int range, Object content)
+	{
+		addOutgoingMessage(new ChannelMessage(AgentID.getAgentID(sender), null, range, content));
+	}
+	
+	/**
+	 * Adds a message to the other members of a channel (e.g. the team of the sender), stored once and delivered to
+	 * each of them by the {@link MessageBus}.
+	 * 
+	 * @param sender
+	 *            - the sending {@link Agent} (normally <code>this</code>).
+	 * @param channel
+	 *            - the channel.
+	 * @param range
+	 *            - the maximum distance from the sender to the recipients, or {@link ChannelMessage#UNLIMITED}.
+	 * @param content
+	 *            - the content of the message.
+	 */
+	public void addChannelMessage(Agent sender, Channel channel, int range, Object content)
+	{
+		addOutgoingMessage(new ChannelMessage(AgentID.getAgentID(sender), channel, range, content));
+	}
+	
 	/**
 	 * Adds a new message to the list of outgoing messages.
 	 * 
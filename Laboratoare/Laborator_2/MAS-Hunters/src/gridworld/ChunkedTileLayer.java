@@ -0,0 +1,218 @@
+package gridworld;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link TileLayer} for an unbounded grid, stored in square chunks of {@link #CHUNK_SIZE} x {@link #CHUNK_SIZE}
+ * positions. A chunk is only allocated while it contains marked positions, so memory is proportional to the content of
+ * the layer rather than to the area it spans.
+ * <p>
+ * The boundaries of the marked positions are computed when requested, and are kept until the layer changes.
+ *
+ * @author agent
+ */
+public class ChunkedTileLayer extends TileLayer
+{
+	/**
+	 * Number of bits of the coordinates inside a chunk.
+	 */
+	public static final int	CHUNK_BITS	= 6;
+	/**
+	 * Size of the side of a chunk.
+	 */
+	public static final int	CHUNK_SIZE	= 1 << CHUNK_BITS;
+	
+	/**
+	 * A chunk of the layer. Bit <code>ly</code> of word <code>lx</code> marks the position at the local coordinates
+	 * (lx, ly).
+	 */
+	protected static class Chunk
+	{
+		/**
+		 * Chunk coordinates.
+		 */
+		final int		cx, cy;
+		/**
+		 * Sequence number, used for iteration.
+		 */
+		final long		sequence;
+		/**
+		 * The bits.
+		 */
+		final long[]	bits	= new long[CHUNK_SIZE];
+		/**
+		 * Number of marked positions.
+		 */
+		int				count	= 0;
+		
+		/**
+		 * @param chunkX
+		 *            - chunk x coordinate.
+		 * @param chunkY
+		 *            - chunk y coordinate.
+		 * @param sequenceNumber
+		 *            - the sequence number.
+		 */
+		Chunk(int chunkX, int chunkY, long sequenceNumber)
+		{
+			cx = chunkX;
+			cy = chunkY;
+			sequence = sequenceNumber;
+		}
+	}
+	
+	/**
+	 * The allocated chunks, by their chunk coordinates.
+	 */
+	protected PositionMap<Chunk>	chunks			= new PositionMap<>();
+	/**
+	 * The allocated chunks, in order of their sequence number. Iteration cursors refer to chunks by their sequence
+	 * number, so they stay valid when chunks are released.
+	 */
+	protected TreeMap<Long, Chunk>	chunksInOrder	= new TreeMap<>();
+	/**
+	 * Sequence number of the next allocated chunk.
+	 */
+	protected long					nextSequence	= 0;
+	/**
+	 * Boundaries of the marked positions (min x, max x, min y, max y), valid for {@link #boundsVersion}.
+	 */
+	protected int[]					bounds			= null;
+	/**
+	 * The version of the layer for which {@link #bounds} were computed.
+	 */
+	protected int					boundsVersion;
+	
+	@Override
+	public boolean get(int x, int y)
+	{
+		Chunk chunk = chunks.get(x >> CHUNK_BITS, y >> CHUNK_BITS);
+		return chunk != null && (chunk.bits[x & (CHUNK_SIZE - 1)] & (1L << y)) != 0;
+	}
+	
+	@Override
+	public boolean set(int x, int y)
+	{
+		Chunk chunk = chunks.get(x >> CHUNK_BITS, y >> CHUNK_BITS);
+		if(chunk == null)
+		{
+			chunk = new Chunk(x >> CHUNK_BITS, y >> CHUNK_BITS, nextSequence++);
+			chunks.put(chunk.cx, chunk.cy, chunk);
+			chunksInOrder.put(Long.valueOf(chunk.sequence), chunk);
+		}
+		long mask = 1L << y;
+		if((chunk.bits[x & (CHUNK_SIZE - 1)] & mask) != 0)
+			return false;
+		chunk.bits[x & (CHUNK_SIZE - 1)] |= mask;
+		chunk.count++;
+		count++;
+		changed(x, y);
+		return true;
+	}
+	
+	@Override
+	public boolean clear(int x, int y)
+	{
+		Chunk chunk = chunks.get(x >> CHUNK_BITS, y >> CHUNK_BITS);
+		long mask = 1L << y;
+		if(chunk == null || (chunk.bits[x & (CHUNK_SIZE - 1)] & mask) == 0)
+			return false;
+		chunk.bits[x & (CHUNK_SIZE - 1)] &= ~mask;
+		count--;
+		if(--chunk.count == 0)
+		{
+			chunks.remove(chunk.cx, chunk.cy);
+			chunksInOrder.remove(Long.valueOf(chunk.sequence));
+		}
+		changed(x, y);
+		return true;
+	}
+	
+	/**
+	 * @return the number of allocated chunks.
+	 */
+	public int getChunkCount()
+	{
+		return chunks.size();
+	}
+	
+	@Override
+	protected long nextMarked(long from)
+	{
+		Map.Entry<Long, Chunk> entry;
+		int bit;
+		if(from < 0)
+		{
+			entry = chunksInOrder.firstEntry();
+			bit = 0;
+		}
+		else
+		{
+			entry = chunksInOrder.ceilingEntry(Long.valueOf(from >>> (2 * CHUNK_BITS)));
+			bit = (entry != null && entry.getKey().longValue() == (from >>> (2 * CHUNK_BITS)))
+					? (int) (from & (CHUNK_SIZE * CHUNK_SIZE - 1)) + 1 : 0;
+		}
+		while(entry != null)
+		{
+			Chunk chunk = entry.getValue();
+			for(int w = bit >>> CHUNK_BITS; w < CHUNK_SIZE; w++)
+			{
+				long word = chunk.bits[w];
+				if(w == bit >>> CHUNK_BITS)
+					word &= -1L << (bit & (CHUNK_SIZE - 1));
+				if(word != 0)
+					return (chunk.sequence << (2 * CHUNK_BITS)) + (w << CHUNK_BITS) + Long.numberOfTrailingZeros(word);
+			}
+			entry = chunksInOrder.higherEntry(entry.getKey());
+			bit = 0;
+		}
+		return -1;
+	}
+	
+	@Override
+	protected int cursorX(long cursor)
+	{
+		Chunk chunk = chunksInOrder.get(Long.valueOf(cursor >>> (2 * CHUNK_BITS)));
+		return (chunk.cx << CHUNK_BITS) + (int) ((cursor >>> CHUNK_BITS) & (CHUNK_SIZE - 1));
+	}
+	
+	@Override
+	protected int cursorY(long cursor)
+	{
+		Chunk chunk = chunksInOrder.get(Long.valueOf(cursor >>> (2 * CHUNK_BITS)));
+		return (chunk.cy << CHUNK_BITS) + (int) (cursor & (CHUNK_SIZE - 1));
+	}
+	
+	/**
+	 * Computes the boundaries of the marked positions.
+	 *
+	 * @return an array containing the minimum x, maximum x, minimum y and maximum y of marked positions, or
+	 *         <code>null</code> if the layer is empty. The array must not be modified.
+	 */
+	public int[] getBounds()
+	{
+		if(count == 0)
+			return null;
+		if(bounds != null && boundsVersion == version)
+			return bounds;
+		int[] b = { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for(Chunk chunk : chunksInOrder.values())
+		{
+			long columns = 0;
+			for(int w = 0; w < CHUNK_SIZE; w++)
+				if(chunk.bits[w] != 0)
+				{
+					int x = (chunk.cx << CHUNK_BITS) + w;
+					b[0] = Math.min(b[0], x);
+					b[1] = Math.max(b[1], x);
+					columns |= chunk.bits[w];
+				}
+			b[2] = Math.min(b[2], (chunk.cy << CHUNK_BITS) + Long.numberOfTrailingZeros(columns));
+			b[3] = Math.max(b[3], (chunk.cy << CHUNK_BITS) + CHUNK_SIZE - 1 - Long.numberOfLeadingZeros(columns));
+		}
+		bounds = b;
+		boundsVersion = version;
+		return bounds;
+	}
+}
@@ -0,0 +1,272 @@
+package gridworld;
+
+import java.io.IOException;
+
+import base.RandomStream;
+
+/**
+ * Adds dirt (J-tiles) to an environment over time. The rectangle of the environment is divided into regions, and in
+ * each region dirt appears following a Poisson process: at each step, the number of new J-tiles is drawn from a Poisson
+ * distribution with the rate of the region, and each one is placed at a uniformly random position of the region. Tiles
+ * that fall on a position that is not free, or that is already dirty, are not added.
+ * <p>
+ * Steps without new dirt are skipped: for each region, the spawner keeps the next step at which dirt appears, drawn
+ * from a geometric distribution, so the cost is constant for each new tile, plus a check of each region at each call of
+ * {@link #spawn()}. Each region uses its own random stream, split from the given stream, so the dirt of a region does
+ * not depend on the other regions.
+ *
+ * @author agent
+ */
+public class DirtSpawner
+{
+	/**
+	 * The time of the next spawn of regions with a rate of 0.
+	 */
+	public static final long				NEVER		= Long.MAX_VALUE;
+	
+	/**
+	 * The environment.
+	 */
+	protected final AbstractGridEnvironment	environment;
+	/**
+	 * Minimum x coordinate of each region.
+	 */
+	protected final int[]					minX;
+	/**
+	 * Minimum y coordinate of each region.
+	 */
+	protected final int[]					minY;
+	/**
+	 * Number of columns of each region.
+	 */
+	protected final int[]					width;
+	/**
+	 * Number of rows of each region.
+	 */
+	protected final int[]					height;
+	/**
+	 * Expected number of new tiles in each region, at each step.
+	 */
+	protected final double[]				rates;
+	/**
+	 * The random stream of each region.
+	 */
+	protected final RandomStream[]			randoms;
+	/**
+	 * The time of the next spawn in each region, or {@link #NEVER}.
+	 */
+	protected final long[]					nextSpawn;
+	/**
+	 * Number of tiles added.
+	 */
+	protected long							spawned		= 0;
+	/**
+	 * Number of tiles not added, because their position was not free or was already dirty.
+	 */
+	protected long							skipped		= 0;
+	
+	/**
+	 * Creates a spawner that divides the current rectangle of the environment into a grid of regions, all with the same
+	 * rate.
+	 *
+	 * @param gridEnvironment
+	 *            - the environment.
+	 * @param columns
+	 *            - number of columns of the grid of regions.
+	 * @param rows
+	 *            - number of rows of the grid of regions.
+	 * @param rate
+	 *            - expected number of new tiles in each region, at each step.
+	 * @param random
+	 *            - the stream from which the streams of the regions are split.
+	 */
+	public DirtSpawner(AbstractGridEnvironment gridEnvironment, int columns, int rows, double rate, RandomStream random)
+	{
+		environment = gridEnvironment;
+		environment.updateBounds();
+		int w = environment.x1 - environment.x0 + 1;
+		int h = environment.y1 - environment.y0 + 1;
+		columns = Math.max(1, Math.min(columns, w));
+		rows = Math.max(1, Math.min(rows, h));
+		int regions = columns * rows;
+		minX = new int[regions];
+		minY = new int[regions];
+		width = new int[regions];
+		height = new int[regions];
+		rates = new double[regions];
+		randoms = new RandomStream[regions];
+		nextSpawn = new long[regions];
+		for(int c = 0; c < columns; c++)
+			for(int r = 0; r < rows; r++)
+			{
+				int region = c * rows + r;
+				minX[region] = environment.x0 + c * w / columns;
+				width[region] = environment.x0 + (c + 1) * w / columns - minX[region];
+				minY[region] = environment.y0 + r * h / rows;
+				height[region] = environment.y0 + (r + 1) * h / rows - minY[region];
+				randoms[region] = random.split();
+				setRate(region, rate);
+			}
+	}
+	
+	/**
+	 * Changes the rate of a region. The next spawn in the region is drawn again, starting from the current time.
+	 *
+	 * @param region
+	 *            - the region.
+	 * @param rate
+	 *            - expected number of new tiles in the region, at each step.
+	 */
+	public void setRate(int region, double rate)
+	{
+		if(rate < 0)
+			throw new IllegalArgumentException("Rate must not be negative");
+		rates[region] = rate;
+		nextSpawn[region] = rate > 0 ? environment.time + gap(region) : NEVER;
+	}
+	
+	/**
+	 * Adds the dirt that appears in all regions up to the current time of the environment. It should be called at each
+	 * step, or at least at the time returned by {@link #peekTime()}, so that tiles are added at their time.
+	 *
+	 * @return the number of tiles added.
+	 */
+	public int spawn()
+	{
+		int count = 0;
+		for(int region = 0; region < nextSpawn.length; region++)
+			while(nextSpawn[region] <= environment.time)
+			{
+				for(int k = draw(region); k > 0; k--)
+				{
+					RandomStream random = randoms[region];
+					int x = minX[region] + random.nextInt(width[region]);
+					int y = minY[region] + random.nextInt(height[region]);
+					if(environment.addDirt(x, y))
+						count++;
+					else
+						skipped++;
+				}
+				nextSpawn[region] += gap(region);
+			}
+		spawned += count;
+		return count;
+	}
+	
+	/**
+	 * @param region
+	 *            - a region with a rate greater than 0.
+	 * @return the number of steps until the next step with at least one new tile in the region, drawn from a geometric
+	 *         distribution.
+	 */
+	protected long gap(int region)
+	{
+		double u = 1 - randoms[region].nextDouble();
+		return 1 + (long) (-Math.log(u) / rates[region]);
+	}
+	
+	/**
+	 * @param region
+	 *            - a region with a rate greater than 0.
+	 * @return the number of new tiles at a step with at least one new tile, drawn from a Poisson distribution without
+	 *         0, by inversion.
+	 */
+	protected int draw(int region)
+	{
+		double rate = rates[region];
+		double none = Math.exp(-rate);
+		double u = randoms[region].nextDouble() * (1 - none);
+		double p = rate * none;
+		double cumulated = p;
+		int k = 1;
+		while(u > cumulated && p > 0)
+		{
+			k++;
+			p *= rate / k;
+			cumulated += p;
+		}
+		return k;
+	}
+	
+	/**
+	 * @return the earliest time at which dirt appears in a region, or {@link #NEVER}.
+	 */
+	public long peekTime()
+	{
+		long earliest = NEVER;
+		for(long time : nextSpawn)
+			earliest = Math.min(earliest, time);
+		return earliest;
+	}
+	
+	/**
+	 * @return the number of regions.
+	 */
+	public int getRegionCount()
+	{
+		return nextSpawn.length;
+	}
+	
+	/**
+	 * @return the number of tiles added.
+	 */
+	public long getSpawnedCount()
+	{
+		return spawned;
+	}
+	
+	/**
+	 * @return the number of tiles not added, because their position was not free or was already dirty.
+	 */
+	public long getSkippedCount()
+	{
+		return skipped;
+	}
+	
+	/**
+	 * Writes the state of the spawner (rates, random streams and next spawns of the regions, counts) to a checkpoint of
+	 * its environment.
+	 *
+	 * @param out
+	 *            - the checkpoint.
+	 * @throws IOException
+	 *             if the checkpoint cannot be written.
+	 */
+	public void writeCheckpoint(CheckpointWriter out) throws IOException
+	{
+		out.writeInt(nextSpawn.length);
+		for(int region = 0; region < nextSpawn.length; region++)
+		{
+			out.writeDouble(rates[region]);
+			out.writeRandom(randoms[region]);
+			out.writeLong(nextSpawn[region]);
+		}
+		out.writeLong(spawned);
+		out.writeLong(skipped);
+	}
+	
+	/**
+	 * Restores the state written by {@link #writeCheckpoint(CheckpointWriter)}. The regions of the spawner must be the
+	 * same as those of the spawner that was saved.
+	 *
+	 * @param in
+	 *            - the checkpoint.
+	 * @throws IOException
+	 *             if the checkpoint cannot be read, or it has a different number of regions.
+	 */
+	public void readCheckpoint(CheckpointReader in) throws IOException
+	{
+		int regions = in.readInt();
+		if(regions != nextSpawn.length)
+			throw new IOException("The checkpoint has " + regions + " spawn regions, the spawner has "
+					+ nextSpawn.length);
+		for(int region = 0; region < nextSpawn.length; region++)
+		{
+			rates[region] = in.readDouble();
+			in.readRandom(randoms[region]);
+			nextSpawn[region] = in.readLong();
+		}
+		spawned = in.readLong();
+		skipped = in.readLong();
+	}
+}
@@ -0,0 +1,198 @@
+package gridworld;
+
+import java.util.Arrays;
+
+/**
+ * Statistics about the dirt (J-tiles) of an environment: how many tiles were added and cleaned, and how long tiles
+ * stayed dirty. The time at which each tile was added is kept in an array over the rectangle of the environment, so
+ * each addition and cleaning is recorded in constant time.
+ * <p>
+ * The counts are for the period since the last {@link #reset()}, so that a steady state can be measured after a warm-up
+ * period. Instances are created by {@link AbstractGridEnvironment#getDirtStatistics()}.
+ *
+ * @author agent
+ */
+public class DirtStatistics
+{
+	/**
+	 * The environment.
+	 */
+	protected final AbstractGridEnvironment	environment;
+	/**
+	 * Minimum x coordinate of the covered rectangle.
+	 */
+	protected final int						minX;
+	/**
+	 * Minimum y coordinate of the covered rectangle.
+	 */
+	protected final int						minY;
+	/**
+	 * Number of columns of the covered rectangle.
+	 */
+	protected final int						width;
+	/**
+	 * Number of rows of the covered rectangle.
+	 */
+	protected final int						height;
+	/**
+	 * The time at which each dirty tile was added, or <code>-1</code> for clean tiles.
+	 */
+	protected final long[]					addedAt;
+	/**
+	 * The time of the last reset.
+	 */
+	protected long							startTime;
+	/**
+	 * Number of tiles added since the last reset.
+	 */
+	protected long							added		= 0;
+	/**
+	 * Number of tiles cleaned since the last reset.
+	 */
+	protected long							cleaned		= 0;
+	/**
+	 * Sum of the times during which the tiles cleaned since the last reset were dirty.
+	 */
+	protected long							lifetimes	= 0;
+	
+	/**
+	 * Creates empty statistics, covering the current rectangle of the environment.
+	 *
+	 * @param gridEnvironment
+	 *            - the environment.
+	 */
+	protected DirtStatistics(AbstractGridEnvironment gridEnvironment)
+	{
+		environment = gridEnvironment;
+		environment.updateBounds();
+		minX = environment.x0;
+		minY = environment.y0;
+		width = environment.x1 - environment.x0 + 1;
+		height = environment.y1 - environment.y0 + 1;
+		addedAt = new long[width * height];
+		Arrays.fill(addedAt, -1);
+		startTime = environment.time;
+	}
+	
+	/**
+	 * Records a tile that became dirty.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @param time
+	 *            - the current time.
+	 */
+	protected void added(int x, int y, long time)
+	{
+		added++;
+		if(covers(x, y))
+			addedAt[index(x, y)] = time;
+	}
+	
+	/**
+	 * Records a tile that was cleaned.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @param time
+	 *            - the current time.
+	 */
+	protected void cleaned(int x, int y, long time)
+	{
+		cleaned++;
+		if(covers(x, y) && addedAt[index(x, y)] >= 0)
+		{
+			lifetimes += time - addedAt[index(x, y)];
+			addedAt[index(x, y)] = -1;
+		}
+	}
+	
+	/**
+	 * Starts a new measurement period at the current time. Tiles that are dirty keep the time at which they were added.
+	 */
+	public void reset()
+	{
+		startTime = environment.time;
+		added = 0;
+		cleaned = 0;
+		lifetimes = 0;
+	}
+	
+	/**
+	 * @return the number of tiles that became dirty since the last reset.
+	 */
+	public long getAddedCount()
+	{
+		return added;
+	}
+	
+	/**
+	 * @return the number of tiles cleaned since the last reset.
+	 */
+	public long getCleanedCount()
+	{
+		return cleaned;
+	}
+	
+	/**
+	 * @return the time since the last reset.
+	 */
+	public long getElapsedTime()
+	{
+		return environment.time - startTime;
+	}
+	
+	/**
+	 * @return the number of tiles cleaned for each 1000 steps since the last reset.
+	 */
+	public double getCleanedPerThousandSteps()
+	{
+		long elapsed = getElapsedTime();
+		return elapsed > 0 ? cleaned * 1000.0 / elapsed : 0;
+	}
+	
+	/**
+	 * @return the mean time during which the tiles cleaned since the last reset were dirty. Tiles that are still dirty
+	 *         are not counted.
+	 */
+	public double getMeanLifetime()
+	{
+		return cleaned > 0 ? (double) lifetimes / cleaned : 0;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position is inside the rectangle covered by the statistics.
+	 */
+	protected boolean covers(int x, int y)
+	{
+		return (x - minX) >= 0 && (x - minX) < width && (y - minY) >= 0 && (y - minY) < height;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate, inside the covered rectangle.
+	 * @param y
+	 *            - the y coordinate, inside the covered rectangle.
+	 * @return the index of the position in {@link #addedAt}.
+	 */
+	protected int index(int x, int y)
+	{
+		return (x - minX) * height + (y - minY);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format("time %d: added %d, cleaned %d (%.1f per 1000 steps), mean lifetime %.1f, dirty %d",
+				getElapsedTime(), added, cleaned, getCleanedPerThousandSteps(), getMeanLifetime(),
+				environment.getRemainingDirt());
+	}
+}
@@ -0,0 +1,409 @@
+package gridworld;
+
+import java.util.Arrays;
+
+/**
+ * The distance, in moves around X-tiles, from each position of an environment to the nearest of a set of sources (e.g.
+ * the J-tiles, or the positions of some agents), computed by a multi-source breadth-first search. For each position,
+ * the field also keeps the source that is nearest.
+ * <p>
+ * Sources can be added and removed after the field is computed. Only the positions that were nearest to a removed
+ * source are computed again, starting from the positions around them, which keep their distances. The next move
+ * towards the nearest source is found in constant time, by looking at the neighbors of a position.
+ * <p>
+ * The field covers the rectangle of the environment at the time of its creation, and uses the X-tiles at that time;
+ * X-tiles must not change afterwards. Instances are created by {@link AbstractGridEnvironment#createDistanceField()}.
+ *
+ * @author agent
+ */
+public class DistanceField
+{
+	/**
+	 * The distance of positions from which no source can be reached.
+	 */
+	public static final int						UNREACHABLE	= Integer.MAX_VALUE;
+	/**
+	 * The directions of the moves.
+	 */
+	protected static final GridOrientation[]	DIRECTIONS	= GridOrientation.values();
+	
+	/**
+	 * The environment.
+	 */
+	protected final AbstractGridEnvironment		environment;
+	/**
+	 * Minimum x coordinate of the covered rectangle.
+	 */
+	protected final int							minX;
+	/**
+	 * Minimum y coordinate of the covered rectangle.
+	 */
+	protected final int							minY;
+	/**
+	 * Number of columns of the covered rectangle.
+	 */
+	protected final int							width;
+	/**
+	 * Number of rows of the covered rectangle.
+	 */
+	protected final int							height;
+	/**
+	 * <code>true</code> for positions that exist and hold no X-tile.
+	 */
+	protected final boolean[]					free;
+	/**
+	 * The distance of each position to the nearest source, or {@link #UNREACHABLE}.
+	 */
+	protected final int[]						distance;
+	/**
+	 * The index of the nearest source of each position, or <code>-1</code>. Sources are their own nearest source.
+	 */
+	protected final int[]						nearest;
+	/**
+	 * Queue of the search.
+	 */
+	protected final int[]						queue;
+	/**
+	 * The positions to compute again after a source is removed.
+	 */
+	protected final int[]						affected;
+	/**
+	 * The affected positions from which the search starts again after a source is removed, each as its distance (high
+	 * half) and its index (low half), sorted by distance.
+	 */
+	protected final long[]						byDistance;
+	/**
+	 * Number of sources.
+	 */
+	protected int								sourceCount	= 0;
+	/**
+	 * Incremented at each change of the field.
+	 */
+	protected int								version		= 0;
+	
+	/**
+	 * Creates a field with no sources, covering the current rectangle of the environment.
+	 *
+	 * @param gridEnvironment
+	 *            - the environment.
+	 */
+	protected DistanceField(AbstractGridEnvironment gridEnvironment)
+	{
+		environment = gridEnvironment;
+		environment.updateBounds();
+		minX = environment.x0;
+		minY = environment.y0;
+		width = environment.x1 - environment.x0 + 1;
+		height = environment.y1 - environment.y0 + 1;
+		free = new boolean[width * height];
+		for(int i = 0; i < free.length; i++)
+			free[i] = environment.isFree(indexX(i), indexY(i));
+		distance = new int[free.length];
+		nearest = new int[free.length];
+		queue = new int[free.length];
+		affected = new int[free.length];
+		byDistance = new long[free.length];
+		Arrays.fill(distance, UNREACHABLE);
+		Arrays.fill(nearest, -1);
+	}
+	
+	/**
+	 * Replaces all sources and computes the field again.
+	 *
+	 * @param sources
+	 *            - the new sources. Positions that are not free, or are outside the field, are ignored.
+	 */
+	public void compute(Iterable<GridPosition> sources)
+	{
+		Arrays.fill(distance, UNREACHABLE);
+		Arrays.fill(nearest, -1);
+		sourceCount = 0;
+		int tail = 0;
+		for(GridPosition source : sources)
+		{
+			int x = source.getX(), y = source.getY();
+			if(!covers(x, y) || !free[index(x, y)] || distance[index(x, y)] == 0)
+				continue;
+			int cell = index(x, y);
+			distance[cell] = 0;
+			nearest[cell] = cell;
+			queue[tail++] = cell;
+			sourceCount++;
+		}
+		propagate(0, tail);
+		version++;
+	}
+	
+	/**
+	 * Adds a source. Only the positions that become nearer to the new source than to their previous source are
+	 * changed.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the source was added; <code>false</code> if it already was a source, or if the
+	 *         position is not free.
+	 */
+	public boolean addSource(int x, int y)
+	{
+		if(!covers(x, y) || !free[index(x, y)] || distance[index(x, y)] == 0)
+			return false;
+		int cell = index(x, y);
+		distance[cell] = 0;
+		nearest[cell] = cell;
+		queue[0] = cell;
+		propagate(0, 1);
+		sourceCount++;
+		version++;
+		return true;
+	}
+	
+	/**
+	 * Removes a source. The positions that were nearest to it are computed again.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the source was removed; <code>false</code> if the position was not a source.
+	 */
+	public boolean removeSource(int x, int y)
+	{
+		if(!isSource(x, y))
+			return false;
+		int source = index(x, y);
+		
+		// the positions nearest to the source are connected to it, through the positions on their shortest paths
+		int count = 0;
+		affected[count++] = source;
+		nearest[source] = -1;
+		for(int head = 0; head < count; head++)
+		{
+			int cell = affected[head];
+			distance[cell] = UNREACHABLE;
+			int cx = indexX(cell), cy = indexY(cell);
+			for(GridOrientation direction : DIRECTIONS)
+			{
+				int nx = cx + direction.getDx(), ny = cy + direction.getDy();
+				if(covers(nx, ny) && nearest[index(nx, ny)] == source)
+				{
+					nearest[index(nx, ny)] = -1;
+					affected[count++] = index(nx, ny);
+				}
+			}
+		}
+		
+		// each affected position is first reached from its neighbors that keep their distance
+		int seeds = 0;
+		for(int i = 0; i < count; i++)
+		{
+			int cell = affected[i];
+			int cx = indexX(cell), cy = indexY(cell);
+			for(GridOrientation direction : DIRECTIONS)
+			{
+				int nx = cx + direction.getDx(), ny = cy + direction.getDy();
+				if(!covers(nx, ny))
+					continue;
+				int next = index(nx, ny);
+				if(nearest[next] >= 0 && distance[next] + 1 < distance[cell])
+				{
+					distance[cell] = distance[next] + 1;
+					nearest[cell] = nearest[next];
+				}
+			}
+			if(nearest[cell] >= 0)
+				byDistance[seeds++] = ((long) distance[cell] << 32) | cell;
+		}
+		Arrays.sort(byDistance, 0, seeds);
+		
+		// breadth-first search from the seeds, taken in the order of their distance
+		int head = 0, tail = 0, nextSeed = 0;
+		while(nextSeed < seeds || head < tail)
+		{
+			int cell;
+			if(head == tail
+					|| (nextSeed < seeds && (int) (byDistance[nextSeed] >>> 32) <= distance[queue[head]]))
+			{
+				long seed = byDistance[nextSeed++];
+				cell = (int) seed;
+				if(distance[cell] != (int) (seed >>> 32))
+					// reached with a shorter distance from another seed
+					continue;
+			}
+			else
+				cell = queue[head++];
+			tail = relax(cell, tail);
+		}
+		sourceCount--;
+		version++;
+		return true;
+	}
+	
+	/**
+	 * Breadth-first search from the positions in the queue, which must be in increasing order of distance.
+	 *
+	 * @param head
+	 *            - the first position in the queue.
+	 * @param tail
+	 *            - the end of the queue.
+	 */
+	protected void propagate(int head, int tail)
+	{
+		while(head < tail)
+			tail = relax(queue[head++], tail);
+	}
+	
+	/**
+	 * Updates the neighbors of a position that are farther from their source than from the source of the position,
+	 * and adds them to the queue.
+	 *
+	 * @param cell
+	 *            - the position.
+	 * @param tail
+	 *            - the end of the queue.
+	 * @return the new end of the queue.
+	 */
+	protected int relax(int cell, int tail)
+	{
+		int d = distance[cell] + 1;
+		int cx = indexX(cell), cy = indexY(cell);
+		for(GridOrientation direction : DIRECTIONS)
+		{
+			int nx = cx + direction.getDx(), ny = cy + direction.getDy();
+			if(!covers(nx, ny))
+				continue;
+			int next = index(nx, ny);
+			if(free[next] && distance[next] > d)
+			{
+				distance[next] = d;
+				nearest[next] = nearest[cell];
+				queue[tail++] = next;
+			}
+		}
+		return tail;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return the distance to the nearest source, or {@link #UNREACHABLE}.
+	 */
+	public int getDistance(int x, int y)
+	{
+		return covers(x, y) ? distance[index(x, y)] : UNREACHABLE;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return the nearest source, or <code>null</code> if no source can be reached.
+	 */
+	public GridPosition getNearestSource(int x, int y)
+	{
+		if(!covers(x, y) || nearest[index(x, y)] < 0)
+			return null;
+		int source = nearest[index(x, y)];
+		return environment.getPositionAt(indexX(source), indexY(source));
+	}
+	
+	/**
+	 * Returns the direction of the first move on a shortest path to the nearest source. If there are several such
+	 * moves, the first one in the order of {@link GridOrientation#values()} is returned.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return the direction of the move, or <code>null</code> if the position is a source or no source can be reached.
+	 */
+	public GridOrientation nextStep(int x, int y)
+	{
+		int d = getDistance(x, y);
+		if(d == 0 || d == UNREACHABLE)
+			return null;
+		for(GridOrientation direction : DIRECTIONS)
+		{
+			int nx = x + direction.getDx(), ny = y + direction.getDy();
+			if(covers(nx, ny) && distance[index(nx, ny)] == d - 1)
+				return direction;
+		}
+		return null;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position is a source.
+	 */
+	public boolean isSource(int x, int y)
+	{
+		return covers(x, y) && distance[index(x, y)] == 0;
+	}
+	
+	/**
+	 * @return the number of sources.
+	 */
+	public int getSourceCount()
+	{
+		return sourceCount;
+	}
+	
+	/**
+	 * @return a number that changes each time the field changes.
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position is inside the rectangle covered by the field.
+	 */
+	public boolean covers(int x, int y)
+	{
+		return (x - minX) >= 0 && (x - minX) < width && (y - minY) >= 0 && (y - minY) < height;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate, inside the covered rectangle.
+	 * @param y
+	 *            - the y coordinate, inside the covered rectangle.
+	 * @return the index of the position in the arrays of the field.
+	 */
+	protected int index(int x, int y)
+	{
+		return (x - minX) * height + (y - minY);
+	}
+	
+	/**
+	 * @param index
+	 *            - an index in the arrays of the field.
+	 * @return the x coordinate of the position.
+	 */
+	protected int indexX(int index)
+	{
+		return minX + index / height;
+	}
+	
+	/**
+	 * @param index
+	 *            - an index in the arrays of the field.
+	 * @return the y coordinate of the position.
+	 */
+	protected int indexY(int index)
+	{
+		return minY + index % height;
+	}
+}
@@ -28,6 +28,52 @@ public enum GridOrientation {
 	
 	;
 	
+	/**
+	 * All orientations, in the order of their ordinals.
+	 */
+	private static final GridOrientation[]	VALUES	= values();
+	
+	/**
+	 * Delta x of the position at a relative orientation, indexed by the ordinal of the reference orientation and by
+	 * the ordinal of the {@link GridRelativeOrientation}.
+	 */
+	static final int[][]					RELATIVE_DX;
+	
+	/**
+	 * Delta y of the position at a relative orientation, indexed as {@link #RELATIVE_DX}.
+	 */
+	static final int[][]					RELATIVE_DY;
+	
+	/**
+	 * The relative orientation of a neighbor position, indexed by the ordinal of the reference orientation and by
+	 * <code>(dx + 1) * 3 + (dy + 1)</code>. The entry for the reference position itself is <code>null</code>.
+	 */
+	static final GridRelativeOrientation[][]	RELATIVE_ORIENTATION;
+	
+	static
+	{
+		GridRelativeOrientation[] relatives = GridRelativeOrientation.values();
+		RELATIVE_DX = new int[VALUES.length][relatives.length];
+		RELATIVE_DY = new int[VALUES.length][relatives.length];
+		RELATIVE_ORIENTATION = new GridRelativeOrientation[VALUES.length][9];
+		for(GridOrientation orientation : VALUES)
+			for(GridRelativeOrientation relative : relatives)
+			{
+				int angle = relative.getAngle();
+				int straightResult = (orientation.ordinal() + angle / 2) % 4;
+				int deltaX = VALUES[straightResult].dx;
+				int deltaY = VALUES[straightResult].dy;
+				if(angle % 2 > 0)
+				{
+					deltaX += VALUES[(straightResult + 1) % 4].dx;
+					deltaY += VALUES[(straightResult + 1) % 4].dy;
+				}
+				RELATIVE_DX[orientation.ordinal()][relative.ordinal()] = deltaX;
+				RELATIVE_DY[orientation.ordinal()][relative.ordinal()] = deltaY;
+				RELATIVE_ORIENTATION[orientation.ordinal()][(deltaX + 1) * 3 + (deltaY + 1)] = relative;
+			}
+	}
+	
 	/**
 	 * Delta x.
 	 */
@@ -62,7 +108,7 @@ public enum GridOrientation {
 	/**
 	 * @return the delta x
 	 */
-	int getDx()
+	public int getDx()
 	{
 		return dx;
 	}
@@ -70,7 +116,7 @@ public enum GridOrientation {
 	/**
 	 * @return the delta y
 	 */
-	int getDy()
+	public int getDy()
 	{
 		return dy;
 	}
@@ -100,7 +146,7 @@ public enum GridOrientation {
 			throw new IllegalArgumentException("the relative orientation must be at straight angle.");
 			
 		int straightAngle = angle / 2;
-		return GridOrientation.values()[(this.ordinal() + straightAngle) % 4];
+		return VALUES[(this.ordinal() + straightAngle) % 4];
 	}
 	
 	/**
@@ -113,23 +159,9 @@ public enum GridOrientation {
 	 *            - the relative orientation
 	 * @return - the delta x of the position at that relative orientation.
 	 */
-	int getRelativeDx(GridRelativeOrientation relative)
+	public int getRelativeDx(GridRelativeOrientation relative)
 	{
-		int angle = relative.getAngle();
-		int straightAngle = angle / 2;
-		int isHalfAngle = angle % 2;
-		GridOrientation all[] = values();
-		int current = 0;
-		for(int i = 0; i < all.length; i++)
-			if(all[i].equals(this))
-				current = i;
-		int straightResult = (current + straightAngle) % 4;
-		
-		int res = all[straightResult].getDx();
-		if(isHalfAngle > 0)
-			res += all[(straightResult + 1) % 4].getDx();
-			
-		return res;
+		return RELATIVE_DX[ordinal()][relative.ordinal()];
 	}
 	
 	/**
@@ -141,21 +173,29 @@ public enum GridOrientation {
 	 *            - the relative orientation
 	 * @return - the delta y of the position at that relative orientation.
 	 */
-	int getRelativeDy(GridRelativeOrientation relative)
+	public int getRelativeDy(GridRelativeOrientation relative)
 	{
-		int angle = relative.getAngle();
-		int straightAngle = angle / 2;
-		int isHalfAngle = angle % 2;
-		GridOrientation all[] = values();
-		int current = 0;
-		for(int i = 0; i < all.length; i++)
-			if(all[i].equals(this))
-				current = i;
-		int straightResult = (current + straightAngle) % 4;
-		
-		int res = all[straightResult].getDy();
-		if(isHalfAngle > 0)
-			res += all[(straightResult + 1) % 4].getDy();
-		return res;
+		return RELATIVE_DY[ordinal()][relative.ordinal()];
+	}
+	
+	/**
+	 * Returns the relative orientation, with respect to <code>this</code> orientation, of the neighbor position at the
+	 * given delta.
+	 * <p>
+	 * E.g. if the orientation is EAST, the position at a delta x of -1 and a delta y of -1 is at BACK-RIGHT.
+	 *
+	 * @param deltaX
+	 *            - the delta x of the neighbor position, between -1 and 1.
+	 * @param deltaY
+	 *            - the delta y of the neighbor position, between -1 and 1.
+	 * @return the relative orientation of the neighbor position.
+	 * @throws IllegalArgumentException
+	 *             if the delta does not correspond to a neighbor.
+	 */
+	public GridRelativeOrientation getRelativeOrientation(int deltaX, int deltaY)
+	{
+		if(deltaX < -1 || deltaX > 1 || deltaY < -1 || deltaY > 1 || (deltaX == 0 && deltaY == 0))
+			throw new IllegalArgumentException("Given delta is not a neighbor");
+		return RELATIVE_ORIENTATION[ordinal()][(deltaX + 1) * 3 + (deltaY + 1)];
 	}
 }
\ No newline at end of file
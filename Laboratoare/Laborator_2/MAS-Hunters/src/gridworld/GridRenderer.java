@@ -0,0 +1,306 @@
+package gridworld;
+
+import java.util.Arrays;
+
+/**
+ * Renders an {@link AbstractGridEnvironment} as text, in the format of {@link AbstractGridEnvironment#printToString()}.
+ * <p>
+ * The frame is kept in a reusable character buffer. Borders, coordinates and separators are written only when the
+ * layout (boundaries and cell size) changes. Afterwards, only cells whose tiles changed (see {@link #invalidate}) or
+ * which were occupied by agents in the previous frame or in the current one are redrawn.
+ * <p>
+ * The content of a cell is truncated to the width of the cell.
+ *
+ * @author agent
+ */
+public class GridRenderer
+{
+	/**
+	 * The rendered environment.
+	 */
+	protected final AbstractGridEnvironment	env;
+	/**
+	 * Layout parameters for which the frame was built.
+	 */
+	protected int							layoutX0, layoutX1, layoutY0, layoutY1, layoutW, layoutH;
+	/**
+	 * Number of columns and rows of cells.
+	 */
+	protected int							columns, rows;
+	/**
+	 * The frame buffer.
+	 */
+	protected char[]						frame;
+	/**
+	 * For each row of cells (from the top), the offset in the frame of the first cell in each of the lines of the
+	 * row. Cells on a line are separated by one character.
+	 */
+	protected int[][]						lineOffsets;
+	/**
+	 * Flags for cells that must be redrawn, indexed by <code>column * rows + row</code>.
+	 */
+	protected boolean[]						dirty;
+	/**
+	 * Indexes of cells that must be redrawn (the first {@link #dirtyCount} elements).
+	 */
+	protected int[]							dirtyCells;
+	/**
+	 * Number of cells that must be redrawn.
+	 */
+	protected int							dirtyCount;
+	/**
+	 * For each cell, the index (in the list of agents) of the first agent in the cell, or -1.
+	 */
+	protected int[]							firstAgent;
+	/**
+	 * For each agent, the index of the next agent in the same cell, or -1.
+	 */
+	protected int[]							nextAgent	= new int[0];
+	/**
+	 * Cells occupied by agents in the previous frame.
+	 */
+	protected int[]							occupied	= new int[0];
+	/**
+	 * Number of cells occupied by agents in the previous frame.
+	 */
+	protected int							occupiedCount;
+	/**
+	 * Buffer for the labels of the agents in a cell.
+	 */
+	protected StringBuilder					label		= new StringBuilder();
+	
+	/**
+	 * @param environment
+	 *            - the environment to render.
+	 */
+	public GridRenderer(AbstractGridEnvironment environment)
+	{
+		env = environment;
+	}
+	
+	/**
+	 * Marks the cell at the given coordinates to be redrawn in the next frame.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 */
+	public void invalidate(int x, int y)
+	{
+		if(frame == null || x < layoutX0 || x > layoutX1 || y < layoutY0 || y > layoutY1)
+			return;
+		markDirty((x - layoutX0) * rows + (layoutY1 - y));
+	}
+	
+	/**
+	 * Marks the whole frame to be rebuilt.
+	 */
+	public void invalidateAll()
+	{
+		frame = null;
+	}
+	
+	/**
+	 * @return the rendering of the current state of the environment.
+	 */
+	public String render()
+	{
+		if(frame == null || layoutX0 != env.x0 || layoutX1 != env.x1 || layoutY0 != env.y0 || layoutY1 != env.y1
+				|| layoutW != env.cellW || layoutH != env.cellH)
+			buildLayout();
+		
+		// cells that held agents in the previous frame
+		for(int c = 0; c < occupiedCount; c++)
+			markDirty(occupied[c]);
+		
+		// put agents in cells, keeping their order in the list of agents
+		GridAgentStore agents = env.agentStore;
+		int nAgents = agents.size();
+		if(nextAgent.length < nAgents)
+		{
+			nextAgent = new int[Math.max(nAgents, nextAgent.length * 2)];
+			occupied = new int[nextAgent.length];
+		}
+		occupiedCount = 0;
+		for(int a = nAgents - 1; a >= 0; a--)
+		{
+			int x = agents.getX(a);
+			int y = agents.getY(a);
+			if(x < layoutX0 || x > layoutX1 || y < layoutY0 || y > layoutY1)
+				continue;
+			int cell = (x - layoutX0) * rows + (layoutY1 - y);
+			if(firstAgent[cell] < 0)
+				occupied[occupiedCount++] = cell;
+			nextAgent[a] = firstAgent[cell];
+			firstAgent[cell] = a;
+			markDirty(cell);
+		}
+		
+		for(int d = 0; d < dirtyCount; d++)
+		{
+			drawCell(dirtyCells[d], agents);
+			dirty[dirtyCells[d]] = false;
+		}
+		dirtyCount = 0;
+		
+		for(int c = 0; c < occupiedCount; c++)
+			firstAgent[occupied[c]] = -1;
+		return new String(frame);
+	}
+	
+	/**
+	 * Builds the frame for the current boundaries and cell size, and marks all cells to be drawn.
+	 */
+	protected void buildLayout()
+	{
+		layoutX0 = env.x0;
+		layoutX1 = env.x1;
+		layoutY0 = env.y0;
+		layoutY1 = env.y1;
+		layoutW = env.cellW;
+		layoutH = env.cellH;
+		columns = layoutX1 - layoutX0 + 1;
+		rows = layoutY1 - layoutY0 + 1;
+		int lines = 2 + Math.max(0, layoutH - 2);
+		
+		StringBuilder res = new StringBuilder();
+		// border top
+		res.append("  |");
+		for(int i = layoutX0; i <= layoutX1; i++)
+		{
+			for(int k = 0; k < layoutW - (i >= 10 ? 2 : 1); k++)
+				res.append(' ');
+			res.append(i).append('|');
+		}
+		res.append('\n');
+		appendSeparator(res);
+		lineOffsets = new int[rows][lines];
+		for(int r = 0; r < rows; r++)
+		{
+			int j = layoutY1 - r;
+			for(int line = 0; line < lines; line++)
+			{
+				if(line == 0)
+					res.append(j < 10 ? " " : "").append(j).append('|');
+				else if(line == 1)
+					res.append("  |");
+				else
+					res.append('|');
+				lineOffsets[r][line] = res.length();
+				for(int i = layoutX0; i <= layoutX1; i++)
+				{
+					for(int k = 0; k < layoutW; k++)
+						res.append(' ');
+					res.append('|');
+				}
+				res.append('\n');
+			}
+			appendSeparator(res);
+		}
+		frame = new char[res.length()];
+		res.getChars(0, res.length(), frame, 0);
+		
+		int cells = columns * rows;
+		dirty = new boolean[cells];
+		dirtyCells = new int[cells];
+		dirtyCount = 0;
+		firstAgent = new int[cells];
+		Arrays.fill(firstAgent, -1);
+		occupiedCount = 0;
+		for(int cell = 0; cell < cells; cell++)
+			markDirty(cell);
+	}
+	
+	/**
+	 * Appends a horizontal separator line.
+	 *
+	 * @param res
+	 *            - the builder to append to.
+	 */
+	protected void appendSeparator(StringBuilder res)
+	{
+		res.append("--+");
+		for(int i = layoutX0; i <= layoutX1; i++)
+		{
+			for(int k = 0; k < layoutW; k++)
+				res.append('-');
+			res.append('+');
+		}
+		res.append('\n');
+	}
+	
+	/**
+	 * @param cell
+	 *            - the index of the cell to redraw.
+	 */
+	protected void markDirty(int cell)
+	{
+		if(!dirty[cell])
+		{
+			dirty[cell] = true;
+			dirtyCells[dirtyCount++] = cell;
+		}
+	}
+	
+	/**
+	 * Draws a cell in the frame.
+	 *
+	 * @param cell
+	 *            - the index of the cell.
+	 * @param agents
+	 *            - the agents in the environment.
+	 */
+	protected void drawCell(int cell, GridAgentStore agents)
+	{
+		int column = cell / rows;
+		int row = cell % rows;
+		int i = layoutX0 + column;
+		int j = layoutY1 - row;
+		int[] offsets = lineOffsets[row];
+		boolean isX = env.isXtile(i, j);
+		boolean isJ = env.isJtile(i, j);
+		
+		// first cell row: obstacles, junk if cells are low, agents
+		int start = offsets[0] + column * (layoutW + 1);
+		int k = 0;
+		if(isX)
+			for(; k < layoutW; k++)
+				frame[start + k] = 'X';
+		if((layoutH < 2) && isJ && k < layoutW)
+			frame[start + k++] = '~';
+		if(firstAgent[cell] >= 0)
+		{
+			label.setLength(0);
+			for(int a = firstAgent[cell]; a >= 0; a = nextAgent[a])
+				label.append(env.getAgentLabel(agents.get(a)));
+			if(label.length() == 0)
+			{
+				// nothing to draw
+			}
+			else if(layoutW == 1)
+			{
+				if(k < layoutW)
+					frame[start + k++] = label.length() > 1 ? '.' : label.charAt(0);
+			}
+			else
+				for(int c = 0; c < label.length() && k < layoutW; c++)
+					frame[start + k++] = label.charAt(c);
+		}
+		for(; k < layoutW; k++)
+			frame[start + k] = ' ';
+		
+		// second cell row: obstacles, junk
+		start = offsets[1] + column * (layoutW + 1);
+		for(k = 0; k < layoutW; k++)
+			frame[start + k] = isX ? 'X' : ((k == 0) && isJ ? '~' : ' ');
+		
+		// other cell rows: obstacles
+		for(int line = 2; line < offsets.length; line++)
+		{
+			start = offsets[line] + column * (layoutW + 1);
+			for(k = 0; k < layoutW; k++)
+				frame[start + k] = isX ? 'X' : ' ';
+		}
+	}
+}
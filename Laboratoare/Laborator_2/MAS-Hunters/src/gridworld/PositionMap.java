@@ -0,0 +1,244 @@
+package gridworld;
+
+import java.util.Arrays;
+
+/**
+ * A map from grid positions to values, with positions stored as keys packed by {@link GridPosition#pack(int, int)}, in
+ * an open-addressing hash table. Values are accessed directly by coordinates, without creating {@link GridPosition}
+ * instances.
+ *
+ * @param <V>
+ *            the type of the values.
+ *
+ * @author agent
+ */
+public class PositionMap<V>
+{
+	/**
+	 * Marker for empty slots. It is the key of the position (Integer.MIN_VALUE, 0), which cannot be stored.
+	 */
+	static final long	EMPTY	= Long.MIN_VALUE;
+	
+	/**
+	 * The keys of the hash table. Empty slots hold {@link #EMPTY}.
+	 */
+	protected long[]	keys;
+	/**
+	 * The values, at the same index as their key.
+	 */
+	protected Object[]	values;
+	/**
+	 * Number of entries.
+	 */
+	protected int		size	= 0;
+	/**
+	 * Mask for the index in the table (the length of the table is a power of 2).
+	 */
+	protected int		mask;
+	
+	/**
+	 * Creates an empty map.
+	 */
+	public PositionMap()
+	{
+		this(16);
+	}
+	
+	/**
+	 * Creates an empty map, with room for the given number of entries.
+	 *
+	 * @param expectedSize
+	 *            - the number of entries expected to be stored.
+	 */
+	public PositionMap(int expectedSize)
+	{
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+	
+	/**
+	 * @param key
+	 *            - the packed key of a position.
+	 * @return the index of the slot holding the key, or of the empty slot where it should be placed.
+	 */
+	protected int slot(long key)
+	{
+		int i = GridPosition.hash(key) & mask;
+		while(keys[i] != EMPTY && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+	
+	/**
+	 * @param key
+	 *            - the packed key of a position.
+	 * @return the value for the position, or <code>null</code> if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key)
+	{
+		if(key == EMPTY)
+			return null;
+		int i = slot(key);
+		return keys[i] == key ? (V) values[i] : null;
+	}
+	
+	/**
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return the value for the position, or <code>null</code> if there is none.
+	 */
+	public V get(int x, int y)
+	{
+		return get(GridPosition.pack(x, y));
+	}
+	
+	/**
+	 * @param key
+	 *            - the packed key of a position.
+	 * @return <code>true</code> if there is an entry for the position.
+	 */
+	public boolean containsKey(long key)
+	{
+		return key != EMPTY && keys[slot(key)] == key;
+	}
+	
+	/**
+	 * @param key
+	 *            - the packed key of a position.
+	 * @param value
+	 *            - the value.
+	 * @return the previous value for the position, or <code>null</code> if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value)
+	{
+		if(key == EMPTY)
+			throw new IllegalArgumentException("Position cannot be stored");
+		int i = slot(key);
+		if(keys[i] == key)
+		{
+			V old = (V) values[i];
+			values[i] = value;
+			return old;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if(++size * 2 > keys.length)
+			grow();
+		return null;
+	}
+	
+	/**
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @param value
+	 *            - the value.
+	 * @return the previous value for the position, or <code>null</code> if there was none.
+	 */
+	public V put(int x, int y, V value)
+	{
+		return put(GridPosition.pack(x, y), value);
+	}
+	
+	/**
+	 * @param key
+	 *            - the packed key of a position.
+	 * @return the removed value, or <code>null</code> if there was no entry for the position.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key)
+	{
+		if(key == EMPTY)
+			return null;
+		int i = slot(key);
+		if(keys[i] != key)
+			return null;
+		V old = (V) values[i];
+		keys[i] = EMPTY;
+		values[i] = null;
+		size--;
+		// shift back the following entries of the cluster, so that no entry becomes unreachable
+		int j = i;
+		while(true)
+		{
+			j = (j + 1) & mask;
+			if(keys[j] == EMPTY)
+				return old;
+			int home = GridPosition.hash(keys[j]) & mask;
+			if(((j - home) & mask) >= ((j - i) & mask))
+			{
+				keys[i] = keys[j];
+				values[i] = values[j];
+				keys[j] = EMPTY;
+				values[j] = null;
+				i = j;
+			}
+		}
+	}
+	
+	/**
+	 * @param x
+	 *            - x coordinate.
+	 * @param y
+	 *            - y coordinate.
+	 * @return the removed value, or <code>null</code> if there was no entry for the position.
+	 */
+	public V remove(int x, int y)
+	{
+		return remove(GridPosition.pack(x, y));
+	}
+	
+	/**
+	 * @return the number of entries.
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * @return <code>true</code> if the map is empty.
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+	
+	/**
+	 * Removes all entries.
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+	
+	/**
+	 * Doubles the size of the table.
+	 */
+	protected void grow()
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		values = new Object[oldKeys.length * 2];
+		mask = keys.length - 1;
+		for(int k = 0; k < oldKeys.length; k++)
+			if(oldKeys[k] != EMPTY)
+			{
+				int i = slot(oldKeys[k]);
+				keys[i] = oldKeys[k];
+				values[i] = oldValues[k];
+			}
+	}
+}
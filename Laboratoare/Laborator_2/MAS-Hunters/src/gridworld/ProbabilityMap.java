@@ -1,17 +1,21 @@
 package gridworld;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Random;
 
 import base.Action;
 
 /**
  * Helper for the representation of a probability map.
+ * <p>
+ * Actions are kept in the order in which they were added, so that random choices made with the same random numbers
+ * always give the same result.
  * 
  * @author andreiolaru
  */
-public class ProbabilityMap extends HashMap<Action, Double>
+public class ProbabilityMap extends LinkedHashMap<Action, Double>
 {
 	/**
 	 * The serial UID.
@@ -88,12 +92,38 @@ public class ProbabilityMap extends HashMap<Action, Double>
 	
 	/**
 	 * Return a random action from a discrete distribution over a set of possible actions.
+	 * <p>
+	 * Uses the shared generator of {@link Math#random()}; agents should use {@link #choice(Random)} with their own
+	 * stream instead, so that their choices can be reproduced.
 	 * 
 	 * @return an action chosen from the set of choices
 	 */
 	public Action choice()
 	{
-		double r = Math.random();
+		return choice(Math.random());
+	}
+	
+	/**
+	 * Return a random action from a discrete distribution over a set of possible actions.
+	 * 
+	 * @param random
+	 *            - the generator to use.
+	 * @return an action chosen from the set of choices
+	 */
+	public Action choice(Random random)
+	{
+		return choice(random.nextDouble());
+	}
+	
+	/**
+	 * Return the action at a given point of the cumulative distribution of the actions.
+	 * 
+	 * @param r
+	 *            - a number between 0 and 1.
+	 * @return the chosen action.
+	 */
+	protected Action choice(double r)
+	{
 		double countProb = 0.0;
 		for(Action act : keySet())
 		{
@@ -0,0 +1,111 @@
+package gridworld;
+
+/**
+ * A {@link TileLayer} in which exactly the positions of a rectangle are marked. The rectangle may be moved or resized,
+ * but positions cannot be marked or unmarked individually. No storage is used for the positions.
+ * <p>
+ * It is only used, inside this package, as the layer of the positions of an unbounded grid, which is exposed as an
+ * unmodifiable view.
+ *
+ * @author agent
+ */
+class RectangleTileLayer extends TileLayer
+{
+	/**
+	 * Minimum x coordinate.
+	 */
+	protected int	x0;
+	/**
+	 * Minimum y coordinate.
+	 */
+	protected int	y0;
+	/**
+	 * Number of columns.
+	 */
+	protected int	width;
+	/**
+	 * Number of rows.
+	 */
+	protected int	height;
+	
+	/**
+	 * Creates a layer marking the rectangle between the given coordinates (inclusive).
+	 *
+	 * @param minX
+	 *            - minimum x coordinate.
+	 * @param maxX
+	 *            - maximum x coordinate.
+	 * @param minY
+	 *            - minimum y coordinate.
+	 * @param maxY
+	 *            - maximum y coordinate.
+	 */
+	public RectangleTileLayer(int minX, int maxX, int minY, int maxY)
+	{
+		setBounds(minX, maxX, minY, maxY);
+	}
+	
+	/**
+	 * Changes the rectangle. Nothing is done if the rectangle is the same.
+	 *
+	 * @param minX
+	 *            - minimum x coordinate.
+	 * @param maxX
+	 *            - maximum x coordinate.
+	 * @param minY
+	 *            - minimum y coordinate.
+	 * @param maxY
+	 *            - maximum y coordinate.
+	 */
+	public void setBounds(int minX, int maxX, int minY, int maxY)
+	{
+		if(minX == x0 && minY == y0 && maxX - minX + 1 == width && maxY - minY + 1 == height)
+			return;
+		x0 = minX;
+		y0 = minY;
+		width = maxX - minX + 1;
+		height = maxY - minY + 1;
+		count = (int) Math.min(Integer.MAX_VALUE, (long) width * height);
+		version++;
+	}
+	
+	@Override
+	public boolean get(int x, int y)
+	{
+		return (x - x0) >= 0 && (x - x0) < width && (y - y0) >= 0 && (y - y0) < height;
+	}
+	
+	@Override
+	public boolean set(int x, int y)
+	{
+		if(!get(x, y))
+			throw new IllegalArgumentException("Position (" + x + ", " + y + ") is outside the layer");
+		return false;
+	}
+	
+	@Override
+	public boolean clear(int x, int y)
+	{
+		if(!get(x, y))
+			return false;
+		throw new IllegalArgumentException("Position (" + x + ", " + y + ") cannot be removed from the rectangle");
+	}
+	
+	@Override
+	protected long nextMarked(long from)
+	{
+		return from + 1 < (long) width * height ? from + 1 : -1;
+	}
+	
+	@Override
+	protected int cursorX(long cursor)
+	{
+		return x0 + (int) (cursor / height);
+	}
+	
+	@Override
+	protected int cursorY(long cursor)
+	{
+		return y0 + (int) (cursor % height);
+	}
+}
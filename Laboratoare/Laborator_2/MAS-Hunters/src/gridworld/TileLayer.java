@@ -0,0 +1,278 @@
+package gridworld;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A layer of the grid, marking which positions hold a certain kind of tile (e.g. J-tiles, X-tiles).
+ * <p>
+ * Membership is tested directly on coordinates, without creating {@link GridPosition} instances. A {@link Set} view of
+ * the layer is offered by {@link #asSet()}, for code that works with sets of positions.
+ *
+ * @author agent
+ */
+public abstract class TileLayer
+{
+	/**
+	 * Number of marked positions.
+	 */
+	protected int				count	= 0;
+	/**
+	 * If not <code>null</code>, positions returned by the {@link Set} view are taken from this pool.
+	 */
+	protected GridPositionPool	pool	= null;
+	/**
+	 * If not <code>null</code>, it is called with the coordinates of each position that is marked or unmarked.
+	 */
+	protected IntIntConsumer	changeListener	= null;
+	/**
+	 * Incremented at each change of the layer.
+	 */
+	protected int				version			= 0;
+	/**
+	 * Unmodifiable live view of the layer, created on first use.
+	 */
+	protected Set<GridPosition>	view			= null;
+	/**
+	 * Immutable copy of the layer, at version {@link #snapshotVersion}.
+	 */
+	protected Set<GridPosition>	snapshot		= null;
+	/**
+	 * The version of the layer when {@link #snapshot} was taken.
+	 */
+	protected int				snapshotVersion;
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position is marked in this layer. Positions outside the layer are never marked.
+	 */
+	public abstract boolean get(int x, int y);
+	
+	/**
+	 * Marks a position.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position was not marked before.
+	 * @throws IllegalArgumentException
+	 *             if the position cannot be stored in this layer.
+	 */
+	public abstract boolean set(int x, int y);
+	
+	/**
+	 * Unmarks a position.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if the position was marked before.
+	 * @throws IllegalArgumentException
+	 *             if the position is marked, and this layer cannot unmark it.
+	 */
+	public abstract boolean clear(int x, int y);
+	
+	/**
+	 * Iterates over the marked positions.
+	 *
+	 * @param from
+	 *            - a cursor value returned by a previous call, or <code>-1</code> to start from the beginning.
+	 * @return a cursor for the next marked position, or <code>-1</code> if there are no more marked positions.
+	 */
+	protected abstract long nextMarked(long from);
+	
+	/**
+	 * @param cursor
+	 *            - a cursor returned by {@link #nextMarked(long)}.
+	 * @return the x coordinate of the position at the cursor.
+	 */
+	protected abstract int cursorX(long cursor);
+	
+	/**
+	 * @param cursor
+	 *            - a cursor returned by {@link #nextMarked(long)}.
+	 * @return the y coordinate of the position at the cursor.
+	 */
+	protected abstract int cursorY(long cursor);
+	
+	/**
+	 * @return the number of marked positions.
+	 */
+	public int cardinality()
+	{
+		return count;
+	}
+	
+	/**
+	 * @return <code>true</code> if no position is marked.
+	 */
+	public boolean isEmpty()
+	{
+		return count == 0;
+	}
+	
+	/**
+	 * @param positionPool
+	 *            - the pool from which to take the positions returned by the {@link Set} view; may be
+	 *            <code>null</code>, in which case new positions are created.
+	 */
+	public void setPositionPool(GridPositionPool positionPool)
+	{
+		pool = positionPool;
+	}
+	
+	/**
+	 * @param listener
+	 *            - called with the coordinates of each position that is marked or unmarked; may be <code>null</code>.
+	 */
+	public void setChangeListener(IntIntConsumer listener)
+	{
+		changeListener = listener;
+	}
+	
+	/**
+	 * Must be called by implementations after a position is marked or unmarked.
+	 *
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 */
+	protected void changed(int x, int y)
+	{
+		version++;
+		if(changeListener != null)
+			changeListener.accept(x, y);
+	}
+	
+	/**
+	 * @return a number that changes each time the layer changes.
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * Marks all positions in the given set.
+	 *
+	 * @param toAdd
+	 *            - the positions to mark.
+	 */
+	public void setAll(Set<GridPosition> toAdd)
+	{
+		for(GridPosition pos : toAdd)
+			set(pos.positionX, pos.positionY);
+	}
+	
+	/**
+	 * @return an unmodifiable {@link Set} view of this layer. Changes to the layer are visible in the view. The same
+	 *         instance is returned at each call.
+	 */
+	public Set<GridPosition> view()
+	{
+		if(view == null)
+			view = Collections.unmodifiableSet(asSet());
+		return view;
+	}
+	
+	/**
+	 * Returns an immutable copy of this layer, as a {@link Set}. The copy is shared between callers and is only
+	 * created again if the layer has changed since the last call.
+	 *
+	 * @return the copy.
+	 */
+	public synchronized Set<GridPosition> snapshot()
+	{
+		if(snapshot == null || snapshotVersion != version)
+		{
+			snapshot = Collections.unmodifiableSet(new HashSet<>(asSet()));
+			snapshotVersion = version;
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * @return a {@link Set} view of this layer. Changes to the layer are visible in the view; adding and removing
+	 *         positions through the view changes the layer.
+	 */
+	public Set<GridPosition> asSet()
+	{
+		return new AbstractSet<GridPosition>() {
+			@Override
+			public boolean contains(Object o)
+			{
+				if(!(o instanceof GridPosition))
+					return false;
+				GridPosition pos = (GridPosition) o;
+				return get(pos.positionX, pos.positionY);
+			}
+			
+			@Override
+			public boolean add(GridPosition pos)
+			{
+				return set(pos.positionX, pos.positionY);
+			}
+			
+			@Override
+			public boolean remove(Object o)
+			{
+				if(!(o instanceof GridPosition))
+					return false;
+				GridPosition pos = (GridPosition) o;
+				return TileLayer.this.clear(pos.positionX, pos.positionY);
+			}
+			
+			@Override
+			public int size()
+			{
+				return count;
+			}
+			
+			@Override
+			public Iterator<GridPosition> iterator()
+			{
+				return new Iterator<GridPosition>() {
+					long	next	= nextMarked(-1);
+					long	last	= -1;
+					
+					@Override
+					public boolean hasNext()
+					{
+						return next >= 0;
+					}
+					
+					@Override
+					public GridPosition next()
+					{
+						if(next < 0)
+							throw new NoSuchElementException();
+						last = next;
+						next = nextMarked(next);
+						if(pool != null)
+							return pool.get(cursorX(last), cursorY(last));
+						return new GridPosition(cursorX(last), cursorY(last));
+					}
+					
+					@Override
+					public void remove()
+					{
+						if(last < 0)
+							throw new IllegalStateException();
+						TileLayer.this.clear(cursorX(last), cursorY(last));
+						last = -1;
+					}
+				};
+			}
+		};
+	}
+}
@@ -0,0 +1,532 @@
+package gridworld;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a trajectory written by a {@link TrajectoryRecorder}, and reconstructs the state of the environment at any
+ * recorded time: the agents (by handle) with their position, orientation, points and the action they performed at that
+ * time, and the J-tiles and X-tiles.
+ * <p>
+ * The file is mapped in memory. Going to a time loads the last keyframe before it, found in the index at the end of the
+ * file, and applies the step frames after the keyframe; moving forward, to a time before the next keyframe, only applies
+ * the frames in between. The file must have been closed by the recorder, and must be smaller than 2 GB.
+ *
+ * @author agent
+ */
+public class TrajectoryReplayer
+{
+	/**
+	 * The orientations, indexed by their ordinal.
+	 */
+	private static final GridOrientation[]	ORIENTATIONS	= GridOrientation.values();
+	
+	/**
+	 * The content of the file.
+	 */
+	protected final MappedByteBuffer		data;
+	/**
+	 * The minimum number of steps between keyframes.
+	 */
+	protected final int						keyframeInterval;
+	/**
+	 * The bounds of the environment when the recording started: minimum x, maximum x, minimum y, maximum y.
+	 */
+	protected final int[]					bounds			= new int[4];
+	/**
+	 * The times of the keyframes.
+	 */
+	protected final long[]					keyframeTimes;
+	/**
+	 * The file offsets of the keyframes.
+	 */
+	protected final long[]					keyframeOffsets;
+	/**
+	 * The time of the last frame.
+	 */
+	protected final long					lastTime;
+	/**
+	 * The file offset of the footer, where the frames end.
+	 */
+	protected final int						end;
+	
+	/**
+	 * The current time.
+	 */
+	protected long							time;
+	/**
+	 * The file offset of the next frame.
+	 */
+	protected int							next;
+	/**
+	 * <code>true</code> for the handles of the agents present at the current time.
+	 */
+	protected boolean[]						present			= new boolean[16];
+	/**
+	 * The x coordinates of the agents, by handle.
+	 */
+	protected int[]							x				= new int[16];
+	/**
+	 * The y coordinates of the agents, by handle.
+	 */
+	protected int[]							y				= new int[16];
+	/**
+	 * The orientation ordinals (or <code>-1</code>) of the agents, by handle.
+	 */
+	protected byte[]						orientation		= new byte[16];
+	/**
+	 * The actions performed by the agents at the current time, by handle, or <code>-1</code>.
+	 */
+	protected int[]							actions			= new int[16];
+	/**
+	 * The points of the agents, by handle.
+	 */
+	protected float[]						points			= new float[16];
+	/**
+	 * Number of agents present at the current time.
+	 */
+	protected int							agentCount		= 0;
+	/**
+	 * The J-tiles at the current time.
+	 */
+	protected TileLayer						Jtiles			= new ChunkedTileLayer();
+	/**
+	 * The X-tiles at the current time.
+	 */
+	protected TileLayer						Xtiles			= new ChunkedTileLayer();
+	
+	/**
+	 * Opens a trajectory and goes to its first keyframe.
+	 *
+	 * @param file
+	 *            - the file written by a {@link TrajectoryRecorder}.
+	 * @throws IOException
+	 *             if the file cannot be read, or is not a closed trajectory.
+	 */
+	public TrajectoryReplayer(Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Trajectory " + file + " is too large");
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try
+		{
+			if(data.getInt(0) != TrajectoryRecorder.MAGIC)
+				throw new IOException(file + " is not a trajectory");
+			data.position(4);
+			if(data.get() != TrajectoryRecorder.VERSION)
+				throw new IOException("Unsupported version of trajectory " + file);
+			keyframeInterval = (int) getVarLong(data);
+			for(int k = 0; k < bounds.length; k++)
+				bounds[k] = unzigzag(getVarLong(data));
+			if(data.limit() < 12 || data.getInt(data.limit() - 4) != TrajectoryRecorder.MAGIC)
+				throw new IOException("Trajectory " + file + " was not closed");
+			
+			end = (int) data.getLong(data.limit() - 12);
+			data.position(end);
+			if(data.get() != TrajectoryRecorder.FOOTER)
+				throw new IOException("Trajectory " + file + " has no index");
+			getVarLong(data);
+			lastTime = getVarLong(data);
+			int count = (int) getVarLong(data);
+			keyframeTimes = new long[count];
+			keyframeOffsets = new long[count];
+			long previousTime = 0, previousOffset = 0;
+			for(int k = 0; k < count; k++)
+			{
+				keyframeTimes[k] = previousTime += getVarLong(data);
+				keyframeOffsets[k] = previousOffset += getVarLong(data);
+			}
+			if(count == 0)
+				throw new IOException("Trajectory " + file + " has no keyframes");
+		} catch(BufferUnderflowException | IndexOutOfBoundsException e)
+		{
+			throw new IOException("Trajectory " + file + " is truncated", e);
+		}
+		loadKeyframe(0);
+	}
+	
+	/**
+	 * Goes to the state at the given time: the state after the last frame recorded at or before the time.
+	 *
+	 * @param target
+	 *            - the time.
+	 * @return the time of the frame that was reached; it is the first recorded time if the given time is before it.
+	 */
+	public long seek(long target)
+	{
+		int k = Arrays.binarySearch(keyframeTimes, target);
+		if(k < 0)
+			k = Math.max(0, -k - 2);
+		else
+			// the last keyframe at the time
+			while(k + 1 < keyframeTimes.length && keyframeTimes[k + 1] == target)
+				k++;
+		if(target < time || keyframeTimes[k] > time)
+			loadKeyframe(k);
+		while(next < end && peekTime() <= target)
+			next();
+		return time;
+	}
+	
+	/**
+	 * Applies the next frame.
+	 *
+	 * @return <code>false</code> if there are no more frames.
+	 */
+	public boolean next()
+	{
+		while(next < end)
+		{
+			data.position(next);
+			if(data.get() == TrajectoryRecorder.STEP)
+			{
+				applyStep();
+				next = data.position();
+				return true;
+			}
+			// keyframes hold the state already reached by the step frame before them
+			int length = (int) getVarLong(data);
+			next = data.position() + length;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the time of the next step frame, or {@link Long#MAX_VALUE} if there is none.
+	 */
+	protected long peekTime()
+	{
+		int offset = next;
+		while(offset < end)
+		{
+			data.position(offset);
+			if(data.get() == TrajectoryRecorder.STEP)
+				return time + getVarLong(data);
+			int length = (int) getVarLong(data);
+			offset = data.position() + length;
+		}
+		return Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Replaces the current state with that of a keyframe.
+	 *
+	 * @param k
+	 *            - the index of the keyframe.
+	 */
+	protected void loadKeyframe(int k)
+	{
+		data.position((int) keyframeOffsets[k]);
+		data.get();
+		int length = (int) getVarLong(data);
+		next = data.position() + length;
+		time = getVarLong(data);
+		Arrays.fill(present, false);
+		Arrays.fill(actions, -1);
+		agentCount = (int) getVarLong(data);
+		for(int i = 0; i < agentCount; i++)
+		{
+			int handle = (int) getVarLong(data);
+			ensureHandles(handle + 1);
+			present[handle] = true;
+			x[handle] = unzigzag(getVarLong(data));
+			y[handle] = unzigzag(getVarLong(data));
+			orientation[handle] = (byte) (data.get() - 1);
+			actions[handle] = (int) getVarLong(data) - 1;
+			points[handle] = data.getFloat();
+		}
+		Jtiles = readLayer();
+		Xtiles = readLayer();
+	}
+	
+	/**
+	 * Reads the positions of a layer written in a keyframe.
+	 *
+	 * @return the layer.
+	 */
+	protected TileLayer readLayer()
+	{
+		TileLayer layer = new ChunkedTileLayer();
+		int count = (int) getVarLong(data);
+		int px = 0, py = 0;
+		for(int i = 0; i < count; i++)
+		{
+			px += unzigzag(getVarLong(data));
+			py += unzigzag(getVarLong(data));
+			layer.set(px, py);
+		}
+		return layer;
+	}
+	
+	/**
+	 * Applies the body of a step frame, at the current position of the buffer.
+	 */
+	protected void applyStep()
+	{
+		time += getVarLong(data);
+		for(int handle = (int) getVarLong(data) - 1; handle >= 0; handle = (int) getVarLong(data) - 1)
+		{
+			int flags = data.get();
+			ensureHandles(handle + 1);
+			if((flags & TrajectoryRecorder.REMOVED) != 0)
+			{
+				present[handle] = false;
+				actions[handle] = -1;
+				agentCount--;
+				continue;
+			}
+			if((flags & TrajectoryRecorder.ADDED) != 0)
+			{
+				present[handle] = true;
+				agentCount++;
+				x[handle] = 0;
+				y[handle] = 0;
+			}
+			if((flags & TrajectoryRecorder.MOVED) != 0)
+			{
+				x[handle] += unzigzag(getVarLong(data));
+				y[handle] += unzigzag(getVarLong(data));
+			}
+			if((flags & TrajectoryRecorder.TURNED) != 0)
+				orientation[handle] = (byte) (data.get() - 1);
+			if((flags & TrajectoryRecorder.ACTED) != 0)
+				actions[handle] = (int) getVarLong(data) - 1;
+			if((flags & TrajectoryRecorder.SCORED) != 0)
+				points[handle] = data.getFloat();
+		}
+		int tiles = (int) getVarLong(data);
+		int px = 0, py = 0;
+		for(int i = 0; i < tiles; i++)
+		{
+			px += unzigzag(getVarLong(data));
+			py += unzigzag(getVarLong(data));
+			int state = data.get();
+			if((state & TrajectoryRecorder.JTILE) != 0)
+				Jtiles.set(px, py);
+			else
+				Jtiles.clear(px, py);
+			if((state & TrajectoryRecorder.XTILE) != 0)
+				Xtiles.set(px, py);
+			else
+				Xtiles.clear(px, py);
+		}
+	}
+	
+	/**
+	 * Makes room in the arrays indexed by handle.
+	 *
+	 * @param count
+	 *            - the number of handles.
+	 */
+	protected void ensureHandles(int count)
+	{
+		if(count <= present.length)
+			return;
+		int old = present.length;
+		int capacity = Math.max(count, old * 2);
+		present = Arrays.copyOf(present, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		orientation = Arrays.copyOf(orientation, capacity);
+		points = Arrays.copyOf(points, capacity);
+		actions = Arrays.copyOf(actions, capacity);
+		Arrays.fill(actions, old, capacity, -1);
+	}
+	
+	/**
+	 * @return the current time.
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+	
+	/**
+	 * @return the time of the first frame.
+	 */
+	public long getFirstTime()
+	{
+		return keyframeTimes[0];
+	}
+	
+	/**
+	 * @return the time of the last frame.
+	 */
+	public long getLastTime()
+	{
+		return lastTime;
+	}
+	
+	/**
+	 * @return the number of keyframes.
+	 */
+	public int getKeyframeCount()
+	{
+		return keyframeTimes.length;
+	}
+	
+	/**
+	 * @return the minimum number of steps between keyframes, used by the recorder.
+	 */
+	public int getKeyframeInterval()
+	{
+		return keyframeInterval;
+	}
+	
+	/**
+	 * @return the bounds of the environment when the recording started: minimum x, maximum x, minimum y, maximum y.
+	 */
+	public int[] getBounds()
+	{
+		return bounds.clone();
+	}
+	
+	/**
+	 * @return the number of agents at the current time.
+	 */
+	public int getAgentCount()
+	{
+		return agentCount;
+	}
+	
+	/**
+	 * @return a number greater than all handles of agents at the current time.
+	 */
+	public int getHandleLimit()
+	{
+		return present.length;
+	}
+	
+	/**
+	 * @param handle
+	 *            - a handle.
+	 * @return <code>true</code> if an agent with the handle is present at the current time.
+	 */
+	public boolean isPresent(int handle)
+	{
+		return handle >= 0 && handle < present.length && present[handle];
+	}
+	
+	/**
+	 * @param handle
+	 *            - the handle of an agent.
+	 * @return the x coordinate of the agent.
+	 */
+	public int getX(int handle)
+	{
+		return x[handle];
+	}
+	
+	/**
+	 * @param handle
+	 *            - the handle of an agent.
+	 * @return the y coordinate of the agent.
+	 */
+	public int getY(int handle)
+	{
+		return y[handle];
+	}
+	
+	/**
+	 * @param handle
+	 *            - the handle of an agent.
+	 * @return the orientation of the agent; may be <code>null</code>.
+	 */
+	public GridOrientation getOrientation(int handle)
+	{
+		return orientation[handle] >= 0 ? ORIENTATIONS[orientation[handle]] : null;
+	}
+	
+	/**
+	 * @param handle
+	 *            - the handle of an agent.
+	 * @return the action performed by the agent at the current time, as given to the recorder, or <code>-1</code>.
+	 */
+	public int getAction(int handle)
+	{
+		return actions[handle];
+	}
+	
+	/**
+	 * @param handle
+	 *            - the handle of an agent.
+	 * @return the points of the agent.
+	 */
+	public float getPoints(int handle)
+	{
+		return points[handle];
+	}
+	
+	/**
+	 * @param px
+	 *            - the x coordinate.
+	 * @param py
+	 *            - the y coordinate.
+	 * @return <code>true</code> if there is a J-tile at the position at the current time.
+	 */
+	public boolean isJtile(int px, int py)
+	{
+		return Jtiles.get(px, py);
+	}
+	
+	/**
+	 * @param px
+	 *            - the x coordinate.
+	 * @param py
+	 *            - the y coordinate.
+	 * @return <code>true</code> if there is an X-tile at the position at the current time.
+	 */
+	public boolean isXtile(int px, int py)
+	{
+		return Xtiles.get(px, py);
+	}
+	
+	/**
+	 * @return the number of J-tiles at the current time.
+	 */
+	public int getJtileCount()
+	{
+		return Jtiles.cardinality();
+	}
+	
+	/**
+	 * Reads a number written by {@link TrajectoryRecorder#putVarLong(long)}.
+	 *
+	 * @param buffer
+	 *            - the buffer.
+	 * @return the number.
+	 */
+	static long getVarLong(ByteBuffer buffer)
+	{
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		return value;
+	}
+	
+	/**
+	 * @param value
+	 *            - a number written by {@link TrajectoryRecorder#zigzag(int)}.
+	 * @return the original number.
+	 */
+	static int unzigzag(long value)
+	{
+		int v = (int) value;
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
@@ -1,16 +1,27 @@
 package hunting;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import base.Agent;
+import communication.AgentID;
+import communication.AgentIDRegistry;
+import communication.ProximityQuery;
 import gridworld.AbstractGridEnvironment;
+import gridworld.CheckpointReader;
+import gridworld.DistanceField;
+import gridworld.GridAgentStore;
 import gridworld.GridOrientation;
 import gridworld.GridPosition;
+import gridworld.IntIntConsumer;
+import logging.Events;
+import logging.SimulationEvent.EventType;
 
 /**
  * Implements the necessary functionality for a grid environment.
@@ -31,6 +42,36 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 	 */
 	protected List<WildlifeAgentData>	preyAgents		= new ArrayList<>();
 	
+	/**
+	 * Distance to the nearest prey, created at the first call of {@link #getPreyDistanceField()}.
+	 */
+	protected DistanceField				preyField		= null;
+	
+	/**
+	 * The version of the agent store for which {@link #preyField} was last updated.
+	 */
+	protected int						preyVersion		= -1;
+	
+	/**
+	 * Index of the predators by position, created at the first proximity query.
+	 */
+	protected SpatialIndex				predatorIndex	= null;
+	
+	/**
+	 * Index of the prey by position, created at the first proximity query.
+	 */
+	protected SpatialIndex				preyIndex		= null;
+	
+	/**
+	 * The registry giving dense IDs to the agents, as they are added.
+	 */
+	protected AgentIDRegistry			agentIDs		= new AgentIDRegistry();
+	
+	/**
+	 * The data of the agents, by the index of their IDs.
+	 */
+	protected List<WildlifeAgentData>	agentsByID		= new ArrayList<>();
+	
 	/**
 	 *
 	 * @author Alexandru Sorici
@@ -40,7 +81,11 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 		/**
 		 * The type of agent (predator or prey).
 		 */
-		private WildlifeAgentType agentType;
+		private WildlifeAgentType	agentType;
+		/**
+		 * The ID of the agent, given when the agent is added to an environment.
+		 */
+		private AgentID				agentID	= null;
 		
 		/**
 		 * Constructor.
@@ -66,6 +111,15 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 			return agentType;
 		}
 		
+		/**
+		 * @return the ID given to the agent by the {@link AgentIDRegistry} of the environment, or <code>null</code> if
+		 *         the agent was not added to an environment.
+		 */
+		public AgentID getAgentID()
+		{
+			return agentID;
+		}
+		
 		/**
 		 * @param agentType
 		 *            the agentType to set
@@ -100,8 +154,20 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 			throw new IllegalArgumentException("Wildlife agent type unrecognized: " + agentData.getAgentType());
 		}
 		
+		// the agent gets its ID, which is cached on the agent data and on the agent
+		agentData.agentID = agentIDs.register(agentData.getAgent());
+		if(agentData.getAgent() instanceof AbstractWildlifeAgent)
+			((AbstractWildlifeAgent) agentData.getAgent()).setAgentID(agentData.agentID);
+		while(agentsByID.size() <= agentData.agentID.getIndex())
+			agentsByID.add(null);
+		agentsByID.set(agentData.agentID.getIndex(), agentData);
+		
 		// add to global list of agents as well
 		agents.add(agentData);
+		assignRandomStream(agentData);
+		SpatialIndex index = agentData.getAgentType() == WildlifeAgentType.PREDATOR ? predatorIndex : preyIndex;
+		if(index != null)
+			index.add(agentData.getHandle());
 	}
 	
 	/**
@@ -123,12 +189,6 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 		int numPredators = predators.size();
 		int numPrey = prey.size();
 		
-		// generate all positions
-		Set<GridPosition> all = new HashSet<>();
-		for(int i = 0; i <= w + 1; i++)
-			for(int j = 0; j <= h + 1; j++)
-				all.add(new GridPosition(i, j));
-			
 		// generate all wall x-tiles
 		Set<GridPosition> xs = new HashSet<>();
 		for(int i = 0; i <= w + 1; i++)
@@ -199,7 +259,7 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 		if(generated < numPrey)
 			System.out.println("Failed to generate all required prey agents");
 		
-		initialize(all, new HashSet<GridPosition>(), xs);
+		initialize(0, w + 1, 0, h + 1, new HashSet<GridPosition>(), xs);
 	}
 	
 	/**
@@ -226,9 +286,67 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 	 */
 	protected void removePreyAgent(WildlifeAgentData agentData)
 	{
+		if(preyIndex != null)
+			preyIndex.remove(agentData.getHandle());
 		preyAgents.remove(agentData);
 	}
 	
+	/**
+	 * @return the registry of the IDs of the agents; arrays with one element per agent can be indexed by
+	 *         {@link AgentID#getIndex()}, up to {@link AgentIDRegistry#size()}.
+	 */
+	public AgentIDRegistry getAgentIDs()
+	{
+		return agentIDs;
+	}
+	
+	/**
+	 * @return the index of the predators by position.
+	 */
+	protected SpatialIndex getPredatorIndex()
+	{
+		if(predatorIndex == null)
+			predatorIndex = createIndex(predatorAgents);
+		return predatorIndex;
+	}
+	
+	/**
+	 * @return the index of the prey by position.
+	 */
+	protected SpatialIndex getPreyIndex()
+	{
+		if(preyIndex == null)
+			preyIndex = createIndex(preyAgents);
+		return preyIndex;
+	}
+	
+	/**
+	 * Creates an index of the given agents, covering the current boundaries of the environment.
+	 *
+	 * @param indexed
+	 *            - the agents.
+	 * @return the index.
+	 */
+	private SpatialIndex createIndex(List<WildlifeAgentData> indexed)
+	{
+		updateBounds();
+		SpatialIndex index = new SpatialIndex(getAgentStore(), x0, x1, y0, y1);
+		for(WildlifeAgentData agentData : indexed)
+			index.add(agentData.getHandle());
+		return index;
+	}
+	
+	/**
+	 * @param handle
+	 *            - the handle of an agent in the agent store.
+	 * @return the data of the agent.
+	 */
+	protected WildlifeAgentData getWildlifeAgent(int handle)
+	{
+		GridAgentStore store = getAgentStore();
+		return (WildlifeAgentData) store.get(store.indexOf(handle));
+	}
+	
 	/**
 	 * Returns the set of obstacles which are at a distance from a given position by at most <code>range</code>.
 	 * 
@@ -241,12 +359,35 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 	public Set<GridPosition> getNearbyObstacles(GridPosition pos, int range)
 	{
 		Set<GridPosition> nearbyObstacles = new HashSet<>();
-		for(GridPosition obs : Xtiles)
-			if(pos.getDistanceTo(obs) <= range)
-				nearbyObstacles.add(new GridPosition(obs));
+		forEachNearbyObstacle(pos.getX(), pos.getY(), range, (x, y) -> nearbyObstacles.add(new GridPosition(x, y)));
 		return nearbyObstacles;
 	}
 	
+	/**
+	 * Calls the visitor for each obstacle at a distance of at most <code>range</code> from a given position, without
+	 * allocating a set. Only the positions within that distance are checked.
+	 * 
+	 * @param x
+	 *            - the x coordinate of the position.
+	 * @param y
+	 *            - the y coordinate of the position.
+	 * @param range
+	 *            - the range the agent can observe.
+	 * @param visitor
+	 *            - receives the coordinates of each obstacle.
+	 */
+	public void forEachNearbyObstacle(int x, int y, int range, IntIntConsumer visitor)
+	{
+		updateBounds();
+		for(int ox = Math.max(x - range, x0); ox <= Math.min(x + range, x1); ox++)
+		{
+			int rest = range - Math.abs(ox - x);
+			for(int oy = Math.max(y - rest, y0); oy <= Math.min(y + rest, y1); oy++)
+				if(XtileLayer.get(ox, oy))
+					visitor.accept(ox, oy);
+		}
+	}
+	
 	/**
 	 * Returns the set of predator agents which are at a distance from a given position by at most <code>range</code>.
 	 * 
@@ -262,12 +403,31 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 	public Set<WildlifeAgentData> getNearbyPredators(GridPosition pos, int range, WildlifeAgentData exclude)
 	{
 		Set<WildlifeAgentData> nearbyAgents = new HashSet<>();
-		for(WildlifeAgentData predator : predatorAgents)
-			if(pos.getDistanceTo(predator.getPosition()) <= range && predator != exclude)
+		forEachNearbyPredator(pos.getX(), pos.getY(), range, predator -> {
+			if(predator != exclude)
 				nearbyAgents.add(predator);
+		});
 		return nearbyAgents;
 	}
 	
+	/**
+	 * Calls the visitor for each predator at a distance of at most <code>range</code> from a given position, without
+	 * allocating a set. Only the cells of the predator index within that distance are visited.
+	 * 
+	 * @param x
+	 *            - the x coordinate of the position.
+	 * @param y
+	 *            - the y coordinate of the position.
+	 * @param range
+	 *            - the range the agent can observe.
+	 * @param visitor
+	 *            - receives each predator; it must not add or remove agents.
+	 */
+	public void forEachNearbyPredator(int x, int y, int range, Consumer<WildlifeAgentData> visitor)
+	{
+		getPredatorIndex().forEachWithin(x, y, range, handle -> visitor.accept(getWildlifeAgent(handle)));
+	}
+	
 	/**
 	 * Returns the set of prey agents which are at a distance from a given position by at most <code>range</code>.
 	 * 
@@ -280,168 +440,167 @@ public abstract class AbstractHuntingEnvironment extends AbstractGridEnvironment
 	public Set<WildlifeAgentData> getNearbyPrey(GridPosition pos, int range)
 	{
 		Set<WildlifeAgentData> nearbyAgents = new HashSet<>();
-		for(WildlifeAgentData prey : preyAgents)
-			if(pos.getDistanceTo(prey.getPosition()) <= range)
-				nearbyAgents.add(prey);
+		forEachNearbyPrey(pos.getX(), pos.getY(), range, nearbyAgents::add);
 		return nearbyAgents;
 	}
 	
+	/**
+	 * Calls the visitor for each prey at a distance of at most <code>range</code> from a given position, without
+	 * allocating a set. Only the cells of the prey index within that distance are visited.
+	 * 
+	 * @param x
+	 *            - the x coordinate of the position.
+	 * @param y
+	 *            - the y coordinate of the position.
+	 * @param range
+	 *            - the range the agent can observe.
+	 * @param visitor
+	 *            - receives each prey; it must not add or remove agents.
+	 */
+	public void forEachNearbyPrey(int x, int y, int range, Consumer<WildlifeAgentData> visitor)
+	{
+		getPreyIndex().forEachWithin(x, y, range, handle -> visitor.accept(getWildlifeAgent(handle)));
+	}
+	
+	/**
+	 * Calls the visitor for the index of the ID of each agent, predator or prey, at a distance of at most
+	 * <code>range</code> from the given agent, including the agent itself; nothing is visited if the agent is no
+	 * longer in the environment. Only the cells of the predator and prey indexes within that distance are visited.
+	 * <p>
+	 * It can be used as the {@link ProximityQuery} of a {@link communication.MessageBus}, to deliver messages with a
+	 * limited range.
+	 * 
+	 * @param center
+	 *            - the ID of the agent.
+	 * @param range
+	 *            - the maximum distance.
+	 * @param visitor
+	 *            - receives the index of the ID of each agent; it must not add or remove agents.
+	 */
+	public void forEachAgentWithin(AgentID center, int range, IntConsumer visitor)
+	{
+		if(!center.isRegistered() || center.getIndex() >= agentsByID.size())
+			return;
+		WildlifeAgentData agentData = agentsByID.get(center.getIndex());
+		if(agentData == null || agentData.getHandle() < 0)
+			return;
+		GridAgentStore store = getAgentStore();
+		int index = store.indexOf(agentData.getHandle());
+		int x = store.getX(index);
+		int y = store.getY(index);
+		IntConsumer toID = handle -> visitor.accept(getWildlifeAgent(handle).getAgentID().getIndex());
+		getPredatorIndex().forEachWithin(x, y, range, toID);
+		getPreyIndex().forEachWithin(x, y, range, toID);
+	}
+	
 	/**
 	 * Remove dead prey. The condition for a prey being killed is that there be either one predator at a Manhattan
 	 * distance of 1, or at least two predators, each at a Manhattan distance of 2 or less from the prey
+	 * <p>
+	 * Only the cells of the predator index within a distance of 2 from each prey are checked. The killing predators
+	 * named in the event are the first predator found at a distance of 1, if any, and otherwise the first two predators
+	 * found within a distance of 2. Dead prey are marked during the check and removed from the agent store all at once,
+	 * in a single pass.
 	 */
 	public void removeDeadPrey()
 	{
-		Iterator<WildlifeAgentData> preyIt = preyAgents.iterator();
+		boolean updatePreyField = preyField != null && preyVersion == getAgentStore().getVersion();
+		GridAgentStore store = getAgentStore();
+		SpatialIndex predators = getPredatorIndex();
+		SpatialIndex prey = getPreyIndex();
+		int[] killers = new int[2];
+		int[] dead = null;
+		int deadCount = 0;
 		
-		while(preyIt.hasNext())
+		for(WildlifeAgentData preyData : preyAgents)
 		{
-			WildlifeAgentData prey = preyIt.next();
-			
-			boolean hasNeighborPredator = false;
-			int numClosePredators = 0;
+			int handle = preyData.getHandle();
+			int index = store.indexOf(handle);
+			int x = store.getX(index);
+			int y = store.getY(index);
 			
-			GridPosition preyGP = prey.getPosition();
-			Set<String> predators = new HashSet<>();
-			
-			for(WildlifeAgentData predator : predatorAgents)
+			int numKillers = predators.findWithin(x, y, 1, killers, 1);
+			if(numKillers == 0)
 			{
-				int predatorDist = preyGP.getDistanceTo(predator.getPosition());
-				
-				if(predatorDist <= 1)
-				{
-					hasNeighborPredator = true;
-					predators.clear();
-					predators.add(predator.getAgent().toString());
-					break;
-				}
-				else if(predatorDist <= 2)
-				{
-					numClosePredators++;
-					predators.add(predator.getAgent().toString());
-					
-					if(numClosePredators >= 2)
-					{
-						break;
-					}
-				}
+				numKillers = predators.findWithin(x, y, 2, killers, 2);
+				if(numKillers < 2)
+					continue;
 			}
 			
-			if(hasNeighborPredator || numClosePredators >= 2)
-			{
-				System.out.println("Prey " + prey.getAgent().toString() + " is dead, killed by " + predators);
-				preyIt.remove();
-				agents.remove(prey);
-			}
+			Set<String> killerNames = new HashSet<>();
+			for(int k = 0; k < numKillers; k++)
+				killerNames.add(getWildlifeAgent(killers[k]).getAgent().toString());
+			Events.emit(EventType.KILLED, preyData.getAgent(), x, y, killerNames);
+			prey.remove(handle);
+			if(dead == null)
+				dead = new int[preyAgents.size()];
+			dead[deadCount++] = handle;
+			if(updatePreyField && !hasPreyAt(x, y))
+				preyField.removeSource(x, y);
+		}
+		if(deadCount > 0)
+		{
+			store.removeAll(dead, deadCount);
+			preyAgents.removeIf(preyData -> preyData.getHandle() < 0);
 		}
+		if(updatePreyField)
+			preyVersion = getAgentStore().getVersion();
 	}
 	
-	@Override
-	public String printToString()
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return <code>true</code> if there is a prey at the position.
+	 */
+	protected boolean hasPreyAt(int x, int y)
 	{
-		// List<GridAgentData> agents = new ArrayList<>();
-		// agents.addAll(predatorAgents);
-		// agents.addAll(preyAgents);
-		
-		// border top
-		String res = "";
-		res += "  |";
-		for(int i = x0; i <= x1; i++)
-		{
-			for(int k = 0; k < cellW - (i >= 10 ? 2 : 1); k++)
-				res += " ";
-			res += i + "|";
-		}
-		res += "\n";
-		res += "--+";
-		for(int i = x0; i <= x1; i++)
-		{
-			for(int k = 0; k < cellW; k++)
-				res += "-";
-			res += "+";
-		}
-		res += "\n";
-		// for each line
-		for(int j = y1; j >= y0; j--)
+		return getPreyIndex().findWithin(x, y, 0, null, 1) > 0;
+	}
+	
+	/**
+	 * Returns the distance from each position to the nearest prey. The field is computed again if agents have moved
+	 * since the last call, and is updated when prey are removed by {@link #removeDeadPrey()}.
+	 *
+	 * @return the field; it must not be modified.
+	 */
+	public DistanceField getPreyDistanceField()
+	{
+		if(preyField == null)
+			preyField = createDistanceField();
+		if(preyVersion != getAgentStore().getVersion())
 		{
-			// first cell row
-			res += (j < 10 ? " " : "") + j + "|";
-			for(int i = x0; i <= x1; i++)
-			{
-				GridPosition pos = new GridPosition(i, j);
-				String agentString = "";
-				for(GridAgentData agent : agents)
-					if(agent.getPosition().equals(pos))
-						agentString += agent.getAgent().toString();
-				int k = 0;
-				if(Xtiles.contains(pos))
-					for(; k < cellW; k++)
-						res += "X";
-				if((cellH < 2) && Jtiles.contains(pos))
-				{
-					res += "~";
-					k++;
-				}
-				if(agentString.length() > 0)
-				{
-					if(cellW == 1)
-					{
-						if(agentString.length() > 1)
-							res += ".";
-						else
-							res += agentString;
-						k++;
-					}
-					else
-					{
-						res += agentString.substring(0, Math.min(agentString.length(), cellW - k));
-						k += Math.min(agentString.length(), cellW - k);
-					}
-				}
-				for(; k < cellW; k++)
-					res += " ";
-				
-				res += "|";
-			}
-			res += "\n";
-			// second cellrow
-			res += "  |";
-			for(int i = x0; i <= x1; i++)
-			{
-				GridPosition pos = new GridPosition(i, j);
-				for(int k = 0; k < cellW; k++)
-					if(Xtiles.contains(pos))
-						res += "X";
-					else if((k == 0) && Jtiles.contains(pos))
-						res += "~";
-					else
-						res += " ";
-				res += "|";
-			}
-			res += "\n";
-			// other cell rows
-			for(int ky = 0; ky < cellH - 2; ky++)
-			{
-				res += "|";
-				for(int i = x0; i <= x1; i++)
-				{
-					for(int k = 0; k < cellW; k++)
-						res += Xtiles.contains(new GridPosition(i, j)) ? "X" : " ";
-					res += "|";
-				}
-				res += "\n";
-			}
-			res += "--+";
-			for(int i = x0; i <= x1; i++)
-			{
-				for(int k = 0; k < cellW; k++)
-					res += "-";
-				res += "+";
-			}
-			res += "\n";
-			
+			List<GridPosition> positions = new ArrayList<>();
+			for(WildlifeAgentData prey : preyAgents)
+				positions.add(prey.getPosition());
+			preyField.compute(positions);
+			preyVersion = getAgentStore().getVersion();
 		}
-		return res;
+		return preyField;
+	}
+	
+	/**
+	 * The distance field and the indexes of the agents are discarded as well, since the restored grid may have other
+	 * boundaries.
+	 */
+	@Override
+	protected void readCheckpoint(CheckpointReader in) throws IOException
+	{
+		super.readCheckpoint(in);
+		preyField = null;
+		preyVersion = -1;
+		predatorIndex = null;
+		preyIndex = null;
+	}
+	
+	/**
+	 * Agents are represented only by their type and ID, as they do not have an orientation.
+	 */
+	@Override
+	protected String getAgentLabel(GridAgentData agentData)
+	{
+		return agentData.getAgent().toString();
 	}
 	
 	// /**
@@ -1,13 +1,16 @@
 package hunting;
 
-import base.Agent;
+import base.RandomStream;
+import base.RandomizedAgent;
+import communication.AgentID;
+import communication.IdentifiedAgent;
 
 /**
  * Parent class for agents in the predator-prey scenario.
  * 
  * @author andreiolaru
  */
-public abstract class AbstractWildlifeAgent implements Agent
+public abstract class AbstractWildlifeAgent implements RandomizedAgent, IdentifiedAgent
 {
 	/**
 	 * Agent ID generator.
@@ -21,6 +24,15 @@ public abstract class AbstractWildlifeAgent implements Agent
 	 * The type of the agent.
 	 */
 	protected WildlifeAgentType	type;
+	/**
+	 * The source of the random choices of the agent, set by the environment.
+	 */
+	protected RandomStream		random	= new RandomStream();
+	/**
+	 * The ID given to the agent by the registry of its environment; <code>null</code> before the agent is added to an
+	 * environment.
+	 */
+	protected AgentID			agentID	= null;
 	
 	/**
 	 * Default constructor.
@@ -33,6 +45,31 @@ public abstract class AbstractWildlifeAgent implements Agent
 		type = agentType;
 	}
 	
+	@Override
+	public void setRandom(RandomStream agentRandom)
+	{
+		random = agentRandom;
+	}
+	
+	/**
+	 * @return the ID given to the agent by the registry of its environment, or <code>null</code> if the agent was not
+	 *         added to an environment.
+	 */
+	@Override
+	public AgentID getAgentID()
+	{
+		return agentID;
+	}
+	
+	/**
+	 * @param registeredID
+	 *            - the ID given to the agent by the registry of its environment.
+	 */
+	void setAgentID(AgentID registeredID)
+	{
+		agentID = registeredID;
+	}
+	
 	/**
 	 * @return the type of the agent.
 	 */
@@ -0,0 +1,317 @@
+package hunting;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import gridworld.GridAgentStore;
+
+/**
+ * Index of a subset of the agents of a {@link GridAgentStore} by their position, for proximity queries that do not scan
+ * all the agents.
+ * <p>
+ * The rectangle of the environment is divided in cells of one position, and each cell holds a bucket with the agents
+ * at that position, as a doubly linked list of handles; adding, removing and moving an agent take constant time and do
+ * not allocate. Agents outside the rectangle are kept in an extra bucket, which is checked by every query.
+ * <p>
+ * Agents are added explicitly, and removed explicitly or when they are removed from the store. Their moves are picked
+ * up from the store, as the index listens to its changes: each time an indexed agent moves, it is moved to the bucket
+ * of its new position, in constant time. Queries do not change the index, so they can be run in parallel while the
+ * store does not change. A query within a Manhattan distance <code>range</code> visits only the cells in the diamond
+ * of that radius.
+ *
+ * @author agent
+ */
+public class SpatialIndex
+{
+	/**
+	 * The cell of handles which are not in the index.
+	 */
+	protected static final int		NONE		= -1;
+	/**
+	 * The end of a bucket.
+	 */
+	protected static final int		END			= -1;
+	
+	/**
+	 * The store of the agents.
+	 */
+	protected final GridAgentStore	store;
+	/**
+	 * Minimum x coordinate.
+	 */
+	protected final int				x0;
+	/**
+	 * Minimum y coordinate.
+	 */
+	protected final int				y0;
+	/**
+	 * Number of columns.
+	 */
+	protected final int				width;
+	/**
+	 * Number of rows.
+	 */
+	protected final int				height;
+	/**
+	 * The first handle of each bucket, or {@link #END}. The bucket of the position (x, y) is at
+	 * <code>(x - x0) * height + (y - y0)</code>; the last bucket holds the agents outside the rectangle.
+	 */
+	protected final int[]			heads;
+	/**
+	 * The bucket of each handle, or {@link #NONE} if the agent is not in the index.
+	 */
+	protected int[]					cells		= new int[16];
+	/**
+	 * The next handle in the bucket of each handle, or {@link #END}.
+	 */
+	protected int[]					next		= new int[16];
+	/**
+	 * The previous handle in the bucket of each handle, or {@link #END}.
+	 */
+	protected int[]					previous	= new int[16];
+	/**
+	 * Number of agents in the index.
+	 */
+	protected int					size		= 0;
+	
+	/**
+	 * Creates an empty index for the agents of a store, covering the rectangle between the given coordinates
+	 * (inclusive). The index listens to the changes of the store.
+	 *
+	 * @param agentStore
+	 *            - the store.
+	 * @param minX
+	 *            - minimum x coordinate.
+	 * @param maxX
+	 *            - maximum x coordinate.
+	 * @param minY
+	 *            - minimum y coordinate.
+	 * @param maxY
+	 *            - maximum y coordinate.
+	 */
+	public SpatialIndex(GridAgentStore agentStore, int minX, int maxX, int minY, int maxY)
+	{
+		store = agentStore;
+		x0 = minX;
+		y0 = minY;
+		width = maxX - minX + 1;
+		height = maxY - minY + 1;
+		heads = new int[width * height + 1];
+		Arrays.fill(heads, END);
+		Arrays.fill(cells, NONE);
+		store.addChangeListener(this::agentChanged);
+	}
+	
+	/**
+	 * Adds an agent of the store to the index, at its current position.
+	 *
+	 * @param handle
+	 *            - the handle of the agent in the store.
+	 */
+	public void add(int handle)
+	{
+		if(handle >= cells.length)
+		{
+			int capacity = Math.max(handle + 1, cells.length * 2);
+			int old = cells.length;
+			cells = Arrays.copyOf(cells, capacity);
+			Arrays.fill(cells, old, capacity, NONE);
+			next = Arrays.copyOf(next, capacity);
+			previous = Arrays.copyOf(previous, capacity);
+		}
+		if(cells[handle] != NONE)
+			throw new IllegalStateException("Agent with handle " + handle + " is already in the index");
+		int index = store.indexOf(handle);
+		link(handle, cell(store.getX(index), store.getY(index)));
+		size++;
+	}
+	
+	/**
+	 * Removes an agent from the index. Agents removed from the store are also removed from the index, before their
+	 * handle can be given to another agent.
+	 *
+	 * @param handle
+	 *            - the handle of the agent in the store.
+	 * @return <code>true</code> if the agent was in the index.
+	 */
+	public boolean remove(int handle)
+	{
+		if(handle < 0 || handle >= cells.length || cells[handle] == NONE)
+			return false;
+		unlink(handle);
+		size--;
+		return true;
+	}
+	
+	/**
+	 * @return the number of agents in the index.
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Called by the store each time an agent is added, removed, or its entry changes. An indexed agent that moved is
+	 * moved to the bucket of its new position; an indexed agent that was removed from the store is removed from the
+	 * index.
+	 *
+	 * @param handle
+	 *            - the handle of the agent, or its complement if the agent was removed.
+	 */
+	protected void agentChanged(int handle)
+	{
+		if(handle < 0)
+		{
+			remove(~handle);
+			return;
+		}
+		if(handle >= cells.length || cells[handle] == NONE)
+			return;
+		int index = store.indexOf(handle);
+		int cell = cell(store.getX(index), store.getY(index));
+		if(cell != cells[handle])
+		{
+			unlink(handle);
+			link(handle, cell);
+		}
+	}
+	
+	/**
+	 * Calls the visitor for each agent in the index at a Manhattan distance of at most <code>range</code> from the
+	 * given position. Only the cells within that distance are visited, and nothing is allocated.
+	 * <p>
+	 * Agents are visited by column, from the lowest x to the highest, and by row within a column; agents at the same
+	 * position are visited in the reverse order of their arrival at that position. The index must not be changed by
+	 * the visitor.
+	 *
+	 * @param x
+	 *            - the x coordinate of the position.
+	 * @param y
+	 *            - the y coordinate of the position.
+	 * @param range
+	 *            - the maximum distance.
+	 * @param visitor
+	 *            - receives the handle of each agent.
+	 */
+	public void forEachWithin(int x, int y, int range, IntConsumer visitor)
+	{
+		int minX = Math.max(x - range, x0);
+		int maxX = Math.min(x + range, x0 + width - 1);
+		for(int cx = minX; cx <= maxX; cx++)
+		{
+			int rest = range - Math.abs(cx - x);
+			int minY = Math.max(y - rest, y0);
+			int maxY = Math.min(y + rest, y0 + height - 1);
+			int column = (cx - x0) * height - y0;
+			for(int cy = minY; cy <= maxY; cy++)
+				for(int handle = heads[column + cy]; handle != END; handle = next[handle])
+					visitor.accept(handle);
+		}
+		for(int handle = heads[heads.length - 1]; handle != END; handle = next[handle])
+		{
+			int index = store.indexOf(handle);
+			if(Math.abs(store.getX(index) - x) + Math.abs(store.getY(index) - y) <= range)
+				visitor.accept(handle);
+		}
+	}
+	
+	/**
+	 * Finds agents in the index at a Manhattan distance of at most <code>range</code> from the given position, in the
+	 * order of {@link #forEachWithin(int, int, int, IntConsumer)}, stopping after the given number of agents. Nothing is
+	 * allocated.
+	 *
+	 * @param x
+	 *            - the x coordinate of the position.
+	 * @param y
+	 *            - the y coordinate of the position.
+	 * @param range
+	 *            - the maximum distance.
+	 * @param found
+	 *            - array receiving the handles of the agents that were found; may be <code>null</code> if only the
+	 *            number of agents is needed.
+	 * @param limit
+	 *            - the number of agents after which the search stops; at most the length of <code>found</code>.
+	 * @return the number of agents found, at most <code>limit</code>.
+	 */
+	public int findWithin(int x, int y, int range, int[] found, int limit)
+	{
+		int count = 0;
+		int minX = Math.max(x - range, x0);
+		int maxX = Math.min(x + range, x0 + width - 1);
+		for(int cx = minX; cx <= maxX && count < limit; cx++)
+		{
+			int rest = range - Math.abs(cx - x);
+			int minY = Math.max(y - rest, y0);
+			int maxY = Math.min(y + rest, y0 + height - 1);
+			int column = (cx - x0) * height - y0;
+			for(int cy = minY; cy <= maxY && count < limit; cy++)
+				for(int handle = heads[column + cy]; handle != END && count < limit; handle = next[handle])
+				{
+					if(found != null)
+						found[count] = handle;
+					count++;
+				}
+		}
+		for(int handle = heads[heads.length - 1]; handle != END && count < limit; handle = next[handle])
+		{
+			int index = store.indexOf(handle);
+			if(Math.abs(store.getX(index) - x) + Math.abs(store.getY(index) - y) <= range)
+			{
+				if(found != null)
+					found[count] = handle;
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @param x
+	 *            - the x coordinate.
+	 * @param y
+	 *            - the y coordinate.
+	 * @return the bucket of the position.
+	 */
+	protected int cell(int x, int y)
+	{
+		if(x - x0 < 0 || x - x0 >= width || y - y0 < 0 || y - y0 >= height)
+			return heads.length - 1;
+		return (x - x0) * height + (y - y0);
+	}
+	
+	/**
+	 * Adds a handle at the head of a bucket.
+	 *
+	 * @param handle
+	 *            - the handle.
+	 * @param cell
+	 *            - the bucket.
+	 */
+	protected void link(int handle, int cell)
+	{
+		cells[handle] = cell;
+		previous[handle] = END;
+		next[handle] = heads[cell];
+		if(heads[cell] != END)
+			previous[heads[cell]] = handle;
+		heads[cell] = handle;
+	}
+	
+	/**
+	 * Removes a handle from its bucket.
+	 *
+	 * @param handle
+	 *            - the handle.
+	 */
+	protected void unlink(int handle)
+	{
+		if(previous[handle] != END)
+			next[previous[handle]] = next[handle];
+		else
+			heads[cells[handle]] = next[handle];
+		if(next[handle] != END)
+			previous[next[handle]] = previous[handle];
+		cells[handle] = NONE;
+	}
+}
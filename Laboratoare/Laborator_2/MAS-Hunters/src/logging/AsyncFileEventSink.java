@@ -0,0 +1,222 @@
+package logging;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sink that writes events to a file, on a separate thread. Emitted events are placed in a bounded ring buffer, from
+ * which the writer thread takes them in batches, so the simulation never waits for the file. The subject and detail of
+ * each event are turned into text when it is emitted (see {@link SimulationEvent#detach()}), as the agents change while
+ * the event waits in the buffer.
+ * <p>
+ * If the buffer is full, new events are dropped, and counted. The sink must be closed, in order to write the remaining
+ * events and close the file.
+ *
+ * @author agent
+ */
+public class AsyncFileEventSink implements EventSink, Closeable
+{
+	/**
+	 * Default capacity of the buffer.
+	 */
+	public static final int				DEFAULT_CAPACITY	= 1 << 16;
+	
+	/**
+	 * The minimum level of written events.
+	 */
+	protected final EventLevel			threshold;
+	/**
+	 * The ring buffer. Its length is a power of 2.
+	 */
+	protected final SimulationEvent[]	buffer;
+	/**
+	 * Mask for the index in the buffer.
+	 */
+	protected final int					mask;
+	/**
+	 * Number of events placed in the buffer since the creation of the sink. Guarded by the sink.
+	 */
+	protected long						head				= 0;
+	/**
+	 * Number of events taken from the buffer since the creation of the sink. Guarded by the sink.
+	 */
+	protected long						tail				= 0;
+	/**
+	 * <code>true</code> after the sink is closed. Guarded by the sink.
+	 */
+	protected boolean					closed				= false;
+	/**
+	 * Number of events dropped because the buffer was full.
+	 */
+	protected final AtomicLong			dropped				= new AtomicLong();
+	/**
+	 * The output.
+	 */
+	protected final Writer				out;
+	/**
+	 * The thread writing events to the file.
+	 */
+	protected final Thread				writer;
+	/**
+	 * The first error that occurred while writing, if any.
+	 */
+	protected volatile IOException		error				= null;
+	
+	/**
+	 * Creates a sink with the default capacity.
+	 *
+	 * @param file
+	 *            - the file to write to; it is replaced if it exists.
+	 * @param minimumLevel
+	 *            - the minimum level of written events.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public AsyncFileEventSink(Path file, EventLevel minimumLevel) throws IOException
+	{
+		this(file, minimumLevel, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param file
+	 *            - the file to write to; it is replaced if it exists.
+	 * @param minimumLevel
+	 *            - the minimum level of written events.
+	 * @param capacity
+	 *            - the number of events that can wait to be written; rounded up to a power of 2.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public AsyncFileEventSink(Path file, EventLevel minimumLevel, int capacity) throws IOException
+	{
+		threshold = minimumLevel;
+		buffer = new SimulationEvent[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1)];
+		mask = buffer.length - 1;
+		out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8));
+		writer = new Thread(this::writeEvents, "event-writer-" + file.getFileName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	@Override
+	public boolean isEnabled(EventLevel level)
+	{
+		return level.compareTo(threshold) >= 0 && level != EventLevel.OFF;
+	}
+	
+	@Override
+	public void emit(SimulationEvent event)
+	{
+		SimulationEvent detached = event.detach();
+		synchronized(this)
+		{
+			if(!closed && head - tail < buffer.length)
+			{
+				boolean wasEmpty = head == tail;
+				buffer[(int) head & mask] = detached;
+				head++;
+				if(wasEmpty)
+					notifyAll();
+				return;
+			}
+		}
+		dropped.incrementAndGet();
+	}
+	
+	/**
+	 * @return the number of events dropped because the buffer was full, or because they were emitted after closing.
+	 */
+	public long getDropped()
+	{
+		return dropped.get();
+	}
+	
+	/**
+	 * Body of the writer thread: takes all available events from the buffer and writes them, until the sink is closed
+	 * and the buffer is empty. The file is flushed whenever the buffer becomes empty.
+	 */
+	protected void writeEvents()
+	{
+		SimulationEvent[] batch = new SimulationEvent[buffer.length];
+		while(true)
+		{
+			int n = 0;
+			synchronized(this)
+			{
+				while(head == tail && !closed)
+					try
+					{
+						wait();
+					} catch(InterruptedException e)
+					{
+						closed = true;
+					}
+				if(head == tail)
+					break;
+				for(; tail < head; tail++, n++)
+				{
+					batch[n] = buffer[(int) tail & mask];
+					buffer[(int) tail & mask] = null;
+				}
+			}
+			try
+			{
+				for(int i = 0; i < n; i++)
+				{
+					out.write(batch[i].getLevel().toString());
+					out.write('\t');
+					out.write(batch[i].getType().toString());
+					out.write('\t');
+					out.write(batch[i].toString());
+					out.write('\n');
+					batch[i] = null;
+				}
+				out.flush();
+			} catch(IOException e)
+			{
+				if(error == null)
+					error = e;
+			}
+		}
+		try
+		{
+			out.close();
+		} catch(IOException e)
+		{
+			if(error == null)
+				error = e;
+		}
+	}
+	
+	/**
+	 * Writes the remaining events and closes the file. Events emitted afterwards are dropped.
+	 *
+	 * @throws IOException
+	 *             if an error occurred while writing events.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized(this)
+		{
+			closed = true;
+			notifyAll();
+		}
+		try
+		{
+			writer.join();
+		} catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if(error != null)
+			throw error;
+	}
+}
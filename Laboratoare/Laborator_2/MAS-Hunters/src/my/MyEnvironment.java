@@ -2,20 +2,25 @@ package my;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 
 import base.Action;
 import base.Agent;
 import base.Perceptions;
+import base.RandomStream;
 import communication.AgentID;
 import communication.AgentMessage;
+import communication.MessageBus;
+import communication.SocialAction;
 import gridworld.GridOrientation;
 import gridworld.GridPosition;
 import hunting.AbstractHuntingEnvironment;
+import hunting.WildlifeAgentType;
+import logging.Events;
+import logging.SimulationEvent.EventType;
 
 /**
  * Your implementation of the environment in which cleaner agents work.
@@ -168,9 +173,19 @@ public class MyEnvironment extends AbstractHuntingEnvironment
 	}
 	
 	/**
-	 * Messages sent in one step and delivered in the next.
+	 * The topic of the channel of which all predators are members, for messages to the whole team.
 	 */
-	Set<AgentMessage> messageBox = new HashSet<>();
+	public static final String PREDATOR_TEAM = "predators";
+	
+	/**
+	 * Messages sent in one step and delivered in the next. All agents have a mailbox.
+	 */
+	protected MessageBus messageBus = new MessageBus();
+	
+	/**
+	 * The seed from which the environment was created.
+	 */
+	protected final long seed;
 	
 	/**
 	 * Default constructor. This should call one of the {@link #initialize} methods offered by the super class.
@@ -186,10 +201,30 @@ public class MyEnvironment extends AbstractHuntingEnvironment
 	 */
 	public MyEnvironment(int w, int h, int numPredators, int numPrey)
 	{
-		long seed = System.currentTimeMillis(); // new random experiment
-		// long seed = 42L; // existing random experiment
+		this(System.currentTimeMillis(), w, h, numPredators, numPrey); // new random experiment
+		// this(42L, w, h, numPredators, numPrey); // existing random experiment
 		System.out.println("seed: [" + seed + "]");
-		Random rand = new Random(seed);
+	}
+	
+	/**
+	 * Creates the environment for the given seed. The same seed always produces the same map, agent positions and
+	 * random choices of the agents.
+	 * 
+	 * @param randomSeed
+	 *            - the seed.
+	 * @param w
+	 *            - map width.
+	 * @param h
+	 *            - map height.
+	 * @param numPrey
+	 *            - number of initial Prey agents.
+	 * @param numPredators
+	 *            - number of Predator agents.
+	 */
+	public MyEnvironment(long randomSeed, int w, int h, int numPredators, int numPrey)
+	{
+		seed = randomSeed;
+		random = new RandomStream(seed);
 		
 		List<Agent> predators = new ArrayList<>();
 		List<Agent> prey = new ArrayList<>();
@@ -199,7 +234,42 @@ public class MyEnvironment extends AbstractHuntingEnvironment
 		for(int i = 0; i < numPrey; i++)
 			prey.add(new MyPrey());
 		
-		super.initialize(w, h, predators, prey, rand);
+		super.initialize(w, h, predators, prey, random.split());
+		// messages with a limited range reach the agents found around the sender by the spatial indexes
+		messageBus.setProximityQuery(this::forEachAgentWithin);
+	}
+	
+	/**
+	 * Adds the agent, and gives it a mailbox; predators also join the {@link #PREDATOR_TEAM} channel. This is done for
+	 * the agents added by {@link #initialize} as well as for those added later.
+	 */
+	@Override
+	public void addWildlifeAgent(WildlifeAgentData agentData)
+	{
+		super.addWildlifeAgent(agentData);
+		messageBus.register(agentData.getAgentID());
+		if(agentData.getAgentType() == WildlifeAgentType.PREDATOR)
+			messageBus.getChannel(PREDATOR_TEAM).join(agentData.getAgentID());
+	}
+	
+	/**
+	 * @return the bus delivering the messages between agents, with the counts of sent and dropped messages.
+	 */
+	public MessageBus getMessageBus()
+	{
+		return messageBus;
+	}
+	
+	/**
+	 * Sends the messages of the social action of an agent; they are delivered in the next step.
+	 * 
+	 * @param action
+	 *            - the action.
+	 */
+	protected void sendMessages(SocialAction action)
+	{
+		for(AgentMessage message : action.getOutgoingMessages())
+			messageBus.send(message);
 	}
 	
 	@Override
@@ -211,15 +281,15 @@ public class MyEnvironment extends AbstractHuntingEnvironment
 		// STAGE 1: generate perceptions for all agents, based on the state of the environment at the beginning of this
 		// step.
 		
-		Map<WildlifeAgentData, MyPerceptions> agentPerceptions = new HashMap<>();
+		Map<WildlifeAgentData, MyPerceptions> agentPerceptions = new LinkedHashMap<>();
 		
 		// Create perceptions for prey agents
 		for(WildlifeAgentData preyAg : getPreyAgents())
 		{
 			Set<GridPosition> nearbyObstacles = getNearbyObstacles(preyAg.getPosition(), my.MyTester.PREY_RANGE);
 			Map<AgentID, GridPosition> predatorPositions = new HashMap<>();
-			for(WildlifeAgentData pred : getNearbyPredators(preyAg.getPosition(), my.MyTester.PREY_RANGE, null))
-				predatorPositions.put(AgentID.getAgentID(pred.getAgent()), pred.getPosition());
+			forEachNearbyPredator(preyAg.getPosition().getX(), preyAg.getPosition().getY(), my.MyTester.PREY_RANGE,
+					pred -> predatorPositions.put(pred.getAgentID(), pred.getPosition()));
 			agentPerceptions.put(preyAg,
 					new MyPerceptions(preyAg.getPosition(), nearbyObstacles, predatorPositions, null));
 		}
@@ -230,7 +300,7 @@ public class MyEnvironment extends AbstractHuntingEnvironment
 		
 		// STAGE 2: call response for each agent, in order to obtain desired actions
 		
-		Map<GridAgentData, MyAction> agentActions = new HashMap<>();
+		Map<GridAgentData, MyAction> agentActions = new LinkedHashMap<>();
 		/*
 		 * TODO: Get actions for all agents.
 		 */
@@ -241,16 +311,18 @@ public class MyEnvironment extends AbstractHuntingEnvironment
 		// useful predator agent printout:
 		// System.out.println("Agent " + predAgent.getAgent().toString() + " at " + predAgent.getPosition() + " wants "
 		// + predAction + " detects prey " + preyPositions + " and predators " + predatorPositions
-		// + " and receives messages " + AgentMessage.filterMessagesFor(messageBox, predAgent.getAgent()));
+		// + " and receives messages " + messageBus.getMessages(predAgent.getAgentID()));
 		
 		// STAGE 3: apply the agents' actions in the environment
 		
 		// all actions are applied
 		for(GridAgentData agentData : agentActions.keySet())
 			if(agentActions.get(agentData) == null)
-				System.out.println("Agent " + agentData.getAgent().toString() + " did not opt for any action.");
+				Events.emit(EventType.NO_ACTION, agentData.getAgent(), agentData.getPosition().getX(),
+						agentData.getPosition().getY(), null);
 			else
 			{
+				recordAction(agentData.getHandle(), agentActions.get(agentData).ordinal());
 				GridPosition newPosition = null;
 				switch(agentActions.get(agentData))
 				{
@@ -270,12 +342,23 @@ public class MyEnvironment extends AbstractHuntingEnvironment
 					break;
 				}
 				if(!getXtiles().contains(newPosition))
+				{
 					agentData.setPosition(newPosition);
+					Events.emit(EventType.MOVED, agentData.getAgent(), newPosition.getX(), newPosition.getY(), null);
+				}
 				else
-					System.out.println("Agent " + agentData.getAgent().toString() + " tried to go through a wall.");
+					Events.emit(EventType.WALL_BUMP, agentData.getAgent(), newPosition.getX(), newPosition.getY(),
+							null);
 			}
 		
 		// see if any of the prey died by being cornered and remove it from the grid
 		removeDeadPrey();
+		
+		// messages sent in this step are delivered in the next one
+		messageBus.deliver();
+		
+		// the step ends; its changes are recorded, if the environment is being recorded
+		time++;
+		recordStep();
 	}
 }
\ No newline at end of file
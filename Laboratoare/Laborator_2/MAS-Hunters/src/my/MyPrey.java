@@ -128,7 +128,7 @@ public class MyPrey extends AbstractWildlifeAgent
 		}
 		
 		if(!probMap.isEmpty())
-			return probMap.choice();
-		return availableMoves.choice();
+			return probMap.choice(random);
+		return availableMoves.choice(random);
 	}
 }
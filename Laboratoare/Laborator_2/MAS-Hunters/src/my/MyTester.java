@@ -1,5 +1,8 @@
 package my;
 
+import logging.ConsoleEventSink;
+import logging.EventLevel;
+import logging.Events;
 import tester.Tester;
 
 /**
@@ -47,6 +50,8 @@ public class MyTester extends Tester
 	 */
 	public MyTester()
 	{
+		Events.setSink(new ConsoleEventSink(EventLevel.INFO));
+		
 		// create environment instance
 		env = new MyEnvironment(MAP_WIDTH, MAP_HEIGHT, NUM_PREDATORS, NUM_PREY);
 		
@@ -4,8 +4,10 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
+import base.RandomStream;
 import my.MyTester;
 
 /**
@@ -61,11 +63,13 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 		}
 		
 		/**
+		 * @param random
+		 *            - the generator to use.
 		 * @return a randomly picked action, according to the probability distribution.
 		 */
-		static DynamicAction pick()
+		static DynamicAction pick(Random random)
 		{
-			double r = Math.random();
+			double r = random.nextDouble();
 			double countProb = 0.0;
 			for(DynamicAction act : DynamicAction.values())
 			{
@@ -86,14 +90,43 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 	 * The 'stash'.
 	 */
 	Set<Block>						stash	= new HashSet<>();
+	/**
+	 * The source of the random dynamic actions.
+	 */
+	protected RandomStream			random;
 	
 	/**
 	 * @param world
 	 *            - the initial state of the world.
 	 */
 	public DynamicEnvironment(BlocksWorld world)
+	{
+		this(world, new RandomStream());
+	}
+	
+	/**
+	 * Creates an environment whose dynamic actions are reproducible.
+	 * 
+	 * @param world
+	 *            - the initial state of the world.
+	 * @param seed
+	 *            - the seed of the random dynamic actions.
+	 */
+	public DynamicEnvironment(BlocksWorld world, long seed)
+	{
+		this(world, new RandomStream(seed));
+	}
+	
+	/**
+	 * @param world
+	 *            - the initial state of the world.
+	 * @param randomStream
+	 *            - the source of the random dynamic actions.
+	 */
+	public DynamicEnvironment(BlocksWorld world, RandomStream randomStream)
 	{
 		super(world);
+		random = randomStream;
 	}
 	
 	/**
@@ -102,9 +135,9 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 	 */
 	protected void performDynamicAction()
 	{
-		if(Math.random() < MyTester.DYNAMICITY)
+		if(random.nextDouble() < MyTester.DYNAMICITY)
 		{
-			DynamicAction dyna = DynamicAction.pick();
+			DynamicAction dyna = DynamicAction.pick(random);
 			Set<Stack> observedStacks = new HashSet<>();
 			for(AgentData ag : getAgents())
 				observedStacks.add(worldstate.getStacks().get(stations.indexOf(ag.getStation())));
@@ -215,9 +248,9 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 	 *            - the collection.
 	 * @return the chosen element.
 	 */
-	protected static <T> T pickElement(Collection<T> c)
+	protected <T> T pickElement(Collection<T> c)
 	{
-		int num = (int) (Math.random() * c.size());
+		int num = random.nextInt(c.size());
 		for(T t : c)
 			if(--num < 0)
 				return t;